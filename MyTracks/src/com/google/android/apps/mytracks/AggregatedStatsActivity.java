@@ -16,8 +16,9 @@
 
 package com.google.android.apps.mytracks;
 
+import com.google.android.apps.mytracks.content.AggregatedStatistics;
+import com.google.android.apps.mytracks.content.AggregatedStatisticsColumns;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.StatsUtils;
@@ -49,17 +50,12 @@ public class AggregatedStatsActivity extends AbstractMyTracksActivity {
 
   /**
    * Gets the aggregated trip statistics for all the recorded tracks or null if
-   * there is no track.
+   * there is no track. Reads the one row of the rollup maintained by the
+   * content provider, however many tracks there are.
    */
   private TripStatistics getTripStatistics() {
-    List<Track> tracks = MyTracksProviderUtils.Factory.get(this).getAllTracks();
-    TripStatistics tripStatistics = null;
-    if (!tracks.isEmpty()) {
-      tripStatistics = new TripStatistics(tracks.iterator().next().getTripStatistics());
-      for (int i = 1; i < tracks.size(); i++) {
-        tripStatistics.merge(tracks.get(i).getTripStatistics());
-      }
-    }
-    return tripStatistics;
+    List<AggregatedStatistics> aggregatedStatistics = MyTracksProviderUtils.Factory.get(this)
+        .getAggregatedStatistics(AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L);
+    return aggregatedStatistics.isEmpty() ? null : aggregatedStatistics.get(0).getTripStatistics();
   }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+/**
+ * The data points of a chart, stored as one array of x values and one array of
+ * values per series, with a bitset of the valid values of each series.
+ * <p>
+ * The arrays of a series are only allocated once the series has a valid
+ * value, so the series without data, e.g., the sensor series of a track
+ * without sensors, take no memory.
+ */
+public class ChartData {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final int numberOfSeries;
+  private final double[][] values;
+  private final long[][] validBits;
+  private final int[] firstValidIndexes;
+  private final int[] lastValidIndexes;
+  private double[] xs = new double[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Constructor.
+   *
+   * @param numberOfSeries the number of series
+   */
+  public ChartData(int numberOfSeries) {
+    this.numberOfSeries = numberOfSeries;
+    values = new double[numberOfSeries][];
+    validBits = new long[numberOfSeries][];
+    firstValidIndexes = new int[numberOfSeries];
+    lastValidIndexes = new int[numberOfSeries];
+    clear();
+  }
+
+  /**
+   * Gets the number of series.
+   */
+  public int getNumberOfSeries() {
+    return numberOfSeries;
+  }
+
+  /**
+   * Gets the number of data points.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if there are no data points.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Clears the data points. Keeps the allocated arrays.
+   */
+  public void clear() {
+    for (int i = 0; i < numberOfSeries; i++) {
+      if (validBits[i] != null) {
+        int words = (size + 63) >> 6;
+        for (int j = 0; j < words; j++) {
+          validBits[i][j] = 0L;
+        }
+      }
+      firstValidIndexes[i] = -1;
+      lastValidIndexes[i] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Adds a data point.
+   *
+   * @param dataPoint the x value followed by the value of each series, NaN for
+   *          no value
+   */
+  public void add(double[] dataPoint) {
+    ensureCapacity(size + 1);
+    xs[size] = dataPoint[0];
+    for (int i = 0; i < numberOfSeries; i++) {
+      double value = dataPoint[i + 1];
+      if (!Double.isNaN(value)) {
+        setValue(i, size, value);
+      }
+    }
+    size++;
+  }
+
+  /**
+   * Adds all the data points of another chart data.
+   *
+   * @param chartData the chart data
+   */
+  public void addAll(ChartData chartData) {
+    int count = chartData.size;
+    ensureCapacity(size + count);
+    System.arraycopy(chartData.xs, 0, xs, size, count);
+    for (int i = 0; i < numberOfSeries; i++) {
+      int first = chartData.firstValidIndexes[i];
+      if (first == -1) {
+        continue;
+      }
+      int last = chartData.lastValidIndexes[i];
+      for (int j = first; j <= last; j++) {
+        if (chartData.isValid(i, j)) {
+          setValue(i, size + j, chartData.values[i][j]);
+        }
+      }
+    }
+    size += count;
+  }
+
+  /**
+   * Gets the x value of a data point.
+   *
+   * @param index the data point index
+   */
+  public double getX(int index) {
+    return xs[index];
+  }
+
+  /**
+   * Returns true if a data point has a value for a series.
+   *
+   * @param series the series index
+   * @param index the data point index
+   */
+  public boolean isValid(int series, int index) {
+    long[] bits = validBits[series];
+    return bits != null && index < size && (bits[index >> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Gets the value of a series at a data point. Returns NaN if the data point
+   * has no value for the series.
+   *
+   * @param series the series index
+   * @param index the data point index
+   */
+  public double getValue(int series, int index) {
+    return isValid(series, index) ? values[series][index] : Double.NaN;
+  }
+
+  /**
+   * Gets the index of the first data point with a value for a series. Returns
+   * -1 if none.
+   *
+   * @param series the series index
+   */
+  public int getFirstValidIndex(int series) {
+    return firstValidIndexes[series];
+  }
+
+  /**
+   * Gets the index of the last data point with a value for a series. Returns -1
+   * if none.
+   *
+   * @param series the series index
+   */
+  public int getLastValidIndex(int series) {
+    return lastValidIndexes[series];
+  }
+
+  /**
+   * Sets the value of a series at a data point.
+   *
+   * @param series the series index
+   * @param index the data point index
+   * @param value the value
+   */
+  private void setValue(int series, int index, double value) {
+    if (values[series] == null) {
+      values[series] = new double[xs.length];
+      validBits[series] = new long[(xs.length + 63) >> 6];
+    }
+    values[series][index] = value;
+    validBits[series][index >> 6] |= 1L << index;
+    if (firstValidIndexes[series] == -1) {
+      firstValidIndexes[series] = index;
+    }
+    lastValidIndexes[series] = index;
+  }
+
+  /**
+   * Ensures the arrays can hold a number of data points.
+   *
+   * @param capacity the number of data points
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity <= xs.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, xs.length * 2);
+    double[] newXs = new double[newCapacity];
+    System.arraycopy(xs, 0, newXs, 0, size);
+    xs = newXs;
+    for (int i = 0; i < numberOfSeries; i++) {
+      if (values[i] == null) {
+        continue;
+      }
+      double[] newValues = new double[newCapacity];
+      System.arraycopy(values[i], 0, newValues, 0, size);
+      values[i] = newValues;
+      long[] newValidBits = new long[(newCapacity + 63) >> 6];
+      System.arraycopy(validBits[i], 0, newValidBits, 0, validBits[i].length);
+      validBits[i] = newValidBits;
+    }
+  }
+}
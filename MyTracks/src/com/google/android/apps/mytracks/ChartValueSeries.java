@@ -21,6 +21,7 @@ import com.google.common.annotations.VisibleForTesting;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
@@ -30,6 +31,15 @@ import java.text.NumberFormat;
 
 /**
  * This class encapsulates the meta data for one series of the chart values.
+ * <p>
+ * The path of the series is kept in value coordinates, so new values are
+ * appended to it without redrawing the existing ones. It is transformed to
+ * view coordinates, and closed to the bottom of the chart, only when drawn
+ * after the values or the transform changed.
+ * <p>
+ * With a bucket width, about the width of a pixel column, the path only has
+ * the first, min, max and last values of each bucket, so drawing a long track
+ * takes about the same work as drawing the width of the chart.
  * 
  * @author Sandor Dornbush
  */
@@ -49,12 +59,40 @@ public class ChartValueSeries {
   private final ExtremityMonitor extremityMonitor;
   private final NumberFormat numberFormat;
   private final Path path;
+  private final Path drawnPath;
+  private final Matrix pathTransform;
+  private final float[] corners = new float[4];
+  private final float[] bucketVertices = new float[8];
   
   private int interval = 1;
   private int minMarkerValue = 0;
   private int maxMarkerValue = interval * ChartView.Y_AXIS_INTERVALS;
   private boolean enabled = true;
 
+  // The path state
+  private double pathBucketWidth = 0.0;
+  private boolean hasPathPoint = false;
+  private boolean pathStarted = false;
+  private float firstPathX;
+  private float firstPathY;
+  private float lastPathX;
+  private float pathBottom;
+  private boolean drawnPathValid = false;
+
+  // The values of the current bucket, not yet in the path
+  private long bucketIndex;
+  private int bucketSize = 0;
+  private float bucketFirstX;
+  private float bucketFirstY;
+  private float bucketMinX;
+  private float bucketMinY;
+  private int bucketMinPosition;
+  private float bucketMaxX;
+  private float bucketMaxY;
+  private int bucketMaxPosition;
+  private float bucketLastX;
+  private float bucketLastY;
+
   /**
    * Constructor.
    * 
@@ -102,6 +140,8 @@ public class ChartValueSeries {
     extremityMonitor = new ExtremityMonitor();
     numberFormat = NumberFormat.getIntegerInstance();
     path = new Path();
+    drawnPath = new Path();
+    pathTransform = new Matrix();
   }
 
   /**
@@ -137,10 +177,143 @@ public class ChartValueSeries {
   }
 
   /**
-   * Gets the path.
+   * Appends a point to the path.
+   * 
+   * @param x the x value
+   * @param value the series value
    */
-  public Path getPath() {
-    return path;
+  public void addPathPoint(double x, double value) {
+    float pointX = (float) x;
+    float pointY = (float) value;
+    if (!hasPathPoint) {
+      hasPathPoint = true;
+      firstPathX = pointX;
+      firstPathY = pointY;
+    }
+    lastPathX = pointX;
+    drawnPathValid = false;
+
+    if (pathBucketWidth <= 0.0) {
+      addPathVertex(pointX, pointY);
+      return;
+    }
+    long index = (long) Math.floor(x / pathBucketWidth);
+    if (bucketSize > 0 && index != bucketIndex) {
+      flushBucket();
+    }
+    if (bucketSize == 0) {
+      bucketIndex = index;
+      bucketFirstX = bucketMinX = bucketMaxX = pointX;
+      bucketFirstY = bucketMinY = bucketMaxY = pointY;
+      bucketMinPosition = bucketMaxPosition = 0;
+    } else {
+      if (pointY < bucketMinY) {
+        bucketMinX = pointX;
+        bucketMinY = pointY;
+        bucketMinPosition = bucketSize;
+      }
+      if (pointY > bucketMaxY) {
+        bucketMaxX = pointX;
+        bucketMaxY = pointY;
+        bucketMaxPosition = bucketSize;
+      }
+    }
+    bucketLastX = pointX;
+    bucketLastY = pointY;
+    bucketSize++;
+  }
+
+  /**
+   * Clears the path.
+   * 
+   * @param bucketWidth the width of the buckets in x values, 0 to keep every
+   *          value
+   */
+  public void resetPath(double bucketWidth) {
+    path.reset();
+    pathBucketWidth = bucketWidth;
+    hasPathPoint = false;
+    pathStarted = false;
+    bucketSize = 0;
+    drawnPathValid = false;
+  }
+
+  /**
+   * Gets the bucket width of the path.
+   */
+  public double getPathBucketWidth() {
+    return pathBucketWidth;
+  }
+
+  /**
+   * Adds a vertex to the path.
+   * 
+   * @param x the x value
+   * @param y the y value
+   */
+  private void addPathVertex(float x, float y) {
+    if (!pathStarted) {
+      pathStarted = true;
+      path.moveTo(x, y);
+    } else {
+      path.lineTo(x, y);
+    }
+  }
+
+  /**
+   * Adds the vertices of the current bucket to the path.
+   */
+  private void flushBucket() {
+    int count = getBucketVertices(bucketVertices);
+    for (int i = 0; i < count; i += 2) {
+      addPathVertex(bucketVertices[i], bucketVertices[i + 1]);
+    }
+    bucketSize = 0;
+  }
+
+  /**
+   * Gets the vertices of the current bucket, in order: the first, min, max and
+   * last values, without duplicates. Returns the number of coordinates.
+   * 
+   * @param vertices the array to fill with x and y coordinates
+   */
+  private int getBucketVertices(float[] vertices) {
+    if (bucketSize == 0) {
+      return 0;
+    }
+    int count = 0;
+    vertices[count++] = bucketFirstX;
+    vertices[count++] = bucketFirstY;
+    int last = bucketSize - 1;
+    boolean minFirst = bucketMinPosition <= bucketMaxPosition;
+    for (int i = 0; i < 2; i++) {
+      boolean isMin = (i == 0) == minFirst;
+      int position = isMin ? bucketMinPosition : bucketMaxPosition;
+      if (position == 0 || position == last || (i == 1 && bucketMinPosition == bucketMaxPosition)) {
+        continue;
+      }
+      vertices[count++] = isMin ? bucketMinX : bucketMaxX;
+      vertices[count++] = isMin ? bucketMinY : bucketMaxY;
+    }
+    if (last > 0) {
+      vertices[count++] = bucketLastX;
+      vertices[count++] = bucketLastY;
+    }
+    return count;
+  }
+
+  /**
+   * Sets the transform of the path from values to view coordinates.
+   * 
+   * @param matrix the transform
+   * @param bottom the bottom of the chart, in view coordinates
+   */
+  public void setPathTransform(Matrix matrix, float bottom) {
+    if (!pathTransform.equals(matrix) || pathBottom != bottom) {
+      pathTransform.set(matrix);
+      pathBottom = bottom;
+      drawnPathValid = false;
+    }
   }
 
   /**
@@ -149,8 +322,42 @@ public class ChartValueSeries {
    * @param canvas the canvas
    */
   public void drawPath(Canvas canvas) {
-    canvas.drawPath(path, fillPaint);
-    canvas.drawPath(path, strokePaint);
+    if (!drawnPathValid) {
+      updateDrawnPath();
+    }
+    canvas.drawPath(drawnPath, fillPaint);
+    canvas.drawPath(drawnPath, strokePaint);
+  }
+
+  /**
+   * Updates the drawn path from the path, closing it to the bottom of the
+   * chart.
+   */
+  private void updateDrawnPath() {
+    path.transform(pathTransform, drawnPath);
+    int count = getBucketVertices(bucketVertices);
+    pathTransform.mapPoints(bucketVertices, 0, bucketVertices, 0, count / 2);
+    for (int i = 0; i < count; i += 2) {
+      if (i == 0 && !pathStarted) {
+        drawnPath.moveTo(bucketVertices[i], bucketVertices[i + 1]);
+      } else {
+        drawnPath.lineTo(bucketVertices[i], bucketVertices[i + 1]);
+      }
+    }
+    if (hasPathPoint) {
+      corners[0] = firstPathX;
+      corners[1] = firstPathY;
+      corners[2] = lastPathX;
+      corners[3] = 0f;
+      pathTransform.mapPoints(corners);
+      // Bottom right corner
+      drawnPath.lineTo(corners[2], pathBottom);
+      // Bottom left corner
+      drawnPath.lineTo(corners[0], pathBottom);
+      // Top left corner
+      drawnPath.lineTo(corners[0], corners[1]);
+    }
+    drawnPathValid = true;
   }
 
   /**
@@ -30,10 +30,10 @@ import android.content.Intent;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
-import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.view.MotionEvent;
@@ -83,10 +83,13 @@ public class ChartView extends View {
   private static final int Y_AXIS_OFFSET = 16;
 
   private final ChartValueSeries[] series = new ChartValueSeries[NUM_SERIES];
-  private final ArrayList<double[]> chartData = new ArrayList<double[]>();
+  private final ChartData chartData = new ChartData(NUM_SERIES);
   private final ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
   private final ExtremityMonitor xExtremityMonitor = new ExtremityMonitor();
+  private final Matrix pathTransform = new Matrix();
   private double maxX = 1.0;
+  // The number of data points in the series paths
+  private int pathSize = 0;
 
   private final Paint axisPaint;
   private final Paint xAxisMarkerPaint;
@@ -269,24 +272,26 @@ public class ChartView extends View {
   }
 
   /**
-   * Adds data points.
+   * Adds data points. Only appends the new data points to the series paths,
+   * unless the bucket width of the paths changes.
    * 
-   * @param dataPoints an array of data points to be added
+   * @param dataPoints the data points to be added
    */
-  public void addDataPoints(ArrayList<double[]> dataPoints) {
+  public void addDataPoints(ChartData dataPoints) {
     synchronized (chartData) {
       chartData.addAll(dataPoints);
       for (int i = 0; i < dataPoints.size(); i++) {
-        double[] dataPoint = dataPoints.get(i);
-        xExtremityMonitor.update(dataPoint[0]);
-        for (int j = 0; j < series.length; j++) {
-          if (!Double.isNaN(dataPoint[j + 1])) {
-            series[j].update(dataPoint[j + 1]);
+        xExtremityMonitor.update(dataPoints.getX(i));
+      }
+      for (int j = 0; j < series.length; j++) {
+        int last = dataPoints.getLastValidIndex(j);
+        for (int i = dataPoints.getFirstValidIndex(j); i != -1 && i <= last; i++) {
+          if (dataPoints.isValid(j, i)) {
+            series[j].update(dataPoints.getValue(j, i));
           }
         }
       }
       updateDimensions();
-      updatePaths();
     }
   }
 
@@ -297,6 +302,10 @@ public class ChartView extends View {
     synchronized (chartData) {
       chartData.clear();
       xExtremityMonitor.reset();
+      for (ChartValueSeries chartValueSeries : series) {
+        chartValueSeries.resetPath(0.0);
+      }
+      pathSize = 0;
       zoomLevel = 1;
       updateDimensions();
     }
@@ -349,7 +358,7 @@ public class ChartView extends View {
   public void zoomIn() {
     if (canZoomIn()) {
       zoomLevel++;
-      updatePaths();
+      updatePathTransforms();
       invalidate();
     }
   }
@@ -367,7 +376,7 @@ public class ChartView extends View {
         scrollX = maxWidth;
         scrollTo(scrollX, 0);
       }
-      updatePaths();
+      updatePathTransforms();
       invalidate();
     }
   }
@@ -805,7 +814,7 @@ public class ChartView extends View {
     }
     if (index != -1 && chartData.size() > 0) {
       int dx = getX(maxX) - pointer.getIntrinsicWidth() / 2;
-      int dy = getY(series[index], chartData.get(chartData.size() - 1)[index + 1])
+      int dy = getY(series[index], chartData.getValue(index, chartData.size() - 1))
           - pointer.getIntrinsicHeight();
       canvas.translate(dx, dy);
       pointer.draw(canvas);
@@ -813,81 +822,67 @@ public class ChartView extends View {
   }
 
   /**
-   * Updates paths. The path needs to be updated any time after the data or the
-   * dimensions change.
+   * Updates the transforms of the series paths from values to view
+   * coordinates. To be called any time after the dimensions or the zoom level
+   * change.
    */
-  private void updatePaths() {
+  private void updatePathTransforms() {
     synchronized (chartData) {
+      float bottom = topBorder + effectiveHeight;
+      int rangeHeight = effectiveHeight - 2 * yAxisOffset;
       for (ChartValueSeries chartValueSeries : series) {
-        chartValueSeries.getPath().reset();
+        // Same as getX and getY
+        int effectiveSpread = chartValueSeries.getInterval() * Y_AXIS_INTERVALS;
+        float scaleY = (float) rangeHeight / effectiveSpread;
+        float scaleX = maxX > 0.0 ? (float) (effectiveWidth * zoomLevel / maxX) : 0f;
+        pathTransform.setScale(scaleX, -scaleY);
+        pathTransform.postTranslate(leftBorder, topBorder + yAxisOffset + rangeHeight
+            + chartValueSeries.getMinMarkerValue() * scaleY);
+        chartValueSeries.setPathTransform(pathTransform, bottom);
       }
-      drawPaths();
-      closePaths();
+      updatePaths();
     }
   }
 
   /**
-   * Draws all paths.
+   * Updates the series paths with the data points not yet in them. Rebuilds
+   * the paths if the bucket width changes, i.e., when the zoom level or the
+   * width change, or when maxX doubles, so each data point is added to the
+   * paths a constant number of times on average.
    */
-  private void drawPaths() {
-    boolean[] hasMoved = new boolean[series.length];
-    
-    for (int i = 0; i < chartData.size(); i++) {
-      double[] dataPoint = chartData.get(i);
-      for (int j = 0; j < series.length; j++) {
-        double value = dataPoint[j + 1];
-        if (Double.isNaN(value)) {
-          continue;
-        }
-        ChartValueSeries chartValueSeries = series[j];
-        Path path = chartValueSeries.getPath();
-        int x = getX(dataPoint[0]);
-        int y = getY(chartValueSeries, value);
-        if (!hasMoved[j]) {
-          hasMoved[j] = true;
-          path.moveTo(x, y);
-        } else {
-          path.lineTo(x, y);
-        }
+  private void updatePaths() {
+    double bucketWidth = getBucketWidth();
+    if (bucketWidth != series[0].getPathBucketWidth()) {
+      for (ChartValueSeries chartValueSeries : series) {
+        chartValueSeries.resetPath(bucketWidth);
       }
+      pathSize = 0;
     }
-  }
-
-  /**
-   * Closes all paths.
-   */
-  private void closePaths() {
-    for (int i = 0; i < series.length; i++) {
-      int first = getFirstPopulatedChartDataIndex(i);
-
-      if (first != -1) {
-        int xCorner = getX(chartData.get(first)[0]);
-        int yCorner = topBorder + effectiveHeight;
-        ChartValueSeries chartValueSeries = series[i];
-        Path path = chartValueSeries.getPath();
-        // Bottom right corner
-        path.lineTo(getX(chartData.get(chartData.size() - 1)[0]), yCorner);
-        // Bottom left corner
-        path.lineTo(xCorner, yCorner);
-        // Top right corner
-        path.lineTo(xCorner, getY(chartValueSeries, chartData.get(first)[i + 1]));
+    int size = chartData.size();
+    for (int j = 0; j < series.length; j++) {
+      int last = chartData.getLastValidIndex(j);
+      int first = Math.max(pathSize, chartData.getFirstValidIndex(j));
+      for (int i = first; first != -1 && i <= last; i++) {
+        if (chartData.isValid(j, i)) {
+          series[j].addPathPoint(chartData.getX(i), chartData.getValue(j, i));
+        }
       }
     }
+    pathSize = size;
   }
 
   /**
-   * Finds the index of the first data point containing data for a series.
-   * Returns -1 if no data point contains data for the series.
-   * 
-   * @param seriesIndex the series's index
+   * Gets the bucket width of the series paths, about the x value of a pixel.
+   * It is a power of two so that the bucket boundaries only depend on the
+   * width, not on the data points added so far. Returns 0 if the chart has no
+   * width.
    */
-  private int getFirstPopulatedChartDataIndex(int seriesIndex) {
-    for (int i = 0; i < chartData.size(); i++) {
-      if (!Double.isNaN(chartData.get(i)[seriesIndex + 1])) {
-        return i;
-      }
+  private double getBucketWidth() {
+    double pixels = (double) effectiveWidth * zoomLevel;
+    if (pixels <= 0.0 || maxX <= 0.0) {
+      return 0.0;
     }
-    return -1;
+    return Math.pow(2.0, Math.floor(Math.log(maxX / pixels) / Math.log(2.0)));
   }
 
   /**
@@ -928,6 +923,7 @@ public class ChartView extends View {
   private void updateEffectiveDimensions() {
     effectiveWidth = Math.max(0, width - leftBorder - rightBorder);
     effectiveHeight = Math.max(0, height - topBorder - bottomBorder);
+    updatePathTransforms();
   }
 
   /**
@@ -941,7 +937,6 @@ public class ChartView extends View {
       width = newWidth;
       height = newHeight;
       updateEffectiveDimensions();
-      updatePaths();
     }
   }
 
@@ -20,6 +20,7 @@ import static com.google.android.apps.mytracks.content.TrackDataHub.TARGET_DISPL
 
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.maps.ChunkedPolylines;
 import com.google.android.apps.mytracks.maps.TrackPath;
 import com.google.android.apps.mytracks.maps.TrackPathFactory;
 import com.google.android.apps.mytracks.stats.TripStatistics;
@@ -29,23 +30,33 @@ import com.google.android.apps.mytracks.util.UnitConversions;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 /**
  * A map overlay that displays my location arrow, error circle, and track info.
+ * <p>
+ * The track paths and the markers are built on a background thread. The UI
+ * thread only applies the changes to the map: the polylines and markers to
+ * add, remove or update.
  * 
  * @author Leif Hendrik Wilden
  */
@@ -69,19 +80,54 @@ public class MapOverlay {
             trackColorMode = PreferencesUtils.getString(
                 context, R.string.track_color_mode_key, PreferencesUtils.TRACK_COLOR_MODE_DEFAULT);
             trackPath = TrackPathFactory.getTrackPath(context, trackColorMode);
+            rebuild = true;
           }
         }
       };
 
+  private final Runnable applyRunnable = new Runnable() {
+    @Override
+    public void run() {
+      apply();
+    }
+  };
+
   private final Context context;
   private final List<CachedLocation> locations;
   private final BlockingQueue<CachedLocation> pendingLocations;
   private final List<Waypoint> waypoints;
+  private final ChunkedPolylines paths = new ChunkedPolylines();
+
+  private final HandlerThread handlerThread;
+  private final Handler handler;
+  private final Handler uiHandler;
 
   private String trackColorMode = PreferencesUtils.TRACK_COLOR_MODE_DEFAULT;
 
-  private boolean showEndMarker = true;
-  private TrackPath trackPath;
+  private volatile boolean showEndMarker = true;
+  private volatile TrackPath trackPath;
+
+  // True to build all the paths again on the next update
+  private volatile boolean rebuild = true;
+
+  // True if the waypoints changed since the last update. Guarded by waypoints.
+  private boolean waypointsChanged = false;
+
+  // The waypoints shown once the pending changes are applied. Only used in the
+  // handler thread.
+  private final Map<Long, Waypoint> shownWaypoints = new HashMap<Long, Waypoint>();
+
+  // The marker changes not yet applied. Guarded by this.
+  private LatLng startLatLng;
+  private LatLng endLatLng;
+  private final List<Long> removedWaypointIds = new ArrayList<Long>();
+  private final List<Waypoint> addedWaypoints = new ArrayList<Waypoint>();
+
+  // The map and its markers. Only used in the UI thread.
+  private GoogleMap googleMap;
+  private Marker startMarker;
+  private Marker endMarker;
+  private final Map<Long, Marker> waypointMarkers = new HashMap<Long, Marker>();
 
   /**
    * A pre-processed {@link Location} to speed up drawing.
@@ -146,6 +192,39 @@ public class MapOverlay {
     context.getSharedPreferences(Constants.SETTINGS_NAME, Context.MODE_PRIVATE)
         .registerOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
     sharedPreferenceChangeListener.onSharedPreferenceChanged(null, null);
+
+    handlerThread = new HandlerThread("MapOverlayHandlerThread");
+    handlerThread.start();
+    handler = new Handler(handlerThread.getLooper());
+    uiHandler = new Handler(Looper.getMainLooper());
+  }
+
+  /**
+   * Stops the background thread. The overlay can no longer be updated.
+   */
+  public void destroy() {
+    handlerThread.getLooper().quit();
+    uiHandler.removeCallbacks(applyRunnable);
+  }
+
+  /**
+   * Sets the google map. To be called on the UI thread.
+   * 
+   * @param map the google map
+   */
+  public void setGoogleMap(GoogleMap map) {
+    googleMap = map;
+    apply();
+  }
+
+  /**
+   * Sets the zoom level of the map. Returns true if it changed, in which case
+   * the overlay should be updated with reload.
+   * 
+   * @param zoomLevel the zoom level
+   */
+  public boolean setZoomLevel(int zoomLevel) {
+    return paths.setZoomLevel(zoomLevel);
   }
 
   /**
@@ -177,6 +256,7 @@ public class MapOverlay {
     synchronized (locations) {
       locations.clear();
       pendingLocations.clear();
+      rebuild = true;
     }
   }
 
@@ -188,6 +268,7 @@ public class MapOverlay {
   public void addWaypoint(Waypoint waypoint) {
     synchronized (waypoints) {
       waypoints.add(waypoint);
+      waypointsChanged = true;
     }
   }
 
@@ -197,6 +278,7 @@ public class MapOverlay {
   public void clearWaypoints() {
     synchronized (waypoints) {
       waypoints.clear();
+      waypointsChanged = true;
     }
   }
 
@@ -210,93 +292,206 @@ public class MapOverlay {
   }
 
   /**
-   * Updates the track, start and end markers, and waypoints.
+   * Updates the track, start and end markers, and waypoints. Builds the changes
+   * in the background thread, then applies them in the UI thread.
    * 
-   * @param googleMap the google map
-   * @param paths the paths
    * @param tripStatistics the trip statistics
-   * @param reload true to reload all points
-   * @return true if has the start marker
+   * @param reload true to build all the paths again
    */
-  public boolean update(GoogleMap googleMap, ArrayList<Polyline> paths,
-      TripStatistics tripStatistics, boolean reload) {
+  public void update(final TripStatistics tripStatistics, final boolean reload) {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        build(tripStatistics, reload);
+        uiHandler.removeCallbacks(applyRunnable);
+        uiHandler.post(applyRunnable);
+      }
+    });
+  }
+
+  /**
+   * Builds the changes of the paths and markers. To be run in the handler
+   * thread.
+   * 
+   * @param tripStatistics the trip statistics
+   * @param reload true to build all the paths again
+   */
+  private void build(TripStatistics tripStatistics, boolean reload) {
     synchronized (locations) {
-      boolean hasStartMarker = false;
       // Merge pendingLocations with locations
       int newLocations = pendingLocations.drainTo(locations);
+      TrackPath currentTrackPath = trackPath;
       // Call updateState first because we want to update its state each time
       // (for dynamic coloring)
-      if (trackPath.updateState(tripStatistics) || reload) {
-        googleMap.clear();
-        paths.clear();
-        trackPath.updatePath(googleMap, paths, 0, locations);
-        hasStartMarker = updateStartAndEndMarkers(googleMap);
-        updateWaypoints(googleMap);
-      } else {
-        if (newLocations != 0) {
-          int numLocations = locations.size();
-          trackPath.updatePath(googleMap, paths, numLocations - newLocations, locations);
-        }
+      if (currentTrackPath.updateState(tripStatistics) || reload || rebuild) {
+        rebuild = false;
+        ChunkedPolylines newPaths = new ChunkedPolylines();
+        newPaths.setZoomLevel(paths.getZoomLevel());
+        currentTrackPath.updatePath(newPaths, 0, locations);
+        paths.replace(newPaths);
+      } else if (newLocations != 0) {
+        int numLocations = locations.size();
+        currentTrackPath.updatePath(paths, numLocations - newLocations, locations);
       }
-      return hasStartMarker;
+      buildStartAndEndMarkers();
     }
+    buildWaypoints();
   }
 
   /**
-   * Updates the start and end markers.
-   * 
-   * @param googleMap the google map
-   * @return true if has the start marker
+   * Builds the start and end markers.
    */
-  private boolean updateStartAndEndMarkers(GoogleMap googleMap) {
-    // Add the end marker
+  private void buildStartAndEndMarkers() {
+    LatLng end = null;
     if (showEndMarker) {
       for (int i = locations.size() - 1; i >= 0; i--) {
         CachedLocation cachedLocation = locations.get(i);
         if (cachedLocation.valid) {
-          MarkerOptions markerOptions = new MarkerOptions().position(cachedLocation.getLatLng())
-              .anchor(MARKER_X_ANCHOR, MARKER_Y_ANCHOR).draggable(false).visible(true)
-              .icon(BitmapDescriptorFactory.fromResource(R.drawable.ic_marker_red_paddle));
-          googleMap.addMarker(markerOptions);
+          end = cachedLocation.getLatLng();
           break;
         }
       }
     }
-
-    // Add the start marker
-    boolean hasStartMarker = false;
+    LatLng start = null;
     for (int i = 0; i < locations.size(); i++) {
       CachedLocation cachedLocation = locations.get(i);
       if (cachedLocation.valid) {
-        MarkerOptions markerOptions = new MarkerOptions().position(cachedLocation.getLatLng())
-            .anchor(MARKER_X_ANCHOR, MARKER_Y_ANCHOR).draggable(false).visible(true)
-            .icon(BitmapDescriptorFactory.fromResource(R.drawable.ic_marker_green_paddle));
-        googleMap.addMarker(markerOptions);
-        hasStartMarker = true;
+        start = cachedLocation.getLatLng();
         break;
       }
     }
-    return hasStartMarker;
+    synchronized (this) {
+      startLatLng = start;
+      endLatLng = end;
+    }
   }
 
   /**
-   * Updates the waypoints.
-   * 
-   * @param googleMap the google map.
+   * Builds the waypoint markers to add and remove.
    */
-  private void updateWaypoints(GoogleMap googleMap) {
+  private void buildWaypoints() {
     synchronized (waypoints) {
+      if (!waypointsChanged) {
+        return;
+      }
+      waypointsChanged = false;
+      Map<Long, Waypoint> currentWaypoints = new HashMap<Long, Waypoint>();
       for (Waypoint waypoint : waypoints) {
-        Location location = waypoint.getLocation();
-        LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
-        int drawableId = waypoint.getType() == WaypointType.STATISTICS 
-            ? R.drawable.ic_marker_yellow_pushpin : R.drawable.ic_marker_blue_pushpin;
-        MarkerOptions markerOptions = new MarkerOptions().position(latLng)
-            .anchor(WAYPOINT_X_ANCHOR, WAYPOINT_Y_ANCHOR).draggable(false).visible(true)
-            .icon(BitmapDescriptorFactory.fromResource(drawableId))
-            .title(String.valueOf(waypoint.getId()));
-        googleMap.addMarker(markerOptions);
+        currentWaypoints.put(waypoint.getId(), waypoint);
+      }
+      synchronized (this) {
+        Iterator<Map.Entry<Long, Waypoint>> iterator = shownWaypoints.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<Long, Waypoint> entry = iterator.next();
+          Waypoint waypoint = currentWaypoints.get(entry.getKey());
+          if (waypoint == null || !hasSameMarker(waypoint, entry.getValue())) {
+            removeAddedWaypoint(entry.getKey());
+            removedWaypointIds.add(entry.getKey());
+            iterator.remove();
+          }
+        }
+        for (Waypoint waypoint : waypoints) {
+          if (!shownWaypoints.containsKey(waypoint.getId())) {
+            addedWaypoints.add(waypoint);
+            shownWaypoints.put(waypoint.getId(), waypoint);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes a waypoint from the added waypoints not yet applied.
+   * 
+   * @param id the waypoint id
+   */
+  private void removeAddedWaypoint(long id) {
+    Iterator<Waypoint> iterator = addedWaypoints.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().getId() == id) {
+        iterator.remove();
       }
     }
   }
+
+  /**
+   * Returns true if two waypoints have the same marker.
+   * 
+   * @param waypoint1 the first waypoint
+   * @param waypoint2 the second waypoint
+   */
+  private boolean hasSameMarker(Waypoint waypoint1, Waypoint waypoint2) {
+    Location location1 = waypoint1.getLocation();
+    Location location2 = waypoint2.getLocation();
+    return waypoint1.getType() == waypoint2.getType()
+        && location1.getLatitude() == location2.getLatitude()
+        && location1.getLongitude() == location2.getLongitude();
+  }
+
+  /**
+   * Applies the changes to the map. To be run in the UI thread.
+   */
+  private void apply() {
+    if (googleMap == null) {
+      return;
+    }
+    paths.apply(googleMap);
+    synchronized (this) {
+      endMarker = applyMarker(endMarker, endLatLng, R.drawable.ic_marker_red_paddle);
+      startMarker = applyMarker(startMarker, startLatLng, R.drawable.ic_marker_green_paddle);
+      for (Long id : removedWaypointIds) {
+        Marker marker = waypointMarkers.remove(id);
+        if (marker != null) {
+          marker.remove();
+        }
+      }
+      removedWaypointIds.clear();
+      for (Waypoint waypoint : addedWaypoints) {
+        waypointMarkers.put(waypoint.getId(), googleMap.addMarker(getMarkerOptions(waypoint)));
+      }
+      addedWaypoints.clear();
+    }
+  }
+
+  /**
+   * Applies the position of a start or end marker. Returns the marker.
+   * 
+   * @param marker the marker, null if not added
+   * @param latLng the position, null for no marker
+   * @param drawableId the drawable id of the marker
+   */
+  private Marker applyMarker(Marker marker, LatLng latLng, int drawableId) {
+    if (latLng == null) {
+      if (marker != null) {
+        marker.remove();
+      }
+      return null;
+    }
+    if (marker == null) {
+      MarkerOptions markerOptions = new MarkerOptions().position(latLng)
+          .anchor(MARKER_X_ANCHOR, MARKER_Y_ANCHOR).draggable(false).visible(true)
+          .icon(BitmapDescriptorFactory.fromResource(drawableId));
+      return googleMap.addMarker(markerOptions);
+    }
+    if (!latLng.equals(marker.getPosition())) {
+      marker.setPosition(latLng);
+    }
+    return marker;
+  }
+
+  /**
+   * Gets the marker options of a waypoint.
+   * 
+   * @param waypoint the waypoint
+   */
+  private MarkerOptions getMarkerOptions(Waypoint waypoint) {
+    Location location = waypoint.getLocation();
+    LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
+    int drawableId = waypoint.getType() == WaypointType.STATISTICS 
+        ? R.drawable.ic_marker_yellow_pushpin : R.drawable.ic_marker_blue_pushpin;
+    return new MarkerOptions().position(latLng)
+        .anchor(WAYPOINT_X_ANCHOR, WAYPOINT_Y_ANCHOR).draggable(false).visible(true)
+        .icon(BitmapDescriptorFactory.fromResource(drawableId))
+        .title(String.valueOf(waypoint.getId()));
+  }
 }
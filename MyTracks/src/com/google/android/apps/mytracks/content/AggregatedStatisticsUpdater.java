@@ -0,0 +1,439 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maintains the {@link AggregatedStatisticsColumns} rollup as tracks are
+ * inserted, updated, and deleted.
+ * <p>
+ * A new track, or a track whose statistics only grow, is added to the rows of
+ * its groups in place: the sums are increased and the extremes widened. When a
+ * track leaves a group, or an extreme of a track shrinks, the group is marked
+ * and aggregated again from the tracks table by {@link #flush()}. An updater
+ * must be used and flushed within a single transaction.
+ * <p>
+ * The weeks, months, and years are in the time zone of the device when the
+ * track is stored.
+ */
+class AggregatedStatisticsUpdater {
+
+  // Statistics summed, the same names in the tracks table
+  private static final String[] SUM_COLUMNS = new String[] {
+      AggregatedStatisticsColumns.TOTALDISTANCE, AggregatedStatisticsColumns.TOTALTIME,
+      AggregatedStatisticsColumns.MOVINGTIME, AggregatedStatisticsColumns.ELEVATIONGAIN,
+      AggregatedStatisticsColumns.CALORIE };
+
+  // Statistics whose min is kept
+  private static final String[] MIN_COLUMNS = new String[] {
+      AggregatedStatisticsColumns.STARTTIME, AggregatedStatisticsColumns.MINLAT,
+      AggregatedStatisticsColumns.MINLON, AggregatedStatisticsColumns.MINELEVATION,
+      AggregatedStatisticsColumns.MINGRADE };
+
+  // Statistics whose max is kept
+  private static final String[] MAX_COLUMNS = new String[] {
+      AggregatedStatisticsColumns.STOPTIME, AggregatedStatisticsColumns.MAXLAT,
+      AggregatedStatisticsColumns.MAXLON, AggregatedStatisticsColumns.MAXSPEED,
+      AggregatedStatisticsColumns.MAXELEVATION, AggregatedStatisticsColumns.MAXGRADE };
+
+  private static final String CATEGORY_EXPRESSION = "ifnull(" + TracksColumns.CATEGORY + ",'')";
+
+  // The projection of a track, the id, the category, and the statistics columns in order
+  private static final String[] TRACK_PROJECTION;
+  private static final int FIRST_VALUE_INDEX = 2;
+
+  private static final String GROUP_SELECTION = AggregatedStatisticsColumns.GROUPBY + "=? AND "
+      + AggregatedStatisticsColumns.CATEGORY + "=? AND " + AggregatedStatisticsColumns.PERIODSTART
+      + "=?";
+
+  private static final String INSERT_GROUP = "INSERT OR IGNORE INTO "
+      + AggregatedStatisticsColumns.TABLE_NAME + " (" + AggregatedStatisticsColumns.GROUPBY + ", "
+      + AggregatedStatisticsColumns.CATEGORY + ", " + AggregatedStatisticsColumns.PERIODSTART
+      + ", " + AggregatedStatisticsColumns.PERIODEND + ", "
+      + AggregatedStatisticsColumns.NUMTRACKS + ") VALUES (?, ?, ?, ?, 0)";
+
+  // Adds a track, or the change of a track, to a group
+  private static final String ADD_TO_GROUP;
+
+  // Aggregates a group from the tracks table, with the track selection between
+  private static final String AGGREGATE_GROUP_START;
+  private static final String AGGREGATE_GROUP_END = ") WHERE n>0";
+
+  static {
+    int length = SUM_COLUMNS.length + MIN_COLUMNS.length + MAX_COLUMNS.length;
+    TRACK_PROJECTION = new String[length + FIRST_VALUE_INDEX];
+    TRACK_PROJECTION[0] = TracksColumns._ID;
+    TRACK_PROJECTION[1] = CATEGORY_EXPRESSION;
+    StringBuilder add = new StringBuilder("UPDATE " + AggregatedStatisticsColumns.TABLE_NAME
+        + " SET " + AggregatedStatisticsColumns.NUMTRACKS + "="
+        + AggregatedStatisticsColumns.NUMTRACKS + "+?");
+    StringBuilder columns = new StringBuilder(AggregatedStatisticsColumns.GROUPBY + ", "
+        + AggregatedStatisticsColumns.CATEGORY + ", " + AggregatedStatisticsColumns.PERIODSTART
+        + ", " + AggregatedStatisticsColumns.PERIODEND + ", "
+        + AggregatedStatisticsColumns.NUMTRACKS);
+    StringBuilder aggregates = new StringBuilder("?, ?, ?, ?, count(*) AS n");
+    int i = FIRST_VALUE_INDEX;
+    for (String column : SUM_COLUMNS) {
+      TRACK_PROJECTION[i++] = column;
+      add.append(", " + column + "=ifnull(" + column + ",0)+?");
+      columns.append(", " + column);
+      aggregates.append(", sum(" + column + ")");
+    }
+    for (String column : MIN_COLUMNS) {
+      TRACK_PROJECTION[i++] = column;
+      add.append(", " + column + "=min(ifnull(" + column + ",?),?)");
+      columns.append(", " + column);
+      aggregates.append(", min(" + column + ")");
+    }
+    for (String column : MAX_COLUMNS) {
+      TRACK_PROJECTION[i++] = column;
+      add.append(", " + column + "=max(ifnull(" + column + ",?),?)");
+      columns.append(", " + column);
+      aggregates.append(", max(" + column + ")");
+    }
+    ADD_TO_GROUP = add.append(" WHERE " + GROUP_SELECTION).toString();
+
+    // Old versions of SQLite do not allow HAVING without GROUP BY
+    AGGREGATE_GROUP_START = "INSERT INTO " + AggregatedStatisticsColumns.TABLE_NAME + " ("
+        + columns + ") SELECT * FROM (SELECT " + aggregates + " FROM " + TracksColumns.TABLE_NAME
+        + " WHERE ";
+  }
+
+  /**
+   * A group of tracks.
+   */
+  @VisibleForTesting
+  static class Group {
+    final int groupBy;
+    final String category;
+    final long periodStart;
+    final long periodEnd;
+
+    Group(int groupBy, String category, long periodStart, long periodEnd) {
+      this.groupBy = groupBy;
+      this.category = category;
+      this.periodStart = periodStart;
+      this.periodEnd = periodEnd;
+    }
+
+    /**
+     * Gets the selection of the tracks of the group. The category is the only
+     * argument of a category group.
+     */
+    private String getTrackSelection() {
+      switch (groupBy) {
+        case AggregatedStatisticsColumns.GROUP_ALL:
+          return "1";
+        case AggregatedStatisticsColumns.GROUP_CATEGORY:
+          return CATEGORY_EXPRESSION + "=?";
+        default:
+          return TracksColumns.STARTTIME + ">=" + periodStart + " AND "
+              + TracksColumns.STARTTIME + "<" + periodEnd;
+      }
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof Group)) {
+        return false;
+      }
+      Group group = (Group) object;
+      return groupBy == group.groupBy && category.equals(group.category)
+          && periodStart == group.periodStart;
+    }
+
+    @Override
+    public int hashCode() {
+      return (31 * groupBy + category.hashCode()) * 31 + (int) (periodStart ^ (periodStart >>> 32));
+    }
+  }
+
+  /**
+   * The statistics of a track.
+   */
+  static class TrackValues {
+    private final long id;
+    private final String category;
+    private final double[] values;
+
+    private TrackValues(Cursor cursor) {
+      id = cursor.getLong(0);
+      category = cursor.getString(1);
+      values = new double[TRACK_PROJECTION.length - FIRST_VALUE_INDEX];
+      for (int i = 0; i < values.length; i++) {
+        int index = i + FIRST_VALUE_INDEX;
+        values[i] = cursor.isNull(index) ? 0.0 : cursor.getDouble(index);
+      }
+    }
+
+    private long getStartTime() {
+      return (long) values[SUM_COLUMNS.length];
+    }
+  }
+
+  private final SQLiteDatabase db;
+  private final Set<Group> staleGroups = new LinkedHashSet<Group>();
+
+  public AggregatedStatisticsUpdater(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Returns true if an update of tracks with some values can change the
+   * aggregated statistics.
+   *
+   * @param values the values of the update
+   */
+  public static boolean isAffectedBy(ContentValues values) {
+    if (values.containsKey(TracksColumns.CATEGORY)) {
+      return true;
+    }
+    for (int i = FIRST_VALUE_INDEX; i < TRACK_PROJECTION.length; i++) {
+      if (values.containsKey(TRACK_PROJECTION[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds a new track.
+   *
+   * @param trackId the track id
+   */
+  public void add(long trackId) {
+    List<TrackValues> tracks = getTracks(
+        TracksColumns._ID + "=?", new String[] { Long.toString(trackId) });
+    for (TrackValues track : tracks) {
+      for (Group group : getGroups(track)) {
+        addToGroup(group, 1, track.values, null);
+      }
+    }
+  }
+
+  /**
+   * Gets the statistics of the tracks of a selection, before an update or a
+   * delete.
+   *
+   * @param selection the selection
+   * @param selectionArgs the selection arguments
+   */
+  public List<TrackValues> getTracks(String selection, String[] selectionArgs) {
+    List<TrackValues> tracks = new ArrayList<TrackValues>();
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TracksColumns.TABLE_NAME, TRACK_PROJECTION, selection, selectionArgs,
+          null, null, null);
+      while (cursor.moveToNext()) {
+        tracks.add(new TrackValues(cursor));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return tracks;
+  }
+
+  /**
+   * Applies the update of tracks.
+   *
+   * @param oldTracks the statistics of the tracks before the update, from
+   *          {@link #getTracks(String, String[])}
+   */
+  public void update(List<TrackValues> oldTracks) {
+    for (TrackValues oldTrack : oldTracks) {
+      List<TrackValues> newTracks = getTracks(
+          TracksColumns._ID + "=?", new String[] { Long.toString(oldTrack.id) });
+      if (newTracks.isEmpty()) {
+        continue;
+      }
+      TrackValues newTrack = newTracks.get(0);
+      List<Group> oldGroups = getGroups(oldTrack);
+      List<Group> newGroups = getGroups(newTrack);
+      if (oldGroups.equals(newGroups) && isGrowing(oldTrack.values, newTrack.values)) {
+        for (Group group : newGroups) {
+          addToGroup(group, 0, newTrack.values, oldTrack.values);
+        }
+      } else {
+        staleGroups.addAll(oldGroups);
+        staleGroups.addAll(newGroups);
+      }
+    }
+  }
+
+  /**
+   * Marks the groups of tracks which are deleted.
+   *
+   * @param oldTracks the statistics of the tracks, from
+   *          {@link #getTracks(String, String[])}
+   */
+  public void delete(List<TrackValues> oldTracks) {
+    for (TrackValues oldTrack : oldTracks) {
+      staleGroups.addAll(getGroups(oldTrack));
+    }
+  }
+
+  /**
+   * Aggregates again the marked groups.
+   */
+  public void flush() {
+    for (Group group : staleGroups) {
+      String[] groupArgs = new String[] {
+          Integer.toString(group.groupBy), group.category, Long.toString(group.periodStart) };
+      db.delete(AggregatedStatisticsColumns.TABLE_NAME, GROUP_SELECTION, groupArgs);
+      String sql = AGGREGATE_GROUP_START + group.getTrackSelection() + AGGREGATE_GROUP_END;
+      List<Object> args = new ArrayList<Object>();
+      args.add(group.groupBy);
+      args.add(group.category);
+      args.add(group.periodStart);
+      args.add(group.periodEnd);
+      if (group.groupBy == AggregatedStatisticsColumns.GROUP_CATEGORY) {
+        args.add(group.category);
+      }
+      db.execSQL(sql, args.toArray());
+    }
+    staleGroups.clear();
+  }
+
+  /**
+   * Aggregates again all the groups.
+   */
+  public void rebuild() {
+    db.delete(AggregatedStatisticsColumns.TABLE_NAME, null, null);
+    delete(getTracks(null, null));
+    flush();
+  }
+
+  /**
+   * Adds a track, or the change of a track, to a group.
+   *
+   * @param group the group
+   * @param numberOfTracks the number of tracks to add
+   * @param values the statistics of the track
+   * @param oldValues the statistics of the track before the change, null for a
+   *          new track
+   */
+  private void addToGroup(Group group, int numberOfTracks, double[] values, double[] oldValues) {
+    db.execSQL(INSERT_GROUP,
+        new Object[] { group.groupBy, group.category, group.periodStart, group.periodEnd });
+    List<Object> args = new ArrayList<Object>();
+    args.add(numberOfTracks);
+    int i = 0;
+    for (; i < SUM_COLUMNS.length; i++) {
+      args.add(oldValues == null ? values[i] : values[i] - oldValues[i]);
+    }
+    for (; i < values.length; i++) {
+      args.add(values[i]);
+      args.add(values[i]);
+    }
+    args.add(group.groupBy);
+    args.add(group.category);
+    args.add(group.periodStart);
+    db.execSQL(ADD_TO_GROUP, args.toArray());
+  }
+
+  /**
+   * Returns true if the extremes of a track are the same or wider after a
+   * change.
+   *
+   * @param oldValues the statistics before the change
+   * @param newValues the statistics after the change
+   */
+  private static boolean isGrowing(double[] oldValues, double[] newValues) {
+    int i = SUM_COLUMNS.length;
+    for (int j = 0; j < MIN_COLUMNS.length; j++, i++) {
+      if (!(newValues[i] <= oldValues[i])) {
+        return false;
+      }
+    }
+    for (int j = 0; j < MAX_COLUMNS.length; j++, i++) {
+      if (!(newValues[i] >= oldValues[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the groups of a track.
+   *
+   * @param track the track
+   */
+  private static List<Group> getGroups(TrackValues track) {
+    List<Group> groups = new ArrayList<Group>();
+    groups.add(new Group(AggregatedStatisticsColumns.GROUP_ALL, "", -1L, -1L));
+    groups.add(new Group(AggregatedStatisticsColumns.GROUP_CATEGORY, track.category, -1L, -1L));
+    long startTime = track.getStartTime();
+    if (startTime >= 0L) {
+      groups.add(getPeriod(AggregatedStatisticsColumns.GROUP_WEEK, startTime));
+      groups.add(getPeriod(AggregatedStatisticsColumns.GROUP_MONTH, startTime));
+      groups.add(getPeriod(AggregatedStatisticsColumns.GROUP_YEAR, startTime));
+    }
+    return groups;
+  }
+
+  /**
+   * Gets the period containing a time, in the default time zone.
+   *
+   * @param groupBy the period type, {@link AggregatedStatisticsColumns#GROUP_WEEK},
+   *          {@link AggregatedStatisticsColumns#GROUP_MONTH}, or
+   *          {@link AggregatedStatisticsColumns#GROUP_YEAR}
+   * @param time the time
+   */
+  @VisibleForTesting
+  static Group getPeriod(int groupBy, long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    int field;
+    switch (groupBy) {
+      case AggregatedStatisticsColumns.GROUP_WEEK:
+        int days = (calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek() + 7) % 7;
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        field = Calendar.WEEK_OF_YEAR;
+        break;
+      case AggregatedStatisticsColumns.GROUP_MONTH:
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        field = Calendar.MONTH;
+        break;
+      case AggregatedStatisticsColumns.GROUP_YEAR:
+        calendar.set(Calendar.DAY_OF_YEAR, 1);
+        field = Calendar.YEAR;
+        break;
+      default:
+        throw new IllegalArgumentException("Not a period " + groupBy);
+    }
+    long periodStart = calendar.getTimeInMillis();
+    calendar.add(field, 1);
+    return new Group(groupBy, "", periodStart, calendar.getTimeInMillis());
+  }
+}
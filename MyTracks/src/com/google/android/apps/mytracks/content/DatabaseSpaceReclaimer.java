@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.apps.mytracks.util.UnitConversions;
+import com.google.android.maps.mytracks.R;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Reclaims the space of deleted data in the background. Instead of rewriting
+ * the whole database file with VACUUM after every delete, the database is
+ * switched to incremental auto vacuum once and the free pages are then
+ * returned to the file system in bounded batches with incremental_vacuum.
+ * <p>
+ * Work only runs when the device is idle, i.e., not recording and either
+ * charging or with the screen off. Since the free pages stay in the database
+ * until reclaimed, an interrupted pass simply resumes at the next run.
+ */
+class DatabaseSpaceReclaimer {
+
+  private static final String TAG = DatabaseSpaceReclaimer.class.getSimpleName();
+
+  // PRAGMA auto_vacuum value for incremental auto vacuum
+  @VisibleForTesting
+  static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+  // Number of pages to reclaim per batch
+  @VisibleForTesting
+  static final int PAGES_PER_BATCH = 256;
+
+  // Delay before reclaiming, so that a batch of deletes costs one pass
+  private static final long RECLAIM_DELAY = (long) (60 * UnitConversions.S_TO_MS);
+
+  // Delay before checking again when the device is not idle
+  private static final long RETRY_DELAY = (long) (15 * 60 * UnitConversions.S_TO_MS);
+
+  // Delay between batches, to let other database work through
+  private static final long BATCH_DELAY = (long) UnitConversions.S_TO_MS;
+
+  private final Context context;
+  private final SQLiteDatabase db;
+  private final Handler handler;
+
+  private final Runnable reclaimRunnable = new Runnable() {
+    @Override
+    public void run() {
+      if (!isIdle()) {
+        handler.postDelayed(this, RETRY_DELAY);
+        return;
+      }
+      if (reclaimBatch()) {
+        handler.postDelayed(this, BATCH_DELAY);
+      }
+    }
+  };
+
+  /**
+   * Creates a reclaimer.
+   *
+   * @param context the context
+   * @param db the database
+   */
+  public DatabaseSpaceReclaimer(Context context, SQLiteDatabase db) {
+    this.context = context;
+    this.db = db;
+    HandlerThread handlerThread = new HandlerThread("DatabaseSpaceReclaimerHandlerThread");
+    handlerThread.start();
+    handler = new Handler(handlerThread.getLooper());
+  }
+
+  /**
+   * Schedules a reclamation pass. Calls within the delay are coalesced into one
+   * pass.
+   */
+  public void schedule() {
+    handler.removeCallbacks(reclaimRunnable);
+    handler.postDelayed(reclaimRunnable, RECLAIM_DELAY);
+  }
+
+  /**
+   * Reclaims one batch of free pages. Switches the database to incremental
+   * auto vacuum first if needed. Returns true if free pages remain.
+   */
+  @VisibleForTesting
+  boolean reclaimBatch() {
+    try {
+      if (getPragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+        /*
+         * One time migration. Changing auto_vacuum on an existing database only
+         * takes effect after a VACUUM, which also reclaims all the free pages.
+         */
+        Log.i(TAG, "Switching the database to incremental auto vacuum.");
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+        return false;
+      }
+      if (getPragma("freelist_count") == 0) {
+        return false;
+      }
+      /*
+       * incremental_vacuum returns a row per reclaimed page, so the cursor must
+       * be read to the end to run the whole batch.
+       */
+      Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + PAGES_PER_BATCH + ")", null);
+      try {
+        cursor.getCount();
+      } finally {
+        cursor.close();
+      }
+      return getPragma("freelist_count") > 0;
+    } catch (SQLiteException e) {
+      Log.w(TAG, "Unable to reclaim space.", e);
+      return false;
+    }
+  }
+
+  /**
+   * Gets the value of an integer pragma.
+   *
+   * @param pragma the pragma
+   */
+  @VisibleForTesting
+  long getPragma(String pragma) {
+    Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0L;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns true if the device is idle: not recording, and either charging or
+   * with the screen off.
+   */
+  @SuppressWarnings("deprecation")
+  private boolean isIdle() {
+    long recordingTrackId = PreferencesUtils.getLong(context, R.string.recording_track_id_key);
+    if (recordingTrackId != PreferencesUtils.RECORDING_TRACK_ID_DEFAULT) {
+      return false;
+    }
+    Intent batteryIntent = context.registerReceiver(
+        null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (batteryIntent != null && batteryIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+      return true;
+    }
+    PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    return powerManager != null && !powerManager.isScreenOn();
+  }
+}
@@ -16,16 +16,21 @@
 
 package com.google.android.apps.mytracks.content;
 
+import com.google.android.apps.mytracks.content.AggregatedStatisticsUpdater.TrackValues;
+import com.google.android.apps.mytracks.util.ApiAdapterFactory;
 import com.google.android.apps.mytracks.util.FileUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -42,6 +47,11 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A {@link ContentProvider} that handles access to track points, tracks, and
@@ -53,11 +63,19 @@ public class MyTracksProvider extends ContentProvider {
 
   private static final String TAG = MyTracksProvider.class.getSimpleName();
   @VisibleForTesting
-  static final int DATABASE_VERSION = 22;
+  static final int DATABASE_VERSION = 28;
 
   @VisibleForTesting
   static final String DATABASE_NAME = "mytracks.db";
 
+  /*
+   * Number of rows written between two passive checkpoints of the write-ahead
+   * log. Keeps the log short so that readers do not have to search a long log
+   * for the latest version of a page.
+   */
+  @VisibleForTesting
+  static final int CHECKPOINT_INTERVAL = 500;
+
   /**
    * Database helper for creating and upgrading the database.
    */
@@ -78,6 +96,13 @@ public class MyTracksProvider extends ContentProvider {
       db.execSQL(TrackPointsColumns.CREATE_TABLE);
       db.execSQL(TracksColumns.CREATE_TABLE);
       db.execSQL(WaypointsColumns.CREATE_TABLE);
+      db.execSQL(TrackPointChunksColumns.CREATE_TABLE);
+      db.execSQL(TrackTilesColumns.CREATE_TABLE);
+      createIndexes(db);
+      db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_STARTID_INDEX);
+      createSpatialIndexes(db);
+      createSearchTables(db);
+      createAggregatedStatisticsTable(db);
     }
 
     @Override
@@ -88,6 +113,11 @@ public class MyTracksProvider extends ContentProvider {
         db.execSQL("DROP TABLE IF EXISTS " + TrackPointsColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + TracksColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + WaypointsColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TrackPointChunksColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TrackTilesColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TrackSearchColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + WaypointSearchColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + AggregatedStatisticsColumns.TABLE_NAME);
         onCreate(db);
       } else {
         // Incremental upgrades. One if statement per DB version.
@@ -145,8 +175,102 @@ public class MyTracksProvider extends ContentProvider {
           db.execSQL("ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD " + TracksColumns.CALORIE
               + " FLOAT");
         }
+
+        // Add track point and waypoint indexes
+        if (oldVersion <= 22) {
+          Log.w(TAG, "Upgrade DB: Adding track point and waypoint indexes.");
+          createIndexes(db);
+        }
+
+        // Add track point chunks table
+        if (oldVersion <= 23) {
+          Log.w(TAG, "Upgrade DB: Adding track point chunks table.");
+          db.execSQL(TrackPointChunksColumns.CREATE_TABLE);
+          db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_STARTID_INDEX);
+        }
+
+        // Add track point LEVEL column
+        if (oldVersion <= 24) {
+          Log.w(TAG, "Upgrade DB: Adding track point level column.");
+          db.execSQL("ALTER TABLE " + TrackPointsColumns.TABLE_NAME + " ADD "
+              + TrackPointsColumns.LEVEL + " INTEGER");
+        }
+
+        // Add track tiles table
+        if (oldVersion <= 25) {
+          Log.w(TAG, "Upgrade DB: Adding track tiles table.");
+          db.execSQL(TrackTilesColumns.CREATE_TABLE);
+          createSpatialIndexes(db);
+          new TrackTileIndexer(db).addAll();
+        }
+
+        // Add track and waypoint search tables
+        if (oldVersion <= 26) {
+          Log.w(TAG, "Upgrade DB: Adding track and waypoint search tables.");
+          createSearchTables(db);
+        }
+
+        // Add aggregated statistics table
+        if (oldVersion <= 27) {
+          Log.w(TAG, "Upgrade DB: Adding aggregated statistics table.");
+          createAggregatedStatisticsTable(db);
+          new AggregatedStatisticsUpdater(db).rebuild();
+        }
       }
     }
+
+    /**
+     * Creates the indexes on the track points and waypoints tables.
+     * 
+     * @param db the database
+     */
+    private void createIndexes(SQLiteDatabase db) {
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+      db.execSQL(WaypointsColumns.CREATE_TRACKID_TYPE_ID_INDEX);
+    }
+
+    /**
+     * Creates the indexes for the location queries, on the track tiles and
+     * waypoints tables.
+     * 
+     * @param db the database
+     */
+    private void createSpatialIndexes(SQLiteDatabase db) {
+      db.execSQL(TrackTilesColumns.CREATE_TRACKID_STARTID_INDEX);
+      db.execSQL(TrackTilesColumns.CREATE_TILEY_TILEX_TRACKID_INDEX);
+      db.execSQL(WaypointsColumns.CREATE_LATITUDE_LONGITUDE_INDEX);
+    }
+
+    /**
+     * Creates the full-text search tables of the tracks and waypoints, fills
+     * them from the existing rows, and creates the triggers keeping them in
+     * sync.
+     * 
+     * @param db the database
+     */
+    private void createSearchTables(SQLiteDatabase db) {
+      db.execSQL(TrackSearchColumns.CREATE_TABLE);
+      db.execSQL(TrackSearchColumns.POPULATE_TABLE);
+      db.execSQL(TrackSearchColumns.CREATE_INSERT_TRIGGER);
+      db.execSQL(TrackSearchColumns.CREATE_UPDATE_TRIGGER);
+      db.execSQL(TrackSearchColumns.CREATE_DELETE_TRIGGER);
+      db.execSQL(WaypointSearchColumns.CREATE_TABLE);
+      db.execSQL(WaypointSearchColumns.POPULATE_TABLE);
+      db.execSQL(WaypointSearchColumns.CREATE_INSERT_TRIGGER);
+      db.execSQL(WaypointSearchColumns.CREATE_UPDATE_TRIGGER);
+      db.execSQL(WaypointSearchColumns.CREATE_DELETE_TRIGGER);
+    }
+
+    /**
+     * Creates the aggregated statistics table and its index.
+     * 
+     * @param db the database
+     */
+    private void createAggregatedStatisticsTable(SQLiteDatabase db) {
+      db.execSQL(AggregatedStatisticsColumns.CREATE_TABLE);
+      db.execSQL(AggregatedStatisticsColumns.CREATE_GROUPBY_CATEGORY_PERIODSTART_INDEX);
+    }
   }
 
   /**
@@ -156,11 +280,23 @@ public class MyTracksProvider extends ContentProvider {
    */
   @VisibleForTesting
   enum UrlType {
-    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID
+    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID, TRACKPOINTCHUNKS,
+    TRACKPOINTCHUNKS_ID, TRACKTILES, TRACKTILES_TRACKIDS, TRACKSEARCH, WAYPOINTSEARCH,
+    AGGREGATEDSTATS
   }
 
   private final UriMatcher uriMatcher;
+  private final AtomicInteger numberOfRowsSinceCheckpoint = new AtomicInteger();
+
+  // Set on the threads applying a batch, which notifies the changes once
+  private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<Boolean>();
+
+  // Set on the threads applying a batch, which indexes its track points once
+  private final ThreadLocal<TrackTileIndexer> batchTrackTileIndexer =
+      new ThreadLocal<TrackTileIndexer>();
   private SQLiteDatabase db;
+  private boolean writeAheadLogging;
+  private DatabaseSpaceReclaimer databaseSpaceReclaimer;
 
   public MyTracksProvider() {
     uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -176,6 +312,20 @@ public class MyTracksProvider extends ContentProvider {
         MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME, UrlType.WAYPOINTS.ordinal());
     uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME + "/#",
         UrlType.WAYPOINTS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointChunksColumns.TABLE_NAME,
+        UrlType.TRACKPOINTCHUNKS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointChunksColumns.TABLE_NAME + "/#",
+        UrlType.TRACKPOINTCHUNKS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackTilesColumns.TABLE_NAME,
+        UrlType.TRACKTILES.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackTilesColumns.TABLE_NAME + "/"
+        + TrackTilesColumns.TRACKIDS_PATH, UrlType.TRACKTILES_TRACKIDS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackSearchColumns.TABLE_NAME,
+        UrlType.TRACKSEARCH.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, WaypointSearchColumns.TABLE_NAME,
+        UrlType.WAYPOINTSEARCH.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, AggregatedStatisticsColumns.TABLE_NAME,
+        UrlType.AGGREGATEDSTATS.ordinal());
   }
 
   @Override
@@ -200,7 +350,21 @@ public class MyTracksProvider extends ContentProvider {
     } catch (SQLiteException e) {
       Log.e(TAG, "Unable to open database for writing.", e);
     }
-    return db != null;
+    if (db == null) {
+      return false;
+    }
+    /*
+     * In write-ahead logging mode, the database keeps a pool of reader
+     * connections. Queries outside of a transaction run on the pool and are not
+     * blocked by the single writer, e.g., the recording service inserting track
+     * points while a track is exported.
+     */
+    writeAheadLogging = ApiAdapterFactory.getApiAdapter().enableWriteAheadLogging(db);
+
+    // Resumes reclaiming the space left by an interrupted pass, if any
+    databaseSpaceReclaimer = new DatabaseSpaceReclaimer(context, db);
+    databaseSpaceReclaimer.schedule();
+    return true;
   }
 
   @Override
@@ -209,18 +373,25 @@ public class MyTracksProvider extends ContentProvider {
       return 0;
     }
     String table;
-    boolean shouldVacuum = false;
+    boolean shouldReclaimSpace = false;
     switch (getUrlType(url)) {
       case TRACKPOINTS:
         table = TrackPointsColumns.TABLE_NAME;
+        shouldReclaimSpace = true;
         break;
       case TRACKS:
         table = TracksColumns.TABLE_NAME;
-        shouldVacuum = true;
+        shouldReclaimSpace = true;
         break;
       case WAYPOINTS:
         table = WaypointsColumns.TABLE_NAME;
         break;
+      case TRACKPOINTCHUNKS:
+        table = TrackPointChunksColumns.TABLE_NAME;
+        break;
+      case TRACKTILES:
+        table = TrackTilesColumns.TABLE_NAME;
+        break;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -228,18 +399,36 @@ public class MyTracksProvider extends ContentProvider {
     Log.w(MyTracksProvider.TAG, "Deleting table " + table);
     int count;
     try {
-      db.beginTransaction();
-      count = db.delete(table, where, selectionArgs);
+      beginTransaction();
+
+      // The batch indexer may hold a run of the deleted rows, start a new one
+      TrackTileIndexer trackTileIndexer = batchTrackTileIndexer.get();
+      if (trackTileIndexer != null) {
+        trackTileIndexer.flush();
+        batchTrackTileIndexer.set(new TrackTileIndexer(db));
+      }
+      if (table.equals(TracksColumns.TABLE_NAME)) {
+        count = deleteTracks(where, selectionArgs);
+      } else if (table.equals(TrackPointsColumns.TABLE_NAME)) {
+        count = deleteTrackPoints(where, selectionArgs);
+      } else {
+        count = db.delete(table, where, selectionArgs);
+      }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (applyingBatch.get() == null) {
+      checkpoint(count);
+      getContext().getContentResolver().notifyChange(url, null, false);
+    }
 
-    if (shouldVacuum) {
-      // If a potentially large amount of data was deleted, reclaim its space.
-      Log.i(TAG, "Vacuuming the database.");
-      db.execSQL("VACUUM");
+    if (shouldReclaimSpace) {
+      /*
+       * If a potentially large amount of data was deleted, reclaim its space in
+       * the background. Deleting several tracks in a row schedules one pass.
+       */
+      databaseSpaceReclaimer.schedule();
     }
     return count;
   }
@@ -262,6 +451,19 @@ public class MyTracksProvider extends ContentProvider {
         return WaypointsColumns.CONTENT_TYPE;
       case WAYPOINTS_ID:
         return WaypointsColumns.CONTENT_ITEMTYPE;
+      case TRACKPOINTCHUNKS:
+        return TrackPointChunksColumns.CONTENT_TYPE;
+      case TRACKPOINTCHUNKS_ID:
+        return TrackPointChunksColumns.CONTENT_ITEMTYPE;
+      case TRACKTILES:
+      case TRACKTILES_TRACKIDS:
+        return TrackTilesColumns.CONTENT_TYPE;
+      case TRACKSEARCH:
+        return TrackSearchColumns.CONTENT_TYPE;
+      case WAYPOINTSEARCH:
+        return WaypointSearchColumns.CONTENT_TYPE;
+      case AGGREGATEDSTATS:
+        return AggregatedStatisticsColumns.CONTENT_TYPE;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -277,16 +479,58 @@ public class MyTracksProvider extends ContentProvider {
     }
     Uri result = null;
     try {
-      db.beginTransaction();
-      result = insertContentValues(url, getUrlType(url), initialValues);
+      beginTransaction();
+      TrackTileIndexer trackTileIndexer = batchTrackTileIndexer.get();
+      if (trackTileIndexer != null) {
+        // Flushed once at the end of the batch
+        result = insertContentValues(url, getUrlType(url), initialValues, trackTileIndexer);
+      } else {
+        trackTileIndexer = new TrackTileIndexer(db);
+        result = insertContentValues(url, getUrlType(url), initialValues, trackTileIndexer);
+        trackTileIndexer.flush();
+      }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (applyingBatch.get() == null) {
+      checkpoint(1);
+      getContext().getContentResolver().notifyChange(url, null, false);
+    }
     return result;
   }
 
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+      throws OperationApplicationException {
+    if (!canAccess()) {
+      return new ContentProviderResult[0];
+    }
+    ContentProviderResult[] results;
+    try {
+      // Use a transaction in order to make the operations run as a single batch
+      beginTransaction();
+      applyingBatch.set(Boolean.TRUE);
+      batchTrackTileIndexer.set(new TrackTileIndexer(db));
+      results = super.applyBatch(operations);
+      batchTrackTileIndexer.get().flush();
+      db.setTransactionSuccessful();
+    } finally {
+      batchTrackTileIndexer.remove();
+      applyingBatch.remove();
+      db.endTransaction();
+    }
+    checkpoint(operations.size());
+    Set<Uri> urls = new HashSet<Uri>();
+    for (ContentProviderOperation operation : operations) {
+      urls.add(operation.getUri());
+    }
+    for (Uri url : urls) {
+      getContext().getContentResolver().notifyChange(url, null, false);
+    }
+    return results;
+  }
+
   @Override
   public int bulkInsert(Uri url, ContentValues[] valuesBulk) {
     if (!canAccess()) {
@@ -295,20 +539,23 @@ public class MyTracksProvider extends ContentProvider {
     int numInserted = 0;
     try {
       // Use a transaction in order to make the insertions run as a single batch
-      db.beginTransaction();
+      beginTransaction();
 
       UrlType urlType = getUrlType(url);
+      TrackTileIndexer trackTileIndexer = new TrackTileIndexer(db);
       for (numInserted = 0; numInserted < valuesBulk.length; numInserted++) {
         ContentValues contentValues = valuesBulk[numInserted];
         if (contentValues == null) {
           contentValues = new ContentValues();
         }
-        insertContentValues(url, urlType, contentValues);
+        insertContentValues(url, urlType, contentValues, trackTileIndexer);
       }
+      trackTileIndexer.flush();
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
+    checkpoint(numInserted);
     getContext().getContentResolver().notifyChange(url, null, false);
     return numInserted;
   }
@@ -346,6 +593,36 @@ public class MyTracksProvider extends ContentProvider {
         queryBuilder.setTables(WaypointsColumns.TABLE_NAME);
         queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
         break;
+      case TRACKPOINTCHUNKS:
+        queryBuilder.setTables(TrackPointChunksColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackPointChunksColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACKPOINTCHUNKS_ID:
+        queryBuilder.setTables(TrackPointChunksColumns.TABLE_NAME);
+        queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
+        break;
+      case TRACKTILES:
+        queryBuilder.setTables(TrackTilesColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackTilesColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACKTILES_TRACKIDS:
+        queryBuilder.setTables(TrackTilesColumns.TABLE_NAME);
+        queryBuilder.setDistinct(true);
+        projection = new String[] { TrackTilesColumns.TRACKID };
+        sortOrder = TrackTilesColumns.TRACKID;
+        break;
+      case TRACKSEARCH:
+        queryBuilder.setTables(TrackSearchColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackSearchColumns.DEFAULT_SORT_ORDER;
+        break;
+      case WAYPOINTSEARCH:
+        queryBuilder.setTables(WaypointSearchColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : WaypointSearchColumns.DEFAULT_SORT_ORDER;
+        break;
+      case AGGREGATEDSTATS:
+        queryBuilder.setTables(AggregatedStatisticsColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : AggregatedStatisticsColumns.DEFAULT_SORT_ORDER;
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -396,18 +673,37 @@ public class MyTracksProvider extends ContentProvider {
           whereClause += " AND (" + where + ")";
         }
         break;
+      case TRACKPOINTCHUNKS:
+        table = TrackPointChunksColumns.TABLE_NAME;
+        whereClause = where;
+        break;
+      case TRACKPOINTCHUNKS_ID:
+        table = TrackPointChunksColumns.TABLE_NAME;
+        whereClause = TrackPointChunksColumns._ID + "=" + url.getPathSegments().get(1);
+        if (!TextUtils.isEmpty(where)) {
+          whereClause += " AND (" + where + ")";
+        }
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
     int count;
     try {
-      db.beginTransaction();
-      count = db.update(table, values, whereClause, selectionArgs);
+      beginTransaction();
+      if (table.equals(TracksColumns.TABLE_NAME)
+          && AggregatedStatisticsUpdater.isAffectedBy(values)) {
+        count = updateTracks(values, whereClause, selectionArgs);
+      } else {
+        count = db.update(table, values, whereClause, selectionArgs);
+      }
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    if (applyingBatch.get() == null) {
+      checkpoint(count);
+      getContext().getContentResolver().notifyChange(url, null, false);
+    }
     return count;
   }
 
@@ -440,6 +736,43 @@ public class MyTracksProvider extends ContentProvider {
     }
   }
 
+  /**
+   * Begins a write transaction. In write-ahead logging mode, the transaction
+   * does not block the readers.
+   */
+  private void beginTransaction() {
+    ApiAdapterFactory.getApiAdapter().beginTransactionNonExclusive(db);
+  }
+
+  /**
+   * Runs a passive checkpoint of the write-ahead log once
+   * {@link #CHECKPOINT_INTERVAL} rows have been written since the last one. A
+   * passive checkpoint copies as many pages as it can to the database without
+   * waiting for the readers, so it never blocks the readers or the writer.
+   * 
+   * @param numberOfRows the number of rows just written
+   */
+  private void checkpoint(int numberOfRows) {
+    if (!writeAheadLogging || numberOfRows <= 0) {
+      return;
+    }
+    if (numberOfRowsSinceCheckpoint.addAndGet(numberOfRows) < CHECKPOINT_INTERVAL) {
+      return;
+    }
+    numberOfRowsSinceCheckpoint.set(0);
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+      cursor.moveToFirst();
+    } catch (SQLiteException e) {
+      Log.w(TAG, "Unable to checkpoint the write-ahead log.", e);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
   /**
    * Gets the {@link UrlType} for a url.
    * 
@@ -455,15 +788,19 @@ public class MyTracksProvider extends ContentProvider {
    * @param url the content url
    * @param urlType the url type
    * @param contentValues the content values
+   * @param trackTileIndexer the indexer of the inserted track points
    */
-  private Uri insertContentValues(Uri url, UrlType urlType, ContentValues contentValues) {
+  private Uri insertContentValues(Uri url, UrlType urlType, ContentValues contentValues,
+      TrackTileIndexer trackTileIndexer) {
     switch (urlType) {
       case TRACKPOINTS:
-        return insertTrackPoint(url, contentValues);
+        return insertTrackPoint(url, contentValues, trackTileIndexer);
       case TRACKS:
         return insertTrack(url, contentValues);
       case WAYPOINTS:
         return insertWaypoint(url, contentValues);
+      case TRACKPOINTCHUNKS:
+        return insertTrackPointChunk(url, contentValues);
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -474,8 +811,10 @@ public class MyTracksProvider extends ContentProvider {
    * 
    * @param url the content url
    * @param values the content values
+   * @param trackTileIndexer the indexer of the inserted track points
    */
-  private Uri insertTrackPoint(Uri url, ContentValues values) {
+  private Uri insertTrackPoint(
+      Uri url, ContentValues values, TrackTileIndexer trackTileIndexer) {
     boolean hasLatitude = values.containsKey(TrackPointsColumns.LATITUDE);
     boolean hasLongitude = values.containsKey(TrackPointsColumns.LONGITUDE);
     boolean hasTime = values.containsKey(TrackPointsColumns.TIME);
@@ -484,6 +823,12 @@ public class MyTracksProvider extends ContentProvider {
     }
     long rowId = db.insert(TrackPointsColumns.TABLE_NAME, TrackPointsColumns._ID, values);
     if (rowId >= 0) {
+      Long trackId = values.getAsLong(TrackPointsColumns.TRACKID);
+      Integer latitude = values.getAsInteger(TrackPointsColumns.LATITUDE);
+      Integer longitude = values.getAsInteger(TrackPointsColumns.LONGITUDE);
+      if (trackId != null && latitude != null && longitude != null) {
+        trackTileIndexer.add(trackId, rowId, latitude, longitude);
+      }
       return ContentUris.appendId(TrackPointsColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
     throw new SQLiteException("Failed to insert a track point " + url);
@@ -503,11 +848,78 @@ public class MyTracksProvider extends ContentProvider {
     }
     long rowId = db.insert(TracksColumns.TABLE_NAME, TracksColumns._ID, contentValues);
     if (rowId >= 0) {
+      new AggregatedStatisticsUpdater(db).add(rowId);
       return ContentUris.appendId(TracksColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
     throw new SQLException("Failed to insert a track " + url);
   }
 
+  /**
+   * Updates tracks and their aggregated statistics.
+   * 
+   * @param values the content values
+   * @param where the selection
+   * @param selectionArgs the selection arguments
+   */
+  private int updateTracks(ContentValues values, String where, String[] selectionArgs) {
+    AggregatedStatisticsUpdater updater = new AggregatedStatisticsUpdater(db);
+    List<TrackValues> oldTracks = updater.getTracks(where, selectionArgs);
+    int count = db.update(TracksColumns.TABLE_NAME, values, where, selectionArgs);
+    updater.update(oldTracks);
+    updater.flush();
+    return count;
+  }
+
+  /**
+   * Deletes track points and builds the track tiles of their tracks again.
+   * 
+   * @param where the selection
+   * @param selectionArgs the selection arguments
+   */
+  private int deleteTrackPoints(String where, String[] selectionArgs) {
+    List<Long> trackIds = new ArrayList<Long>();
+    Cursor cursor = null;
+    try {
+      cursor = db.query(true, TrackPointsColumns.TABLE_NAME,
+          new String[] { TrackPointsColumns.TRACKID }, where, selectionArgs, null, null, null,
+          null);
+      while (cursor.moveToNext()) {
+        trackIds.add(cursor.getLong(0));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    int count = db.delete(TrackPointsColumns.TABLE_NAME, where, selectionArgs);
+    if (count > 0) {
+      TrackTileIndexer trackTileIndexer = new TrackTileIndexer(db);
+      for (long trackId : trackIds) {
+        trackTileIndexer.rebuild(trackId);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Deletes tracks and updates their aggregated statistics.
+   * 
+   * @param where the selection
+   * @param selectionArgs the selection arguments
+   */
+  private int deleteTracks(String where, String[] selectionArgs) {
+    if (where == null) {
+      db.delete(AggregatedStatisticsColumns.TABLE_NAME, null, null);
+      return db.delete(TracksColumns.TABLE_NAME, where, selectionArgs);
+    }
+    AggregatedStatisticsUpdater updater = new AggregatedStatisticsUpdater(db);
+    List<TrackValues> oldTracks = updater.getTracks(where, selectionArgs);
+    int count = db.delete(TracksColumns.TABLE_NAME, where, selectionArgs);
+    updater.delete(oldTracks);
+    updater.flush();
+    return count;
+  }
+
   /**
    * Inserts a waypoint.
    * 
@@ -521,4 +933,19 @@ public class MyTracksProvider extends ContentProvider {
     }
     throw new SQLException("Failed to insert a waypoint " + url);
   }
-}
\ No newline at end of file
+
+  /**
+   * Inserts a track point chunk.
+   * 
+   * @param url the content url
+   * @param contentValues the content values
+   */
+  private Uri insertTrackPointChunk(Uri url, ContentValues contentValues) {
+    long rowId = db.insert(
+        TrackPointChunksColumns.TABLE_NAME, TrackPointChunksColumns._ID, contentValues);
+    if (rowId >= 0) {
+      return ContentUris.appendId(TrackPointChunksColumns.CONTENT_URI.buildUpon(), rowId).build();
+    }
+    throw new SQLException("Failed to insert a track point chunk " + url);
+  }
+}
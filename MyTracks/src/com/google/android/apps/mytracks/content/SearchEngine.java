@@ -18,38 +18,40 @@ package com.google.android.apps.mytracks.content;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.UnitConversions;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.database.Cursor;
 import android.location.Location;
+import android.text.TextUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
  * Engine for searching for tracks and waypoints by text.
+ * <p>
+ * The text is matched against the full-text search tables, see
+ * {@link TrackSearchColumns} and {@link WaypointSearchColumns}. Each word of
+ * the text matches the words starting with it, and all the words must match.
+ * Only the best candidates, by the fields matched and then by recency, are
+ * read from the tracks and waypoints tables and scored.
  *
  * @author Rodrigo Damazio
  */
 public class SearchEngine {
 
-  /** WHERE query to get tracks by name. */
-  private static final String TRACK_SELECTION_QUERY =
-      TracksColumns.NAME + " LIKE ? OR " +
-      TracksColumns.DESCRIPTION + " LIKE ? OR " +
-      TracksColumns.CATEGORY + " LIKE ?";
-
-  /** WHERE query to get waypoints by name. */
-  private static final String WAYPOINT_SELECTION_QUERY =
-      WaypointsColumns.NAME + " LIKE ? OR " +
-      WaypointsColumns.DESCRIPTION + " LIKE ? OR " +
-      WaypointsColumns.CATEGORY + " LIKE ?";
-
   /** Order of track results. */
-  private static final String TRACK_SELECTION_ORDER = TracksColumns._ID + " DESC LIMIT 1000";
+  private static final String TRACK_SELECTION_ORDER = TracksColumns._ID + " DESC";
 
   /** Order of waypoint results. */
   private static final String WAYPOINT_SELECTION_ORDER = WaypointsColumns._ID + " DESC";
@@ -69,6 +71,9 @@ public class SearchEngine {
   /** How much we promote a track result if it's the currently-selected track. */
   private static final double CURRENT_TRACK_DEMOTION = 0.5;
 
+  /** Maximum number of tracks which will be retrieved and scored. */
+  private static final int MAX_SCORED_TRACKS = 1000;
+
   /** Maximum number of waypoints which will be retrieved and scored. */
   private static final int MAX_SCORED_WAYPOINTS = 100;
 
@@ -122,6 +127,32 @@ public class SearchEngine {
     }
   }
 
+  /**
+   * A row of a search table matching a query.
+   */
+  private static class Candidate {
+    private final long id;
+    private final double titleBoost;
+
+    private Candidate(long id, double titleBoost) {
+      this.id = id;
+      this.titleBoost = titleBoost;
+    }
+  }
+
+  /** Comparator for candidates, the worst first: the lowest title boost, then the oldest. */
+  private static final Comparator<Candidate> CANDIDATE_COMPARATOR =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+          int boostDiff = Double.compare(c1.titleBoost, c2.titleBoost);
+          if (boostDiff != 0) {
+            return boostDiff;
+          }
+          return Long.signum(c1.id - c2.id);
+        }
+      };
+
   /** Comparador for scored results. */
   private static final Comparator<ScoredResult> SCORED_RESULT_COMPARATOR =
       new Comparator<ScoredResult>() {
@@ -163,34 +194,238 @@ public class SearchEngine {
   public SortedSet<ScoredResult> search(SearchQuery query) {
     ArrayList<Track> tracks = new ArrayList<Track>();
     ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
+    Map<Long, Double> trackTitleBoosts = new HashMap<Long, Double>();
+    Map<Long, Double> waypointTitleBoosts = new HashMap<Long, Double>();
     TreeSet<ScoredResult> scoredResults = new TreeSet<ScoredResult>(SCORED_RESULT_COMPARATOR);
 
-    retrieveTracks(query, tracks);
-    retrieveWaypoints(query, waypoints);
+    String match = getMatchQuery(query.textQuery, null);
+    if (match == null) {
+      return scoredResults;
+    }
+
+    retrieveTracks(match, trackTitleBoosts, tracks);
+    retrieveWaypoints(match, waypointTitleBoosts, waypoints);
 
-    scoreTrackResults(tracks, query, scoredResults);
-    scoreWaypointResults(waypoints, query, scoredResults);
+    scoreTrackResults(tracks, trackTitleBoosts, query, scoredResults);
+    scoreWaypointResults(waypoints, waypointTitleBoosts, query, scoredResults);
 
     return scoredResults;
   }
 
+  /**
+   * Gets the names of the most recent tracks and waypoints with a name
+   * matching a text, tracks first. Names differing only by case are returned
+   * once.
+   *
+   * @param text the text
+   * @param maxSuggestions the maximum number of names per type
+   */
+  public List<String> getSuggestions(String text, int maxSuggestions) {
+    List<String> suggestions = new ArrayList<String>();
+    String match = getMatchQuery(
+        text.toLowerCase(Locale.getDefault()), TrackSearchColumns.NAME);
+    if (match == null || maxSuggestions <= 0) {
+      return suggestions;
+    }
+    Set<String> lowerCaseNames = new HashSet<String>();
+
+    Map<Long, Double> candidates = new HashMap<Long, Double>();
+    Cursor cursor = null;
+    try {
+      cursor = providerUtils.getTrackSearchCursor(match);
+      retrieveCandidates(cursor, maxSuggestions, candidates);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (!candidates.isEmpty()) {
+      try {
+        cursor = providerUtils.getTrackCursor(
+            getIdSelection(TracksColumns._ID, candidates), null, TRACK_SELECTION_ORDER);
+        addNames(cursor, cursor.getColumnIndexOrThrow(TracksColumns.NAME), lowerCaseNames,
+            suggestions);
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+    }
+
+    candidates.clear();
+    try {
+      cursor = providerUtils.getWaypointSearchCursor(match);
+      retrieveCandidates(cursor, maxSuggestions, candidates);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (!candidates.isEmpty()) {
+      try {
+        cursor = providerUtils.getWaypointCursor(getIdSelection(WaypointsColumns._ID, candidates),
+            null, WAYPOINT_SELECTION_ORDER, -1);
+        addNames(cursor, cursor.getColumnIndexOrThrow(WaypointsColumns.NAME), lowerCaseNames,
+            suggestions);
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+    }
+    return suggestions;
+  }
+
+  /**
+   * Gets the full-text query of a text. Each word of the text matches the
+   * words starting with it, and all the words must match. Words are runs of
+   * letters and digits.
+   *
+   * @param text the text, in lower case
+   * @param column the column to match, null for all the columns
+   * @return the query, or null if the text has no words
+   */
+  @VisibleForTesting
+  static String getMatchQuery(String text, String column) {
+    StringBuilder builder = new StringBuilder();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean isWordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (isWordChar && start == -1) {
+        start = i;
+      } else if (!isWordChar && start != -1) {
+        if (builder.length() != 0) {
+          builder.append(' ');
+        }
+        if (column != null) {
+          builder.append(column).append(':');
+        }
+        builder.append(text, start, i).append('*');
+        start = -1;
+      }
+    }
+    return builder.length() == 0 ? null : builder.toString();
+  }
+
+  /**
+   * Gets the columns matched by a row of a search table.
+   *
+   * @param offsets the offsets of the matches, four numbers per match, the
+   *          first one being the column number
+   * @return a bit mask of the column numbers
+   */
+  @VisibleForTesting
+  static int getMatchedColumns(String offsets) {
+    int columns = 0;
+    int count = 0;
+    int number = 0;
+    boolean hasDigits = false;
+    for (int i = 0; i <= offsets.length(); i++) {
+      char c = i < offsets.length() ? offsets.charAt(i) : ' ';
+      if (c >= '0' && c <= '9') {
+        number = number * 10 + (c - '0');
+        hasDigits = true;
+      } else if (hasDigits) {
+        if (count % 4 == 0 && number < Integer.SIZE) {
+          columns |= 1 << number;
+        }
+        count++;
+        number = 0;
+        hasDigits = false;
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Retrieves the best candidates from a search table cursor, by title boost
+   * and then by recency.
+   *
+   * @param cursor the cursor, with the id and the offsets of each row. Can be
+   *          null
+   * @param maxCandidates the maximum number of candidates
+   * @param titleBoosts map to fill with the title boost of each candidate id
+   */
+  private void retrieveCandidates(
+      Cursor cursor, int maxCandidates, Map<Long, Double> titleBoosts) {
+    if (cursor == null) {
+      return;
+    }
+    PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(
+        maxCandidates + 1, CANDIDATE_COMPARATOR);
+    while (cursor.moveToNext()) {
+      double titleBoost = getTitleBoost(getMatchedColumns(cursor.getString(1)));
+      Candidate worst = candidates.peek();
+      if (candidates.size() == maxCandidates && worst != null && (titleBoost < worst.titleBoost
+          || (titleBoost == worst.titleBoost && cursor.getLong(0) < worst.id))) {
+        continue;
+      }
+      candidates.add(new Candidate(cursor.getLong(0), titleBoost));
+      if (candidates.size() > maxCandidates) {
+        candidates.poll();
+      }
+    }
+    for (Candidate candidate : candidates) {
+      titleBoosts.put(candidate.id, candidate.titleBoost);
+    }
+  }
+
+  /**
+   * Gets the selection of the rows with the given ids.
+   *
+   * @param idColumn the id column
+   * @param ids the ids, as keys
+   */
+  private static String getIdSelection(String idColumn, Map<Long, Double> ids) {
+    return idColumn + " IN (" + TextUtils.join(",", ids.keySet()) + ")";
+  }
+
+  /**
+   * Adds the names of a cursor, skipping the ones already added.
+   *
+   * @param cursor the cursor. Can be null
+   * @param nameIndex the column index of the name
+   * @param lowerCaseNames the names already added, in lower case
+   * @param names list to add the names to
+   */
+  private static void addNames(
+      Cursor cursor, int nameIndex, Set<String> lowerCaseNames, List<String> names) {
+    if (cursor == null) {
+      return;
+    }
+    while (cursor.moveToNext()) {
+      String name = cursor.getString(nameIndex);
+      if (!TextUtils.isEmpty(name) && lowerCaseNames.add(name.toLowerCase(Locale.getDefault()))) {
+        names.add(name);
+      }
+    }
+  }
+
   /**
    * Retrieves tracks matching the given query from the database.
    *
-   * @param query the query to retrieve for
+   * @param match the full-text query to retrieve for
+   * @param titleBoosts map to fill with the title boost of each track id
    * @param tracks list to fill with the resulting tracks
    */
-  private void retrieveTracks(SearchQuery query, ArrayList<Track> tracks) {
-    String queryLikeSelection = "%" + query.textQuery + "%";
-    String[] trackSelectionArgs = new String[] {
-        queryLikeSelection,
-        queryLikeSelection,
-        queryLikeSelection };
-
+  private void retrieveTracks(
+      String match, Map<Long, Double> titleBoosts, ArrayList<Track> tracks) {
     Cursor cursor = null;
+    try {
+      cursor = providerUtils.getTrackSearchCursor(match);
+      retrieveCandidates(cursor, MAX_SCORED_TRACKS, titleBoosts);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (titleBoosts.isEmpty()) {
+      return;
+    }
+
     try {
       cursor = providerUtils.getTrackCursor(
-          TRACK_SELECTION_QUERY, trackSelectionArgs, TRACK_SELECTION_ORDER);
+          getIdSelection(TracksColumns._ID, titleBoosts), null, TRACK_SELECTION_ORDER);
       if (cursor != null) {
         tracks.ensureCapacity(cursor.getCount());
         while (cursor.moveToNext()) {
@@ -207,19 +442,28 @@ public class SearchEngine {
   /**
    * Retrieves waypoints matching the given query from the database.
    *
-   * @param query the query to retrieve for
+   * @param match the full-text query to retrieve for
+   * @param titleBoosts map to fill with the title boost of each waypoint id
    * @param waypoints list to fill with the resulting waypoints
    */
-  private void retrieveWaypoints(SearchQuery query, ArrayList<Waypoint> waypoints) {
-    String queryLikeSelection2 = "%" + query.textQuery + "%";
-    String[] waypointSelectionArgs = new String[] {
-        queryLikeSelection2,
-        queryLikeSelection2,
-        queryLikeSelection2 };
+  private void retrieveWaypoints(
+      String match, Map<Long, Double> titleBoosts, ArrayList<Waypoint> waypoints) {
     Cursor cursor = null;
     try {
-      cursor = providerUtils.getWaypointCursor(WAYPOINT_SELECTION_QUERY, waypointSelectionArgs,
-          WAYPOINT_SELECTION_ORDER, MAX_SCORED_WAYPOINTS);
+      cursor = providerUtils.getWaypointSearchCursor(match);
+      retrieveCandidates(cursor, MAX_SCORED_WAYPOINTS, titleBoosts);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (titleBoosts.isEmpty()) {
+      return;
+    }
+
+    try {
+      cursor = providerUtils.getWaypointCursor(getIdSelection(WaypointsColumns._ID, titleBoosts),
+          null, WAYPOINT_SELECTION_ORDER, -1);
       if (cursor != null) {
         waypoints.ensureCapacity(cursor.getCount());
         while (cursor.moveToNext()) {
@@ -240,13 +484,15 @@ public class SearchEngine {
    * Scores a collection of track results.
    *
    * @param tracks the results to score
+   * @param titleBoosts the title boost of each track id
    * @param query the query to score for
    * @param output the collection to fill with scored results
    */
-  private void scoreTrackResults(Collection<Track> tracks, SearchQuery query, Collection<ScoredResult> output) {
+  private void scoreTrackResults(Collection<Track> tracks, Map<Long, Double> titleBoosts,
+      SearchQuery query, Collection<ScoredResult> output) {
     for (Track track : tracks) {
       // Calculate the score.
-      double score = scoreTrackResult(query, track);
+      double score = scoreTrackResult(query, track, titleBoosts.get(track.getId()));
 
       // Add to the output.
       output.add(new ScoredResult(track, score));
@@ -258,12 +504,13 @@ public class SearchEngine {
    *
    * @param query the query to score for
    * @param track the results to score
+   * @param titleBoost the title boost of the track
    * @return the score for the track
    */
-  private double scoreTrackResult(SearchQuery query, Track track) {
+  private double scoreTrackResult(SearchQuery query, Track track, double titleBoost) {
     double score = 1.0;
 
-    score *= getTitleBoost(query, track.getName(), track.getDescription(), track.getCategory());
+    score *= titleBoost;
 
     TripStatistics statistics = track.getTripStatistics();
     // TODO: Also boost for proximity to the currently-centered position on the map.
@@ -284,13 +531,15 @@ public class SearchEngine {
    * Scores a collection of waypoint results.
    *
    * @param waypoints the results to score
+   * @param titleBoosts the title boost of each waypoint id
    * @param query the query to score for
    * @param output the collection to fill with scored results
    */
-  private void scoreWaypointResults(Collection<Waypoint> waypoints, SearchQuery query, Collection<ScoredResult> output) {
+  private void scoreWaypointResults(Collection<Waypoint> waypoints,
+      Map<Long, Double> titleBoosts, SearchQuery query, Collection<ScoredResult> output) {
     for (Waypoint waypoint : waypoints) {
       // Calculate the score.
-      double score = scoreWaypointResult(query, waypoint);
+      double score = scoreWaypointResult(query, waypoint, titleBoosts.get(waypoint.getId()));
 
       // Add to the output.
       output.add(new ScoredResult(waypoint, score));
@@ -302,13 +551,14 @@ public class SearchEngine {
    *
    * @param query the query to score for
    * @param waypoint the results to score
+   * @param titleBoost the title boost of the waypoint
    * @return the score for the waypoint
    */
-  private double scoreWaypointResult(SearchQuery query, Waypoint waypoint) {
+  private double scoreWaypointResult(SearchQuery query, Waypoint waypoint, double titleBoost) {
     double score = 1.0;
 
     Location location = waypoint.getLocation();
-    score *= getTitleBoost(query, waypoint.getName(), waypoint.getDescription(), waypoint.getCategory());
+    score *= titleBoost;
     // TODO: Also boost for proximity to the currently-centered position on the map.
     score *= getDistanceBoost(query, location.getLatitude(), location.getLongitude());
     score *= getTimeBoost(query, location.getTime());
@@ -323,24 +573,21 @@ public class SearchEngine {
 
   /**
    * Calculates the boosting of the score due to the field(s) in which the match occured.
+   * The track and waypoint search tables have the same column numbers.
    *
-   * @param query the query to boost for
-   * @param name the name of the track or waypoint
-   * @param description the description of the track or waypoint
-   * @param category the category of the track or waypoint
+   * @param columns the bit mask of the matched column numbers
    * @return the total boost to be applied to the result
    */
-  private double getTitleBoost(SearchQuery query,
-      String name, String description, String category) {
+  private static double getTitleBoost(int columns) {
     // Title boost: track name > description > category.
     double boost = 1.0;
-    if (name.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
+    if ((columns & (1 << TrackSearchColumns.NAME_COLUMN)) != 0) {
       boost *= TRACK_NAME_PROMOTION;
     }
-    if (description.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
+    if ((columns & (1 << TrackSearchColumns.DESCRIPTION_COLUMN)) != 0) {
       boost *= TRACK_DESCRIPTION_PROMOTION;
     }
-    if (category.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
+    if ((columns & (1 << TrackSearchColumns.CATEGORY_COLUMN)) != 0) {
       boost *= TRACK_CATEGORY_PROMOTION;
     }
     return boost;
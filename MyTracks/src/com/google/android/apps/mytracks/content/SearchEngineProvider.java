@@ -15,12 +15,24 @@
  */
 package com.google.android.apps.mytracks.content;
 
+import android.app.SearchManager;
 import android.content.Context;
 import android.content.SearchRecentSuggestionsProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.Binder;
+import android.provider.BaseColumns;
 import android.provider.SearchRecentSuggestions;
+import android.text.TextUtils;
+
+import java.util.List;
 
 /**
- * Content provider for search suggestions.
+ * Content provider for search suggestions. Suggests the recent queries, then
+ * the names of the tracks and waypoints matching the query, from the search
+ * index.
  *
  * @author Rodrigo Damazio
  */
@@ -29,11 +41,58 @@ public class SearchEngineProvider extends SearchRecentSuggestionsProvider {
   private static final String AUTHORITY = "com.google.android.maps.mytracks.search";
   private static final int MODE = DATABASE_MODE_QUERIES;
 
+  // The maximum number of track names and of waypoint names suggested
+  private static final int MAX_SUGGESTIONS = 5;
+
   public SearchEngineProvider() {
     setupSuggestions(AUTHORITY, MODE);
   }
 
-  // TODO: Also add suggestions from the database.
+  @Override
+  public Cursor query(
+      Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+    Cursor cursor = super.query(uri, projection, selection, selectionArgs, sortOrder);
+    List<String> pathSegments = uri.getPathSegments();
+    if (cursor == null || pathSegments.isEmpty()
+        || !SearchManager.SUGGEST_URI_PATH_QUERY.equals(pathSegments.get(0))
+        || selectionArgs == null || selectionArgs.length == 0
+        || TextUtils.isEmpty(selectionArgs[0])) {
+      return cursor;
+    }
+
+    List<String> names;
+    // The caller is the search UI, read the tracks as this app
+    long identity = Binder.clearCallingIdentity();
+    try {
+      names = new SearchEngine(MyTracksProviderUtils.Factory.get(getContext())).getSuggestions(
+          selectionArgs[0], MAX_SUGGESTIONS);
+    } finally {
+      Binder.restoreCallingIdentity(identity);
+    }
+    if (names.isEmpty()) {
+      return cursor;
+    }
+
+    String[] columns = cursor.getColumnNames();
+    MatrixCursor matrixCursor = new MatrixCursor(columns, names.size());
+    for (int i = 0; i < names.size(); i++) {
+      Object[] row = new Object[columns.length];
+      for (int j = 0; j < columns.length; j++) {
+        String column = columns[j];
+        if (BaseColumns._ID.equals(column)) {
+          // Negative ids, not to clash with the ids of the recent queries
+          row[j] = -1L - i;
+        } else if (SearchManager.SUGGEST_COLUMN_FORMAT.equals(column)) {
+          row[j] = 0;
+        } else if (SearchManager.SUGGEST_COLUMN_TEXT_1.equals(column)
+            || SearchManager.SUGGEST_COLUMN_QUERY.equals(column)) {
+          row[j] = names.get(i);
+        }
+      }
+      matrixCursor.addRow(row);
+    }
+    return new MergeCursor(new Cursor[] { cursor, matrixCursor });
+  }
 
   /**
    * Creates and returns a helper for adding recent queries or clearing the recent query history.
@@ -17,6 +17,7 @@
 package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.services.TrackPointLevelService;
 import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
@@ -80,6 +81,7 @@ public class TrackDataHub implements DataSourceListener {
   private int numLoadedPoints;
   private long firstSeenLocationId;
   private long lastSeenLocationId;
+  private boolean hasLevels;
 
   /**
    * Creates a new instance.
@@ -481,6 +483,13 @@ public class TrackDataHub implements DataSourceListener {
   /**
    * Notifies track points table update. To be run in the {@link #handler}
    * thread.
+   * <p>
+   * If the track has levels of detail, see {@link TrackPointLevelUpdater}, the
+   * sampled-in points are the points of the level matching the target number of
+   * points. Otherwise, and for the recent points of a recording track whose
+   * levels are not final yet, one of every N points is sampled in. New points
+   * are sampled at the level matching the current track size, without reloading
+   * the track.
    * 
    * @param updateSamplingState true to update the sampling state
    * @param sampledInListeners the sampled-in listeners
@@ -491,22 +500,18 @@ public class TrackDataHub implements DataSourceListener {
     if (sampledInListeners.isEmpty() && sampledOutListeners.isEmpty()) {
       return;
     }
-    if (updateSamplingState && numLoadedPoints >= targetNumPoints) {
-      // Reload and resample the track at a lower frequency.
-      Log.i(TAG, "Resampling track after " + numLoadedPoints + " points.");
-      resetSamplingState();
-      for (TrackDataListener listener : sampledInListeners) {
-        listener.clearTrackPoints();
-      }
-    }
 
     int localNumLoadedPoints = updateSamplingState ? numLoadedPoints : 0;
     long localFirstSeenLocationId = updateSamplingState ? firstSeenLocationId : -1L;
     long localLastSeenLocationId = updateSamplingState ? lastSeenLocationId : -1L;
+    boolean localHasLevels = updateSamplingState ? hasLevels : false;
     long maxPointId = updateSamplingState ? -1L : lastSeenLocationId;
 
     long lastTrackPointId = myTracksProviderUtils.getLastTrackPointId(selectedTrackId);
+    boolean isRecording = isSelectedTrackRecording();
+    int samplingLevel = -1;
     int samplingFrequency = -1;
+    long lastLevelsId = -1L;
     boolean includeNextPoint = false;
     LocationIterator locationIterator = null;
 
@@ -525,11 +530,22 @@ public class TrackDataHub implements DataSourceListener {
 
         if (localFirstSeenLocationId == -1) {
           localFirstSeenLocationId = locationId;
+
+          // The first point of a track with levels is kept at all levels
+          localHasLevels = locationIterator.getLocationLevel()
+              == TrackPointLevelUpdater.MAX_LEVEL;
         }
 
         if (samplingFrequency == -1) {
           long numTotalPoints = Math.max(0L, lastTrackPointId - localFirstSeenLocationId);
+          samplingLevel = TrackPointLevelUpdater.getLevel(numTotalPoints, targetNumPoints);
           samplingFrequency = 1 + (int) (numTotalPoints / targetNumPoints);
+          if (localHasLevels) {
+            // The levels of the last points of a recording track can still change
+            lastLevelsId = isRecording ? lastTrackPointId
+                - TrackPointLevelUpdater.getMaxNumberOfPendingPoints(samplingLevel)
+                : lastTrackPointId;
+          }
         }
 
         if (!LocationUtils.isValidLocation(location)) {
@@ -539,9 +555,16 @@ public class TrackDataHub implements DataSourceListener {
             includeNextPoint = true;
           }
         } else {
+          boolean sampledIn;
+          if (locationId <= lastLevelsId) {
+            sampledIn = locationIterator.getLocationLevel() >= samplingLevel;
+          } else {
+            sampledIn = localNumLoadedPoints % samplingFrequency == 0;
+          }
+
           // Also include the last point if the selected track is not recording.
-          if (includeNextPoint || (localNumLoadedPoints % samplingFrequency == 0)
-              || (locationId == lastTrackPointId && !isSelectedTrackRecording())) {
+          if (includeNextPoint || sampledIn
+              || (locationId == lastTrackPointId && !isRecording)) {
             includeNextPoint = false;
             for (TrackDataListener trackDataListener : sampledInListeners) {
               trackDataListener.onSampledInTrackPoint(location);
@@ -566,11 +589,18 @@ public class TrackDataHub implements DataSourceListener {
       numLoadedPoints = localNumLoadedPoints;
       firstSeenLocationId = localFirstSeenLocationId;
       lastSeenLocationId = localLastSeenLocationId;
+      hasLevels = localHasLevels;
     }
 
     for (TrackDataListener listener : sampledInListeners) {
       listener.onNewTrackPointsDone();
     }
+
+    if (updateSamplingState && !localHasLevels && !isRecording
+        && localFirstSeenLocationId != -1L) {
+      // Build the levels of a track recorded or imported without them
+      buildLevels(selectedTrackId);
+    }
   }
 
   /**
@@ -580,6 +610,7 @@ public class TrackDataHub implements DataSourceListener {
     numLoadedPoints = 0;
     firstSeenLocationId = -1L;
     lastSeenLocationId = -1L;
+    hasLevels = false;
   }
 
   /**
@@ -590,6 +621,16 @@ public class TrackDataHub implements DataSourceListener {
     return new DataSource(context);
   }
 
+  /**
+   * Builds the levels of a track in the background.
+   * 
+   * @param trackId the track id
+   */
+  @VisibleForTesting
+  protected void buildLevels(long trackId) {
+    TrackPointLevelService.start(context, trackId);
+  }
+
   /**
    * Run in the handler thread.
    * 
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.location.Location;
+
+/**
+ * Builds the levels of detail of a track, see {@link TrackPointsColumns#LEVEL},
+ * incrementally as track points are added.
+ * <p>
+ * Each level keeps one of every {@link #LEVEL_FACTOR} points of the previous
+ * level: the point deviating the most from the line between the point kept
+ * before and the last point of the group, so that turns are kept rather than
+ * every Nth point. The first and last points of a segment and the segment
+ * splits are kept at all levels. Since the levels are nested, a coarser level
+ * is always a subset of a finer one.
+ * <p>
+ * The levels of a point only depend on the points before it in its segment.
+ * An updater without state, e.g., after the service restarted, goes through
+ * the track again and gets the same levels.
+ * <p>
+ * While recording, {@link #insert(long, Location[], int, Track)} gets the
+ * levels of the new track points before they are inserted, so that they are
+ * written with the track points instead of read back and updated.
+ */
+public class TrackPointLevelUpdater {
+
+  /**
+   * Each level keeps one of every LEVEL_FACTOR points of the previous level.
+   */
+  public static final int LEVEL_FACTOR = 4;
+
+  /**
+   * The coarsest level. The first and last points of a segment and the
+   * segment splits have this level.
+   */
+  public static final int MAX_LEVEL = 7;
+
+  private static final int BATCH_SIZE = 1024;
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final TrackPointBatch trackPointBatch = new TrackPointBatch(BATCH_SIZE);
+
+  private long trackId = -1L;
+  private long lastTrackPointId = -1L;
+
+  // The segment state
+  private boolean inSegment;
+  private long lastValidId;
+  private int lastValidLevel;
+
+  // Per level, the last kept point and the candidate points for the next one
+  private final int[] keptLatitudes = new int[MAX_LEVEL + 1];
+  private final int[] keptLongitudes = new int[MAX_LEVEL + 1];
+  private final long[][] candidateIds = new long[MAX_LEVEL + 1][LEVEL_FACTOR];
+  private final int[][] candidateLatitudes = new int[MAX_LEVEL + 1][LEVEL_FACTOR];
+  private final int[][] candidateLongitudes = new int[MAX_LEVEL + 1][LEVEL_FACTOR];
+  private final int[][] candidateLevels = new int[MAX_LEVEL + 1][LEVEL_FACTOR];
+  private final int[] numberOfCandidates = new int[MAX_LEVEL + 1];
+
+  // The level updates not yet written
+  private long[] updateIds = new long[64];
+  private int[] updateLevels = new int[64];
+  private int numberOfUpdates;
+
+  // The levels of the track points being inserted, see getPendingId
+  private int[] pendingLevels = new int[64];
+
+  public TrackPointLevelUpdater(MyTracksProviderUtils myTracksProviderUtils) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+  }
+
+  /**
+   * Gets the coarsest level with at least about the target number of points.
+   *
+   * @param numberOfPoints the number of points of the track
+   * @param targetNumberOfPoints the target number of points
+   */
+  public static int getLevel(long numberOfPoints, int targetNumberOfPoints) {
+    int level = 0;
+    long maxNumberOfPoints = targetNumberOfPoints;
+    while (level < MAX_LEVEL && numberOfPoints > maxNumberOfPoints) {
+      level++;
+      maxNumberOfPoints *= LEVEL_FACTOR;
+    }
+    return level;
+  }
+
+  /**
+   * Gets the maximum number of recent points of a recording track whose level
+   * may still be raised to a level.
+   *
+   * @param level the level
+   */
+  public static long getMaxNumberOfPendingPoints(int level) {
+    // The candidates of all the finer levels
+    return 2L << (2 * level);
+  }
+
+  /**
+   * Updates the levels of the track points added since the last update.
+   *
+   * @param id the track id
+   */
+  public synchronized void update(long id) {
+    if (id != trackId) {
+      reset(id);
+    }
+    int size;
+    do {
+      long startTrackPointId = lastTrackPointId == -1L ? -1L : lastTrackPointId + 1;
+      size = myTracksProviderUtils.getTrackPointBatch(
+          trackId, startTrackPointId, false, trackPointBatch);
+      for (int i = 0; i < size; i++) {
+        addTrackPoint(trackPointBatch.getId(i), trackPointBatch.getLatitudesE6()[i],
+            trackPointBatch.getLongitudesE6()[i], trackPointBatch.getLevel(i));
+      }
+      if (size > 0) {
+        lastTrackPointId = trackPointBatch.getId(size - 1);
+      }
+      writeUpdates();
+    } while (size == BATCH_SIZE);
+  }
+
+  /**
+   * Inserts track points with their levels, and raises the levels of the
+   * earlier track points, in one batch with the update of the track. See
+   * {@link MyTracksProviderUtils#insertTrackPoints(Location[], int[], int, long,
+   * Track, long[], int[], int)}.
+   *
+   * @param id the track id
+   * @param locations the locations
+   * @param size the number of locations to insert
+   * @param track the track to update, can be null
+   * @return the ids of the inserted track points
+   */
+  public synchronized long[] insert(long id, Location[] locations, int size, Track track) {
+    if (id != trackId) {
+      // Go through the track points already written, e.g., after a restart
+      update(id);
+    }
+    if (pendingLevels.length < size) {
+      pendingLevels = new int[size];
+    }
+    for (int i = 0; i < size; i++) {
+      pendingLevels[i] = 0;
+      addTrackPoint(getPendingId(i), (int) (locations[i].getLatitude() * 1E6),
+          (int) (locations[i].getLongitude() * 1E6), 0);
+    }
+
+    long[] ids;
+    try {
+      ids = myTracksProviderUtils.insertTrackPoints(
+          locations, pendingLevels, size, id, track, updateIds, updateLevels, numberOfUpdates);
+    } catch (RuntimeException e) {
+      // The state refers to track points not inserted, go through the track again
+      reset(-1L);
+      throw e;
+    }
+    numberOfUpdates = 0;
+
+    // Replace the pending ids with the inserted ones
+    for (int level = 1; level <= MAX_LEVEL; level++) {
+      for (int i = 0; i < numberOfCandidates[level]; i++) {
+        candidateIds[level][i] = getInsertedId(candidateIds[level][i], ids);
+      }
+    }
+    lastValidId = getInsertedId(lastValidId, ids);
+    if (ids.length > 0) {
+      lastTrackPointId = ids[ids.length - 1];
+    }
+    return ids;
+  }
+
+  /**
+   * Updates the levels of a finished track. The last point is kept at all
+   * levels.
+   *
+   * @param id the track id
+   */
+  public synchronized void finish(long id) {
+    update(id);
+    endSegment();
+    writeUpdates();
+  }
+
+  /**
+   * Resets the state for a track.
+   *
+   * @param id the track id
+   */
+  private void reset(long id) {
+    trackId = id;
+    lastTrackPointId = -1L;
+    inSegment = false;
+    numberOfUpdates = 0;
+  }
+
+  /**
+   * Gets the id standing for a track point being inserted, until its id is
+   * known.
+   *
+   * @param index the index of the track point in the inserted ones
+   */
+  private static long getPendingId(int index) {
+    return -2L - index;
+  }
+
+  /**
+   * Gets the inserted id of a track point, if it was pending.
+   *
+   * @param id the id or the pending id of the track point
+   * @param ids the inserted ids
+   */
+  private static long getInsertedId(long id, long[] ids) {
+    return id < -1L ? ids[(int) (-2L - id)] : id;
+  }
+
+  /**
+   * Adds a track point.
+   *
+   * @param id the track point id, or its pending id
+   * @param latitude the latitude E6
+   * @param longitude the longitude E6
+   * @param level the current level
+   */
+  private void addTrackPoint(long id, int latitude, int longitude, int level) {
+    if (Math.abs(latitude) > 90000000 || Math.abs(longitude) > 180000000) {
+      // A segment split
+      endSegment();
+      raiseLevel(id, level, MAX_LEVEL);
+      return;
+    }
+    if (!inSegment) {
+      inSegment = true;
+      raiseLevel(id, level, MAX_LEVEL);
+      for (int i = 1; i <= MAX_LEVEL; i++) {
+        keptLatitudes[i] = latitude;
+        keptLongitudes[i] = longitude;
+        numberOfCandidates[i] = 0;
+      }
+    } else {
+      addCandidate(1, id, latitude, longitude, level);
+    }
+    lastValidId = id;
+    lastValidLevel = level;
+  }
+
+  /**
+   * Ends the current segment, keeping its last point at all levels.
+   */
+  private void endSegment() {
+    if (inSegment) {
+      raiseLevel(lastValidId, lastValidLevel, MAX_LEVEL);
+      inSegment = false;
+    }
+  }
+
+  /**
+   * Adds a candidate point to a level. Keeps one point once the level has
+   * {@link #LEVEL_FACTOR} candidates, and adds it as a candidate of the next
+   * level.
+   *
+   * @param level the level
+   * @param id the track point id
+   * @param latitude the latitude E6
+   * @param longitude the longitude E6
+   * @param currentLevel the current level of the track point
+   */
+  private void addCandidate(int level, long id, int latitude, int longitude, int currentLevel) {
+    if (level > MAX_LEVEL) {
+      return;
+    }
+    int count = numberOfCandidates[level];
+    candidateIds[level][count] = id;
+    candidateLatitudes[level][count] = latitude;
+    candidateLongitudes[level][count] = longitude;
+    candidateLevels[level][count] = currentLevel;
+    count++;
+    if (count < LEVEL_FACTOR) {
+      numberOfCandidates[level] = count;
+      return;
+    }
+    numberOfCandidates[level] = 0;
+
+    int kept = selectCandidate(level);
+    long keptId = candidateIds[level][kept];
+    int keptLatitude = candidateLatitudes[level][kept];
+    int keptLongitude = candidateLongitudes[level][kept];
+    int keptLevel = Math.max(candidateLevels[level][kept], level);
+    raiseLevel(keptId, candidateLevels[level][kept], level);
+    keptLatitudes[level] = keptLatitude;
+    keptLongitudes[level] = keptLongitude;
+    addCandidate(level + 1, keptId, keptLatitude, keptLongitude, keptLevel);
+  }
+
+  /**
+   * Selects the candidate to keep at a level: the one the farthest from the
+   * line between the last kept point and the last candidate. If none is off
+   * the line by more than a microdegree, the last candidate.
+   *
+   * @param level the level
+   */
+  private int selectCandidate(int level) {
+    // Project to a plane, scaling the longitudes at the latitude
+    double scale = Math.cos(Math.toRadians(keptLatitudes[level] / 1E6));
+    int last = LEVEL_FACTOR - 1;
+    double endX = (candidateLongitudes[level][last] - keptLongitudes[level]) * scale;
+    double endY = candidateLatitudes[level][last] - keptLatitudes[level];
+    double endLengthSquared = endX * endX + endY * endY;
+
+    int selected = last;
+    double maxDistanceSquared = 1.0;
+    for (int i = 0; i < last; i++) {
+      double x = (candidateLongitudes[level][i] - keptLongitudes[level]) * scale;
+      double y = candidateLatitudes[level][i] - keptLatitudes[level];
+
+      // Distance to the segment
+      double t = endLengthSquared == 0.0 ? 0.0
+          : Math.max(0.0, Math.min(1.0, (x * endX + y * endY) / endLengthSquared));
+      double dx = x - t * endX;
+      double dy = y - t * endY;
+      double distanceSquared = dx * dx + dy * dy;
+      if (distanceSquared > maxDistanceSquared) {
+        maxDistanceSquared = distanceSquared;
+        selected = i;
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Raises the level of a track point.
+   *
+   * @param id the track point id
+   * @param currentLevel the current level
+   * @param level the new level
+   */
+  private void raiseLevel(long id, int currentLevel, int level) {
+    if (level <= currentLevel) {
+      return;
+    }
+    if (id < -1L) {
+      // Written with the track point
+      int index = (int) (-2L - id);
+      pendingLevels[index] = Math.max(pendingLevels[index], level);
+      return;
+    }
+    if (numberOfUpdates == updateIds.length) {
+      long[] newUpdateIds = new long[numberOfUpdates * 2];
+      System.arraycopy(updateIds, 0, newUpdateIds, 0, numberOfUpdates);
+      updateIds = newUpdateIds;
+      int[] newUpdateLevels = new int[numberOfUpdates * 2];
+      System.arraycopy(updateLevels, 0, newUpdateLevels, 0, numberOfUpdates);
+      updateLevels = newUpdateLevels;
+    }
+    updateIds[numberOfUpdates] = id;
+    updateLevels[numberOfUpdates] = level;
+    numberOfUpdates++;
+  }
+
+  /**
+   * Writes the level updates.
+   */
+  private void writeUpdates() {
+    if (numberOfUpdates == 0) {
+      return;
+    }
+    myTracksProviderUtils.updateTrackPointLevels(updateIds, updateLevels, numberOfUpdates);
+    numberOfUpdates = 0;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Maintains the {@link TrackTilesColumns} spatial index as track points are
+ * inserted. Extends the last run of a track while its track points stay in the
+ * same tile, and starts a new run when they leave it. When track points are
+ * deleted, the runs of their track are built again with {@link #rebuild(long)}.
+ * <p>
+ * The current run is kept in memory and written by {@link #flush()}, so a bulk
+ * insert costs one write per run instead of one per track point. An indexer
+ * must be used and flushed within a single transaction.
+ */
+class TrackTileIndexer {
+
+  private static final String[] PROJECTION = new String[] {
+      TrackTilesColumns._ID, TrackTilesColumns.TILEX, TrackTilesColumns.TILEY,
+      TrackTilesColumns.STARTID, TrackTilesColumns.STOPID, TrackTilesColumns.NUMPOINTS };
+
+  private final SQLiteDatabase db;
+
+  // The current run. rowId is -1L until the run is written
+  private long trackId = -1L;
+  private long rowId;
+  private int tileX;
+  private int tileY;
+  private long startId;
+  private long stopId;
+  private int numberOfPoints;
+  private boolean changed;
+
+  public TrackTileIndexer(SQLiteDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Adds a track point. Track points must be added in id order for each
+   * track. A track point already in the index is ignored.
+   *
+   * @param trackPointTrackId the track id
+   * @param trackPointId the track point id
+   * @param latitude the latitude in microdegrees
+   * @param longitude the longitude in microdegrees
+   */
+  public void add(long trackPointTrackId, long trackPointId, int latitude, int longitude) {
+    if (!TrackTiles.isValid(latitude, longitude)) {
+      return;
+    }
+    if (trackPointTrackId != trackId) {
+      flush();
+      load(trackPointTrackId);
+    }
+    if (numberOfPoints > 0 && trackPointId <= stopId) {
+      return;
+    }
+    int x = TrackTiles.getTileX(longitude);
+    int y = TrackTiles.getTileY(latitude);
+    if (numberOfPoints > 0 && x == tileX && y == tileY) {
+      stopId = trackPointId;
+      numberOfPoints++;
+      changed = true;
+      return;
+    }
+    flush();
+    rowId = -1L;
+    tileX = x;
+    tileY = y;
+    startId = trackPointId;
+    stopId = trackPointId;
+    numberOfPoints = 1;
+    changed = true;
+  }
+
+  /**
+   * Indexes all the track points of the database, both the rows of the track
+   * points table and the archived chunks.
+   */
+  public void addAll() {
+    addTrackPoints(null, null, null);
+  }
+
+  /**
+   * Builds the runs of a track again, from the track points left in the rows
+   * of the track points table and in the archived chunks.
+   *
+   * @param id the track id
+   */
+  public void rebuild(long id) {
+    flush();
+
+    // Load the runs again on the next track point
+    trackId = -1L;
+    String[] selectionArgs = new String[] { Long.toString(id) };
+    db.delete(TrackTilesColumns.TABLE_NAME, TrackTilesColumns.TRACKID + "=?", selectionArgs);
+    addTrackPoints(TrackPointChunksColumns.TRACKID + "=?", TrackPointsColumns.TRACKID + "=?",
+        selectionArgs);
+  }
+
+  /**
+   * Indexes the track points of the archived chunks, then of the rows of the
+   * track points table, in id order for each track.
+   *
+   * @param chunkSelection the selection of the chunks, null for all
+   * @param trackPointSelection the selection of the track points, null for all
+   * @param selectionArgs the selection arguments
+   */
+  private void addTrackPoints(
+      String chunkSelection, String trackPointSelection, String[] selectionArgs) {
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TrackPointChunksColumns.TABLE_NAME, new String[] {
+          TrackPointChunksColumns.TRACKID, TrackPointChunksColumns.DATA }, chunkSelection,
+          selectionArgs, null, null,
+          TrackPointChunksColumns.TRACKID + "," + TrackPointChunksColumns.STARTID);
+      while (cursor.moveToNext()) {
+        long chunkTrackId = cursor.getLong(0);
+        TrackPointChunk chunk = TrackPointChunk.decode(cursor.getBlob(1));
+        for (int i = 0; i < chunk.size(); i++) {
+          add(chunkTrackId, chunk.getId(i),
+              (int) chunk.getLong(TrackPointChunk.LATITUDE_COLUMN, i),
+              (int) chunk.getLong(TrackPointChunk.LONGITUDE_COLUMN, i));
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    try {
+      cursor = db.query(TrackPointsColumns.TABLE_NAME, new String[] { TrackPointsColumns._ID,
+          TrackPointsColumns.TRACKID, TrackPointsColumns.LATITUDE, TrackPointsColumns.LONGITUDE },
+          trackPointSelection, selectionArgs, null, null,
+          TrackPointsColumns.TRACKID + "," + TrackPointsColumns._ID);
+      while (cursor.moveToNext()) {
+        add(cursor.getLong(1), cursor.getLong(0), cursor.getInt(2), cursor.getInt(3));
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Writes the current run.
+   */
+  public void flush() {
+    if (!changed) {
+      return;
+    }
+    ContentValues values = new ContentValues();
+    values.put(TrackTilesColumns.STOPID, stopId);
+    values.put(TrackTilesColumns.NUMPOINTS, numberOfPoints);
+    if (rowId == -1L) {
+      values.put(TrackTilesColumns.TRACKID, trackId);
+      values.put(TrackTilesColumns.TILEX, tileX);
+      values.put(TrackTilesColumns.TILEY, tileY);
+      values.put(TrackTilesColumns.STARTID, startId);
+      rowId = db.insertOrThrow(TrackTilesColumns.TABLE_NAME, TrackTilesColumns._ID, values);
+    } else {
+      db.update(TrackTilesColumns.TABLE_NAME, values, TrackTilesColumns._ID + "=?",
+          new String[] { Long.toString(rowId) });
+    }
+    changed = false;
+  }
+
+  /**
+   * Loads the last run of a track.
+   *
+   * @param id the track id
+   */
+  private void load(long id) {
+    trackId = id;
+    numberOfPoints = 0;
+    Cursor cursor = null;
+    try {
+      cursor = db.query(TrackTilesColumns.TABLE_NAME, PROJECTION, TrackTilesColumns.TRACKID
+          + "=?", new String[] { Long.toString(id) }, null, null, TrackTilesColumns.STARTID
+          + " DESC", "1");
+      if (cursor.moveToFirst()) {
+        rowId = cursor.getLong(0);
+        tileX = cursor.getInt(1);
+        tileY = cursor.getInt(2);
+        startId = cursor.getLong(3);
+        stopId = cursor.getLong(4);
+        numberOfPoints = cursor.getInt(5);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.google.android.apps.mytracks.fragments;
 
+import com.google.android.apps.mytracks.ChartData;
 import com.google.android.apps.mytracks.ChartView;
 import com.google.android.apps.mytracks.TrackDetailActivity;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
@@ -45,7 +46,6 @@ import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.ZoomControls;
 
-import java.util.ArrayList;
 import java.util.EnumSet;
 
 /**
@@ -58,7 +58,8 @@ public class ChartFragment extends Fragment implements TrackDataListener {
 
   public static final String CHART_FRAGMENT_TAG = "chartFragment";
 
-  private final ArrayList<double[]> pendingPoints = new ArrayList<double[]>();
+  private final ChartData pendingData = new ChartData(ChartView.NUM_SERIES);
+  private final double[] dataPoint = new double[ChartView.NUM_SERIES + 1];
 
   private TrackDataHub trackDataHub;
 
@@ -172,7 +173,7 @@ public class ChartFragment extends Fragment implements TrackDataListener {
   public void clearTrackPoints() {
     if (isResumed()) {
       tripStatisticsUpdater = startTime != -1L ? new TripStatisticsUpdater(startTime) : null;
-      pendingPoints.clear();
+      pendingData.clear();
       chartView.reset();
       runOnUiThread(new Runnable() {
           @Override
@@ -188,9 +189,8 @@ public class ChartFragment extends Fragment implements TrackDataListener {
   @Override
   public void onSampledInTrackPoint(Location location) {
     if (isResumed()) {
-      double[] data = new double[ChartView.NUM_SERIES + 1];
-      fillDataPoint(location, data);
-      pendingPoints.add(data);
+      fillDataPoint(location, dataPoint);
+      pendingData.add(dataPoint);
     }
   }
 
@@ -211,8 +211,8 @@ public class ChartFragment extends Fragment implements TrackDataListener {
   @Override
   public void onNewTrackPointsDone() {
     if (isResumed()) {
-      chartView.addDataPoints(pendingPoints);
-      pendingPoints.clear();
+      chartView.addDataPoints(pendingData);
+      pendingData.clear();
       runOnUiThread(updateChart);
     }
   }
@@ -47,7 +47,6 @@ import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
-import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
@@ -70,7 +69,6 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
 import java.util.EnumSet;
 
 /**
@@ -124,10 +122,6 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   // Current track
   private Track currentTrack;
 
-  // Current paths
-  private ArrayList<Polyline> paths = new ArrayList<Polyline>();
-  boolean reloadPaths = true;
-
   // UI elements
   private GoogleMap googleMap;
   private MapOverlay mapOverlay;
@@ -142,6 +136,12 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     mapOverlay = new MapOverlay(getActivity());
   }
 
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    mapOverlay.destroy();
+  }
+
   @Override
   public View onCreateView(
       LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -233,6 +233,7 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     if (googleMap == null) {
       googleMap = getMap();
       googleMap.setMyLocationEnabled(true);
+      mapOverlay.setGoogleMap(googleMap);
 
       /*
        * My Tracks needs to handle the onClick event when the my location button
@@ -278,6 +279,12 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
               && !isLocationVisible(currentLocation)) {
             keepCurrentLocationVisible = false;
           }
+
+          // The paths skip the points closer than a pixel at the zoom level
+          if (mapOverlay.setZoomLevel((int) cameraPosition.zoom) && isResumed()
+              && currentTrack != null) {
+            mapOverlay.update(currentTrack.getTripStatistics(), true);
+          }
         }
       });
     }
@@ -375,7 +382,6 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
     lastTrackPoint = null;
     if (isResumed()) {
       mapOverlay.clearPoints();
-      reloadPaths = true;
     }
   }
 
@@ -402,20 +408,12 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   @Override
   public void onNewTrackPointsDone() {
     if (isResumed()) {
+      if (currentTrack != null) {
+        mapOverlay.update(currentTrack.getTripStatistics(), false);
+      }
       getActivity().runOnUiThread(new Runnable() {
         public void run() {
           if (isResumed() && googleMap != null && currentTrack != null) {
-            boolean hasStartMarker = mapOverlay.update(
-                googleMap, paths, currentTrack.getTripStatistics(), reloadPaths);
-
-            /*
-             * If has the start marker, then don't need to reload the paths each
-             * time
-             */
-            if (hasStartMarker) {
-              reloadPaths = false;
-            }
-
             if (lastTrackPoint != null && isSelectedTrackRecording()) {
               boolean firstLocation = setCurrentLocation(lastTrackPoint);
               if (firstLocation) {
@@ -446,14 +444,8 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
 
   @Override
   public void onNewWaypointsDone() {
-    if (isResumed()) {
-      getActivity().runOnUiThread(new Runnable() {
-        public void run() {
-          if (isResumed() && googleMap != null && currentTrack != null) {
-            mapOverlay.update(googleMap, paths, currentTrack.getTripStatistics(), true);
-          }
-        }
-      });
+    if (isResumed() && currentTrack != null) {
+      mapOverlay.update(currentTrack.getTripStatistics(), false);
     }
   }
 
@@ -57,6 +57,7 @@ public class PreferenceBackupHelper {
     doNotBackup.add(context.getString(R.string.drive_largest_change_id_key));
     doNotBackup.add(context.getString(R.string.drive_sync_key));
     doNotBackup.add(context.getString(R.string.google_account_key));
+    doNotBackup.add(context.getString(R.string.recompute_statistics_list_key));
     doNotBackup.add(context.getString(R.string.recording_track_id_key));
     doNotBackup.add(context.getString(R.string.recording_track_paused_key));
     doNotBackup.add(context.getString(R.string.share_track_account_key));
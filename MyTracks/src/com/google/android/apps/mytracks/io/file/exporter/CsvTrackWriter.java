@@ -22,16 +22,12 @@ import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
-import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 /**
  * Write track as CSV to a file. See RFC 4180 for info on CSV. Output three
@@ -52,14 +48,11 @@ import java.util.Locale;
  */
 public class CsvTrackWriter implements TrackWriter {
 
-  private static final NumberFormat SHORT_FORMAT = NumberFormat.getInstance(Locale.US);
-
-  static {
-    SHORT_FORMAT.setMaximumFractionDigits(4);
-  }
+  // The max number of fraction digits of the accuracy and the speed
+  private static final int SHORT_FRACTION_DIGITS = 4;
 
   private final Context context;
-  private PrintWriter printWriter;
+  private TextEmitter textEmitter;
   private int segmentIndex;
   private int pointIndex;
 
@@ -74,16 +67,16 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    printWriter = new PrintWriter(outputStream);
+    textEmitter = new TextEmitter(outputStream);
     segmentIndex = 0;
     pointIndex = 0;
   }
 
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (textEmitter != null) {
+      textEmitter.flush();
+      textEmitter = null;
     }
   }
 
@@ -123,11 +116,15 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    Location location = waypoint.getLocation();
-    writeCommaSeparatedLine(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
-        Double.toString(location.getLatitude()), Double.toString(location.getLongitude()),
-        getAltitude(location), getBearing(location), getAccuracy(location), getSpeed(location),
-        StringUtils.formatDateTimeIso8601(location.getTime()));
+    textEmitter.printCsv(waypoint.getName());
+    textEmitter.print(',');
+    textEmitter.printCsv(waypoint.getCategory());
+    textEmitter.print(',');
+    textEmitter.printCsv(waypoint.getDescription());
+    textEmitter.print(",\"");
+    writeLocationValues(waypoint.getLocation());
+    textEmitter.print('"');
+    textEmitter.println();
   }
 
   @Override
@@ -174,54 +171,83 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void writeLocation(Location location) {
-    String power = null;
-    String cadence = null;
-    String heartRate = null;
+    SensorData power = null;
+    SensorData cadence = null;
+    SensorData heartRate = null;
     if (location instanceof MyTracksLocation) {
       SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
 
       if (sensorDataSet != null) {
         if (sensorDataSet.hasPower()) {
-          SensorData sensorData = sensorDataSet.getPower();
-          if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            power = Double.toString(sensorData.getValue());
-          }
+          power = sensorDataSet.getPower();
         }
         if (sensorDataSet.hasCadence()) {
-          SensorData sensorData = sensorDataSet.getCadence();
-          if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            cadence = Double.toString(sensorData.getValue());
-          }
+          cadence = sensorDataSet.getCadence();
         }
         if (sensorDataSet.hasHeartRate()) {
-          SensorData sensorData = sensorDataSet.getHeartRate();
-          if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            heartRate = Double.toString(sensorData.getValue());
-          }
+          heartRate = sensorDataSet.getHeartRate();
         }
       }
     }
     pointIndex++;
-    writeCommaSeparatedLine(Integer.toString(segmentIndex), Integer.toString(pointIndex),
-        Double.toString(location.getLatitude()), Double.toString(location.getLongitude()),
-        getAltitude(location), getBearing(location), getAccuracy(location), getSpeed(location),
-        StringUtils.formatDateTimeIso8601(location.getTime()), power, cadence, heartRate);
-  }
-
-  private String getAltitude(Location location) {
-    return location.hasAltitude() ? Double.toString(location.getAltitude()) : null;
-  }
 
-  private String getBearing(Location location) {
-    return location.hasBearing() ? Double.toString(location.getBearing()) : null;
+    textEmitter.print('"');
+    textEmitter.print(segmentIndex);
+    textEmitter.print("\",\"");
+    textEmitter.print(pointIndex);
+    textEmitter.print("\",\"");
+    writeLocationValues(location);
+    textEmitter.print("\",\"");
+    writeSensorData(power);
+    textEmitter.print("\",\"");
+    writeSensorData(cadence);
+    textEmitter.print("\",\"");
+    writeSensorData(heartRate);
+    textEmitter.print('"');
+    textEmitter.println();
   }
 
-  private String getAccuracy(Location location) {
-    return location.hasAccuracy() ? SHORT_FORMAT.format(location.getAccuracy()) : null;
+  /**
+   * Writes the latitude, longitude, altitude, bearing, accuracy, speed, and
+   * time values of a location, without the opening and the closing quotes. The
+   * values are written directly, they don't need to be escaped.
+   * 
+   * @param location the location
+   */
+  private void writeLocationValues(Location location) {
+    textEmitter.print(location.getLatitude());
+    textEmitter.print("\",\"");
+    textEmitter.print(location.getLongitude());
+    textEmitter.print("\",\"");
+    if (location.hasAltitude()) {
+      textEmitter.print(location.getAltitude());
+    }
+    textEmitter.print("\",\"");
+    if (location.hasBearing()) {
+      textEmitter.print((double) location.getBearing());
+    }
+    textEmitter.print("\",\"");
+    if (location.hasAccuracy()) {
+      textEmitter.printFixed(location.getAccuracy(), SHORT_FRACTION_DIGITS, true);
+    }
+    textEmitter.print("\",\"");
+    if (location.hasSpeed()) {
+      textEmitter.printFixed(location.getSpeed(), SHORT_FRACTION_DIGITS, true);
+    }
+    textEmitter.print("\",\"");
+    textEmitter.printTime(location.getTime());
   }
 
-  private String getSpeed(Location location) {
-    return location.hasSpeed() ? SHORT_FORMAT.format(location.getSpeed()) : null;
+  /**
+   * Writes the value of a sensor data, if sending.
+   * 
+   * @param sensorData the sensor data, can be null
+   */
+  private void writeSensorData(SensorData sensorData) {
+    if (sensorData != null && sensorData.hasValue()
+        && sensorData.getState() == Sensor.SensorState.SENDING) {
+      textEmitter.print((double) sensorData.getValue());
+    }
   }
 
   /**
@@ -230,20 +256,14 @@ public class CsvTrackWriter implements TrackWriter {
    * @param values the values to be written as CSV
    */
   private void writeCommaSeparatedLine(String... values) {
-    StringBuilder builder = new StringBuilder();
     boolean isFirst = true;
     for (String value : values) {
       if (!isFirst) {
-        builder.append(',');
+        textEmitter.print(',');
       }
       isFirst = false;
-
-      builder.append('"');
-      if (value != null) {
-        builder.append(value.replaceAll("\"", "\"\""));
-      }
-      builder.append('"');
+      textEmitter.printCsv(value);
     }
-    printWriter.println(builder.toString());
+    textEmitter.println();
   }
 }
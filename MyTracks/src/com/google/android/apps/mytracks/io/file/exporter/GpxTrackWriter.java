@@ -26,9 +26,6 @@ import android.content.Context;
 import android.location.Location;
 
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 /**
  * Write track as GPX to a file.
@@ -37,23 +34,15 @@ import java.util.Locale;
  */
 public class GpxTrackWriter implements TrackWriter {
 
-  private static final NumberFormat ELEVATION_FORMAT = NumberFormat.getInstance(Locale.US);
-  private static final NumberFormat COORDINATE_FORMAT = NumberFormat.getInstance(Locale.US);
-  static {
-    /*
-     * GPX readers expect to see fractional numbers with US-style punctuation.
-     * That is, they want periods for decimal points, rather than commas.
-     */
-    ELEVATION_FORMAT.setMaximumFractionDigits(1);
-    ELEVATION_FORMAT.setGroupingUsed(false);
-
-    COORDINATE_FORMAT.setMaximumFractionDigits(6);
-    COORDINATE_FORMAT.setMaximumIntegerDigits(3);
-    COORDINATE_FORMAT.setGroupingUsed(false);
-  }
+  /*
+   * GPX readers expect to see fractional numbers with US-style punctuation.
+   * That is, they want periods for decimal points, rather than commas.
+   */
+  private static final int ELEVATION_FRACTION_DIGITS = 1;
+  private static final int COORDINATE_FRACTION_DIGITS = 6;
 
   private final Context context;
-  private PrintWriter printWriter;
+  private TextEmitter textEmitter;
 
   public GpxTrackWriter(Context context) {
     this.context = context;
@@ -66,45 +55,45 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.textEmitter = new TextEmitter(outputStream);
   }
   
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (textEmitter != null) {
+      textEmitter.flush();
+      textEmitter = null;
     }
   }
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<gpx");
-      printWriter.println("version=\"1.1\"");
-      printWriter.println(
+    if (textEmitter != null) {
+      textEmitter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      textEmitter.println("<gpx");
+      textEmitter.println("version=\"1.1\"");
+      textEmitter.println(
           "creator=\"" + context.getString(R.string.send_google_by_my_tracks, "", "") + "\"");
-      printWriter.println("xmlns=\"http://www.topografix.com/GPX/1/1\"");
-      printWriter.println(
+      textEmitter.println("xmlns=\"http://www.topografix.com/GPX/1/1\"");
+      textEmitter.println(
           "xmlns:topografix=\"http://www.topografix.com/GPX/Private/TopoGrafix/0/1\"");
-      printWriter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-      printWriter.println("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1"
+      textEmitter.println("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+      textEmitter.println("xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1"
           + " http://www.topografix.com/GPX/1/1/gpx.xsd"
           + " http://www.topografix.com/GPX/Private/TopoGrafix/0/1"
           + " http://www.topografix.com/GPX/Private/TopoGrafix/0/1/topografix.xsd\">");
-      printWriter.println("<metadata>");
+      textEmitter.println("<metadata>");
       Track track = tracks[0];
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
-      printWriter.println("</metadata>");
+      textEmitter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      textEmitter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
+      textEmitter.println("</metadata>");
     }
   }
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("</gpx>");
+    if (textEmitter != null) {
+      textEmitter.println("</gpx>");
     }
   }
 
@@ -120,21 +109,20 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    if (printWriter != null) {
+    if (textEmitter != null) {
       Location location = waypoint.getLocation();
       if (location != null) {
-        printWriter.println("<wpt " + formatLocation(location) + ">");
-        if (location.hasAltitude()) {
-          printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
-        }
-        printWriter.println(
-            "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
-        printWriter.println("<name>" + StringUtils.formatCData(waypoint.getName()) + "</name>");
-        printWriter.println("<cmt>" + StringUtils.formatCData(waypoint.getType().name()) + "</cmt>");
-        printWriter.println(
+        textEmitter.print("<wpt ");
+        writeLocationAttributes(location);
+        textEmitter.println(">");
+        writeElevationAndTime(location);
+        textEmitter.println("<name>" + StringUtils.formatCData(waypoint.getName()) + "</name>");
+        textEmitter.println(
+            "<cmt>" + StringUtils.formatCData(waypoint.getType().name()) + "</cmt>");
+        textEmitter.println(
             "<desc>" + StringUtils.formatCData(waypoint.getDescription()) + "</desc>");
-        printWriter.println("<type>" + StringUtils.formatCData(waypoint.getCategory()) + "</type>");
-        printWriter.println("</wpt>");
+        textEmitter.println("<type>" + StringUtils.formatCData(waypoint.getCategory()) + "</type>");
+        textEmitter.println("</wpt>");
       }
     }
   }
@@ -151,52 +139,69 @@ public class GpxTrackWriter implements TrackWriter {
   
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
-    if (printWriter != null) {
-      printWriter.println("<trk>");
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
-      printWriter.println("<type>" + StringUtils.formatCData(track.getCategory()) + "</type>");
-      printWriter.println("<extensions><topografix:color>c0c0c0</topografix:color></extensions>");
+    if (textEmitter != null) {
+      textEmitter.println("<trk>");
+      textEmitter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      textEmitter.println("<desc>" + StringUtils.formatCData(track.getDescription()) + "</desc>");
+      textEmitter.println("<type>" + StringUtils.formatCData(track.getCategory()) + "</type>");
+      textEmitter.println("<extensions><topografix:color>c0c0c0</topografix:color></extensions>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</trk>");
+    if (textEmitter != null) {
+      textEmitter.println("</trk>");
     }
   }
 
   @Override
   public void writeOpenSegment() {
-    printWriter.println("<trkseg>");
+    textEmitter.println("<trkseg>");
   }
 
   @Override
   public void writeCloseSegment() {
-    printWriter.println("</trkseg>");
+    textEmitter.println("</trkseg>");
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println("<trkpt " + formatLocation(location) + ">");
-      if (location.hasAltitude()) {
-        printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
-      }
-      printWriter.println(
-          "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
-      printWriter.println("</trkpt>");
+    if (textEmitter != null) {
+      textEmitter.print("<trkpt ");
+      writeLocationAttributes(location);
+      textEmitter.println(">");
+      writeElevationAndTime(location);
+      textEmitter.println("</trkpt>");
     }
   }
 
   /**
-   * Formats a location with latitude and longitude coordinates.
+   * Writes the latitude and longitude attributes of a location.
    * 
    * @param location the location
    */
-  private String formatLocation(Location location) {
-    return "lat=\"" + COORDINATE_FORMAT.format(location.getLatitude()) + "\" lon=\""
-        + COORDINATE_FORMAT.format(location.getLongitude()) + "\"";
+  private void writeLocationAttributes(Location location) {
+    textEmitter.print("lat=\"");
+    textEmitter.printFixed(location.getLatitude(), COORDINATE_FRACTION_DIGITS, false);
+    textEmitter.print("\" lon=\"");
+    textEmitter.printFixed(location.getLongitude(), COORDINATE_FRACTION_DIGITS, false);
+    textEmitter.print('"');
+  }
+
+  /**
+   * Writes the elevation, if any, and the time elements of a location.
+   * 
+   * @param location the location
+   */
+  private void writeElevationAndTime(Location location) {
+    if (location.hasAltitude()) {
+      textEmitter.print("<ele>");
+      textEmitter.printFixed(location.getAltitude(), ELEVATION_FRACTION_DIGITS, false);
+      textEmitter.println("</ele>");
+    }
+    textEmitter.print("<time>");
+    textEmitter.printTime(location.getTime());
+    textEmitter.println("</time>");
   }
 }
@@ -38,8 +38,6 @@ import android.net.Uri;
 
 import java.io.File;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.util.ArrayList;
 
 /**
  * Write track as KML to a file.
@@ -75,13 +73,17 @@ public class KmlTrackWriter implements TrackWriter {
   private final DescriptionGenerator descriptionGenerator;  
   private final MyTracksProviderUtils myTracksProviderUtils;
 
-  private PrintWriter printWriter;
-  private ArrayList<Integer> powerList = new ArrayList<Integer>();
-  private ArrayList<Integer> cadenceList = new ArrayList<Integer>();
-  private ArrayList<Integer> heartRateList = new ArrayList<Integer>();
-  private boolean hasPower;
-  private boolean hasCadence;
-  private boolean hasHeartRate;
+  private TextEmitter textEmitter;
+  /*
+   * The sensor values of the current segment, written after its locations.
+   * Reused for all the segments.
+   */
+  private final SensorSeries powerSeries = new SensorSeries();
+  private final SensorSeries cadenceSeries = new SensorSeries();
+  private final SensorSeries heartRateSeries = new SensorSeries();
+
+  // The number of locations with sensor data in the current segment
+  private int numberOfSensorLocations;
 
   public KmlTrackWriter(Context context, boolean multiple, boolean playTrack) {
     this(context, multiple, playTrack, new DescriptionGeneratorImpl(context));
@@ -104,30 +106,30 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.textEmitter = new TextEmitter(outputStream);
   }
 
   @Override
   public void close() {
-    if (printWriter != null) {
-      printWriter.flush();
-      printWriter = null;
+    if (textEmitter != null) {
+      textEmitter.flush();
+      textEmitter = null;
     }
   }
 
   @Override
   public void writeHeader(Track[] tracks) {
-    if (printWriter != null) {
-      printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-      printWriter.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"");
-      printWriter.println("xmlns:gx=\"http://www.google.com/kml/ext/2.2\"");
-      printWriter.println("xmlns:atom=\"http://www.w3.org/2005/Atom\">");
-      printWriter.println("<Document>");
-      printWriter.println("<open>1</open>");
-      printWriter.println("<visibility>1</visibility>");
+    if (textEmitter != null) {
+      textEmitter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      textEmitter.println("<kml xmlns=\"http://www.opengis.net/kml/2.2\"");
+      textEmitter.println("xmlns:gx=\"http://www.google.com/kml/ext/2.2\"");
+      textEmitter.println("xmlns:atom=\"http://www.w3.org/2005/Atom\">");
+      textEmitter.println("<Document>");
+      textEmitter.println("<open>1</open>");
+      textEmitter.println("<visibility>1</visibility>");
       Track track = tracks[0];
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println("<atom:author><atom:name>"
+      textEmitter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      textEmitter.println("<atom:author><atom:name>"
           + StringUtils.formatCData(context.getString(R.string.send_google_by_my_tracks, "", ""))
           + "</atom:name></atom:author>");
       writeTrackStyle();
@@ -135,42 +137,42 @@ public class KmlTrackWriter implements TrackWriter {
       writePlacemarkerStyle(END_STYLE, END_ICON, 32, 1);
       writePlacemarkerStyle(STATISTICS_STYLE, STATISTICS_ICON, 20, 2);
       writePlacemarkerStyle(WAYPOINT_STYLE, WAYPOINT_ICON, 20, 2);
-      printWriter.println("<Schema id=\"" + SCHEMA_ID + "\">");
+      textEmitter.println("<Schema id=\"" + SCHEMA_ID + "\">");
       writeSensorStyle(POWER, context.getString(R.string.description_sensor_power));
       writeSensorStyle(CADENCE, context.getString(R.string.description_sensor_cadence));
       writeSensorStyle(HEART_RATE, context.getString(R.string.description_sensor_heart_rate));
-      printWriter.println("</Schema>");
+      textEmitter.println("</Schema>");
     }
   }
 
   @Override
   public void writeFooter() {
-    if (printWriter != null) {
-      printWriter.println("</Document>");
-      printWriter.println("</kml>");
+    if (textEmitter != null) {
+      textEmitter.println("</Document>");
+      textEmitter.println("</kml>");
     }
   }
 
   @Override
   public void writeBeginWaypoints(Track track) {
-    if (printWriter != null) {
-      printWriter.println("<Folder><name>"
+    if (textEmitter != null) {
+      textEmitter.println("<Folder><name>"
           + StringUtils.formatCData(context.getString(R.string.track_markers, track.getName()))
           + "</name>");
-      printWriter.println("<open>1</open>");
+      textEmitter.println("<open>1</open>");
     }
   }
 
   @Override
   public void writeEndWaypoints() {
-    if (printWriter != null) {
-      printWriter.println("</Folder>");
+    if (textEmitter != null) {
+      textEmitter.println("</Folder>");
     }
   }
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    if (printWriter != null) {
+    if (textEmitter != null) {
       String styleName = waypoint.getType() == WaypointType.STATISTICS ? STATISTICS_STYLE
           : WAYPOINT_STYLE;
       String photoUrl = waypoint.getPhotoUrl();
@@ -187,47 +189,47 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void writeBeginTracks() {
-    if (printWriter != null && multiple) {
-      printWriter.println("<Folder id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
-      printWriter.println("<name>" + context.getString(R.string.generic_tracks) + "</name>");
-      printWriter.println("<open>1</open>");
+    if (textEmitter != null && multiple) {
+      textEmitter.println("<Folder id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
+      textEmitter.println("<name>" + context.getString(R.string.generic_tracks) + "</name>");
+      textEmitter.println("<open>1</open>");
     }
   }
 
   @Override
   public void writeEndTracks() {
-    if (printWriter != null && multiple) {
-      printWriter.println("</Folder>");
+    if (textEmitter != null && multiple) {
+      textEmitter.println("</Folder>");
     }
   }
   
   @Override
   public void writeBeginTrack(Track track, Location startLocation) {
-    if (printWriter != null) {
+    if (textEmitter != null) {
       String name = context.getString(R.string.marker_label_start, track.getName());
       writePlacemark(name, "", "", START_STYLE, startLocation);
       if (multiple) {
         // No need to add TOUR_FEATURE_ID_VALUE
-        printWriter.println("<Placemark>");
+        textEmitter.println("<Placemark>");
       } else {
-        printWriter.println("<Placemark id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
+        textEmitter.println("<Placemark id=\"" + GoogleEarthUtils.TOUR_FEATURE_ID_VALUE + "\">");
       }
-      printWriter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
-      printWriter.println(
+      textEmitter.println("<name>" + StringUtils.formatCData(track.getName()) + "</name>");
+      textEmitter.println(
           "<description>" + StringUtils.formatCData(track.getDescription()) + "</description>");
-      printWriter.println("<styleUrl>#" + TRACK_STYLE + "</styleUrl>");
+      textEmitter.println("<styleUrl>#" + TRACK_STYLE + "</styleUrl>");
       writeCategory(track.getCategory());
-      printWriter.println("<gx:MultiTrack>");
-      printWriter.println("<altitudeMode>absolute</altitudeMode>");
-      printWriter.println("<gx:interpolate>1</gx:interpolate>");
+      textEmitter.println("<gx:MultiTrack>");
+      textEmitter.println("<altitudeMode>absolute</altitudeMode>");
+      textEmitter.println("<gx:interpolate>1</gx:interpolate>");
     }
   }
 
   @Override
   public void writeEndTrack(Track track, Location endLocation) {
-    if (printWriter != null) {
-      printWriter.println("</gx:MultiTrack>");
-      printWriter.println("</Placemark>");
+    if (textEmitter != null) {
+      textEmitter.println("</gx:MultiTrack>");
+      textEmitter.println("</Placemark>");
       String name = context.getString(R.string.marker_label_end, track.getName());
       String description = descriptionGenerator.generateTrackDescription(track, null, null, false);
       writePlacemark(name, "", description, END_STYLE, endLocation);
@@ -236,91 +238,95 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void writeOpenSegment() {
-    if (printWriter != null) {
-      printWriter.println("<gx:Track>");
-      hasPower = false;
-      hasCadence = false;
-      hasHeartRate = false;
-      powerList.clear();
-      cadenceList.clear();
-      heartRateList.clear();
+    if (textEmitter != null) {
+      textEmitter.println("<gx:Track>");
+      numberOfSensorLocations = 0;
+      powerSeries.clear();
+      cadenceSeries.clear();
+      heartRateSeries.clear();
     }
   }
 
   @Override
   public void writeCloseSegment() {
-    if (printWriter != null) {
-      printWriter.println("<ExtendedData>");
-      printWriter.println("<SchemaData schemaUrl=\"#" + SCHEMA_ID + "\">");
-      if (hasPower) {
-        writeSensorData(powerList, POWER);
+    if (textEmitter != null) {
+      textEmitter.println("<ExtendedData>");
+      textEmitter.println("<SchemaData schemaUrl=\"#" + SCHEMA_ID + "\">");
+      if (!powerSeries.isEmpty()) {
+        writeSensorData(powerSeries, POWER);
       }
-      if (hasCadence) {
-        writeSensorData(cadenceList, CADENCE);
+      if (!cadenceSeries.isEmpty()) {
+        writeSensorData(cadenceSeries, CADENCE);
       }
-      if (hasHeartRate) {
-        writeSensorData(heartRateList, HEART_RATE);
+      if (!heartRateSeries.isEmpty()) {
+        writeSensorData(heartRateSeries, HEART_RATE);
       }
-      printWriter.println("</SchemaData>");
-      printWriter.println("</ExtendedData>");
-      printWriter.println("</gx:Track>");
+      textEmitter.println("</SchemaData>");
+      textEmitter.println("</ExtendedData>");
+      textEmitter.println("</gx:Track>");
     }
   }
 
   @Override
   public void writeLocation(Location location) {
-    if (printWriter != null) {
-      printWriter.println(
-          "<when>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when>");
-      printWriter.println("<gx:coord>" + getCoordinates(location, " ") + "</gx:coord>");
+    if (textEmitter != null) {
+      textEmitter.print("<when>");
+      textEmitter.printTime(location.getTime());
+      textEmitter.println("</when>");
+      textEmitter.print("<gx:coord>");
+      textEmitter.print(location.getLongitude());
+      textEmitter.print(' ');
+      textEmitter.print(location.getLatitude());
+      if (location.hasAltitude()) {
+        textEmitter.print(' ');
+        textEmitter.print(location.getAltitude());
+      }
+      textEmitter.println("</gx:coord>");
       if (location instanceof MyTracksLocation) {
         SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
-        int power = -1;
-        int cadence = -1;
-        int heartRate = -1;
-
         if (sensorDataSet != null) {
           if (sensorDataSet.hasPower()) {
-            SensorData sensorData = sensorDataSet.getPower();
-            if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-              hasPower = true;
-              power = sensorData.getValue();
-            }
+            addSensorData(powerSeries, sensorDataSet.getPower());
           }
           if (sensorDataSet.hasCadence()) {
-            SensorData sensorData = sensorDataSet.getCadence();
-            if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-              hasCadence = true;
-              cadence = sensorData.getValue();
-            }
+            addSensorData(cadenceSeries, sensorDataSet.getCadence());
           }
           if (sensorDataSet.hasHeartRate()) {
-            SensorData sensorData = sensorDataSet.getHeartRate();
-            if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-              hasHeartRate = true;
-              heartRate = sensorData.getValue();
-            }
+            addSensorData(heartRateSeries, sensorDataSet.getHeartRate());
           }
         }
-        powerList.add(power);
-        cadenceList.add(cadence);
-        heartRateList.add(heartRate);
+        numberOfSensorLocations++;
       }
     }
   }
 
   /**
-   * Writes the sensor data.
+   * Adds the value of a sensor data at the current location, if sending.
+   * 
+   * @param sensorSeries the sensor series
+   * @param sensorData the sensor data
+   */
+  private void addSensorData(SensorSeries sensorSeries, SensorData sensorData) {
+    if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
+      sensorSeries.set(numberOfSensorLocations, sensorData.getValue());
+    }
+  }
+
+  /**
+   * Writes the sensor data, a value for each location with sensor data of the
+   * segment. -1 if no value.
    * 
-   * @param list a list of sensor data
+   * @param sensorSeries the sensor series
    * @param name the name of the sensor data
    */
-  private void writeSensorData(ArrayList<Integer> list, String name) {
-    printWriter.println("<gx:SimpleArrayData name=\"" + name + "\">");
-    for (int i = 0; i < list.size(); i++) {
-      printWriter.println("<gx:value>" + list.get(i) + "</gx:value>");
+  private void writeSensorData(SensorSeries sensorSeries, String name) {
+    textEmitter.println("<gx:SimpleArrayData name=\"" + name + "\">");
+    for (int i = 0; i < numberOfSensorLocations; i++) {
+      textEmitter.print("<gx:value>");
+      textEmitter.print(sensorSeries.get(i));
+      textEmitter.println("</gx:value>");
     }
-    printWriter.println("</gx:SimpleArrayData>");
+    textEmitter.println("</gx:SimpleArrayData>");
   }
 
   /**
@@ -335,18 +341,18 @@ public class KmlTrackWriter implements TrackWriter {
   private void writePlacemark(
       String name, String category, String description, String styleName, Location location) {
     if (location != null) {
-      printWriter.println("<Placemark>");
-      printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
-      printWriter.println(
+      textEmitter.println("<Placemark>");
+      textEmitter.println("<name>" + StringUtils.formatCData(name) + "</name>");
+      textEmitter.println(
           "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.println("<TimeStamp><when>"
+      textEmitter.println("<TimeStamp><when>"
           + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
-      printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
+      textEmitter.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
-      printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
-      printWriter.println("</Point>");
-      printWriter.println("</Placemark>");
+      textEmitter.println("<Point>");
+      textEmitter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
+      textEmitter.println("</Point>");
+      textEmitter.println("</Placemark>");
     }
   }
   
@@ -364,40 +370,40 @@ public class KmlTrackWriter implements TrackWriter {
   private void writePhotoOverlay(String name, String category, String description, String styleName,
       Location location, String photoUrl, float heading) {
     if (location != null) {
-      printWriter.println("<PhotoOverlay>");
-      printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
-      printWriter.println(
+      textEmitter.println("<PhotoOverlay>");
+      textEmitter.println("<name>" + StringUtils.formatCData(name) + "</name>");
+      textEmitter.println(
           "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.print("<Camera>");
-      printWriter.print("<longitude>" + location.getLongitude() + "</longitude>");
-      printWriter.print("<latitude>" + location.getLatitude() + "</latitude>");
-      printWriter.print("<altitude>20</altitude>");
-      printWriter.print("<heading>" + heading + "</heading>");
-      printWriter.print("<tilt>90</tilt>");
-      printWriter.println("</Camera>");
-      printWriter.println("<TimeStamp><when>"
+      textEmitter.print("<Camera>");
+      textEmitter.print("<longitude>" + location.getLongitude() + "</longitude>");
+      textEmitter.print("<latitude>" + location.getLatitude() + "</latitude>");
+      textEmitter.print("<altitude>20</altitude>");
+      textEmitter.print("<heading>" + heading + "</heading>");
+      textEmitter.print("<tilt>90</tilt>");
+      textEmitter.println("</Camera>");
+      textEmitter.println("<TimeStamp><when>"
           + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
-      printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
+      textEmitter.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
       if (playTrack) {
-        printWriter.println("<Icon><href>" + Uri.decode(photoUrl) + "</href></Icon>"); 
+        textEmitter.println("<Icon><href>" + Uri.decode(photoUrl) + "</href></Icon>"); 
       } else {
         Uri uri = Uri.parse(photoUrl);
-        printWriter.println("<Icon><href>" + KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
+        textEmitter.println("<Icon><href>" + KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
             + uri.getLastPathSegment() + "</href></Icon>");        
       }
       
-      printWriter.print("<ViewVolume>");
-      printWriter.print("<near>10</near>");
-      printWriter.print("<leftFov>-60</leftFov>");
-      printWriter.print("<rightFov>60</rightFov>");
-      printWriter.print("<bottomFov>-45</bottomFov>");
-      printWriter.print("<topFov>45</topFov>");
-      printWriter.println("</ViewVolume>");
-      printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
-      printWriter.println("</Point>");
-      printWriter.println("</PhotoOverlay>");
+      textEmitter.print("<ViewVolume>");
+      textEmitter.print("<near>10</near>");
+      textEmitter.print("<leftFov>-60</leftFov>");
+      textEmitter.print("<rightFov>60</rightFov>");
+      textEmitter.print("<bottomFov>-45</bottomFov>");
+      textEmitter.print("<topFov>45</topFov>");
+      textEmitter.println("</ViewVolume>");
+      textEmitter.println("<Point>");
+      textEmitter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
+      textEmitter.println("</Point>");
+      textEmitter.println("</PhotoOverlay>");
     }
   }
 
@@ -447,23 +453,23 @@ public class KmlTrackWriter implements TrackWriter {
     if (category == null || category.equals("")) {
       return;
     }
-    printWriter.println("<ExtendedData>");
-    printWriter.println(
+    textEmitter.println("<ExtendedData>");
+    textEmitter.println(
         "<Data name=\"type\"><value>" + StringUtils.formatCData(category) + "</value></Data>");
-    printWriter.println("</ExtendedData>");
+    textEmitter.println("</ExtendedData>");
   }
 
   /**
    * Writes the track style.
    */
   private void writeTrackStyle() {
-    printWriter.println("<Style id=\"" + TRACK_STYLE + "\">");
-    printWriter.println("<LineStyle><color>7f0000ff</color><width>4</width></LineStyle>");
-    printWriter.println("<IconStyle>");
-    printWriter.println("<scale>1.3</scale>");
-    printWriter.println("<Icon><href>" + TRACK_ICON + "</href></Icon>");
-    printWriter.println("</IconStyle>");
-    printWriter.println("</Style>");
+    textEmitter.println("<Style id=\"" + TRACK_STYLE + "\">");
+    textEmitter.println("<LineStyle><color>7f0000ff</color><width>4</width></LineStyle>");
+    textEmitter.println("<IconStyle>");
+    textEmitter.println("<scale>1.3</scale>");
+    textEmitter.println("<Icon><href>" + TRACK_ICON + "</href></Icon>");
+    textEmitter.println("</IconStyle>");
+    textEmitter.println("</Style>");
   }
 
   /**
@@ -475,12 +481,12 @@ public class KmlTrackWriter implements TrackWriter {
    * @param y the y position of the hotspot
    */
   private void writePlacemarkerStyle(String name, String url, int x, int y) {
-    printWriter.println("<Style id=\"" + name + "\"><IconStyle>");
-    printWriter.println("<scale>1.3</scale>");
-    printWriter.println("<Icon><href>" + url + "</href></Icon>");
-    printWriter.println(
+    textEmitter.println("<Style id=\"" + name + "\"><IconStyle>");
+    textEmitter.println("<scale>1.3</scale>");
+    textEmitter.println("<Icon><href>" + url + "</href></Icon>");
+    textEmitter.println(
         "<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\"/>");
-    printWriter.println("</IconStyle></Style>");
+    textEmitter.println("</IconStyle></Style>");
   }
 
   /**
@@ -490,8 +496,70 @@ public class KmlTrackWriter implements TrackWriter {
    * @param displayName the sensor display name
    */
   private void writeSensorStyle(String name, String displayName) {
-    printWriter.println("<gx:SimpleArrayField name=\"" + name + "\" type=\"int\">");
-    printWriter.println("<displayName>" + StringUtils.formatCData(displayName) + "</displayName>");
-    printWriter.println("</gx:SimpleArrayField>");
+    textEmitter.println("<gx:SimpleArrayField name=\"" + name + "\" type=\"int\">");
+    textEmitter.println("<displayName>" + StringUtils.formatCData(displayName) + "</displayName>");
+    textEmitter.println("</gx:SimpleArrayField>");
+  }
+
+  /**
+   * The values of a sensor by location index, in a growable int array. The
+   * array is only allocated once the sensor has a value, and kept for the
+   * next segments.
+   */
+  private static class SensorSeries {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] values;
+    private int size = 0;
+
+    /**
+     * Returns true if the sensor has no value.
+     */
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    /**
+     * Sets the value at a location index, after the indexes already set. The
+     * locations in between have no value.
+     * 
+     * @param index the location index
+     * @param value the value
+     */
+    void set(int index, int value) {
+      if (values == null || index >= values.length) {
+        int capacity = values == null ? INITIAL_CAPACITY : values.length;
+        while (capacity <= index) {
+          capacity *= 2;
+        }
+        int[] newValues = new int[capacity];
+        if (values != null) {
+          System.arraycopy(values, 0, newValues, 0, size);
+        }
+        values = newValues;
+      }
+      for (int i = size; i < index; i++) {
+        values[i] = -1;
+      }
+      values[index] = value;
+      size = index + 1;
+    }
+
+    /**
+     * Gets the value at a location index. -1 if no value.
+     * 
+     * @param index the location index
+     */
+    int get(int index) {
+      return index < size ? values[index] : -1;
+    }
+
+    /**
+     * Removes all the values.
+     */
+    void clear() {
+      size = 0;
+    }
   }
 }
@@ -33,6 +33,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -48,7 +51,9 @@ public class KmzTrackExporter implements TrackExporter {
   public static final String KMZ_KML_FILE = "doc.kml";
 
   private static final String TAG = KmzTrackExporter.class.getSimpleName();
-  private static final int BUFFER_SIZE = 4096;
+
+  // The maximum number of bytes per file channel transfer
+  private static final long TRANSFER_SIZE = 65536;
 
   private final MyTracksProviderUtils myTracksProviderUtils;
   private final FileTrackExporter fileTrackExporter;
@@ -172,22 +177,44 @@ public class KmzTrackExporter implements TrackExporter {
     options.inJustDecodeBounds = false;
     options.inSampleSize = sampleSize;
 
+    /*
+     * Let the decoder drop the pixels under memory pressure, the bitmap is only
+     * used once to compress.
+     */
+    options.inPurgeable = true;
+    options.inInputShareable = true;
+
     Bitmap bitmap = BitmapFactory.decodeFile(uri.getPath(), options);
     if (bitmap == null) {
       return;
     }
-    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, zipOutputStream);
-    bitmap.recycle();
+    try {
+      bitmap.compress(Bitmap.CompressFormat.JPEG, 100, zipOutputStream);
+    } finally {
+      bitmap.recycle();
+    }
   }
 
+  /**
+   * Copies a file to the zip output stream with file channel transfers.
+   */
   private void readFromFile(ZipOutputStream zipOutputStream, Uri uri) throws IOException {
     FileInputStream fileInputStream = null;
     try {
       fileInputStream = new FileInputStream(new File(uri.getPath()));
-      byte[] buffer = new byte[BUFFER_SIZE];
-      int byteCount = 0;
-      while ((byteCount = fileInputStream.read(buffer)) != -1) {
-        zipOutputStream.write(buffer, 0, byteCount);
+      FileChannel fileChannel = fileInputStream.getChannel();
+
+      // Not closed, else it would close the zip output stream
+      WritableByteChannel writableByteChannel = Channels.newChannel(zipOutputStream);
+      long size = fileChannel.size();
+      long position = 0;
+      while (position < size) {
+        long count = fileChannel.transferTo(
+            position, Math.min(TRANSFER_SIZE, size - position), writableByteChannel);
+        if (count <= 0) {
+          break;
+        }
+        position += count;
       }
     } finally {
       if (fileInputStream != null) {
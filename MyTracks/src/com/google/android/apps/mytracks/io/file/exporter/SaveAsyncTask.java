@@ -31,13 +31,25 @@ import android.os.AsyncTask;
 import android.os.PowerManager.WakeLock;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Async Task to save tracks to the external storage.
+ * <p>
+ * When saving all the tracks, the track rows are read on the AsyncTask thread
+ * and each track is saved to its file on a worker thread, one worker per
+ * processor.
  * 
  * @author Jimmy Shih
  */
@@ -45,6 +57,15 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
   private static final String TAG = SaveAsyncTask.class.getSimpleName();
 
+  // The number of tracks saved in parallel when saving all the tracks
+  private static final int NUMBER_OF_THREADS = Math.max(
+      1, Runtime.getRuntime().availableProcessors());
+
+  // The number of tracks read ahead of the workers, per worker
+  private static final int TRACKS_PER_THREAD = 2;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private SaveActivity saveActivity;
   private final long[] trackIds;
   private final TrackFileFormat trackFileFormat;
@@ -54,7 +75,6 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   private final MyTracksProviderUtils myTracksProviderUtils;
 
   private WakeLock wakeLock;
-  private TrackExporter trackExporter;
 
   // true if the AsyncTask has completed
   private boolean completed;
@@ -65,8 +85,8 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   // the number of tracks to save
   private int totalCount;
 
-  // the last successfully saved path
-  private String savedPath;
+  // the last successfully saved path, set by the worker threads
+  private volatile String savedPath;
 
   /**
    * Creates an AsyncTask.
@@ -203,63 +223,109 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
           }
         });
 
-    trackExporter = useKmz ? new KmzTrackExporter(
+    TrackExporter trackExporter = useKmz ? new KmzTrackExporter(
         myTracksProviderUtils, fileTrackExporter, tracks, context)
         : fileTrackExporter;
 
-    String fileName = FileUtils.buildUniqueFileName(directory, track.getName(), extension);
-    File file = new File(directory, fileName);
-    FileOutputStream fileOutputStream = null;
+    File file = null;
+    OutputStream outputStream = null;
+    boolean saved = false;
     try {
-      fileOutputStream = new FileOutputStream(file);
-      if (trackExporter.writeTrack(fileOutputStream)) {
-        savedPath = file.getAbsolutePath();
-        return true;
-      } else {
-        if (!file.delete()) {
-          Log.d(TAG, "Unable to delete file");
-        }
+      file = createFile(track.getName(), extension);
+      outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+      if (!trackExporter.writeTrack(outputStream) || isCancelled()) {
         Log.e(TAG, "Unable to export track");
         return false;
       }
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "Unable to open file " + file.getName(), e);
+      outputStream.flush();
+      savedPath = file.getAbsolutePath();
+      saved = true;
+      return true;
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to write file " + (file != null ? file.getName() : track.getName()), e);
       return false;
     } finally {
-      if (fileOutputStream != null) {
+      if (outputStream != null) {
         try {
-          fileOutputStream.close();
+          outputStream.close();
         } catch (IOException e) {
           Log.e(TAG, "Unable to close file output stream", e);
         }
       }
+
+      // Delete the file reserved by createFile if the track was not saved
+      if (!saved && file != null && !file.delete()) {
+        Log.d(TAG, "Unable to delete file " + file.getName());
+      }
+    }
+  }
+
+  /**
+   * Creates a file with a unique name in the directory. Synchronized so that
+   * tracks saved in parallel get different files. The empty file reserves the
+   * name, the caller deletes it if the track is not saved.
+   * 
+   * @param name the name
+   * @param extension the extension
+   */
+  private synchronized File createFile(String name, String extension) throws IOException {
+    File file = new File(directory, FileUtils.buildUniqueFileName(directory, name, extension));
+    if (!file.createNewFile()) {
+      throw new IOException("File already exists");
     }
+    return file;
   }
 
   /**
-   * Saves all the tracks.
+   * Saves all the tracks, each to its own file. Reads the tracks on this thread
+   * and saves them on worker threads.
    */
   private Boolean saveAllTracks() {
     Cursor cursor = null;
+    ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(
+        executorService);
     try {
       cursor = myTracksProviderUtils.getTrackCursor(null, null, TracksColumns._ID);
       if (cursor == null) {
         return false;
       }
       totalCount = cursor.getCount();
-      for (int i = 0; i < totalCount; i++) {
+      int submitted = 0;
+      int done = 0;
+      while (done < totalCount) {
         if (isCancelled()) {
           return false;
         }
-        cursor.moveToPosition(i);
-        Track track = myTracksProviderUtils.createTrack(cursor);
-        if (track != null && saveTracks(new Track[] { track })) {
-          successCount++;
+        while (submitted < totalCount && submitted - done < NUMBER_OF_THREADS * TRACKS_PER_THREAD) {
+          cursor.moveToPosition(submitted);
+          final Track track = myTracksProviderUtils.createTrack(cursor);
+          completionService.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              return track != null && saveTracks(new Track[] { track });
+            }
+          });
+          submitted++;
+        }
+        Future<Boolean> future = completionService.take();
+        try {
+          if (future.get()) {
+            successCount++;
+          }
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Unable to save track", e);
         }
-        publishProgress(i + 1, totalCount);
+        done++;
+        publishProgress(done, totalCount);
       }
       return true;
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Save all tracks interrupted", e);
+      return false;
     } finally {
+      // Interrupts the workers if cancelled, they delete their partial files
+      executorService.shutdownNow();
       if (cursor != null) {
         cursor.close();
       }
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+
+/**
+ * Buffered text output of the track writers. Replaces a {@link java.io.PrintWriter}
+ * with the same print methods, and adds the XML and CSV values written for
+ * every track point, formatted directly into a reused char buffer without
+ * intermediate strings or formatters.
+ * <p>
+ * Like a {@link java.io.PrintWriter}, it doesn't throw {@link IOException}s.
+ * It is not thread safe, each track writer has its own.
+ */
+class TextEmitter {
+
+  private static final String TAG = TextEmitter.class.getSimpleName();
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+  private static final long DAY_IN_MILLISECONDS = 24L * 60L * 60L * 1000L;
+
+  // The powers of ten up to the max number of fraction digits
+  private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L,
+      1000000L, 10000000L, 100000000L, 1000000000L };
+
+  // Fixed-point values from this magnitude are formatted as a double
+  private static final double MAX_FIXED_POINT = 1e9;
+
+  // The years formatted directly, outside the Gregorian calendar changes
+  private static final int MIN_YEAR = 1583;
+  private static final int MAX_YEAR = 9999;
+
+  private final Writer writer;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position = 0;
+  private boolean error = false;
+
+  // Scratch builder to format doubles as Double.toString
+  private final StringBuilder doubleBuilder = new StringBuilder(32);
+
+  /*
+   * The date part "yyyy-MM-ddT" of the last formatted time, and the start and
+   * end of its day. Consecutive track points are usually in the same day, only
+   * their time of the day changes. Empty day range until a time is formatted.
+   */
+  private final char[] datePrefix = new char[11];
+  private long dayStart = 1L;
+  private long dayEnd = 0L;
+
+  /**
+   * Constructor.
+   *
+   * @param outputStream the output stream, written as UTF-8
+   */
+  TextEmitter(OutputStream outputStream) {
+    writer = new OutputStreamWriter(outputStream, Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Prints a string, "null" if null.
+   *
+   * @param value the value
+   */
+  void print(String value) {
+    if (value == null) {
+      value = "null";
+    }
+    int length = value.length();
+    int start = 0;
+    while (start < length) {
+      if (position == BUFFER_SIZE) {
+        flushBuffer();
+      }
+      int count = Math.min(length - start, BUFFER_SIZE - position);
+      value.getChars(start, start + count, buffer, position);
+      position += count;
+      start += count;
+    }
+  }
+
+  /**
+   * Prints a char.
+   *
+   * @param value the value
+   */
+  void print(char value) {
+    if (position == BUFFER_SIZE) {
+      flushBuffer();
+    }
+    buffer[position++] = value;
+  }
+
+  /**
+   * Prints an int.
+   *
+   * @param value the value
+   */
+  void print(int value) {
+    print((long) value);
+  }
+
+  /**
+   * Prints a long.
+   *
+   * @param value the value
+   */
+  void print(long value) {
+    if (value == Long.MIN_VALUE) {
+      print(Long.toString(value));
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer[position++] = '-';
+      value = -value;
+    }
+    printDigits(value, 1);
+  }
+
+  /**
+   * Prints a double, as by {@link Double#toString(double)}.
+   *
+   * @param value the value
+   */
+  void print(double value) {
+    doubleBuilder.setLength(0);
+    doubleBuilder.append(value);
+    int length = doubleBuilder.length();
+    ensureCapacity(length);
+    doubleBuilder.getChars(0, length, buffer, position);
+    position += length;
+  }
+
+  /**
+   * Prints a string followed by a line separator.
+   *
+   * @param value the value
+   */
+  void println(String value) {
+    print(value);
+    println();
+  }
+
+  /**
+   * Prints a line separator.
+   */
+  void println() {
+    print(LINE_SEPARATOR);
+  }
+
+  /**
+   * Prints a double in fixed-point notation, with at most maxFractionDigits
+   * fraction digits and without trailing zeros, like a US
+   * {@link java.text.NumberFormat}. Rounds the exact value half even.
+   *
+   * @param value the value
+   * @param maxFractionDigits the max number of fraction digits, from 0 to 9
+   * @param grouping true to group the integer digits by thousands
+   */
+  void printFixed(double value, int maxFractionDigits, boolean grouping) {
+    if (!(Math.abs(value) < MAX_FIXED_POINT)) {
+      // NaN, infinite, or too large for a long
+      print(value);
+      return;
+    }
+    long scale = POWERS_OF_TEN[maxFractionDigits];
+    double scaled = Math.abs(value) * scale;
+    long units;
+    if (scaled - Math.floor(scaled) == 0.5) {
+      // A tie after scaling, round the exact value as NumberFormat does
+      units = new BigDecimal(Math.abs(value)).setScale(maxFractionDigits, RoundingMode.HALF_EVEN)
+          .unscaledValue().longValue();
+    } else {
+      units = (long) Math.rint(scaled);
+    }
+    long integer = units / scale;
+    long fraction = units % scale;
+    int fractionDigits = maxFractionDigits;
+    while (fraction != 0 && fraction % 10 == 0) {
+      fraction /= 10;
+      fractionDigits--;
+    }
+
+    ensureCapacity(maxFractionDigits + 15);
+    if (value < 0 || (value == 0.0 && 1.0 / value < 0)) {
+      buffer[position++] = '-';
+    }
+    if (grouping && integer >= 1000) {
+      printGroupedDigits(integer);
+    } else {
+      printDigits(integer, 1);
+    }
+    if (fraction != 0) {
+      buffer[position++] = '.';
+      printDigits(fraction, fractionDigits);
+    }
+  }
+
+  /**
+   * Prints a time in the ISO 8601 form yyyy-MM-ddTHH:mm:ss.SSSZ, as by
+   * {@link StringUtils#formatDateTimeIso8601(long)}. The date part is only
+   * computed when the day changes.
+   *
+   * @param time the time in milliseconds since the epoch
+   */
+  void printTime(long time) {
+    if (time < dayStart || time >= dayEnd) {
+      if (!setDay(time)) {
+        print(StringUtils.formatDateTimeIso8601(time));
+        return;
+      }
+    }
+    int millisecondOfDay = (int) (time - dayStart);
+    ensureCapacity(datePrefix.length + 13);
+    System.arraycopy(datePrefix, 0, buffer, position, datePrefix.length);
+    position += datePrefix.length;
+    printDigits(millisecondOfDay / 3600000, 2);
+    buffer[position++] = ':';
+    printDigits(millisecondOfDay / 60000 % 60, 2);
+    buffer[position++] = ':';
+    printDigits(millisecondOfDay / 1000 % 60, 2);
+    buffer[position++] = '.';
+    printDigits(millisecondOfDay % 1000, 3);
+    buffer[position++] = 'Z';
+  }
+
+  /**
+   * Prints a CSV value, quoted, with the quotes doubled. Prints an empty
+   * value if null.
+   *
+   * @param value the value
+   */
+  void printCsv(String value) {
+    print('"');
+    if (value != null) {
+      int length = value.length();
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c == '"') {
+          print('"');
+        }
+        print(c);
+      }
+    }
+    print('"');
+  }
+
+  /**
+   * Flushes the buffer and the underlying output stream.
+   */
+  void flush() {
+    flushBuffer();
+    if (error) {
+      return;
+    }
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      onError(e);
+    }
+  }
+
+  /**
+   * Sets the date part for the day of a time. Returns false if the year is out
+   * of the years formatted directly.
+   *
+   * @param time the time
+   */
+  private boolean setDay(long time) {
+    long days = time / DAY_IN_MILLISECONDS;
+    if (time % DAY_IN_MILLISECONDS < 0) {
+      days--;
+    }
+
+    // Civil date of the days since the epoch, in the proleptic Gregorian calendar
+    long z = days + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long monthIndex = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+    int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < MIN_YEAR || year > MAX_YEAR) {
+      return false;
+    }
+
+    setDigits(datePrefix, 0, (int) year, 4);
+    datePrefix[4] = '-';
+    setDigits(datePrefix, 5, month, 2);
+    datePrefix[7] = '-';
+    setDigits(datePrefix, 8, day, 2);
+    datePrefix[10] = 'T';
+    dayStart = days * DAY_IN_MILLISECONDS;
+    dayEnd = dayStart + DAY_IN_MILLISECONDS;
+    return true;
+  }
+
+  /**
+   * Sets the digits of a non negative value in a char array.
+   *
+   * @param chars the char array
+   * @param offset the offset of the first digit
+   * @param value the value
+   * @param count the number of digits
+   */
+  private static void setDigits(char[] chars, int offset, int value, int count) {
+    for (int i = offset + count - 1; i >= offset; i--) {
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  /**
+   * Prints the digits of a non negative value, left padded with zeros to the
+   * min number of digits. The buffer must have the capacity.
+   *
+   * @param value the value
+   * @param minDigits the min number of digits
+   */
+  private void printDigits(long value, int minDigits) {
+    int count = 1;
+    for (long v = value / 10; v != 0; v /= 10) {
+      count++;
+    }
+    count = Math.max(count, minDigits);
+    for (int i = position + count - 1; i >= position; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    position += count;
+  }
+
+  /**
+   * Prints the digits of a positive value, grouped by thousands with commas.
+   * The buffer must have the capacity.
+   *
+   * @param value the value
+   */
+  private void printGroupedDigits(long value) {
+    if (value >= 1000) {
+      printGroupedDigits(value / 1000);
+      buffer[position++] = ',';
+      printDigits(value % 1000, 3);
+    } else {
+      printDigits(value, 1);
+    }
+  }
+
+  /**
+   * Ensures the buffer has a capacity.
+   *
+   * @param capacity the capacity, at most the buffer size
+   */
+  private void ensureCapacity(int capacity) {
+    if (BUFFER_SIZE - position < capacity) {
+      flushBuffer();
+    }
+  }
+
+  /**
+   * Writes the buffer to the writer.
+   */
+  private void flushBuffer() {
+    if (position == 0) {
+      return;
+    }
+    if (!error) {
+      try {
+        writer.write(buffer, 0, position);
+      } catch (IOException e) {
+        onError(e);
+      }
+    }
+    position = 0;
+  }
+
+  /**
+   * On an IO error. Stops writing, as a {@link java.io.PrintWriter} would.
+   *
+   * @param e the exception
+   */
+  private void onError(IOException e) {
+    Log.e(TAG, "Unable to write", e);
+    error = true;
+  }
+}
@@ -45,8 +45,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -92,11 +96,147 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     // The import time of the track.
     long importTime = System.currentTimeMillis();
 
-    // The buffered locations
+    // The buffered locations, handed over to the track point writer when full
     Location[] bufferedLocations = new Location[MAX_BUFFERED_LOCATIONS];
 
     // The number of buffered locations
     int numBufferedLocations = 0;
+
+    // The first and the last batches handed over. Null if none.
+    Future<long[]> firstWrite;
+    Future<long[]> lastWrite;
+
+    /*
+     * The waypoints before the track start, placed on the track points as they
+     * are inserted. Null if none.
+     */
+    WaypointQueue waypointQueue;
+  }
+
+  /**
+   * Waypoints sorted by time, placed on the track points with the same time
+   * and location. The track points are added in order, and each waypoint is
+   * dequeued once the track points reach its time.
+   */
+  private class WaypointQueue {
+
+    // The waypoints, sorted by time
+    private final List<Waypoint> queue;
+
+    // The position of the next waypoint in the queue
+    private int position = 0;
+
+    private final long trackId;
+
+    // The start time of the statistics. -1L to start at the first location.
+    private final long startTime;
+
+    // The trip statistics updater for the track length and duration
+    private TripStatisticsUpdater trackTripStatisticsUpdater;
+
+    // The trip statistics updater since the last statistics waypoint
+    private TripStatisticsUpdater markerTripStatisticsUpdater;
+
+    // The waypoints placed on the track points, to be inserted
+    final List<Waypoint> resolvedWaypoints = new ArrayList<Waypoint>();
+
+    /**
+     * Constructor.
+     * 
+     * @param waypoints the waypoints
+     * @param trackId the track id
+     * @param startTime the start time of the statistics. -1L to start at the
+     *          first location.
+     */
+    WaypointQueue(List<Waypoint> waypoints, long trackId, long startTime) {
+      queue = new ArrayList<Waypoint>(waypoints);
+      Collections.sort(queue, new Comparator<Waypoint>() {
+        @Override
+        public int compare(Waypoint waypoint1, Waypoint waypoint2) {
+          long time1 = waypoint1.getLocation().getTime();
+          long time2 = waypoint2.getLocation().getTime();
+          return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+        }
+      });
+      this.trackId = trackId;
+      this.startTime = startTime;
+    }
+
+    /**
+     * Returns true if all the waypoints are dequeued.
+     */
+    boolean isEmpty() {
+      return position >= queue.size();
+    }
+
+    /**
+     * Adds the next track point location. Drops the waypoints before its time,
+     * and places the waypoints at its time and location.
+     * 
+     * @param location the location
+     * @param activityType the activity type
+     */
+    void addLocation(Location location, ActivityType activityType) {
+      if (trackTripStatisticsUpdater == null) {
+        long time = startTime != -1L ? startTime
+            : location.getTime() != -1L ? location.getTime() : trackData.importTime;
+        trackTripStatisticsUpdater = new TripStatisticsUpdater(time);
+        markerTripStatisticsUpdater = new TripStatisticsUpdater(time);
+      }
+      trackTripStatisticsUpdater.addLocation(
+          location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
+      markerTripStatisticsUpdater.addLocation(
+          location, recordingDistanceInterval, true, activityType, weight);
+
+      if (!LocationUtils.isValidLocation(location)) {
+        return;
+      }
+      while (!isEmpty()) {
+        Waypoint waypoint = queue.get(position);
+        Location waypointLocation = waypoint.getLocation();
+        if (waypointLocation.getTime() > location.getTime()) {
+          return;
+        }
+        position++;
+        if (waypointLocation.getTime() == location.getTime()
+            && waypointLocation.getLatitude() == location.getLatitude()
+            && waypointLocation.getLongitude() == location.getLongitude()) {
+          resolvedWaypoints.add(createWaypoint(waypoint, location));
+        }
+      }
+    }
+
+    /**
+     * Creates the waypoint to insert for a waypoint placed on a track point.
+     * 
+     * @param waypoint the waypoint
+     * @param location the track point location
+     */
+    private Waypoint createWaypoint(Waypoint waypoint, Location location) {
+      // Get tripStatistics, description, and icon
+      TripStatistics tripStatistics;
+      String waypointDescription;
+      String icon;
+      if (waypoint.getType() == WaypointType.STATISTICS) {
+        tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
+        markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
+        waypointDescription = new DescriptionGeneratorImpl(context)
+            .generateWaypointDescription(tripStatistics);
+        icon = context.getString(R.string.marker_statistics_icon_url);
+      } else {
+        tripStatistics = null;
+        waypointDescription = waypoint.getDescription();
+        icon = context.getString(R.string.marker_waypoint_icon_url);
+      }
+
+      // Get length and duration
+      double length = trackTripStatisticsUpdater.getTripStatistics().getTotalDistance();
+      long duration = trackTripStatisticsUpdater.getTripStatistics().getTotalTime();
+
+      return new Waypoint(waypoint.getName(), waypointDescription, waypoint.getCategory(), icon,
+          trackId, waypoint.getType(), length, duration, -1L, -1L, location, tripStatistics,
+          waypoint.getPhotoUrl());
+    }
   }
 
   private static final String TAG = AbstractFileTrackImporter.class.getSimpleName();
@@ -104,9 +244,13 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   // The maximum number of buffered locations for bulk-insertion
   private static final int MAX_BUFFERED_LOCATIONS = 512;
 
+  // The initial size of the element content buffer
+  private static final int CONTENT_BUFFER_SIZE = 256;
+
   private final Context context;
   private final long importTrackId;
   private final MyTracksProviderUtils myTracksProviderUtils;
+  private final TrackPointWriter trackPointWriter;
   private final int recordingDistanceInterval;
   private final double weight;
   private final List<Long> trackIds;
@@ -118,8 +262,12 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   // The SAX locator to get the current line information
   private Locator locator;
 
-  // The current element content
-  protected String content;
+  /*
+   * The current element content, accumulated in a buffer reused for all the
+   * elements. The content length is -1 if the element has no content.
+   */
+  private char[] contentBuffer = new char[CONTENT_BUFFER_SIZE];
+  private int contentLength = -1;
 
   protected String name;
   protected String description;
@@ -137,17 +285,35 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * @param context the context
    * @param importTrackId the track id to import to. -1L to import to a new
    *          track.
+   * @param myTracksProviderUtils the my tracks provider utils
    */
   AbstractFileTrackImporter(
       Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
+    this(context, importTrackId, myTracksProviderUtils,
+        new TrackPointWriter(myTracksProviderUtils, false));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId the track id to import to. -1L to import to a new
+   *          track.
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackPointWriter the writer of the track points
+   */
+  AbstractFileTrackImporter(Context context, long importTrackId,
+      MyTracksProviderUtils myTracksProviderUtils, TrackPointWriter trackPointWriter) {
     this.context = context;
     this.importTrackId = importTrackId;
     this.myTracksProviderUtils = myTracksProviderUtils;
+    this.trackPointWriter = trackPointWriter;
     this.recordingDistanceInterval = PreferencesUtils.getInt(context,
         R.string.recording_distance_interval_key,
         PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
     this.weight = PreferencesUtils.getFloat(
         context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
+    LocationUtils.updateUseDistanceUtils(context);
     trackIds = new ArrayList<Long>();
     waypoints = new ArrayList<Waypoint>();
   }
@@ -159,17 +325,14 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
 
   @Override
   public void characters(char[] ch, int start, int length) throws SAXException {
-    String newContent = new String(ch, start, length);
-    if (content == null) {
-      content = newContent;
-    } else {
-      /*
-       * In 99% of the cases, a single call to this method will be made for each
-       * sequence of characters we're interested in, so we'll rarely be
-       * concatenating strings, thus not justifying the use of a StringBuilder.
-       */
-      content += newContent;
-    }
+    int offset = Math.max(contentLength, 0);
+    if (offset + length > contentBuffer.length) {
+      char[] buffer = new char[Math.max(offset + length, contentBuffer.length * 2)];
+      System.arraycopy(contentBuffer, 0, buffer, 0, offset);
+      contentBuffer = buffer;
+    }
+    System.arraycopy(ch, start, contentBuffer, offset, length);
+    contentLength = offset + length;
   }
 
   @Override
@@ -205,9 +368,12 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * On file end.
    */
   protected void onFileEnd() {
-    // Add waypoints to the last imported track
+    /*
+     * Add the waypoints after the last track start to the last imported
+     * track. The track points are already inserted, read them back.
+     */
     int size = trackIds.size();
-    if (size == 0) {
+    if (size == 0 || waypoints.isEmpty()) {
       return;
     }
     long trackId = trackIds.get(size - 1);
@@ -216,93 +382,25 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
       return;
     }
 
-    int waypointPosition = -1;
-    Waypoint waypoint = null;
-    Location location = null;
-    TripStatisticsUpdater trackTripStatisticstrackUpdater = new TripStatisticsUpdater(
-        track.getTripStatistics().getStartTime());
-    TripStatisticsUpdater markerTripStatisticsUpdater = new TripStatisticsUpdater(
-        track.getTripStatistics().getStartTime());
-    LocationIterator locationIterator = null;
+    WaypointQueue waypointQueue = new WaypointQueue(
+        waypoints, trackId, track.getTripStatistics().getStartTime());
+    waypoints.clear();
     ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
-    
+    LocationIterator locationIterator = null;
     try {
       locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
-
-      while (true) {
-        if (waypoint == null) {
-          waypointPosition++;
-          waypoint = waypointPosition < waypoints.size() ? waypoints.get(waypointPosition) : null;
-          if (waypoint == null) {
-            // No more waypoints
-            return;
-          }
-        }
-        if (location == null) {
-          if (!locationIterator.hasNext()) {
-            // No more track points. Ignore the rest of the waypoints.
-            return;
-          }
-          location = locationIterator.next();
-          trackTripStatisticstrackUpdater.addLocation(
-              location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
-          markerTripStatisticsUpdater.addLocation(
-              location, recordingDistanceInterval, true, activityType, weight);
-        }
-        if (waypoint.getLocation().getTime() > location.getTime()) {
-          location = null;
-        } else if (waypoint.getLocation().getTime() < location.getTime()) {
-          waypoint = null;
-        } else {
-          // The waypoint location time matches the track point time
-
-          if (!LocationUtils.isValidLocation(location)) {
-            // Invalid location, load the next location
-            location = null;
-            continue;
-          }
-
-          // Valid location
-          if (location.getLatitude() == waypoint.getLocation().getLatitude()
-              && location.getLongitude() == waypoint.getLocation().getLongitude()) {
-
-            // Get tripStatistics, description, and icon
-            TripStatistics tripStatistics;
-            String waypointDescription;
-            String icon;
-            if (waypoint.getType() == WaypointType.STATISTICS) {
-              tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
-              markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
-              waypointDescription = new DescriptionGeneratorImpl(context)
-                  .generateWaypointDescription(tripStatistics);
-              icon = context.getString(R.string.marker_statistics_icon_url);
-            } else {
-              tripStatistics = null;
-              waypointDescription = waypoint.getDescription();
-              icon = context.getString(R.string.marker_waypoint_icon_url);
-            }
-
-            // Get length and duration
-            double length = trackTripStatisticstrackUpdater.getTripStatistics().getTotalDistance();
-            long duration = trackTripStatisticstrackUpdater.getTripStatistics().getTotalTime();
-
-            // Insert waypoint
-            Waypoint newWaypoint = new Waypoint(waypoint.getName(), waypointDescription,
-                waypoint.getCategory(), icon, track.getId(), waypoint.getType(), length, duration,
-                -1L, -1L, location, tripStatistics, waypoint.getPhotoUrl());
-            myTracksProviderUtils.insertWaypoint(newWaypoint);
-          }
-
-          // Load the next waypoint
-          waypoint = null;
-        }
+          trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      while (locationIterator.hasNext() && !waypointQueue.isEmpty()) {
+        waypointQueue.addLocation(locationIterator.next(), activityType);
       }
     } finally {
       if (locationIterator != null) {
         locationIterator.close();
       }
     }
+    for (Waypoint waypoint : waypointQueue.resolvedWaypoints) {
+      myTracksProviderUtils.insertWaypoint(waypoint);
+    }
   }
 
   /**
@@ -324,13 +422,18 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     }
     trackIds.add(trackId);
     trackData.track.setId(trackId);
+    if (!waypoints.isEmpty()) {
+      trackData.waypointQueue = new WaypointQueue(waypoints, trackId, -1L);
+      waypoints.clear();
+    }
   }
 
   /**
    * On track end.
    */
-  protected void onTrackEnd() {
+  protected void onTrackEnd() throws SAXException {
     flushLocations(trackData);
+    setTrackPointIds(trackData);
     if (name != null) {
       trackData.track.setName(name);
     }
@@ -349,12 +452,17 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     trackData.track.setNumberOfPoints(trackData.numberOfLocations);
     myTracksProviderUtils.updateTrack(trackData.track);
     insertFirstWaypoint(trackData.track);
+    if (trackData.waypointQueue != null) {
+      for (Waypoint waypoint : trackData.waypointQueue.resolvedWaypoints) {
+        myTracksProviderUtils.insertWaypoint(waypoint);
+      }
+    }
   }
 
   /**
    * On track segment start.
    */
-  protected void onTrackSegmentStart() {
+  protected void onTrackSegmentStart() throws SAXException {
     trackData.numberOfSegments++;
 
     /*
@@ -427,10 +535,12 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
          * like max speed will also be off.
          */        
         double duration = timeDifference * UnitConversions.MS_TO_S;
-        double speed = trackData.lastLocationInCurrentSegment.distanceTo(location) / duration;
+        double speed = LocationUtils.distance(
+            trackData.lastLocationInCurrentSegment, location) / duration;
         location.setSpeed((float) speed);
       }
-      location.setBearing(trackData.lastLocationInCurrentSegment.bearingTo(location));
+      location.setBearing(
+          LocationUtils.bearing(trackData.lastLocationInCurrentSegment, location));
     }
 
     if (!LocationUtils.isValidLocation(location)) {
@@ -454,13 +564,34 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * 
    * @param location the location
    */
-  protected void insertTrackPoint(Location location) {
+  protected void insertTrackPoint(Location location) throws SAXException {
     insertLocation(location);
+  }
 
-    if (trackData.track.getStartId() == -1L) {
-      // Flush the location to set the track start id and the track end id
-      flushLocations(trackData);
+  /**
+   * Gets the current element content, trimmed. Null if the element has no
+   * content.
+   */
+  protected String getContent() {
+    if (contentLength == -1) {
+      return null;
+    }
+    int start = 0;
+    int end = contentLength;
+    while (start < end && contentBuffer[start] <= ' ') {
+      start++;
+    }
+    while (end > start && contentBuffer[end - 1] <= ' ') {
+      end--;
     }
+    return new String(contentBuffer, start, end - start);
+  }
+
+  /**
+   * Resets the current element content.
+   */
+  protected void resetContent() {
+    contentLength = -1;
   }
 
   /**
@@ -558,7 +689,7 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * 
    * @param location the location
    */
-  private void insertLocation(Location location) {
+  private void insertLocation(Location location) throws SAXException {
     if (trackData.tripStatisticsUpdater == null) {
       trackData.tripStatisticsUpdater = new TripStatisticsUpdater(
           location.getTime() != -1L ? location.getTime() : trackData.importTime);
@@ -566,6 +697,9 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     ActivityType activityType = CalorieUtils.getActivityType(context, category);
     trackData.tripStatisticsUpdater.addLocation(
         location, recordingDistanceInterval, true, activityType, weight);
+    if (trackData.waypointQueue != null && !trackData.waypointQueue.isEmpty()) {
+      trackData.waypointQueue.addLocation(location, activityType);
+    }
 
     trackData.bufferedLocations[trackData.numBufferedLocations] = location;
     trackData.numBufferedLocations++;
@@ -577,21 +711,51 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   }
 
   /**
-   * Flushes the locations to the database.
+   * Hands the buffered locations over to the track point writer.
    * 
    * @param data the track data
    */
-  private void flushLocations(TrackData data) {
+  private void flushLocations(TrackData data) throws SAXException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new SAXException(createErrorMessage("Import interrupted"));
+    }
     if (data.numBufferedLocations <= 0) {
       return;
     }
-    myTracksProviderUtils.bulkInsertTrackPoint(
+    Future<long[]> write = trackPointWriter.write(
         data.bufferedLocations, data.numBufferedLocations, data.track.getId());
+    if (data.firstWrite == null) {
+      data.firstWrite = write;
+    }
+    data.lastWrite = write;
+    data.bufferedLocations = new Location[MAX_BUFFERED_LOCATIONS];
     data.numBufferedLocations = 0;
-    if (data.track.getStartId() == -1L) {
-      data.track.setStartId(myTracksProviderUtils.getFirstTrackPointId(data.track.getId()));
+  }
+
+  /**
+   * Sets the track start id and stop id from the ids of the inserted track
+   * points. Waits for the track points to be inserted.
+   * 
+   * @param data the track data
+   */
+  private void setTrackPointIds(TrackData data) throws SAXException {
+    if (data.firstWrite == null) {
+      return;
+    }
+    try {
+      long[] firstIds = data.firstWrite.get();
+      long[] lastIds = data.lastWrite.get();
+      if (firstIds.length > 0) {
+        data.track.setStartId(firstIds[0]);
+      }
+      if (lastIds.length > 0) {
+        data.track.setStopId(lastIds[lastIds.length - 1]);
+      }
+    } catch (InterruptedException e) {
+      throw new SAXException(createErrorMessage("Import interrupted"), e);
+    } catch (ExecutionException e) {
+      throw new SAXException(createErrorMessage("Unable to insert track points"), e);
     }
-    data.track.setStopId(myTracksProviderUtils.getLastTrackPointId(data.track.getId()));
   }
 
   /**
@@ -623,6 +787,24 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * Cleans up import.
    */
   private void cleanImport() {
+    /*
+     * Wait for the track points handed over to be inserted, even if
+     * interrupted, else they would be inserted after the track is deleted.
+     */
+    boolean interrupted = false;
+    while (trackData != null && trackData.lastWrite != null) {
+      try {
+        trackData.lastWrite.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
     for (long trackId : trackIds) {
       myTracksProviderUtils.deleteTrack(context, trackId);
     }
@@ -57,6 +57,16 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
     this(context, MyTracksProviderUtils.Factory.get(context));
   }
 
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param trackPointWriter the writer of the track points
+   */
+  GpxFileTrackImporter(Context context, TrackPointWriter trackPointWriter) {
+    super(context, -1L, MyTracksProviderUtils.Factory.get(context), trackPointWriter);
+  }
+
   @VisibleForTesting
   GpxFileTrackImporter(Context context, MyTracksProviderUtils myTracksProviderUtils) {
     super(context, -1L, myTracksProviderUtils);
@@ -78,6 +88,7 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
 
   @Override
   public void endElement(String uri, String localName, String tag) throws SAXException {
+    String content = getContent();
     if (tag.equals(TAG_GPX)) {
       onFileEnd();
     } else if (tag.equals(TAG_WAYPOINT)) {
@@ -88,32 +99,32 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
       onTrackPointEnd();
     } else if (tag.equals(TAG_NAME)) {
       if (content != null) {
-        name = content.trim();
+        name = content;
       }
     } else if (tag.equals(TAG_DESCRIPTION)) {
       if (content != null) {
-        description = content.trim();
+        description = content;
       }
     } else if (tag.equals(TAG_TYPE)) {
       if (content != null) {
-        category = content.trim();
+        category = content;
       }
     } else if (tag.equals(TAG_TIME)) {
       if (content != null) {
-        time = content.trim();
+        time = content;
       }
     } else if (tag.equals(TAG_ELEVATION)) {
       if (content != null) {
-        altitude = content.trim();
+        altitude = content;
       }
     } else if (tag.equals(TAG_COMMENT)) {
       if (content != null) {
-        waypointType = content.trim();
+        waypointType = content;
       }
     }
 
     // Reset element content
-    content = null;
+    resetContent();
   }
 
   @Override
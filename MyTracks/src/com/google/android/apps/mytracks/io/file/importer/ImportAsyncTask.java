@@ -31,15 +31,28 @@ import android.os.AsyncTask;
 import android.os.PowerManager.WakeLock;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * AsyncTask to import files from the external storage.
+ * <p>
+ * The files are parsed on worker threads, one worker per processor. The
+ * workers hand their track point batches to a shared {@link TrackPointWriter},
+ * which inserts them on its own thread.
  * 
  * @author Jimmy Shih
  */
@@ -47,6 +60,12 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
   private static final String TAG = ImportAsyncTask.class.getSimpleName();
 
+  // The number of files parsed in parallel
+  private static final int NUMBER_OF_THREADS = Math.max(
+      1, Runtime.getRuntime().availableProcessors());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private ImportActivity importActivity;
   private final boolean importAll;
   private final TrackFileFormat trackFileFormat;
@@ -126,18 +145,7 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
       if (totalCount == 0) {
         return true;
       }
-
-      for (int i = 0; i < totalCount; i++) {
-        if (isCancelled()) {
-          // If cancelled, return true to show the number of files imported
-          return true;
-        }
-        if (importFile(files.get(i))) {
-          successCount++;
-        }
-        publishProgress(i + 1, totalCount);
-      }
-      return true;
+      return importFiles(files);
     } finally {
       if (wakeLock != null && wakeLock.isHeld()) {
         wakeLock.release();
@@ -169,38 +177,84 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   }
   
   /**
-   * Imports a file.
+   * Imports files, parsing them on worker threads.
+   * 
+   * @param files the files
+   */
+  private Boolean importFiles(List<File> files) {
+    ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    CompletionService<Long> completionService = new ExecutorCompletionService<Long>(
+        executorService);
+    final TrackPointWriter trackPointWriter = new TrackPointWriter(
+        MyTracksProviderUtils.Factory.get(context), true);
+    try {
+      for (final File file : files) {
+        completionService.submit(new Callable<Long>() {
+          @Override
+          public Long call() {
+            return importFile(file, trackPointWriter);
+          }
+        });
+      }
+      for (int i = 0; i < totalCount; i++) {
+        Future<Long> future = completionService.take();
+        try {
+          long id = future.get();
+          if (id != -1L) {
+            trackId = id;
+            successCount++;
+          }
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Unable to import file", e);
+        }
+        publishProgress(i + 1, totalCount);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      // If cancelled, return true to show the number of files imported
+      Log.d(TAG, "Import interrupted", e);
+      return true;
+    } finally {
+      // Interrupts the workers if cancelled, they delete their partial tracks
+      executorService.shutdownNow();
+      trackPointWriter.shutdown();
+    }
+  }
+
+  /**
+   * Imports a file. Returns the imported track id or -1L.
    * 
    * @param file the file
+   * @param trackPointWriter the writer of the track points
    */
-  private boolean importFile(final File file) {
-    FileInputStream fileInputStream = null;
+  private long importFile(File file, TrackPointWriter trackPointWriter) {
+    InputStream inputStream = null;
     try {
       TrackImporter trackImporter;
       if (trackFileFormat == TrackFileFormat.KML) {
         String extension = FileUtils.getExtension(file.getName());
         if (TrackFileFormat.KML.getExtension().equals(extension)) {
-          trackImporter = new KmlFileTrackImporter(context, -1L);
+          trackImporter = new KmlFileTrackImporter(context, -1L, trackPointWriter);
         } else {         
           MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
           Uri uri = myTracksProviderUtils.insertTrack(new Track());
           long newId = Long.parseLong(uri.getLastPathSegment());
 
-          trackImporter = new KmzTrackImporter(context, newId);
+          // Read the kmz through its central directory
+          return new KmzTrackImporter(context, newId, trackPointWriter).importFile(file);
         }
       } else {
-        trackImporter = new GpxFileTrackImporter(context);
+        trackImporter = new GpxFileTrackImporter(context, trackPointWriter);
       }
-      fileInputStream = new FileInputStream(file);
-      trackId = trackImporter.importFile(fileInputStream);
-      return trackId != -1L;
+      inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+      return trackImporter.importFile(inputStream);
     } catch (FileNotFoundException e) {
       Log.e(TAG, "Unable to import file", e);
-      return false;
+      return -1L;
     } finally {
-      if (fileInputStream != null) {
+      if (inputStream != null) {
         try {
-          fileInputStream.close();
+          inputStream.close();
         } catch (IOException e) {
           Log.e(TAG, "Unable to close file input stream", e);
         }
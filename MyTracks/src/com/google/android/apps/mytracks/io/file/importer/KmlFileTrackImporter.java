@@ -81,6 +81,17 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
     this(context, importTrackId, MyTracksProviderUtils.Factory.get(context));
   }
 
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId track id to import to. -1L to import to a new track.
+   * @param trackPointWriter the writer of the track points
+   */
+  KmlFileTrackImporter(Context context, long importTrackId, TrackPointWriter trackPointWriter) {
+    super(context, importTrackId, MyTracksProviderUtils.Factory.get(context), trackPointWriter);
+  }
+
   @VisibleForTesting
   KmlFileTrackImporter(
       Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
@@ -112,6 +123,7 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
 
   @Override
   public void endElement(String uri, String localName, String tag) throws SAXException {
+    String content = getContent();
     if (tag.equals(TAG_KML)) {
       onFileEnd();
     } else if (tag.equals(TAG_PLACEMARK) || tag.equals(TAG_PHOTO_OVERLAY)) {
@@ -121,43 +133,43 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
        */
       onWaypointEnd();
     } else if (localName.equals(TAG_COORDINATES)) {
-      onWaypointLocationEnd();
+      onWaypointLocationEnd(content);
     } else if (tag.equals(TAG_GX_MULTI_TRACK)) {
       onTrackEnd();
     } else if (tag.equals(TAG_GX_TRACK)) {
       onTrackSegmentEnd();
     } else if (tag.equals(TAG_GX_COORD)) {
-      onTrackPointEnd();
+      onTrackPointEnd(content);
     } else if (tag.equals(TAG_GX_VALUE)) {
-      onSensorValueEnd();
+      onSensorValueEnd(content);
     } else if (tag.equals(TAG_NAME)) {
       if (content != null) {
-        name = content.trim();
+        name = content;
       }
     } else if (localName.equals(TAG_DESCRIPTION)) {
       if (content != null) {
-        description = content.trim();
+        description = content;
       }
     } else if (localName.equals(TAG_VALUE)) {
       if (content != null) {
-        category = content.trim();
+        category = content;
       }
     } else if (localName.equals(TAG_WHEN)) {
       if (content != null) {
-        time = content.trim();
+        time = content;
       }
     } else if (localName.equals(TAG_STYLE_URL)) {
       if (content != null) {
-        waypointType = content.trim();
+        waypointType = content;
       }
     } else if (localName.equals(TAG_HREF)) {
       if (content != null) {
-        photoUrl = content.trim();
+        photoUrl = content;
       }
     }
 
     // Reset element content
-    content = null;
+    resetContent();
   }
 
   /**
@@ -199,10 +211,12 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
 
   /**
    * On waypoint location end.
+   * 
+   * @param content the element content
    */
-  private void onWaypointLocationEnd() {
+  private void onWaypointLocationEnd(String content) {
     if (content != null) {
-      String parts[] = content.trim().split(",");
+      String parts[] = content.split(",");
       if (parts.length != 2 && parts.length != 3) {
         return;
       }
@@ -213,7 +227,7 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
   }
 
   @Override
-  protected void onTrackSegmentStart() {
+  protected void onTrackSegmentStart() throws SAXException {
     super.onTrackSegmentStart();
     locationList = new ArrayList<Location>();
     powerList = new ArrayList<Integer>();
@@ -224,7 +238,7 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
   /**
    * On track segment end.
    */
-  private void onTrackSegmentEnd() {
+  private void onTrackSegmentEnd() throws SAXException {
     // Close a track segment by inserting the segment locations
     boolean hasPower = powerList.size() == locationList.size();
     boolean hasCadence = cadenceList.size() == locationList.size();
@@ -258,13 +272,15 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
 
   /**
    * On track point end. gx:coord end tag.
+   * 
+   * @param content the element content
    */
-  private void onTrackPointEnd() throws SAXException {
+  private void onTrackPointEnd(String content) throws SAXException {
     // Add location to locationList
     if (content == null) {
       return;
     }
-    String parts[] = content.trim().split(" ");
+    String parts[] = content.split(" ");
     if (parts.length != 2 && parts.length != 3) {
       return;
     }
@@ -291,12 +307,13 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
 
   /**
    * On sensor value end. gx:value end tag.
+   * 
+   * @param content the element content
    */
-  private void onSensorValueEnd() throws SAXException {
+  private void onSensorValueEnd(String content) throws SAXException {
     if (content == null) {
       return;
     }
-    content = content.trim();
     if (content.equals("")) {
       return;
     }
@@ -24,13 +24,18 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -41,10 +46,14 @@ import java.util.zip.ZipInputStream;
 public class KmzTrackImporter implements TrackImporter {
 
   private static final String TAG = KmzTrackImporter.class.getSimpleName();
-  private static final int BUFFER_SIZE = 4096;
+  private static final int BUFFER_SIZE = 16384;
+
+  // The maximum number of bytes per file channel transfer
+  private static final long TRANSFER_SIZE = 65536;
 
   private final Context context;
   private final long importTrackId;
+  private final TrackPointWriter trackPointWriter;
 
   /**
    * Constructor.
@@ -54,8 +63,22 @@ public class KmzTrackImporter implements TrackImporter {
    *          images in the kmz file can be imported.
    */
   public KmzTrackImporter(Context context, long importTrackId) {
+    this(context, importTrackId,
+        new TrackPointWriter(MyTracksProviderUtils.Factory.get(context), false));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId track id to import to. This should not be -1L so that
+   *          images in the kmz file can be imported.
+   * @param trackPointWriter the writer of the track points
+   */
+  KmzTrackImporter(Context context, long importTrackId, TrackPointWriter trackPointWriter) {
     this.context = context;
     this.importTrackId = importTrackId;
+    this.trackPointWriter = trackPointWriter;
   }
 
   @Override
@@ -74,7 +97,8 @@ public class KmzTrackImporter implements TrackImporter {
         }
         String fileName = zipEntry.getName();
         if (fileName.equals(KmzTrackExporter.KMZ_KML_FILE)) {
-          trackId = parseKml(zipInputStream);
+          // The parser closes its input stream, keep the zip input stream open
+          trackId = parseKml(new UnclosableInputStream(zipInputStream));
           if (trackId == -1L) {
             Log.d(TAG, "Unable to parse kml in kmz");
             cleanImport(trackId);
@@ -104,6 +128,65 @@ public class KmzTrackImporter implements TrackImporter {
     }
   }
 
+  /**
+   * Imports a file. Reads the entries through the zip central directory, so
+   * that the kml is parsed first and the images are only read if it succeeds.
+   * 
+   * @param file the file
+   * @return the imported track id or -1L.
+   */
+  public long importFile(File file) {
+    ZipFile zipFile = null;
+    long trackId = importTrackId;
+    try {
+      zipFile = new ZipFile(file);
+      ZipEntry kmlEntry = zipFile.getEntry(KmzTrackExporter.KMZ_KML_FILE);
+      if (kmlEntry == null) {
+        Log.d(TAG, "No kml in kmz");
+        return trackId;
+      }
+      trackId = parseKml(zipFile.getInputStream(kmlEntry));
+      if (trackId == -1L) {
+        Log.d(TAG, "Unable to parse kml in kmz");
+        cleanImport(trackId);
+        return -1L;
+      }
+
+      String prefix = KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar;
+      Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+      while (zipEntries.hasMoreElements()) {
+        if (Thread.interrupted()) {
+          Log.d(TAG, "Thread interrupted");
+          cleanImport(trackId);
+          return -1L;
+        }
+        ZipEntry zipEntry = zipEntries.nextElement();
+        String fileName = zipEntry.getName();
+        if (fileName.startsWith(prefix)) {
+          InputStream inputStream = zipFile.getInputStream(zipEntry);
+          try {
+            readImageFile(inputStream, fileName.substring(prefix.length()));
+          } finally {
+            inputStream.close();
+          }
+        }
+      }
+      return trackId;
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to import file", e);
+      cleanImport(trackId);
+      return -1L;
+    } finally {
+      if (zipFile != null) {
+        try {
+          zipFile.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to close zip file", e);
+        }
+      }
+    }
+  }
+
   /**
    * Cleans up import.
    * 
@@ -128,53 +211,25 @@ public class KmzTrackImporter implements TrackImporter {
   }
 
   /**
-   * Parses kml
+   * Parses kml. The kml is streamed to the parser.
    * 
-   * @param zipInputStream the zip input stream
+   * @param inputStream the kml input stream
    * @return the imported track id or -1L
    */
-  private long parseKml(ZipInputStream zipInputStream) throws IOException {
-    ByteArrayInputStream byteArrayInputStream = null;
-    try {
-      KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(context, importTrackId);
-      byteArrayInputStream = new ByteArrayInputStream(getKml(zipInputStream));
-      return kmlFileTrackImporter.importFile(byteArrayInputStream);
-    } finally {
-      if (byteArrayInputStream != null) {
-        byteArrayInputStream.close();
-      }
-    }
+  private long parseKml(InputStream inputStream) {
+    KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(
+        context, importTrackId, trackPointWriter);
+    return kmlFileTrackImporter.importFile(new BufferedInputStream(inputStream, BUFFER_SIZE));
   }
 
   /**
-   * Gets the kml as byte array.
+   * Reads an image file. The image is transferred to the file channel, without
+   * an intermediate copy loop.
    * 
-   * @param zipInputStream the zip input stream
-   */
-  private byte[] getKml(ZipInputStream zipInputStream) throws IOException {
-    ByteArrayOutputStream byteArrayOutputStream = null;
-    try {
-      byteArrayOutputStream = new ByteArrayOutputStream();
-      byte[] buffer = new byte[BUFFER_SIZE];
-      int count;
-      while ((count = zipInputStream.read(buffer)) != -1) {
-        byteArrayOutputStream.write(buffer, 0, count);
-      }
-      return byteArrayOutputStream.toByteArray();
-    } finally {
-      if (byteArrayOutputStream != null) {
-        byteArrayOutputStream.close();
-      }
-    }
-  }
-
-  /**
-   * Reads an image file.
-   * 
-   * @param zipInputStream the zip input stream
+   * @param inputStream the image input stream
    * @param fileName the file name
    */
-  private void readImageFile(ZipInputStream zipInputStream, String fileName) throws IOException {
+  private void readImageFile(InputStream inputStream, String fileName) throws IOException {
     FileOutputStream fileOutputStream = null;
     try {
       if (importTrackId == -1L) {
@@ -188,10 +243,13 @@ public class KmzTrackImporter implements TrackImporter {
 
       File file = new File(dir, fileName);
       fileOutputStream = new FileOutputStream(file);
-      byte[] buffer = new byte[BUFFER_SIZE];
-      int count;
-      while ((count = zipInputStream.read(buffer)) != -1) {
-        fileOutputStream.write(buffer, 0, count);
+      FileChannel fileChannel = fileOutputStream.getChannel();
+      ReadableByteChannel readableByteChannel = Channels.newChannel(inputStream);
+      long position = 0;
+      long count;
+      while ((count = fileChannel.transferFrom(
+          readableByteChannel, position, TRANSFER_SIZE)) > 0) {
+        position += count;
       }
       
       FileUtils.updateMediaScanner(context, Uri.fromFile(file));     
@@ -201,4 +259,20 @@ public class KmzTrackImporter implements TrackImporter {
       }
     }
   }
+
+  /**
+   * An input stream that ignores {@link #close()}, to let the parser read a
+   * zip entry without closing the zip input stream.
+   */
+  private static class UnclosableInputStream extends FilterInputStream {
+
+    UnclosableInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+
+    @Override
+    public void close() {
+      // Leave the underlying stream open
+    }
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+
+import android.location.Location;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Inserts the track point batches of the file track importers. When files are
+ * imported in parallel, the importers share a writer with its own thread, so
+ * that they keep parsing while one thread inserts their batches in order.
+ */
+class TrackPointWriter {
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+
+  // The writer thread. Null to insert on the calling thread.
+  private final ExecutorService executorService;
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param useThread true to insert on the writer thread, false to insert on
+   *          the calling thread
+   */
+  TrackPointWriter(MyTracksProviderUtils myTracksProviderUtils, boolean useThread) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    executorService = useThread ? Executors.newSingleThreadExecutor() : null;
+  }
+
+  /**
+   * Inserts a batch of track points. The batches are inserted in the order of
+   * the calls.
+   *
+   * @param locations the locations, not modified afterwards by the caller
+   * @param length the number of locations to insert
+   * @param trackId the track id
+   * @return the future ids of the inserted points
+   */
+  Future<long[]> write(final Location[] locations, final int length, final long trackId) {
+    FutureTask<long[]> task = new FutureTask<long[]>(new Callable<long[]>() {
+      @Override
+      public long[] call() {
+        return myTracksProviderUtils.insertTrackPoints(locations, length, trackId);
+      }
+    });
+    if (executorService == null) {
+      task.run();
+      return task;
+    }
+    try {
+      executorService.execute(task);
+    } catch (RejectedExecutionException e) {
+      // Shut down, insert on the calling thread
+      task.run();
+    }
+    return task;
+  }
+
+  /**
+   * Shuts down the writer thread once the batches already handed over are
+   * inserted.
+   */
+  void shutdown() {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+  }
+}
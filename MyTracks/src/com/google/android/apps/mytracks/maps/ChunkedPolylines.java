@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The polylines of a track path, split in chunks of at most
+ * {@link #MAX_CHUNK_SIZE} points. Only the last chunk changes when points are
+ * appended, so updating a live recording costs the same however long the
+ * track is.
+ * <p>
+ * The chunks are built on a background thread, and the changes are applied to
+ * the map on the UI thread with {@link #apply(GoogleMap)}. When the whole path
+ * is built again, e.g., after the speed colors changed, only the chunks which
+ * differ are updated.
+ * <p>
+ * Points closer than about a pixel at the zoom level to the previous point of
+ * their polyline are skipped, so a zoomed out track has far fewer vertices.
+ * The path needs to be built again when the zoom level changes.
+ */
+public class ChunkedPolylines {
+
+  /**
+   * The max number of points of a polyline.
+   */
+  public static final int MAX_CHUNK_SIZE = 256;
+
+  private static final int WIDTH = 5;
+
+  // The size of the world in dp at zoom level 0
+  private static final double WORLD_SIZE = 256.0;
+
+  /**
+   * A chunk of the path, shown as one polyline.
+   */
+  private static class Chunk {
+    private final int color;
+    private final ArrayList<LatLng> points = new ArrayList<LatLng>();
+
+    // The polyline on the map, null if not yet added
+    private Polyline polyline;
+
+    // True if the polyline needs to be added or updated
+    private boolean dirty;
+
+    private Chunk(int color) {
+      this.color = color;
+    }
+
+    /**
+     * Gets a hash code of the color and the end points.
+     */
+    private int getKey() {
+      int key = color;
+      key = 31 * key + points.size();
+      key = 31 * key + points.get(0).hashCode();
+      key = 31 * key + points.get(points.size() - 1).hashCode();
+      return key;
+    }
+
+    /**
+     * Returns true if the chunk has the same color and points as another.
+     * 
+     * @param chunk the other chunk
+     */
+    private boolean hasSameContent(Chunk chunk) {
+      return color == chunk.color && points.equals(chunk.points);
+    }
+  }
+
+  private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+  private final ArrayList<Chunk> dirtyChunks = new ArrayList<Chunk>();
+  private final ArrayList<Polyline> removedPolylines = new ArrayList<Polyline>();
+
+  private int zoomLevel = -1;
+  private double minDistance = 0.0;
+
+  /**
+   * Gets the number of polylines.
+   */
+  public synchronized int size() {
+    return chunks.size();
+  }
+
+  /**
+   * Gets the color of the last polyline.
+   */
+  public synchronized int getLastColor() {
+    return chunks.get(chunks.size() - 1).color;
+  }
+
+  /**
+   * Gets a copy of the points of each polyline.
+   */
+  @VisibleForTesting
+  synchronized List<List<LatLng>> getPoints() {
+    List<List<LatLng>> result = new ArrayList<List<LatLng>>(chunks.size());
+    for (Chunk chunk : chunks) {
+      result.add(new ArrayList<LatLng>(chunk.points));
+    }
+    return result;
+  }
+
+  /**
+   * Gets the zoom level.
+   */
+  public synchronized int getZoomLevel() {
+    return zoomLevel;
+  }
+
+  /**
+   * Sets the zoom level of the map. Returns true if it changed, in which case
+   * the path should be built again.
+   *
+   * @param level the zoom level, -1 to keep all the points
+   */
+  public synchronized boolean setZoomLevel(int level) {
+    if (level == zoomLevel) {
+      return false;
+    }
+    zoomLevel = level;
+    minDistance = getMinDistance(level);
+    return true;
+  }
+
+  /**
+   * Adds points.
+   *
+   * @param points the points
+   * @param color the color of a new polyline
+   * @param append true to append to the last polyline
+   */
+  public synchronized void addPoints(List<LatLng> points, int color, boolean append) {
+    if (points.size() == 0) {
+      return;
+    }
+    Chunk chunk = append && chunks.size() != 0 ? chunks.get(chunks.size() - 1) : addChunk(color);
+    for (int i = 0; i < points.size(); i++) {
+      LatLng latLng = points.get(i);
+      int size = chunk.points.size();
+      if (size != 0 && isNear(chunk.points.get(size - 1), latLng, minDistance)) {
+        continue;
+      }
+      if (size == MAX_CHUNK_SIZE) {
+        // Seal the full chunk, the next one starts at its last point
+        LatLng last = chunk.points.get(size - 1);
+        chunk = addChunk(chunk.color);
+        chunk.points.add(last);
+      }
+      chunk.points.add(latLng);
+      setDirty(chunk);
+    }
+  }
+
+  /**
+   * Replaces the polylines with the ones of a newly built path. Keeps the
+   * polylines of the chunks which have not changed, and reuses the polylines
+   * of the ones which have.
+   * 
+   * @param chunkedPolylines the newly built path, not yet applied
+   */
+  public synchronized void replace(ChunkedPolylines chunkedPolylines) {
+    HashMap<Integer, Chunk> oldChunks = new HashMap<Integer, Chunk>();
+    ArrayList<Polyline> unusedPolylines = new ArrayList<Polyline>();
+    for (Chunk chunk : chunks) {
+      if (chunk.polyline != null && oldChunks.put(chunk.getKey(), chunk) != null) {
+        // Two chunks with the same key, keep the polyline of the first one
+        unusedPolylines.add(chunk.polyline);
+      }
+    }
+
+    ArrayList<Chunk> changedChunks = new ArrayList<Chunk>();
+    for (Chunk chunk : chunkedPolylines.chunks) {
+      Chunk oldChunk = oldChunks.get(chunk.getKey());
+      if (oldChunk != null && oldChunk.hasSameContent(chunk)) {
+        oldChunks.remove(chunk.getKey());
+        chunk.polyline = oldChunk.polyline;
+        chunk.dirty = oldChunk.dirty;
+      } else {
+        changedChunks.add(chunk);
+      }
+    }
+    for (Chunk oldChunk : oldChunks.values()) {
+      unusedPolylines.add(oldChunk.polyline);
+    }
+
+    // Reuse the polylines of the chunks which are gone
+    Iterator<Polyline> iterator = unusedPolylines.iterator();
+    for (Chunk chunk : changedChunks) {
+      if (!iterator.hasNext()) {
+        break;
+      }
+      chunk.polyline = iterator.next();
+      iterator.remove();
+    }
+    removedPolylines.addAll(unusedPolylines);
+
+    chunks.clear();
+    chunks.addAll(chunkedPolylines.chunks);
+    dirtyChunks.clear();
+    for (Chunk chunk : chunks) {
+      if (chunk.dirty) {
+        dirtyChunks.add(chunk);
+      }
+    }
+    chunkedPolylines.chunks.clear();
+    chunkedPolylines.dirtyChunks.clear();
+  }
+
+  /**
+   * Applies the changes to the map. To be called on the UI thread.
+   * 
+   * @param googleMap the google map
+   */
+  public synchronized void apply(GoogleMap googleMap) {
+    for (Polyline polyline : removedPolylines) {
+      polyline.remove();
+    }
+    removedPolylines.clear();
+    for (Chunk chunk : dirtyChunks) {
+      if (chunk.polyline == null) {
+        chunk.polyline = googleMap.addPolyline(
+            new PolylineOptions().addAll(chunk.points).width(WIDTH).color(chunk.color));
+      } else {
+        chunk.polyline.setPoints(chunk.points);
+        chunk.polyline.setColor(chunk.color);
+      }
+      chunk.dirty = false;
+    }
+    dirtyChunks.clear();
+  }
+
+  /**
+   * Adds a chunk.
+   * 
+   * @param color the color
+   */
+  private Chunk addChunk(int color) {
+    Chunk chunk = new Chunk(color);
+    chunks.add(chunk);
+    return chunk;
+  }
+
+  /**
+   * Marks a chunk as needing to be applied.
+   * 
+   * @param chunk the chunk
+   */
+  private void setDirty(Chunk chunk) {
+    if (!chunk.dirty) {
+      chunk.dirty = true;
+      dirtyChunks.add(chunk);
+    }
+  }
+
+  /**
+   * Gets the min distance between two points of a polyline, in degrees of
+   * longitude, about a pixel at a zoom level.
+   *
+   * @param zoomLevel the zoom level, -1 to keep all the points
+   */
+  @VisibleForTesting
+  static double getMinDistance(int zoomLevel) {
+    if (zoomLevel < 0) {
+      return 0.0;
+    }
+    return 360.0 / (WORLD_SIZE * Math.pow(2.0, zoomLevel));
+  }
+
+  /**
+   * Returns true if two points are closer than a min distance on the map. In
+   * the Mercator projection, a degree of latitude is 1 / cos(latitude) times
+   * longer than a degree of longitude.
+   *
+   * @param latLng1 the first point
+   * @param latLng2 the second point
+   * @param minDistance the min distance, in degrees of longitude
+   */
+  @VisibleForTesting
+  static boolean isNear(LatLng latLng1, LatLng latLng2, double minDistance) {
+    double dx = latLng2.longitude - latLng1.longitude;
+    double dy = (latLng2.latitude - latLng1.latitude)
+        / Math.cos(Math.toRadians(latLng1.latitude));
+    return dx * dx + dy * dy < minDistance * minDistance;
+  }
+}
@@ -17,9 +17,7 @@ package com.google.android.apps.mytracks.maps;
 
 import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.stats.TripStatistics;
-import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
@@ -53,11 +51,7 @@ public class MultiColorTrackPath implements TrackPath {
   }
 
   @Override
-  public void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
-      List<CachedLocation> locations) {
-    if (googleMap == null) {
-      return;
-    }
+  public void updatePath(ChunkedPolylines paths, int startIndex, List<CachedLocation> locations) {
     if (startIndex >= locations.size()) {
       return;
     }
@@ -66,7 +60,7 @@ public class MultiColorTrackPath implements TrackPath {
     LatLng lastLatLng = startIndex != 0 ? locations.get(startIndex -1).getLatLng() : null;
     
     ArrayList<LatLng> lastSegmentPoints = new ArrayList<LatLng>();
-    int lastSegmentColor = paths.size() != 0  ? paths.get(paths.size() - 1).getColor() : slowColor;
+    int lastSegmentColor = paths.size() != 0 ? paths.getLastColor() : slowColor;
     boolean useLastPolyline = true;
 
     for (int i = startIndex; i < locations.size(); ++i) {
@@ -83,7 +77,7 @@ public class MultiColorTrackPath implements TrackPath {
       
       // Either update point or draw a line from the last point
       if (newSegment) {
-        TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
+        TrackPathUtils.addPath(paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
         useLastPolyline = false;
         lastSegmentColor = color;
         newSegment = false;
@@ -91,7 +85,7 @@ public class MultiColorTrackPath implements TrackPath {
       if (lastSegmentColor == color) {
         lastSegmentPoints.add(latLng);
       } else {
-        TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
+        TrackPathUtils.addPath(paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
         useLastPolyline = false;
         if (lastLatLng != null) {
           lastSegmentPoints.add(lastLatLng);
@@ -101,7 +95,7 @@ public class MultiColorTrackPath implements TrackPath {
       }
       lastLatLng = latLng;
     }
-    TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
+    TrackPathUtils.addPath(paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
   }
 
   @VisibleForTesting
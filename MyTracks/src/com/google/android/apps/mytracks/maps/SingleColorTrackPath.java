@@ -17,9 +17,7 @@ package com.google.android.apps.mytracks.maps;
 
 import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.stats.TripStatistics;
-import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.Polyline;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
@@ -46,11 +44,7 @@ public class SingleColorTrackPath implements TrackPath {
   }
 
   @Override
-  public void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
-      List<CachedLocation> locations) {
-    if (googleMap == null) {
-      return;
-    }
+  public void updatePath(ChunkedPolylines paths, int startIndex, List<CachedLocation> locations) {
     if (startIndex >= locations.size()) {
       return;
     }
@@ -68,12 +62,12 @@ public class SingleColorTrackPath implements TrackPath {
       }
       LatLng latLng = cachedLocation.getLatLng();
       if (newSegment) {
-        TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, color, useLastPolyline);
+        TrackPathUtils.addPath(paths, lastSegmentPoints, color, useLastPolyline);
         useLastPolyline = false;
         newSegment = false;
       }
       lastSegmentPoints.add(latLng);
     }
-    TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, color, useLastPolyline);
+    TrackPathUtils.addPath(paths, lastSegmentPoints, color, useLastPolyline);
   }
 }
\ No newline at end of file
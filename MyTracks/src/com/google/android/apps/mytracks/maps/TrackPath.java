@@ -18,10 +18,7 @@ package com.google.android.apps.mytracks.maps;
 
 import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.stats.TripStatistics;
-import com.google.android.gms.maps.GoogleMap;
-import com.google.android.gms.maps.model.Polyline;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -40,11 +37,12 @@ public interface TrackPath {
   public boolean updateState(TripStatistics tripStatistics);
 
   /**
-   * Updates the path.
+   * Updates the path. Only changes the paths, which are applied to the map
+   * later, so it can be called on a background thread.
    * 
+   * @param paths the paths
    * @param startIndex the start index
    * @param points the points
    */
-  public void updatePath(GoogleMap googleMap, ArrayList<Polyline> paths, int startIndex,
-      List<CachedLocation> points);
+  public void updatePath(ChunkedPolylines paths, int startIndex, List<CachedLocation> points);
 }
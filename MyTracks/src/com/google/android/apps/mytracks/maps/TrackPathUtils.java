@@ -16,10 +16,7 @@
 
 package com.google.android.apps.mytracks.maps;
 
-import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.Polyline;
-import com.google.android.gms.maps.model.PolylineOptions;
 
 import java.util.ArrayList;
 
@@ -33,30 +30,17 @@ public class TrackPathUtils {
   private TrackPathUtils() {}
 
   /**
-   * Add a path.
+   * Add a path. Appending only changes the last chunk of the paths, see
+   * {@link ChunkedPolylines}.
    * 
-   * @param googleMap the google map
    * @param paths the existing paths
    * @param points the path points
    * @param color the path color
    * @param append true to append to the last path
    */
-  public static void addPath(GoogleMap googleMap, ArrayList<Polyline> paths,
-      ArrayList<LatLng> points, int color, boolean append) {
-    if (points.size() == 0) {
-      return;
-    }
-    if (append && paths.size() != 0) {
-      Polyline lastPolyline = paths.get(paths.size() - 1);
-      ArrayList<LatLng> pathPoints = new ArrayList<LatLng>();
-      pathPoints.addAll(lastPolyline.getPoints());
-      pathPoints.addAll(points);
-      lastPolyline.setPoints(pathPoints);
-    } else {
-      PolylineOptions polylineOptions = new PolylineOptions().addAll(points).width(5).color(color);
-      Polyline polyline = googleMap.addPolyline(polylineOptions);
-      paths.add(polyline);
-    }
+  public static void addPath(
+      ChunkedPolylines paths, ArrayList<LatLng> points, int color, boolean append) {
+    paths.addPoints(points, color, append);
     points.clear();
   }
 }
\ No newline at end of file
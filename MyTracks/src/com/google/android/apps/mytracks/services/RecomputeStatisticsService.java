@@ -0,0 +1,324 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.TrackListActivity;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TracksColumns;
+import com.google.android.apps.mytracks.util.CalorieUtils;
+import com.google.android.apps.mytracks.util.IntentUtils;
+import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
+
+import android.app.IntentService;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A service to recompute the statistics of tracks, e.g., after the recording
+ * distance interval changed. The tracks are recomputed by a pool of threads,
+ * each track by a {@link TrackStatisticsRecomputer}, and the progress is shown
+ * in a notification.
+ * <p>
+ * The ids of the tracks to recompute are written to a preference list when the
+ * service is started, and the tracks done are removed from the list every
+ * {@link #PENDING_LIST_WRITE_INTERVAL} tracks and at the end. The intent only
+ * triggers draining the list. If the process is killed, the intent is
+ * redelivered and the service resumes with the tracks left in the list. The
+ * list is updated from the callers of the start methods and from the service,
+ * so its accessors synchronize on the class.
+ */
+public class RecomputeStatisticsService extends IntentService {
+
+  private static final String TAG = RecomputeStatisticsService.class.getSimpleName();
+
+  private static final int NOTIFICATION_ID = 4;
+
+  private static final int MAX_THREADS = 4;
+
+  // The number of tracks done between writes of the pending list
+  private static final int PENDING_LIST_WRITE_INTERVAL = 20;
+
+  private static final String EXTRA_ALL_TRACKS = "all_tracks";
+
+  public RecomputeStatisticsService() {
+    super(RecomputeStatisticsService.class.getSimpleName());
+    setIntentRedelivery(true);
+  }
+
+  /**
+   * Starts recomputing the statistics of all the tracks.
+   *
+   * @param context the context
+   */
+  public static void startAllTracks(Context context) {
+    // The track ids are read by the service, off the calling thread
+    Intent intent = new Intent(context, RecomputeStatisticsService.class)
+        .putExtra(EXTRA_ALL_TRACKS, true);
+    context.startService(intent);
+  }
+
+  /**
+   * Starts recomputing the statistics of some tracks.
+   *
+   * @param context the context
+   * @param trackIds the track ids
+   */
+  public static void startTracks(Context context, long... trackIds) {
+    List<Long> list = new ArrayList<Long>();
+    for (long trackId : trackIds) {
+      list.add(trackId);
+    }
+    addToPendingList(context, list);
+    context.startService(new Intent(context, RecomputeStatisticsService.class));
+  }
+
+  @Override
+  protected void onHandleIntent(Intent intent) {
+    if (intent.getBooleanExtra(EXTRA_ALL_TRACKS, false)) {
+      addToPendingList(this, getAllTrackIds());
+    }
+    List<Long> pendingTrackIds = getPendingList(this);
+    if (pendingTrackIds.isEmpty()) {
+      return;
+    }
+    recompute(MyTracksProviderUtils.Factory.get(this), pendingTrackIds);
+  }
+
+  /**
+   * Gets the ids of all the tracks.
+   */
+  private List<Long> getAllTrackIds() {
+    List<Long> trackIds = new ArrayList<Long>();
+    Cursor cursor = null;
+    try {
+      cursor = getContentResolver().query(
+          TracksColumns.CONTENT_URI, new String[] { TracksColumns._ID }, null, null, null);
+      if (cursor != null) {
+        int idIndex = cursor.getColumnIndexOrThrow(TracksColumns._ID);
+        while (cursor.moveToNext()) {
+          trackIds.add(cursor.getLong(idIndex));
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return trackIds;
+  }
+
+  /**
+   * Recomputes the statistics of tracks in a pool of threads.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackIds the track ids
+   */
+  private void recompute(
+      final MyTracksProviderUtils myTracksProviderUtils, List<Long> trackIds) {
+    int recordingDistanceInterval = PreferencesUtils.getInt(this,
+        R.string.recording_distance_interval_key,
+        PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
+    double weight = PreferencesUtils.getFloat(
+        this, R.string.weight_key, PreferencesUtils.getDefaultWeight(this));
+    LocationUtils.updateUseDistanceUtils(this);
+    final TrackStatisticsRecomputer trackStatisticsRecomputer = new TrackStatisticsRecomputer(
+        myTracksProviderUtils, recordingDistanceInterval, weight);
+    final ProgressNotification progressNotification = new ProgressNotification(trackIds.size());
+    startForeground(NOTIFICATION_ID, progressNotification.build(0));
+
+    int threads = Math.max(
+        1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    final List<Long> doneTrackIds = new ArrayList<Long>();
+    for (final long trackId : trackIds) {
+      executorService.execute(new Runnable() {
+        @Override
+        public void run() {
+          recompute(myTracksProviderUtils, trackStatisticsRecomputer, trackId);
+          onTrackDone(doneTrackIds, trackId);
+          progressNotification.onTrackDone();
+        }
+      });
+    }
+    executorService.shutdown();
+    try {
+      while (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+        Log.d(TAG, "Waiting for the tracks to be recomputed.");
+      }
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Interrupted while recomputing the tracks.", e);
+      executorService.shutdownNow();
+    }
+    synchronized (doneTrackIds) {
+      removeFromPendingList(this, doneTrackIds);
+      doneTrackIds.clear();
+    }
+    stopForeground(true);
+  }
+
+  /**
+   * Recomputes the statistics of a track. The recording track is skipped, its
+   * statistics are kept by the {@link TrackRecordingService}.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackStatisticsRecomputer the track statistics recomputer
+   * @param trackId the track id
+   */
+  private void recompute(MyTracksProviderUtils myTracksProviderUtils,
+      TrackStatisticsRecomputer trackStatisticsRecomputer, long trackId) {
+    if (trackId == PreferencesUtils.getLong(this, R.string.recording_track_id_key)) {
+      return;
+    }
+    Track track = myTracksProviderUtils.getTrack(trackId);
+    if (track == null) {
+      return;
+    }
+    try {
+      trackStatisticsRecomputer.recompute(
+          track, CalorieUtils.getActivityType(this, track.getCategory()));
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Unable to recompute track " + trackId, e);
+    }
+  }
+
+  /**
+   * Called when a track is done. Removes the tracks done from the pending list
+   * every {@link #PENDING_LIST_WRITE_INTERVAL} tracks.
+   *
+   * @param doneTrackIds the ids of the tracks done and not yet removed
+   * @param trackId the track id
+   */
+  private void onTrackDone(List<Long> doneTrackIds, long trackId) {
+    synchronized (doneTrackIds) {
+      doneTrackIds.add(trackId);
+      if (doneTrackIds.size() >= PENDING_LIST_WRITE_INTERVAL) {
+        removeFromPendingList(this, doneTrackIds);
+        doneTrackIds.clear();
+      }
+    }
+  }
+
+  /**
+   * Gets the ids of the tracks to recompute.
+   *
+   * @param context the context
+   */
+  private static synchronized List<Long> getPendingList(Context context) {
+    String list = PreferencesUtils.getString(context, R.string.recompute_statistics_list_key,
+        PreferencesUtils.RECOMPUTE_STATISTICS_LIST_DEFAULT);
+    List<Long> trackIds = new ArrayList<Long>();
+    for (String item : TextUtils.split(list, ";")) {
+      try {
+        trackIds.add(Long.valueOf(item));
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Invalid track id " + item);
+      }
+    }
+    return trackIds;
+  }
+
+  /**
+   * Adds track ids to the ids of the tracks to recompute, writing the list
+   * once.
+   *
+   * @param context the context
+   * @param trackIds the track ids
+   */
+  private static synchronized void addToPendingList(Context context, List<Long> trackIds) {
+    Set<Long> pendingTrackIds = new LinkedHashSet<Long>(getPendingList(context));
+    pendingTrackIds.addAll(trackIds);
+    PreferencesUtils.setString(context, R.string.recompute_statistics_list_key,
+        TextUtils.join(";", pendingTrackIds));
+  }
+
+  /**
+   * Removes track ids from the ids of the tracks to recompute, writing the list
+   * once. The ids added since the tracks were started are kept.
+   *
+   * @param context the context
+   * @param trackIds the track ids
+   */
+  private static synchronized void removeFromPendingList(Context context, List<Long> trackIds) {
+    if (trackIds.isEmpty()) {
+      return;
+    }
+    Set<Long> pendingTrackIds = new LinkedHashSet<Long>(getPendingList(context));
+    pendingTrackIds.removeAll(trackIds);
+    PreferencesUtils.setString(context, R.string.recompute_statistics_list_key,
+        TextUtils.join(";", pendingTrackIds));
+  }
+
+  /**
+   * The progress notification. Updated when the percentage of tracks done
+   * changes.
+   */
+  private class ProgressNotification {
+
+    private final int numberOfTracks;
+    private final NotificationManager notificationManager;
+    private final PendingIntent pendingIntent;
+    private int numberOfTracksDone = 0;
+    private int percentage = 0;
+
+    ProgressNotification(int numberOfTracks) {
+      this.numberOfTracks = numberOfTracks;
+      Context context = RecomputeStatisticsService.this;
+      notificationManager = (NotificationManager) context.getSystemService(
+          Context.NOTIFICATION_SERVICE);
+      Intent intent = IntentUtils.newIntent(context, TrackListActivity.class);
+      pendingIntent = TaskStackBuilder.create(context).addNextIntent(intent)
+          .getPendingIntent(0, 0);
+    }
+
+    synchronized void onTrackDone() {
+      numberOfTracksDone++;
+      int newPercentage = numberOfTracksDone * 100 / numberOfTracks;
+      if (newPercentage != percentage && numberOfTracksDone < numberOfTracks) {
+        percentage = newPercentage;
+        notificationManager.notify(NOTIFICATION_ID, build(numberOfTracksDone));
+      }
+    }
+
+    Notification build(int done) {
+      return new NotificationCompat.Builder(RecomputeStatisticsService.this)
+          .setContentIntent(pendingIntent)
+          .setContentText(getString(R.string.recompute_statistics_progress, done, numberOfTracks))
+          .setContentTitle(getString(R.string.recompute_statistics_title)).setOngoing(true)
+          .setProgress(numberOfTracks, done, false)
+          .setSmallIcon(android.R.drawable.stat_notify_sync).build();
+    }
+  }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+import com.google.android.apps.mytracks.util.LocationUtils;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * The state of the recording track, owned by the {@link TrackRecordingService}.
+ * While recording, it is the authoritative copy of the track: the track, the
+ * current segment and the live trip statistics are updated here for every
+ * location, then written through to the database with the buffered track
+ * points. Handling a location doesn't read the database.
+ * <p>
+ * The trip statistics updaters are periodically written to a checkpoint file,
+ * so restoring the session only replays the track points after the checkpoint.
+ * <p>
+ * All methods are synchronized since the session is updated from the location
+ * thread and read from the main thread and binder threads.
+ */
+class RecordingSession {
+
+  private static final String TAG = RecordingSession.class.getSimpleName();
+
+  private static final int CHECKPOINT_VERSION = 3;
+
+  private final Track track;
+  private final TripStatisticsUpdater trackTripStatisticsUpdater;
+  private TripStatisticsUpdater markerTripStatisticsUpdater;
+  private long markerStartTime;
+  private ActivityType activityType;
+
+  // The id of the last track point in the checkpoint restored, -1L if none
+  private long checkpointTrackPointId = -1L;
+
+  // The current segment
+  private Location lastLocation;
+  private Location lastValidTrackPoint;
+  private boolean currentSegmentHasLocation;
+  private boolean isIdle;
+
+  /**
+   * Constructor for a new track.
+   *
+   * @param track the track, with its id
+   * @param startTime the start time
+   * @param activityType the activity type of the track
+   */
+  RecordingSession(Track track, long startTime, ActivityType activityType) {
+    this(track, new TripStatisticsUpdater(startTime), new TripStatisticsUpdater(startTime),
+        startTime, activityType);
+  }
+
+  private RecordingSession(Track track, TripStatisticsUpdater trackTripStatisticsUpdater,
+      TripStatisticsUpdater markerTripStatisticsUpdater, long markerStartTime,
+      ActivityType activityType) {
+    this.track = track;
+    this.trackTripStatisticsUpdater = trackTripStatisticsUpdater;
+    this.markerTripStatisticsUpdater = markerTripStatisticsUpdater;
+    this.markerStartTime = markerStartTime;
+    this.activityType = activityType;
+  }
+
+  /**
+   * Restores the session of a track recorded by a previous process. Starts
+   * from the checkpoint if it is for the track, then replays the track points
+   * in the database after it. Without a usable checkpoint, replays all the
+   * track points.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param track the track
+   * @param activityType the activity type of the track
+   * @param recordingDistanceInterval the recording distance interval
+   * @param weight the weight to calculate calorie
+   * @param checkpointFile the checkpoint file
+   */
+  static RecordingSession restore(MyTracksProviderUtils myTracksProviderUtils, Track track,
+      ActivityType activityType, int recordingDistanceInterval, double weight,
+      File checkpointFile) {
+    long startTime = track.getTripStatistics().getStartTime();
+    long markerStartTime;
+    Waypoint waypoint = myTracksProviderUtils.getLastWaypoint(
+        track.getId(), WaypointType.STATISTICS);
+    if (waypoint != null && waypoint.getTripStatistics() != null) {
+      markerStartTime = waypoint.getTripStatistics().getStopTime();
+    } else {
+      markerStartTime = startTime;
+    }
+
+    RecordingSession session = readCheckpoint(checkpointFile, track, markerStartTime,
+        activityType);
+    long startTrackPointId = -1L;
+    if (session != null) {
+      startTrackPointId = session.checkpointTrackPointId + 1;
+    } else {
+      session = new RecordingSession(track, new TripStatisticsUpdater(startTime),
+          new TripStatisticsUpdater(markerStartTime), markerStartTime, activityType);
+    }
+
+    LocationIterator locationIterator = null;
+    try {
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(track.getId(),
+          startTrackPointId, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      while (locationIterator.hasNext()) {
+        Location location = locationIterator.next();
+        session.trackTripStatisticsUpdater.addLocation(
+            location, recordingDistanceInterval, true, activityType, weight);
+        if (location.getTime() > markerStartTime) {
+          session.markerTripStatisticsUpdater.addLocation(
+              location, recordingDistanceInterval, true, activityType, weight);
+        }
+      }
+    } catch (RuntimeException e) {
+      Log.e(TAG, "RuntimeException", e);
+    } finally {
+      if (locationIterator != null) {
+        locationIterator.close();
+      }
+    }
+    return session;
+  }
+
+  /**
+   * Reads the checkpoint of a track. Returns null if the checkpoint doesn't
+   * exist, is for another track, is older than the last marker, or is short,
+   * corrupt or can't be read.
+   *
+   * @param checkpointFile the checkpoint file
+   * @param track the track
+   * @param markerStartTime the start time of the marker trip statistics
+   * @param activityType the activity type of the track
+   */
+  private static RecordingSession readCheckpoint(File checkpointFile, Track track,
+      long markerStartTime, ActivityType activityType) {
+    DataInputStream inputStream = null;
+    try {
+      inputStream = new DataInputStream(new FileInputStream(checkpointFile));
+      if (inputStream.readInt() != CHECKPOINT_VERSION) {
+        return null;
+      }
+      int length = inputStream.readInt();
+      long checksum = inputStream.readLong();
+      if (length < 0 || length > checkpointFile.length()) {
+        Log.w(TAG, "Invalid checkpoint length: " + length);
+        return null;
+      }
+      byte[] data = new byte[length];
+      inputStream.readFully(data);
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      if (crc.getValue() != checksum) {
+        Log.w(TAG, "Corrupt checkpoint.");
+        return null;
+      }
+
+      DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(data));
+      if (dataInputStream.readLong() != track.getId()) {
+        return null;
+      }
+      long trackPointId = dataInputStream.readLong();
+      if (dataInputStream.readLong() != markerStartTime) {
+        // A marker was inserted after the checkpoint
+        return null;
+      }
+      TripStatisticsUpdater trackTripStatisticsUpdater = new TripStatisticsUpdater(
+          dataInputStream);
+      TripStatisticsUpdater markerTripStatisticsUpdater = new TripStatisticsUpdater(
+          dataInputStream);
+      RecordingSession session = new RecordingSession(track, trackTripStatisticsUpdater,
+          markerTripStatisticsUpdater, markerStartTime, activityType);
+      session.checkpointTrackPointId = trackPointId;
+      return session;
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      // Includes a checkpoint cut short by a crash
+      Log.w(TAG, "Unable to read the checkpoint.", e);
+      return null;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Unable to parse the checkpoint.", e);
+      return null;
+    } finally {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Unable to close the checkpoint.", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the trip statistics updaters to the checkpoint file. The checkpoint
+   * is written to a temporary file and synced to the disk, then renamed, so a
+   * process dying or a power loss while writing leaves the previous
+   * checkpoint. The data is followed by its CRC32, so a checkpoint damaged
+   * anyway is detected and ignored.
+   *
+   * @param checkpointFile the checkpoint file
+   * @param trackPointId the id of the last track point added to the trip
+   *          statistics
+   */
+  synchronized void writeCheckpoint(File checkpointFile, long trackPointId) {
+    File tempFile = new File(checkpointFile.getPath() + ".tmp");
+    FileOutputStream outputStream = null;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream dataOutputStream = new DataOutputStream(bytes);
+      dataOutputStream.writeLong(track.getId());
+      dataOutputStream.writeLong(trackPointId);
+      dataOutputStream.writeLong(markerStartTime);
+      trackTripStatisticsUpdater.writeTo(dataOutputStream);
+      markerTripStatisticsUpdater.writeTo(dataOutputStream);
+      dataOutputStream.close();
+      byte[] data = bytes.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(data);
+
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOutputStream = new DataOutputStream(header);
+      headerOutputStream.writeInt(CHECKPOINT_VERSION);
+      headerOutputStream.writeInt(data.length);
+      headerOutputStream.writeLong(crc.getValue());
+      headerOutputStream.close();
+
+      outputStream = new FileOutputStream(tempFile);
+      outputStream.write(header.toByteArray());
+      outputStream.write(data);
+      outputStream.getFD().sync();
+      outputStream.close();
+      outputStream = null;
+      if (!tempFile.renameTo(checkpointFile)) {
+        Log.w(TAG, "Unable to rename the checkpoint.");
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write the checkpoint.", e);
+    } finally {
+      if (outputStream != null) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Unable to close the checkpoint.", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the track id.
+   */
+  long getTrackId() {
+    return track.getId();
+  }
+
+  /**
+   * Gets a copy of the track, with the live trip statistics.
+   */
+  synchronized Track getTrack() {
+    Track copy = new Track();
+    copy.setId(track.getId());
+    copy.setName(track.getName());
+    copy.setDescription(track.getDescription());
+    copy.setCategory(track.getCategory());
+    copy.setIcon(track.getIcon());
+    copy.setStartId(track.getStartId());
+    copy.setStopId(track.getStopId());
+    copy.setNumberOfPoints(track.getNumberOfPoints());
+    copy.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
+    return copy;
+  }
+
+  /**
+   * Gets a snapshot of the live trip statistics of the track.
+   */
+  synchronized TripStatistics getTripStatistics() {
+    return trackTripStatisticsUpdater.getTripStatistics();
+  }
+
+  /**
+   * Gets the total time of the track.
+   *
+   * @param time the current time, or -1L to not update the time
+   */
+  synchronized long getTotalTime(long time) {
+    if (time != -1L) {
+      trackTripStatisticsUpdater.updateTime(time);
+    }
+    return trackTripStatisticsUpdater.getTripStatistics().getTotalTime();
+  }
+
+  /**
+   * Updates the trip statistics time of the track.
+   *
+   * @param time the time
+   */
+  synchronized void updateTime(long time) {
+    trackTripStatisticsUpdater.updateTime(time);
+  }
+
+  /**
+   * Ends the marker trip statistics at a time and starts new ones. Returns the
+   * ended marker trip statistics.
+   *
+   * @param time the time
+   */
+  synchronized TripStatistics nextMarkerTripStatistics(long time) {
+    markerTripStatisticsUpdater.updateTime(time);
+    TripStatistics tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
+    markerTripStatisticsUpdater = new TripStatisticsUpdater(time);
+    markerStartTime = time;
+    return tripStatistics;
+  }
+
+  /**
+   * Updates the calorie after the track is edited.
+   *
+   * @param newActivityType the new activity type of the track
+   * @param trackCalorie the track calorie
+   * @param markerCalorie the marker calorie
+   */
+  synchronized void updateCalorie(
+      ActivityType newActivityType, double trackCalorie, double markerCalorie) {
+    activityType = newActivityType;
+    trackTripStatisticsUpdater.updateCalorie(trackCalorie);
+    markerTripStatisticsUpdater.updateCalorie(markerCalorie);
+  }
+
+  /**
+   * Adds a track point to the trip statistics. Valid track points become the
+   * last valid track point of the current segment.
+   *
+   * @param location the location
+   * @param recordingDistanceInterval the recording distance interval
+   * @param weight the weight to calculate calorie
+   */
+  synchronized void addTrackPoint(Location location, int recordingDistanceInterval,
+      double weight) {
+    trackTripStatisticsUpdater.addLocation(
+        location, recordingDistanceInterval, true, activityType, weight);
+    markerTripStatisticsUpdater.addLocation(
+        location, recordingDistanceInterval, true, activityType, weight);
+    if (LocationUtils.isValidLocation(location)) {
+      lastValidTrackPoint = location;
+    }
+  }
+
+  /**
+   * Updates the track after its buffered track points are written to the
+   * database. Also updates the startId and the stopId.
+   *
+   * @param numberOfNewPoints the number of new valid track points
+   * @param firstId the id of the first written track point
+   * @param lastId the id of the last written track point, -1L if none
+   */
+  synchronized void onTrackPointsWritten(int numberOfNewPoints, long firstId, long lastId) {
+    if (lastId >= 0) {
+      if (track.getStartId() < 0) {
+        track.setStartId(firstId);
+      }
+      track.setStopId(lastId);
+    }
+    track.setNumberOfPoints(track.getNumberOfPoints() + numberOfNewPoints);
+  }
+
+  /**
+   * Starts a new segment.
+   */
+  synchronized void startSegment() {
+    lastLocation = null;
+    lastValidTrackPoint = null;
+    currentSegmentHasLocation = false;
+    isIdle = false;
+  }
+
+  /**
+   * Gets the last valid track point in the current segment. Returns null if
+   * not available.
+   */
+  synchronized Location getLastValidTrackPoint() {
+    return currentSegmentHasLocation ? lastValidTrackPoint : null;
+  }
+
+  /**
+   * Gets the last location received in the current segment, recorded or not.
+   */
+  synchronized Location getLastLocation() {
+    return lastLocation;
+  }
+
+  synchronized void setLastLocation(Location location) {
+    lastLocation = location;
+  }
+
+  /**
+   * Returns true if the current segment has a track point.
+   */
+  synchronized boolean currentSegmentHasLocation() {
+    return currentSegmentHasLocation;
+  }
+
+  synchronized void setCurrentSegmentHasLocation(boolean hasLocation) {
+    currentSegmentHasLocation = hasLocation;
+  }
+
+  /**
+   * Returns true if idle.
+   */
+  synchronized boolean isIdle() {
+    return isIdle;
+  }
+
+  synchronized void setIdle(boolean idle) {
+    isIdle = idle;
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.util.LocationUtils;
+
+import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An in-memory buffer of track points waiting to be written to the database.
+ * Every point added is also appended to a journal file, so the points can be
+ * recovered if the process dies before the buffer is flushed. The caller
+ * writes the buffered points to the database as one batch and then calls
+ * {@link #clear()}, which also truncates the journal.
+ * <p>
+ * The journal is written through to the file system on every point, which is
+ * enough to survive the death of the process. Syncing it to disk, which only
+ * matters if the device loses power, is grouped: every
+ * {@link #SYNC_INTERVAL_POINTS} points or {@link #SYNC_INTERVAL} milliseconds,
+ * whichever comes first, and whenever {@link #sync()}, {@link #clear()} or
+ * {@link #close()} is called. A power loss can thus lose at most the points
+ * added since the last sync.
+ * <p>
+ * All methods are synchronized since points are added from the location thread
+ * and flushed from the binder threads when pausing or ending a track.
+ */
+public class TrackPointBuffer {
+
+  private static final String TAG = TrackPointBuffer.class.getSimpleName();
+
+  // The max number of journal entries and the max time between syncs
+  static final int SYNC_INTERVAL_POINTS = 10;
+  static final long SYNC_INTERVAL = 5000L;
+
+  private final File journalFile;
+  private final int maxSize;
+  private final long maxAge;
+
+  private FileOutputStream journalOutputStream;
+  private Location[] locations;
+  private int size;
+  private long trackId = -1L;
+  private int numberOfValidLocations;
+
+  // The elapsed realtime when the oldest buffered point was added
+  private long oldestElapsedRealtime;
+
+  // The number of journal entries written since the last sync
+  private int numberOfUnsyncedEntries;
+
+  // The elapsed realtime of the last sync
+  private long lastSyncElapsedRealtime = SystemClock.elapsedRealtime();
+
+  /**
+   * Creates a buffer.
+   *
+   * @param journalFile the journal file
+   * @param maxSize the number of buffered points that triggers a flush
+   * @param maxAge the age of the oldest buffered point, in milliseconds, that
+   *          triggers a flush
+   */
+  public TrackPointBuffer(File journalFile, int maxSize, long maxAge) {
+    this.journalFile = journalFile;
+    this.maxSize = maxSize;
+    this.maxAge = maxAge;
+    this.locations = new Location[maxSize];
+  }
+
+  /**
+   * Adds a track point. If the buffer holds points of another track, they are
+   * dropped. The caller must flush before switching tracks.
+   *
+   * @param id the track id
+   * @param location the track point
+   */
+  public synchronized void add(long id, Location location) {
+    if (size > 0 && id != trackId) {
+      Log.e(TAG, "Dropping " + size + " buffered points of track " + trackId);
+      clear();
+    }
+    if (size == 0) {
+      trackId = id;
+      oldestElapsedRealtime = SystemClock.elapsedRealtime();
+    }
+    if (size == locations.length) {
+      // Only happens if flushing failed. Keep the points until it succeeds.
+      Location[] newLocations = new Location[size * 2];
+      System.arraycopy(locations, 0, newLocations, 0, size);
+      locations = newLocations;
+    }
+    locations[size++] = location;
+    if (LocationUtils.isValidLocation(location)) {
+      numberOfValidLocations++;
+    }
+    appendToJournal(id, location);
+    if (numberOfUnsyncedEntries >= SYNC_INTERVAL_POINTS
+        || SystemClock.elapsedRealtime() - lastSyncElapsedRealtime >= SYNC_INTERVAL) {
+      sync();
+    }
+  }
+
+  /**
+   * Syncs the journal entries written since the last sync to disk. Call when
+   * pausing or ending a track if the buffered points cannot be flushed.
+   */
+  public synchronized void sync() {
+    if (numberOfUnsyncedEntries == 0 || journalOutputStream == null) {
+      return;
+    }
+    try {
+      journalOutputStream.getFD().sync();
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to sync the journal.", e);
+    }
+    numberOfUnsyncedEntries = 0;
+    lastSyncElapsedRealtime = SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Returns true if the buffer should be flushed.
+   */
+  public synchronized boolean shouldFlush() {
+    if (size == 0) {
+      return false;
+    }
+    return size >= maxSize || SystemClock.elapsedRealtime() - oldestElapsedRealtime >= maxAge;
+  }
+
+  /**
+   * Returns the number of buffered points.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the track id of the buffered points, or -1L if the buffer is empty.
+   */
+  public synchronized long getTrackId() {
+    return size == 0 ? -1L : trackId;
+  }
+
+  /**
+   * Returns the buffered points. The array may be longer than {@link #size()}.
+   */
+  public synchronized Location[] getLocations() {
+    return locations;
+  }
+
+  /**
+   * Returns the number of valid buffered points.
+   */
+  public synchronized int getNumberOfValidLocations() {
+    return numberOfValidLocations;
+  }
+
+  /**
+   * Clears the buffer and truncates the journal. Call after the buffered points
+   * are committed to the database.
+   */
+  public synchronized void clear() {
+    Arrays.fill(locations, 0, size, null);
+    size = 0;
+    trackId = -1L;
+    numberOfValidLocations = 0;
+    try {
+      FileOutputStream outputStream = getJournalOutputStream();
+      outputStream.getChannel().truncate(0);
+      outputStream.getFD().sync();
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to truncate the journal.", e);
+    }
+    numberOfUnsyncedEntries = 0;
+    lastSyncElapsedRealtime = SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Reads the track points left in the journal by a previous process for a
+   * track. Points of other tracks are ignored. A partially written last entry
+   * is ignored.
+   *
+   * @param id the track id
+   */
+  public synchronized List<Location> readJournal(long id) {
+    List<Location> result = new ArrayList<Location>();
+    if (!journalFile.exists()) {
+      return result;
+    }
+    DataInputStream inputStream = null;
+    try {
+      inputStream = new DataInputStream(new FileInputStream(journalFile));
+      while (true) {
+        int length = inputStream.readInt();
+        byte[] entry = new byte[length];
+        inputStream.readFully(entry);
+        DataInputStream entryInputStream = new DataInputStream(new ByteArrayInputStream(entry));
+        long entryTrackId = entryInputStream.readLong();
+        Location location = LocationUtils.readLocation(entryInputStream);
+        if (entryTrackId == id) {
+          result.add(location);
+        }
+      }
+    } catch (EOFException e) {
+      // End of the journal, or a partially written last entry
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to read the journal.", e);
+    } finally {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to close the journal.", e);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Syncs and closes the journal.
+   */
+  public synchronized void close() {
+    sync();
+    if (journalOutputStream != null) {
+      try {
+        journalOutputStream.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to close the journal.", e);
+      }
+      journalOutputStream = null;
+    }
+  }
+
+  /**
+   * Appends a track point to the journal. The entry is synced to disk by the
+   * next {@link #sync()}.
+   *
+   * @param id the track id
+   * @param location the track point
+   */
+  private void appendToJournal(long id, Location location) {
+    try {
+      ByteArrayOutputStream entry = new ByteArrayOutputStream(64);
+      DataOutputStream entryOutputStream = new DataOutputStream(entry);
+      entryOutputStream.writeLong(id);
+      LocationUtils.writeLocation(entryOutputStream, location);
+      entryOutputStream.flush();
+
+      ByteArrayOutputStream record = new ByteArrayOutputStream(entry.size() + 4);
+      DataOutputStream recordOutputStream = new DataOutputStream(record);
+      recordOutputStream.writeInt(entry.size());
+      entry.writeTo(recordOutputStream);
+      recordOutputStream.flush();
+
+      FileOutputStream outputStream = getJournalOutputStream();
+      record.writeTo(outputStream);
+      numberOfUnsyncedEntries++;
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to append to the journal.", e);
+    }
+  }
+
+  /**
+   * Gets the journal output stream, opening it for appending if necessary.
+   */
+  private FileOutputStream getJournalOutputStream() throws IOException {
+    if (journalOutputStream == null) {
+      journalOutputStream = new FileOutputStream(journalFile, true);
+    }
+    return journalOutputStream;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.TrackPointBatch;
+import com.google.android.apps.mytracks.content.TrackPointLevelUpdater;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * A service to build the levels of detail of a finished track recorded or
+ * imported without them, see {@link TrackPointLevelUpdater}. Started when such
+ * a track is displayed, so that the whole track is read in the background
+ * rather than on the thread loading the track.
+ */
+public class TrackPointLevelService extends IntentService {
+
+  private static final String TAG = TrackPointLevelService.class.getSimpleName();
+
+  private static final String EXTRA_TRACK_ID = "track_id";
+
+  public TrackPointLevelService() {
+    super(TrackPointLevelService.class.getSimpleName());
+  }
+
+  /**
+   * Starts building the levels of a track.
+   *
+   * @param context the context
+   * @param trackId the track id
+   */
+  public static void start(Context context, long trackId) {
+    Intent intent = new Intent(context, TrackPointLevelService.class)
+        .putExtra(EXTRA_TRACK_ID, trackId);
+    context.startService(intent);
+  }
+
+  @Override
+  protected void onHandleIntent(Intent intent) {
+    long trackId = intent.getLongExtra(EXTRA_TRACK_ID, -1L);
+    if (trackId == -1L) {
+      return;
+    }
+    MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(this);
+
+    /*
+     * The levels of an archived track are built before archiving, and cannot be
+     * updated in its chunks. The track may also have been displayed again
+     * before its levels were built.
+     */
+    if (myTracksProviderUtils.isTrackArchived(trackId)
+        || hasLevels(myTracksProviderUtils, trackId)) {
+      return;
+    }
+    try {
+      new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId);
+    } catch (SQLiteException e) {
+      Log.w(TAG, "Unable to build the levels of track " + trackId, e);
+    }
+  }
+
+  /**
+   * Returns true if a track has levels. The first point of a track with levels
+   * is kept at all levels.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   */
+  private boolean hasLevels(MyTracksProviderUtils myTracksProviderUtils, long trackId) {
+    TrackPointBatch trackPointBatch = new TrackPointBatch(1);
+    return myTracksProviderUtils.getTrackPointBatch(trackId, -1L, false, trackPointBatch) == 1
+        && trackPointBatch.getLevel(0) == TrackPointLevelUpdater.MAX_LEVEL;
+  }
+}
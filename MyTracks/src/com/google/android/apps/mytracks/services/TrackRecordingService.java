@@ -23,10 +23,10 @@ import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
 import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProvider;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointLevelUpdater;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.content.WaypointCreationRequest;
@@ -36,7 +36,6 @@ import com.google.android.apps.mytracks.services.tasks.AnnouncementPeriodicTaskF
 import com.google.android.apps.mytracks.services.tasks.PeriodicTaskExecutor;
 import com.google.android.apps.mytracks.services.tasks.SplitPeriodicTaskFactory;
 import com.google.android.apps.mytracks.stats.TripStatistics;
-import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
 import com.google.android.apps.mytracks.util.CalorieUtils;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.IntentUtils;
@@ -61,6 +60,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.location.Location;
 import android.location.LocationManager;
@@ -71,10 +71,14 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager.WakeLock;
 import android.os.Process;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -113,10 +117,27 @@ public class TrackRecordingService extends Service {
   @VisibleForTesting
   static final int MAX_AUTO_RESUME_TRACK_RETRY_ATTEMPTS = 3;
 
+  // The journal file of the track points not yet written to the database
+  private static final String TRACK_POINT_JOURNAL_FILE_NAME = "trackpoints.journal";
+
+  // Flush the buffered track points when this many are buffered
+  private static final int MAX_BUFFERED_TRACK_POINTS = 30;
+
+  // Flush the buffered track points when the oldest is this old
+  private static final long MAX_BUFFERED_TRACK_POINT_AGE = 10 * ONE_SECOND;
+
+  // The checkpoint file of the recording session trip statistics
+  @VisibleForTesting
+  static final String RECORDING_CHECKPOINT_FILE_NAME = "recording.checkpoint";
+
+  // Write the recording session checkpoint at most this often, and when paused
+  private static final long CHECKPOINT_INTERVAL = ONE_MINUTE;
+
   // The following variables are set in onCreate:
   private ExecutorService executorService;
   private Context context;
   private MyTracksProviderUtils myTracksProviderUtils;
+  private TrackPointLevelUpdater trackPointLevelUpdater;
   private Handler handler;
   private MyTracksLocationManager myTracksLocationManager;
   private PendingIntent activityRecognitionPendingIntent;  
@@ -133,15 +154,14 @@ public class TrackRecordingService extends Service {
   private int autoResumeTrackTimeout;
   private long currentRecordingInterval;
   private double weight;
+  private TrackPointBuffer trackPointBuffer;
+  private File checkpointFile;
   
   // The following variables are set when recording:
-  private TripStatisticsUpdater trackTripStatisticsUpdater;
-  private TripStatisticsUpdater markerTripStatisticsUpdater;
+  private RecordingSession recordingSession;
+  private long lastCheckpointTime;
   private WakeLock wakeLock;
   private SensorManager sensorManager;
-  private Location lastLocation;
-  private boolean currentSegmentHasLocation;
-  private boolean isIdle; // true if idle
 
   private ServiceBinder binder = new ServiceBinder(this);
 
@@ -235,6 +255,10 @@ public class TrackRecordingService extends Service {
             weight = PreferencesUtils.getFloat(
                 context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
           }
+          if (key == null
+              || key.equals(PreferencesUtils.getKey(context, R.string.fast_distance_key))) {
+            LocationUtils.updateUseDistanceUtils(context);
+          }
         }
       };
 
@@ -283,6 +307,22 @@ public class TrackRecordingService extends Service {
     }
   };
 
+  private final Runnable flushTrackPointsRunnable = new Runnable() {
+    @Override
+    public void run() {
+      if (executorService == null || executorService.isShutdown()
+          || executorService.isTerminated()) {
+        return;
+      }
+      executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          flushTrackPoints();
+        }
+      });
+    }
+  };
+
   /*
    * Note that this service, through the AndroidManifest.xml, is configured to
    * allow both MyTracks and third party apps to invoke it. For the onCreate
@@ -296,6 +336,7 @@ public class TrackRecordingService extends Service {
     executorService = Executors.newSingleThreadExecutor();
     context = this;
     myTracksProviderUtils = MyTracksProviderUtils.Factory.get(this);
+    trackPointLevelUpdater = new TrackPointLevelUpdater(myTracksProviderUtils);
     handler = new Handler();
     myTracksLocationManager = new MyTracksLocationManager(this, handler.getLooper(), true);
     activityRecognitionPendingIntent = PendingIntent.getService(context, 0,
@@ -306,6 +347,9 @@ public class TrackRecordingService extends Service {
     activityRecognitionClient.connect();    
     voiceExecutor = new PeriodicTaskExecutor(this, new AnnouncementPeriodicTaskFactory());
     splitExecutor = new PeriodicTaskExecutor(this, new SplitPeriodicTaskFactory());
+    trackPointBuffer = new TrackPointBuffer(new File(getFilesDir(), TRACK_POINT_JOURNAL_FILE_NAME),
+        MAX_BUFFERED_TRACK_POINTS, MAX_BUFFERED_TRACK_POINT_AGE);
+    checkpointFile = new File(getFilesDir(), RECORDING_CHECKPOINT_FILE_NAME);
     sharedPreferences = getSharedPreferences(Constants.SETTINGS_NAME, Context.MODE_PRIVATE);
     sharedPreferences.registerOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
 
@@ -373,6 +417,10 @@ public class TrackRecordingService extends Service {
     // Reverse order from onCreate    
     showNotification(false);
 
+    handler.removeCallbacks(flushTrackPointsRunnable);
+    flushTrackPoints();
+    trackPointBuffer.close();
+
     handler.removeCallbacks(registerLocationRunnable);
     unregisterLocationListener();
     
@@ -433,10 +481,19 @@ public class TrackRecordingService extends Service {
    * Gets the trip statistics.
    */
   public TripStatistics getTripStatistics() {
-    if (trackTripStatisticsUpdater == null) {
+    RecordingSession session = recordingSession;
+    if (session == null) {
       return null;
     }
-    return trackTripStatisticsUpdater.getTripStatistics();
+    return session.getTripStatistics();
+  }
+
+  /**
+   * Gets the recording session.
+   */
+  @VisibleForTesting
+  RecordingSession getRecordingSession() {
+    return recordingSession;
   }
 
   /**
@@ -446,7 +503,8 @@ public class TrackRecordingService extends Service {
    * @return the waypoint id
    */
   public long insertWaypoint(WaypointCreationRequest waypointCreationRequest) {
-    if (!isRecording() || isPaused()) {
+    RecordingSession session = recordingSession;
+    if (!isRecording() || isPaused() || session == null) {
       return -1L;
     }
 
@@ -478,10 +536,7 @@ public class TrackRecordingService extends Service {
     String description;
     String icon;
     if (isStatistics) {
-      long now = System.currentTimeMillis();
-      markerTripStatisticsUpdater.updateTime(now);
-      tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
-      markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
+      tripStatistics = session.nextMarkerTripStatistics(System.currentTimeMillis());
       description = new DescriptionGeneratorImpl(this).generateWaypointDescription(tripStatistics);
       icon = getString(R.string.marker_statistics_icon_url);
     } else {
@@ -495,9 +550,9 @@ public class TrackRecordingService extends Service {
     // Get length and duration
     double length;
     long duration;
-    Location location = getLastValidTrackPointInCurrentSegment(recordingTrackId);
-    if (location != null && trackTripStatisticsUpdater != null) {
-      TripStatistics stats = trackTripStatisticsUpdater.getTripStatistics();
+    Location location = session.getLastValidTrackPoint();
+    if (location != null) {
+      TripStatistics stats = session.getTripStatistics();
       length = stats.getTotalDistance();
       duration = stats.getTotalTime();
     } else {
@@ -610,13 +665,22 @@ public class TrackRecordingService extends Service {
       return -1L;
     }
     long now = System.currentTimeMillis();
-    trackTripStatisticsUpdater = new TripStatisticsUpdater(now);
-    markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
 
     // Insert a track
     Track track = new Track();
     Uri uri = myTracksProviderUtils.insertTrack(track);
     long trackId = Long.parseLong(uri.getLastPathSegment());
+    track.setId(trackId);
+    track.setName(TrackNameUtils.getTrackName(this, trackId, now, null));
+
+    String category = PreferencesUtils.getString(
+        this, R.string.default_activity_key, PreferencesUtils.DEFAULT_ACTIVITY_DEFAULT);
+    track.setCategory(category);
+    track.setIcon(TrackIconUtils.getIconValue(this, category));
+    checkpointFile.delete();
+    lastCheckpointTime = 0L;
+    recordingSession = new RecordingSession(
+        track, now, CalorieUtils.getActivityType(context, category));
 
     // Update shared preferences
     updateRecordingState(trackId, false);
@@ -625,15 +689,7 @@ public class TrackRecordingService extends Service {
         PreferencesUtils.ACTIVITY_RECOGNITION_TYPE_DEFAULT);
 
     // Update database
-    track.setId(trackId);
-    track.setName(TrackNameUtils.getTrackName(this, trackId, now, null));
-
-    String category = PreferencesUtils.getString(
-        this, R.string.default_activity_key, PreferencesUtils.DEFAULT_ACTIVITY_DEFAULT);
-    track.setCategory(category);
-    track.setIcon(TrackIconUtils.getIconValue(this, category));
-    track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
-    myTracksProviderUtils.updateTrack(track);
+    myTracksProviderUtils.updateTrack(recordingSession.getTrack());
     insertWaypoint(WaypointCreationRequest.DEFAULT_START_TRACK);
 
     startRecording(true);
@@ -648,43 +704,80 @@ public class TrackRecordingService extends Service {
   private void restartTrack(Track track) {
     Log.d(TAG, "Restarting track: " + track.getId());
 
-    TripStatistics tripStatistics = track.getTripStatistics();
-    trackTripStatisticsUpdater = new TripStatisticsUpdater(tripStatistics.getStartTime());
+    // Write the track points buffered by the previous process before reading
+    List<Location> recoveredLocations = recoverTrackPoints(track.getId());
 
-    long markerStartTime;
-    Waypoint waypoint = myTracksProviderUtils.getLastWaypoint(
-        recordingTrackId, WaypointType.STATISTICS);
-    if (waypoint != null && waypoint.getTripStatistics() != null) {
-      markerStartTime = waypoint.getTripStatistics().getStopTime();
-    } else {
-      markerStartTime = tripStatistics.getStartTime();
+    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
+    RecordingSession session = RecordingSession.restore(myTracksProviderUtils, track,
+        activityType, recordingDistanceInterval, weight, checkpointFile);
+    if (!recoveredLocations.isEmpty()) {
+      int numberOfValidLocations = 0;
+      for (Location location : recoveredLocations) {
+        if (LocationUtils.isValidLocation(location)) {
+          numberOfValidLocations++;
+        }
+      }
+      session.onTrackPointsWritten(numberOfValidLocations,
+          myTracksProviderUtils.getFirstTrackPointId(track.getId()),
+          myTracksProviderUtils.getLastTrackPointId(track.getId()));
     }
-    markerTripStatisticsUpdater = new TripStatisticsUpdater(markerStartTime);
+    recordingSession = session;
+    lastCheckpointTime = 0L;
 
-    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
+    // The restored statistics replace the ones written by the previous process
+    updateRecordingTrack(session, false);
+    startRecording(true);
+  }
+
+  /**
+   * Writes the track points left in the journal by a previous process to the
+   * database. Returns the track points written.
+   * 
+   * @param trackId the track id
+   */
+  private List<Location> recoverTrackPoints(long trackId) {
+    List<Location> locations = trackPointBuffer.readJournal(trackId);
+    if (locations.isEmpty()) {
+      trackPointBuffer.clear();
+      return locations;
+    }
 
-    LocationIterator locationIterator = null;
+    /*
+     * The buffered track points are written in one transaction before the
+     * journal is truncated. If the last journal entry is the last track point
+     * in the database, the process died after the commit and before the
+     * truncate.
+     */
+    Location last = locations.get(locations.size() - 1);
+    Location lastTrackPoint = null;
+    Cursor cursor = null;
     try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
-      
-      while (locationIterator.hasNext()) {
-        Location location = locationIterator.next();
-        trackTripStatisticsUpdater.addLocation(
-            location, recordingDistanceInterval, true, activityType, weight);
-        if (location.getTime() > markerStartTime) {
-          markerTripStatisticsUpdater.addLocation(
-              location, recordingDistanceInterval, true, activityType, weight);
-        }
+      cursor = myTracksProviderUtils.getTrackPointCursor(trackId, -1L, 1, true);
+      if (cursor != null && cursor.moveToFirst()) {
+        lastTrackPoint = myTracksProviderUtils.createTrackPoint(cursor);
       }
-    } catch (RuntimeException e) {
-      Log.e(TAG, "RuntimeException", e);
     } finally {
-      if (locationIterator != null) {
-        locationIterator.close();
+      if (cursor != null) {
+        cursor.close();
       }
     }
-    startRecording(true);
+    if (lastTrackPoint != null && lastTrackPoint.getTime() == last.getTime()
+        && (int) (lastTrackPoint.getLatitude() * 1E6) == (int) (last.getLatitude() * 1E6)
+        && (int) (lastTrackPoint.getLongitude() * 1E6) == (int) (last.getLongitude() * 1E6)) {
+      trackPointBuffer.clear();
+      return new ArrayList<Location>();
+    }
+
+    Log.i(TAG, "Recovering " + locations.size() + " track points from the journal.");
+    try {
+      myTracksProviderUtils.bulkInsertTrackPoint(
+          locations.toArray(new Location[locations.size()]), locations.size(), trackId);
+    } catch (SQLiteException e) {
+      Log.e(TAG, "Unable to recover the journal.", e);
+      return new ArrayList<Location>();
+    }
+    trackPointBuffer.clear();
+    return locations;
   }
 
   /**
@@ -701,14 +794,11 @@ public class TrackRecordingService extends Service {
     PreferencesUtils.setBoolean(this, R.string.recording_track_paused_key, false);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(recordingTrackId);
-    if (track != null) {
-      Location resume = new Location(LocationManager.GPS_PROVIDER);
-      resume.setLongitude(0);
-      resume.setLatitude(RESUME_LATITUDE);
-      resume.setTime(System.currentTimeMillis());
-      insertLocation(track, resume, null);
-    }
+    Location resume = new Location(LocationManager.GPS_PROVIDER);
+    resume.setLongitude(0);
+    resume.setLatitude(RESUME_LATITUDE);
+    resume.setTime(System.currentTimeMillis());
+    insertLocation(recordingSession, resume, null);
 
     startRecording(false);
   }
@@ -723,9 +813,7 @@ public class TrackRecordingService extends Service {
 
     // Update instance variables
     sensorManager = SensorManagerFactory.getSystemSensorManager(this);
-    lastLocation = null;
-    currentSegmentHasLocation = false;
-    isIdle = false;
+    recordingSession.startSegment();
 
     startGps();
     sendTrackBroadcast(trackStarted ? R.string.track_started_broadcast_action
@@ -762,16 +850,22 @@ public class TrackRecordingService extends Service {
     updateRecordingState(PreferencesUtils.RECORDING_TRACK_ID_DEFAULT, true);
 
     // Update database
+    RecordingSession session = recordingSession;
+
+    // If not paused, add the last location
+    if (!paused) {
+      insertLocation(session, session.getLastLocation(), session.getLastValidTrackPoint());
+    }
+
+    // Write the buffered track points, then update the track time
+    handler.removeCallbacks(flushTrackPointsRunnable);
+    flushTrackPoints();
+    if (!paused) {
+      updateRecordingTrack(session, true);
+    }
+    checkpointFile.delete();
     Track track = myTracksProviderUtils.getTrack(trackId);
     if (track != null) {
-
-      // If not paused, add the last location
-      if (!paused) {
-        insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(trackId));
-        
-        // Update the recording track time        
-        updateRecordingTrack(track, myTracksProviderUtils.getLastTrackPointId(trackId), false);
-      }
       
       String trackName = TrackNameUtils.getTrackName(this, trackId,
           track.getTripStatistics().getStartTime(),
@@ -808,10 +902,43 @@ public class TrackRecordingService extends Service {
           }
         }
       }
+      finishTrackPointLevels(trackId);
+      archiveTrackPoints(trackId);
     }
     endRecording(true, trackId);
   }
 
+  /**
+   * Archives the track points of a finished track in the background, if
+   * enabled. The levels of detail are stored in the chunks and cannot be
+   * updated afterwards, so the track is only archived once its levels are
+   * written.
+   * 
+   * @param trackId the track id
+   */
+  private void archiveTrackPoints(final long trackId) {
+    boolean archiveTrackPoints = PreferencesUtils.getBoolean(
+        this, R.string.archive_track_points_key, PreferencesUtils.ARCHIVE_TRACK_POINTS_DEFAULT);
+    if (!archiveTrackPoints || executorService == null || executorService.isShutdown()
+        || executorService.isTerminated()) {
+      return;
+    }
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // Writes the level updates left by a failed finish, if any
+          trackPointLevelUpdater.finish(trackId);
+        } catch (SQLiteException e) {
+          Log.w(TAG, "Not archiving track " + trackId + " without its levels", e);
+          return;
+        }
+        int count = myTracksProviderUtils.archiveTrackPoints(trackId);
+        Log.d(TAG, "Archived " + count + " track points of track " + trackId);
+      }
+    });
+  }
+
   /**
    * Pauses the current track.
    */
@@ -826,16 +953,16 @@ public class TrackRecordingService extends Service {
     PreferencesUtils.setBoolean(this, R.string.recording_track_paused_key, true);
 
     // Update database
-    Track track = myTracksProviderUtils.getTrack(recordingTrackId);
-    if (track != null) {
-      insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(track.getId()));
+    RecordingSession session = recordingSession;
+    insertLocation(session, session.getLastLocation(), session.getLastValidTrackPoint());
 
-      Location pause = new Location(LocationManager.GPS_PROVIDER);
-      pause.setLongitude(0);
-      pause.setLatitude(PAUSE_LATITUDE);
-      pause.setTime(System.currentTimeMillis());
-      insertLocation(track, pause, null);
-    }
+    Location pause = new Location(LocationManager.GPS_PROVIDER);
+    pause.setLongitude(0);
+    pause.setLatitude(PAUSE_LATITUDE);
+    pause.setTime(System.currentTimeMillis());
+    insertLocation(session, pause, null);
+    handler.removeCallbacks(flushTrackPointsRunnable);
+    flushTrackPoints();
 
     endRecording(false, recordingTrackId);
   }
@@ -857,7 +984,7 @@ public class TrackRecordingService extends Service {
       SensorManagerFactory.releaseSystemSensorManager();
       sensorManager = null;
     }
-    lastLocation = null;
+    recordingSession.setLastLocation(null);
 
     sendTrackBroadcast(trackStopped ? R.string.track_stopped_broadcast_action
         : R.string.track_paused_broadcast_action, trackId);
@@ -878,19 +1005,6 @@ public class TrackRecordingService extends Service {
     }
   }
 
-  /**
-   * Gets the last valid track point in the current segment. Returns null if not
-   * available.
-   * 
-   * @param trackId the track id
-   */
-  private Location getLastValidTrackPointInCurrentSegment(long trackId) {
-    if (!currentSegmentHasLocation) {
-      return null;
-    }
-    return myTracksProviderUtils.getLastValidTrackPoint(trackId);
-  }
-
   /**
    * Updates the recording states.
    * 
@@ -916,9 +1030,9 @@ public class TrackRecordingService extends Service {
         return;
       }
 
-      Track track = myTracksProviderUtils.getTrack(recordingTrackId);
-      if (track == null) {
-        Log.w(TAG, "Ignore onLocationChangedAsync. No track.");
+      RecordingSession session = recordingSession;
+      if (session == null || session.getTrackId() != recordingTrackId) {
+        Log.w(TAG, "Ignore onLocationChangedAsync. No recording session.");
         return;
       }
 
@@ -937,7 +1051,7 @@ public class TrackRecordingService extends Service {
         location.setTime(System.currentTimeMillis());
       }
 
-      Location lastValidTrackPoint = getLastValidTrackPointInCurrentSegment(track.getId());
+      Location lastValidTrackPoint = session.getLastValidTrackPoint();
       long idleTime = 0L;
       if (lastValidTrackPoint != null && location.getTime() > lastValidTrackPoint.getTime()) {
         idleTime = location.getTime() - lastValidTrackPoint.getTime();
@@ -953,10 +1067,10 @@ public class TrackRecordingService extends Service {
       }
 
       // Always insert the first segment location
-      if (!currentSegmentHasLocation) {
-        insertLocation(track, location, null);
-        currentSegmentHasLocation = true;
-        lastLocation = location;
+      if (!session.currentSegmentHasLocation()) {
+        insertLocation(session, location, null);
+        session.setCurrentSegmentHasLocation(true);
+        session.setLastLocation(location);
         return;
       }
 
@@ -965,40 +1079,42 @@ public class TrackRecordingService extends Service {
          * Should not happen. The current segment should have a location. Just
          * insert the current location.
          */
-        insertLocation(track, location, null);
-        lastLocation = location;
+        insertLocation(session, location, null);
+        session.setLastLocation(location);
         return;
       }
 
-      double distanceToLastTrackLocation = location.distanceTo(lastValidTrackPoint);
+      Location lastLocation = session.getLastLocation();
+      boolean isIdle = session.isIdle();
+      double distanceToLastTrackLocation = LocationUtils.distance(location, lastValidTrackPoint);
       if (distanceToLastTrackLocation > maxRecordingDistance) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
+        insertLocation(session, lastLocation, lastValidTrackPoint);
 
         Location pause = new Location(LocationManager.GPS_PROVIDER);
         pause.setLongitude(0);
         pause.setLatitude(PAUSE_LATITUDE);
         pause.setTime(lastLocation.getTime());
-        insertLocation(track, pause, null);
+        insertLocation(session, pause, null);
 
-        insertLocation(track, location, null);
-        isIdle = false;
+        insertLocation(session, location, null);
+        session.setIdle(false);
       } else if (sensorDataSet != null
           || distanceToLastTrackLocation >= recordingDistanceInterval) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
-        insertLocation(track, location, null);
-        isIdle = false;
+        insertLocation(session, lastLocation, lastValidTrackPoint);
+        insertLocation(session, location, null);
+        session.setIdle(false);
       } else if (!isIdle && location.hasSpeed() && location.getSpeed() < MAX_NO_MOVEMENT_SPEED) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
-        insertLocation(track, location, null);
-        isIdle = true;
+        insertLocation(session, lastLocation, lastValidTrackPoint);
+        insertLocation(session, location, null);
+        session.setIdle(true);
       } else if (isIdle && location.hasSpeed() && location.getSpeed() >= MAX_NO_MOVEMENT_SPEED) {
-        insertLocation(track, lastLocation, lastValidTrackPoint);
-        insertLocation(track, location, null);
-        isIdle = false;
+        insertLocation(session, lastLocation, lastValidTrackPoint);
+        insertLocation(session, location, null);
+        session.setIdle(false);
       } else {
         Log.d(TAG, "Not recording location, idle");
       }
-      lastLocation = location;
+      session.setLastLocation(location);
     } catch (Error e) {
       Log.e(TAG, "Error in onLocationChangedAsync", e);
       throw e;
@@ -1011,11 +1127,12 @@ public class TrackRecordingService extends Service {
   /**
    * Inserts a location.
    * 
-   * @param track the track
+   * @param session the recording session
    * @param location the location
    * @param lastValidTrackPoint the last valid track point, can be null
    */
-  private void insertLocation(Track track, Location location, Location lastValidTrackPoint) {
+  private void insertLocation(
+      RecordingSession session, Location location, Location lastValidTrackPoint) {
     if (location == null) {
       Log.w(TAG, "Ignore insertLocation. loation is null.");
       return;
@@ -1026,51 +1143,106 @@ public class TrackRecordingService extends Service {
       return;
     }
 
-    try {
-      Uri uri = myTracksProviderUtils.insertTrackPoint(location, track.getId());
-      long trackPointId = Long.parseLong(uri.getLastPathSegment());
-      ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
-      trackTripStatisticsUpdater.addLocation(
-          location, recordingDistanceInterval, true, activityType, weight);
-      markerTripStatisticsUpdater.addLocation(
-          location, recordingDistanceInterval, true, activityType, weight);
-      updateRecordingTrack(track, trackPointId, LocationUtils.isValidLocation(location));
-    } catch (SQLiteException e) {
-      /*
-       * Insert failed, most likely because of SqlLite error code 5
-       * (SQLite_BUSY). This is expected to happen extremely rarely (if our
-       * listener gets invoked twice at about the same time).
-       */
-      Log.w(TAG, "SQLiteException", e);
+    // A checkpoint written by a flush includes all the track points written
+    synchronized (trackPointBuffer) {
+      trackPointBuffer.add(session.getTrackId(), location);
+      session.addTrackPoint(location, recordingDistanceInterval, weight);
+    }
+    if (trackPointBuffer.shouldFlush()) {
+      handler.removeCallbacks(flushTrackPointsRunnable);
+      flushTrackPoints();
+    } else if (trackPointBuffer.size() == 1) {
+      handler.postDelayed(flushTrackPointsRunnable, MAX_BUFFERED_TRACK_POINT_AGE);
     }
     voiceExecutor.update();
     splitExecutor.update();
-    sendTrackBroadcast(R.string.track_update_broadcast_action, track.getId());
   }
 
   /**
-   * Updates the recording track time. Also updates the startId and the stopId.
-   * Increase the number of points if it is a new and valid track point.
-   * 
-   * @param track the track
-   * @param lastTrackPointId the last track point id
-   * @param increaseNumberOfPoints true to increase the number of points
+   * Writes the buffered track points to the database with their levels of
+   * detail and the recording session track, in one batch. Observers see one
+   * track points change and one track change per batch instead of per track
+   * point. Returns true if any track points were written.
    */
-  private void updateRecordingTrack(
-      Track track, long lastTrackPointId, boolean increaseNumberOfPoints) {
-    if (lastTrackPointId >= 0) {
-      if (track.getStartId() < 0) {
-        track.setStartId(lastTrackPointId);
+  private boolean flushTrackPoints() {
+    long trackId;
+    synchronized (trackPointBuffer) {
+      int size = trackPointBuffer.size();
+      if (size == 0) {
+        return false;
+      }
+      trackId = trackPointBuffer.getTrackId();
+      int numberOfValidLocations = trackPointBuffer.getNumberOfValidLocations();
+
+      // Write the session track through in the order of the batches
+      RecordingSession session = recordingSession;
+      Track track = null;
+      if (session != null && session.getTrackId() == trackId) {
+        if (!isPaused()) {
+          session.updateTime(System.currentTimeMillis());
+        }
+        track = session.getTrack();
+        track.setNumberOfPoints(track.getNumberOfPoints() + numberOfValidLocations);
+      } else {
+        Log.w(TAG, "No recording session for track " + trackId);
+      }
+      long[] ids;
+      try {
+        ids = trackPointLevelUpdater.insert(
+            trackId, trackPointBuffer.getLocations(), size, track);
+      } catch (SQLiteException e) {
+        /*
+         * Insert failed, most likely because of SqlLite error code 5
+         * (SQLite_BUSY). Keep the track points buffered and retry with the next
+         * batch. Sync the journal in case this was the last flush of the
+         * recording.
+         */
+        Log.w(TAG, "SQLiteException", e);
+        trackPointBuffer.sync();
+        return false;
+      }
+      trackPointBuffer.clear();
+
+      if (track != null) {
+        session.onTrackPointsWritten(numberOfValidLocations, ids[0], ids[ids.length - 1]);
+        long now = SystemClock.elapsedRealtime();
+        if (isPaused() || now - lastCheckpointTime >= CHECKPOINT_INTERVAL) {
+          session.writeCheckpoint(checkpointFile, ids[ids.length - 1]);
+          lastCheckpointTime = now;
+        }
       }
-      track.setStopId(lastTrackPointId);
     }
-    if (increaseNumberOfPoints) {
-      track.setNumberOfPoints(track.getNumberOfPoints() + 1);
+    sendTrackBroadcast(R.string.track_update_broadcast_action, trackId);
+    return true;
+  }
+
+  /**
+   * Updates the levels of detail of the last track points of a finished track.
+   * The levels of the other track points are written as they are flushed.
+   * 
+   * @param trackId the track id
+   */
+  private void finishTrackPointLevels(long trackId) {
+    try {
+      trackPointLevelUpdater.finish(trackId);
+    } catch (SQLiteException e) {
+      // The pending level updates are written with the next ones
+      Log.w(TAG, "SQLiteException", e);
     }
+  }
 
-    trackTripStatisticsUpdater.updateTime(System.currentTimeMillis());
-    track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
-    myTracksProviderUtils.updateTrack(track);
+  /**
+   * Writes the recording session track through to the database. Only writes
+   * the recording columns, not the ones edited while recording.
+   * 
+   * @param session the recording session
+   * @param updateTime true to update the track time to now
+   */
+  private void updateRecordingTrack(RecordingSession session, boolean updateTime) {
+    if (updateTime) {
+      session.updateTime(System.currentTimeMillis());
+    }
+    myTracksProviderUtils.updateTrackStatistics(session.getTrack());
   }
 
   private SensorDataSet getSensorDataSet() {
@@ -1288,14 +1460,12 @@ public class TrackRecordingService extends Service {
       if (!canAccess()) {
         return 0;
       }
-      TripStatisticsUpdater updater = trackRecordingService.trackTripStatisticsUpdater;
-      if (updater == null) {
+      RecordingSession session = trackRecordingService.recordingSession;
+      if (session == null) {
         return 0;
       }
-      if (!trackRecordingService.isPaused()) {
-        updater.updateTime(System.currentTimeMillis());
-      }
-      return updater.getTripStatistics().getTotalTime();
+      return session.getTotalTime(
+          trackRecordingService.isPaused() ? -1L : System.currentTimeMillis());
     }
 
     @Override
@@ -1406,12 +1576,13 @@ public class TrackRecordingService extends Service {
 
         
         double[] calories = CalorieUtils.updateTrackCalorie(context, track);
-        
-        // Update track statistics
-        trackTripStatisticsUpdater.updateCalorie(calories[0]);
 
-        // Update marker statistics      
-        markerTripStatisticsUpdater.updateCalorie(calories[1]);
+        // Update the track and marker statistics
+        RecordingSession session = recordingSession;
+        if (session != null && session.getTrackId() == track.getId()) {
+          session.updateCalorie(CalorieUtils.getActivityType(context, track.getCategory()),
+              calories[0], calories[1]);
+        }
       }
     });
   }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+
+import android.database.Cursor;
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recomputes the trip statistics of a track and of its statistics markers
+ * with the current recording distance interval and weight. The track points
+ * are read once, through one track and one marker
+ * {@link TripStatisticsUpdater}, which also compute the calorie. The track and
+ * its markers are then written in one transaction.
+ * <p>
+ * The times of the track and of the markers come from the recording and are
+ * kept, as are the marker boundaries: a marker covers the track points up to
+ * its stop time.
+ * <p>
+ * Thread safe, a recomputer can be shared by the threads of a pool.
+ */
+class TrackStatisticsRecomputer {
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final int recordingDistanceInterval;
+  private final double weight;
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param recordingDistanceInterval the recording distance interval
+   * @param weight the weight to calculate calorie
+   */
+  TrackStatisticsRecomputer(MyTracksProviderUtils myTracksProviderUtils,
+      int recordingDistanceInterval, double weight) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.recordingDistanceInterval = recordingDistanceInterval;
+    this.weight = weight;
+  }
+
+  /**
+   * Recomputes the statistics of a track and its statistics markers.
+   *
+   * @param track the track
+   * @param activityType the activity type of the track
+   */
+  void recompute(Track track, ActivityType activityType) {
+    TripStatistics trackStatistics = track.getTripStatistics();
+    long startTime = trackStatistics.getStartTime();
+    List<Waypoint> markers = getStatisticsMarkers(track.getId());
+    TripStatisticsUpdater trackTripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    TripStatisticsUpdater markerTripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    int markerIndex = 0;
+
+    LocationIterator locationIterator = null;
+    try {
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
+          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      while (locationIterator.hasNext()) {
+        Location location = locationIterator.next();
+        while (markerIndex < markers.size()
+            && location.getTime() > getStopTime(markers.get(markerIndex))) {
+          markerTripStatisticsUpdater = endMarker(markers.get(markerIndex),
+              markerTripStatisticsUpdater, trackTripStatisticsUpdater);
+          markerIndex++;
+        }
+        trackTripStatisticsUpdater.addLocation(
+            location, recordingDistanceInterval, true, activityType, weight);
+        markerTripStatisticsUpdater.addLocation(
+            location, recordingDistanceInterval, true, activityType, weight);
+      }
+    } finally {
+      if (locationIterator != null) {
+        locationIterator.close();
+      }
+    }
+    for (; markerIndex < markers.size(); markerIndex++) {
+      markerTripStatisticsUpdater = endMarker(
+          markers.get(markerIndex), markerTripStatisticsUpdater, trackTripStatisticsUpdater);
+    }
+
+    track.setTripStatistics(
+        keepTimes(trackTripStatisticsUpdater.getTripStatistics(), trackStatistics));
+    myTracksProviderUtils.updateTrackStatistics(track, markers);
+  }
+
+  /**
+   * Gets the statistics markers of a track. The first waypoint is skipped as
+   * it holds the statistics of the track start.
+   *
+   * @param trackId the track id
+   */
+  private List<Waypoint> getStatisticsMarkers(long trackId) {
+    List<Waypoint> markers = new ArrayList<Waypoint>();
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getWaypointCursor(trackId, -1L, -1);
+      if (cursor != null && cursor.moveToFirst()) {
+        while (cursor.moveToNext()) {
+          Waypoint waypoint = myTracksProviderUtils.createWaypoint(cursor);
+          if (waypoint.getType() == WaypointType.STATISTICS
+              && waypoint.getTripStatistics() != null) {
+            markers.add(waypoint);
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return markers;
+  }
+
+  /**
+   * Ends a marker. Sets its recomputed statistics and its length, and returns
+   * the updater of the next marker.
+   *
+   * @param marker the marker
+   * @param markerTripStatisticsUpdater the marker trip statistics updater
+   * @param trackTripStatisticsUpdater the track trip statistics updater
+   */
+  private TripStatisticsUpdater endMarker(Waypoint marker,
+      TripStatisticsUpdater markerTripStatisticsUpdater,
+      TripStatisticsUpdater trackTripStatisticsUpdater) {
+    marker.setTripStatistics(keepTimes(
+        markerTripStatisticsUpdater.getTripStatistics(), marker.getTripStatistics()));
+    marker.setLength(trackTripStatisticsUpdater.getTripStatistics().getTotalDistance());
+    return new TripStatisticsUpdater(getStopTime(marker));
+  }
+
+  private static long getStopTime(Waypoint marker) {
+    return marker.getTripStatistics().getStopTime();
+  }
+
+  /**
+   * Sets the start time, the stop time and the total time of the recomputed
+   * statistics to the recorded ones. Returns the recomputed statistics.
+   *
+   * @param recomputed the recomputed statistics
+   * @param recorded the recorded statistics
+   */
+  private static TripStatistics keepTimes(TripStatistics recomputed, TripStatistics recorded) {
+    recomputed.setStartTime(recorded.getStartTime());
+    recomputed.setStopTime(recorded.getStopTime());
+    recomputed.setTotalTime(recorded.getTotalTime());
+    return recomputed;
+  }
+}
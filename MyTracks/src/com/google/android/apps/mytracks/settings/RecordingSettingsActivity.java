@@ -18,6 +18,7 @@ package com.google.android.apps.mytracks.settings;
 
 import com.google.android.apps.mytracks.fragments.ChooseActivityTypeDialogFragment;
 import com.google.android.apps.mytracks.fragments.ChooseActivityTypeDialogFragment.ChooseActivityTypeCaller;
+import com.google.android.apps.mytracks.services.RecomputeStatisticsService;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.apps.mytracks.util.UnitConversions;
@@ -27,6 +28,7 @@ import android.app.Dialog;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
 
 /**
  * An activity for accessing recording settings.
@@ -133,12 +135,26 @@ public class RecordingSettingsActivity extends AbstractSettingsActivity
     String[] values = getResources().getStringArray(valueArray);
     String[] options = new String[values.length];
     String[] summary = new String[values.length];
+    OnPreferenceChangeListener listener = null;
     switch (key) {
       case R.string.min_recording_interval_key:
         setMinRecordingIntervalSummaryAndOptions(summary, options, values);
         break;
       case R.string.recording_distance_interval_key:
         setRecordingDistanceIntervalSummaryAndOptions(summary, options, values, metricUnits);
+        listener = new OnPreferenceChangeListener() {
+          @Override
+          public boolean onPreferenceChange(Preference pref, Object newValue) {
+            // The track statistics depend on the recording distance interval
+            int oldValue = PreferencesUtils.getInt(RecordingSettingsActivity.this,
+                R.string.recording_distance_interval_key,
+                PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
+            if (!String.valueOf(oldValue).equals(newValue)) {
+              RecomputeStatisticsService.startAllTracks(RecordingSettingsActivity.this);
+            }
+            return true;
+          }
+        };
         break;
       case R.string.max_recording_distance_key:
         setMaxRecordingDistanceSummaryAndOptions(summary, options, values, metricUnits);
@@ -152,7 +168,8 @@ public class RecordingSettingsActivity extends AbstractSettingsActivity
       default:
         return;
     }
-    configureListPreference(preference, summary, options, values, String.valueOf(value), null);
+    configureListPreference(
+        preference, summary, options, values, String.valueOf(value), listener);
   }
 
   /**
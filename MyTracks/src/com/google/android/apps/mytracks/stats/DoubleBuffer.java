@@ -16,10 +16,21 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * This class maintains a buffer of doubles. This buffer is a convenient class
  * for storing a series of doubles and calculating information about them. This
  * is a FIFO buffer.
+ * <p>
+ * The sum and the sum of squares of the values are kept as running sums, so
+ * the average and the variance are computed in constant time. The running sums
+ * are recomputed from the values once per pass over the buffer, which bounds
+ * their rounding drift. Optionally, a sorted copy of the values is also kept,
+ * for the median and the trimmed mean.
  * 
  * @author Sandor Dornbush
  */
@@ -34,16 +45,37 @@ public class DoubleBuffer {
   // True if the buffer is full
   private boolean isFull;
 
+  // The running sum of the values
+  private double sum;
+
+  // The running sum of the squares of the values
+  private double sumOfSquares;
+
+  // The values sorted in ascending order, null if not kept
+  private final double[] sorted;
+
   /**
    * Creates a buffer with a certain size.
    * 
    * @param size the size
    */
   public DoubleBuffer(int size) {
+    this(size, false);
+  }
+
+  /**
+   * Creates a buffer with a certain size.
+   * 
+   * @param size the size
+   * @param keepSorted true to keep the values sorted, for {@link #getMedian()}
+   *          and {@link #getTrimmedMean(double)}
+   */
+  public DoubleBuffer(int size, boolean keepSorted) {
     if (size < 1) {
       throw new IllegalArgumentException("The buffer size must be greater than 1.");
     }
     buffer = new double[size];
+    sorted = keepSorted ? new double[size] : null;
     reset();
   }
 
@@ -53,6 +85,8 @@ public class DoubleBuffer {
   public void reset() {
     index = 0;
     isFull = false;
+    sum = 0;
+    sumOfSquares = 0;
   }
 
   /**
@@ -66,14 +100,10 @@ public class DoubleBuffer {
    * Gets the average of the buffer.
    */
   public double getAverage() {
-    int numberOfEntries = isFull ? buffer.length : index;
+    int numberOfEntries = getNumberOfEntries();
     if (numberOfEntries == 0) {
       return 0;
     }
-    double sum = 0;
-    for (int i = 0; i < numberOfEntries; i++) {
-      sum += buffer[i];
-    }
     return sum / numberOfEntries;
   }
 
@@ -84,23 +114,56 @@ public class DoubleBuffer {
    *         the variance
    */
   public double[] getAverageAndVariance() {
-    int numberOfEntries = isFull ? buffer.length : index;
+    int numberOfEntries = getNumberOfEntries();
     if (numberOfEntries == 0) {
       return new double[] { 0, 0 };
     }
 
-    double sum = 0;
-    double sumSquares = 0;
-    for (int i = 0; i < numberOfEntries; i++) {
-      sum += buffer[i];
-      sumSquares += Math.pow(buffer[i], 2);
-    }
-
     double average = sum / numberOfEntries;
-    double variance = sumSquares / numberOfEntries - Math.pow(average, 2);
+    double variance = sumOfSquares / numberOfEntries - average * average;
     return new double[] { average, variance };
   }
 
+  /**
+   * Gets the median of the buffer. The buffer must keep its values sorted.
+   */
+  public double getMedian() {
+    checkSorted();
+    int numberOfEntries = getNumberOfEntries();
+    if (numberOfEntries == 0) {
+      return 0;
+    }
+    int middle = numberOfEntries / 2;
+    if (numberOfEntries % 2 == 1) {
+      return sorted[middle];
+    }
+    return (sorted[middle - 1] + sorted[middle]) / 2;
+  }
+
+  /**
+   * Gets the trimmed mean of the buffer, the average without the smallest and
+   * the largest values. The buffer must keep its values sorted.
+   * 
+   * @param fraction the fraction of the values to drop at each end, from 0 to
+   *          0.5 (exclusive)
+   */
+  public double getTrimmedMean(double fraction) {
+    checkSorted();
+    if (fraction < 0 || fraction >= 0.5) {
+      throw new IllegalArgumentException("The fraction must be from 0 to 0.5.");
+    }
+    int numberOfEntries = getNumberOfEntries();
+    if (numberOfEntries == 0) {
+      return 0;
+    }
+    int trimmed = (int) (numberOfEntries * fraction);
+    double trimmedSum = 0;
+    for (int i = trimmed; i < numberOfEntries - trimmed; i++) {
+      trimmedSum += sorted[i];
+    }
+    return trimmedSum / (numberOfEntries - 2 * trimmed);
+  }
+
   /**
    * Adds a double to the buffer. If the buffer is full the oldest element is
    * overwritten.
@@ -111,10 +174,144 @@ public class DoubleBuffer {
     if (index == buffer.length) {
       index = 0;
     }
+    int numberOfEntries = getNumberOfEntries();
+    if (isFull) {
+      double oldest = buffer[index];
+      sum -= oldest;
+      sumOfSquares -= oldest * oldest;
+      if (sorted != null) {
+        removeSorted(oldest, numberOfEntries);
+        numberOfEntries--;
+      }
+    }
     buffer[index] = value;
     index++;
+    if (sorted != null) {
+      insertSorted(value, numberOfEntries);
+    }
     if (index == buffer.length) {
       isFull = true;
+      updateSums();
+    } else {
+      sum += value;
+      sumOfSquares += value * value;
+    }
+  }
+
+  /**
+   * Writes the state of the buffer.
+   * 
+   * @param output the data output
+   */
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeInt(buffer.length);
+    output.writeInt(index);
+    output.writeBoolean(isFull);
+    for (int i = 0; i < buffer.length; i++) {
+      output.writeDouble(buffer[i]);
+    }
+    output.writeDouble(sum);
+    output.writeDouble(sumOfSquares);
+  }
+
+  /**
+   * Reads the state written by {@link #writeTo(DataOutput)} into the buffer.
+   * The sizes must match. The running sums are read as written, not
+   * recomputed, so the restored buffer has the same averages as the written
+   * one, to the last bit.
+   * 
+   * @param input the data input
+   */
+  public void readFrom(DataInput input) throws IOException {
+    int size = input.readInt();
+    if (size != buffer.length) {
+      throw new IOException("Buffer size mismatch: " + size + " != " + buffer.length);
+    }
+    int newIndex = input.readInt();
+    if (newIndex < 0 || newIndex > buffer.length) {
+      throw new IOException("Invalid buffer index: " + newIndex);
+    }
+    index = newIndex;
+    isFull = input.readBoolean();
+    for (int i = 0; i < buffer.length; i++) {
+      buffer[i] = input.readDouble();
+    }
+    sum = input.readDouble();
+    sumOfSquares = input.readDouble();
+    if (sorted != null) {
+      int numberOfEntries = getNumberOfEntries();
+      System.arraycopy(buffer, 0, sorted, 0, numberOfEntries);
+      Arrays.sort(sorted, 0, numberOfEntries);
+    }
+  }
+
+  /**
+   * Gets the number of values in the buffer.
+   */
+  private int getNumberOfEntries() {
+    return isFull ? buffer.length : index;
+  }
+
+  /**
+   * Recomputes the running sums from the values.
+   */
+  private void updateSums() {
+    int numberOfEntries = getNumberOfEntries();
+    sum = 0;
+    sumOfSquares = 0;
+    for (int i = 0; i < numberOfEntries; i++) {
+      sum += buffer[i];
+      sumOfSquares += buffer[i] * buffer[i];
+    }
+  }
+
+  /**
+   * Removes a value from the sorted values.
+   * 
+   * @param value the value
+   * @param count the number of sorted values
+   */
+  private void removeSorted(double value, int count) {
+    int position = findSorted(value, count);
+    System.arraycopy(sorted, position + 1, sorted, position, count - position - 1);
+  }
+
+  /**
+   * Inserts a value into the sorted values.
+   * 
+   * @param value the value
+   * @param count the number of sorted values
+   */
+  private void insertSorted(double value, int count) {
+    int position = findSorted(value, count);
+    System.arraycopy(sorted, position, sorted, position + 1, count - position);
+    sorted[position] = value;
+  }
+
+  /**
+   * Finds the position of the first sorted value not less than a value, in the
+   * order of {@link Arrays#sort(double[])}.
+   * 
+   * @param value the value
+   * @param count the number of sorted values
+   */
+  private int findSorted(double value, int count) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (Double.compare(sorted[middle], value) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private void checkSorted() {
+    if (sorted == null) {
+      throw new IllegalStateException("The buffer doesn't keep its values sorted.");
     }
   }
 
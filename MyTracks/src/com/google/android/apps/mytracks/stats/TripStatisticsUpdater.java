@@ -27,6 +27,10 @@ import com.google.common.annotations.VisibleForTesting;
 import android.location.Location;
 import android.util.Log;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Updater for {@link TripStatistics}. For updating track trip statistics as new
  * locations are added. Note that some of the locations represent pause/resume
@@ -104,6 +108,50 @@ public class TripStatisticsUpdater {
     currentSegment = init(startTime);
   }
 
+  /**
+   * Creates a trip statistics updater from the state written by
+   * {@link #writeTo(DataOutput)}. Adding the same locations to both updaters
+   * afterwards gives the same trip statistics.
+   * 
+   * @param input the data input
+   */
+  public TripStatisticsUpdater(DataInput input) throws IOException {
+    tripStatistics = TripStatistics.readFrom(input);
+    currentSegment = TripStatistics.readFrom(input);
+    lastLocation = readOptionalLocation(input);
+    if (input.readBoolean()) {
+      // The last moving location is usually the last location
+      lastMovingLocation = lastLocation;
+    } else {
+      lastMovingLocation = readOptionalLocation(input);
+    }
+    elevationBuffer.readFrom(input);
+    runBuffer.readFrom(input);
+    gradeBuffer.readFrom(input);
+    speedBuffer.readFrom(input);
+  }
+
+  /**
+   * Writes the state of the updater, the trip statistics, the current segment
+   * and its smoothing buffers.
+   * 
+   * @param output the data output
+   */
+  public void writeTo(DataOutput output) throws IOException {
+    tripStatistics.writeTo(output);
+    currentSegment.writeTo(output);
+    writeOptionalLocation(output, lastLocation);
+    boolean isLastLocationMoving = lastMovingLocation == lastLocation;
+    output.writeBoolean(isLastLocationMoving);
+    if (!isLastLocationMoving) {
+      writeOptionalLocation(output, lastMovingLocation);
+    }
+    elevationBuffer.writeTo(output);
+    runBuffer.writeTo(output);
+    gradeBuffer.writeTo(output);
+    speedBuffer.writeTo(output);
+  }
+
   public void updateTime(long time) {
     currentSegment.setStopTime(time);
     currentSegment.setTotalTime(time - currentSegment.getStartTime());
@@ -139,7 +187,7 @@ public class TripStatisticsUpdater {
       if (location.getLatitude() == PAUSE_LATITUDE) {
         if (lastLocation != null && lastMovingLocation != null
             && lastLocation != lastMovingLocation) {
-          currentSegment.addTotalDistance(lastMovingLocation.distanceTo(lastLocation));
+          currentSegment.addTotalDistance(LocationUtils.distance(lastMovingLocation, lastLocation));
         }
         tripStatistics.merge(currentSegment);
       }
@@ -164,7 +212,7 @@ public class TripStatisticsUpdater {
       return;
     }
 
-    double movingDistance = lastMovingLocation.distanceTo(location);
+    double movingDistance = LocationUtils.distance(lastMovingLocation, location);
     if (movingDistance < minRecordingDistance
         && (!location.hasSpeed() || location.getSpeed() < MAX_NO_MOVEMENT_SPEED)) {
       speedBuffer.reset();
@@ -184,7 +232,7 @@ public class TripStatisticsUpdater {
     currentSegment.addMovingTime(movingTime);
 
     // Update grade
-    double run = lastLocation.distanceTo(location);
+    double run = LocationUtils.distance(lastLocation, location);
     updateGrade(run, elevationDifference);
 
     // Update max speed
@@ -230,8 +278,9 @@ public class TripStatisticsUpdater {
       speedBuffer.reset();
     } else if (isValidSpeed(time, speed, lastLocationTime, lastLocationSpeed)) {
       speedBuffer.setNext(speed);
-      if (speedBuffer.getAverage() > currentSegment.getMaxSpeed()) {
-        currentSegment.setMaxSpeed(speedBuffer.getAverage());
+      double smoothedSpeed = speedBuffer.getAverage();
+      if (smoothedSpeed > currentSegment.getMaxSpeed()) {
+        currentSegment.setMaxSpeed(smoothedSpeed);
       }
     } else {
       Log.d(TAG, "Invalid speed. speed: " + speed + " lastLocationSpeed: " + lastLocationSpeed);
@@ -281,6 +330,18 @@ public class TripStatisticsUpdater {
     currentSegment.updateGradeExtremities(gradeBuffer.getAverage());    
   }
 
+  private static void writeOptionalLocation(DataOutput output, Location location)
+      throws IOException {
+    output.writeBoolean(location != null);
+    if (location != null) {
+      LocationUtils.writeLocation(output, location);
+    }
+  }
+
+  private static Location readOptionalLocation(DataInput input) throws IOException {
+    return input.readBoolean() ? LocationUtils.readLocation(input) : null;
+  }
+
   private TripStatistics init(long time) {
     TripStatistics stats = new TripStatistics();
     stats.setStartTime(time);
@@ -25,6 +25,7 @@ import android.app.ActionBar;
 import android.app.Activity;
 import android.app.SearchManager;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import android.util.SparseBooleanArray;
 import android.view.ActionMode;
 import android.view.Menu;
@@ -179,4 +180,14 @@ public class Api11Adapter extends Api10Adapter {
     actionBar.setTitle(title);
     actionBar.setSubtitle(subtitle);
   }  
+
+  @Override
+  public boolean enableWriteAheadLogging(SQLiteDatabase db) {
+    return db.enableWriteAheadLogging();
+  }
+
+  @Override
+  public void beginTransactionNonExclusive(SQLiteDatabase db) {
+    db.beginTransactionNonExclusive();
+  }
 }
@@ -27,6 +27,7 @@ import android.appwidget.AppWidgetManager;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.content.SharedPreferences.Editor;
+import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 import android.view.MenuItem;
 import android.view.ViewTreeObserver;
@@ -160,6 +161,16 @@ public class Api8Adapter implements ApiAdapter {
     activity.setTitle(title + " " + subtitle);
   }
 
+  @Override
+  public boolean enableWriteAheadLogging(SQLiteDatabase db) {
+    return false;
+  }
+
+  @Override
+  public void beginTransactionNonExclusive(SQLiteDatabase db) {
+    db.beginTransaction();
+  }
+
   @Override
   public boolean handleSearchKey(MenuItem menuItem) {
     // Return false and allow the framework to handle the search key.
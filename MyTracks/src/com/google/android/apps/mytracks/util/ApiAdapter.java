@@ -24,6 +24,7 @@ import android.appwidget.AppWidgetManager;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
 import android.view.MenuItem;
 import android.view.ViewTreeObserver;
 import android.widget.ArrayAdapter;
@@ -198,6 +199,27 @@ public interface ApiAdapter {
    * Due to changes in API level 11;
    */
   public void setTitleAndSubtitle(Activity activity, String title, String subtitle);
+
+  /**
+   * Enables write-ahead logging on a database. Returns true if enabled. With
+   * write-ahead logging, queries run on a pool of reader connections and are
+   * not blocked by the writer.
+   * <p>
+   * Due to changes in API level 11.
+   * 
+   * @param db the database
+   */
+  public boolean enableWriteAheadLogging(SQLiteDatabase db);
+
+  /**
+   * Begins a write transaction that does not block the readers of a database
+   * in write-ahead logging mode.
+   * <p>
+   * Due to changes in API level 11.
+   * 
+   * @param db the database
+   */
+  public void beginTransactionNonExclusive(SQLiteDatabase db);
   
   /**
    * Handles the search key press. Returns true if handled.
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+/**
+ * Utilities to compute distances and bearings on the WGS84 ellipsoid from
+ * latitudes and longitudes in degrees.
+ * <p>
+ * Points close to each other, like consecutive track points, use a flat earth
+ * approximation with the radii of curvature at the mean latitude. Within
+ * {@link #MAX_FAST_DELTA}, its distance is within 1 mm of the Vincenty
+ * distance and its bearing within 1e-5 degrees of the Vincenty bearing. Other
+ * points use the Vincenty inverse formula, with the same constants and
+ * iterations as {@link android.location.Location#distanceTo(
+ * android.location.Location)}.
+ */
+public class DistanceUtils {
+
+  // WGS84 ellipsoid, as in Location
+  private static final double SEMI_MAJOR_AXIS = 6378137.0;
+  private static final double SEMI_MINOR_AXIS = 6356752.3142;
+  private static final double FLATTENING = (SEMI_MAJOR_AXIS - SEMI_MINOR_AXIS)
+      / SEMI_MAJOR_AXIS;
+  private static final double ECCENTRICITY_SQUARED = FLATTENING * (2.0 - FLATTENING);
+
+  /*
+   * The max latitude and longitude differences, in degrees, to use the flat
+   * earth approximation. About 5.5 km at the equator. Its error grows with the
+   * square of the distance.
+   */
+  private static final double MAX_FAST_DELTA = 0.05;
+
+  private static final int MAX_ITERATIONS = 20;
+
+  private DistanceUtils() {}
+
+  /**
+   * Gets the distance in meters between two points.
+   *
+   * @param startLatitude the start latitude
+   * @param startLongitude the start longitude
+   * @param endLatitude the end latitude
+   * @param endLongitude the end longitude
+   */
+  public static double distance(
+      double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+    double deltaLatitude = endLatitude - startLatitude;
+    double deltaLongitude = getDeltaLongitude(startLongitude, endLongitude);
+    if (Math.abs(deltaLatitude) > MAX_FAST_DELTA || Math.abs(deltaLongitude) > MAX_FAST_DELTA) {
+      return vincenty(startLatitude, startLongitude, endLatitude, endLongitude, false);
+    }
+    double sinLatitude = Math.sin(
+        (startLatitude + endLatitude) * 0.5 * UnitConversions.DEG_TO_RAD);
+    double w = 1.0 - ECCENTRICITY_SQUARED * sinLatitude * sinLatitude;
+    double primeVerticalRadius = SEMI_MAJOR_AXIS / Math.sqrt(w);
+    double meridionalRadius = primeVerticalRadius * (1.0 - ECCENTRICITY_SQUARED) / w;
+    double x = primeVerticalRadius * Math.sqrt(1.0 - sinLatitude * sinLatitude) * deltaLongitude
+        * UnitConversions.DEG_TO_RAD;
+    double y = meridionalRadius * deltaLatitude * UnitConversions.DEG_TO_RAD;
+    return Math.sqrt(x * x + y * y);
+  }
+
+  /**
+   * Gets the initial bearing in degrees east of true north, in (-180, 180],
+   * from the start point to the end point.
+   *
+   * @param startLatitude the start latitude
+   * @param startLongitude the start longitude
+   * @param endLatitude the end latitude
+   * @param endLongitude the end longitude
+   */
+  public static double bearing(
+      double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+    double deltaLatitude = endLatitude - startLatitude;
+    double deltaLongitude = getDeltaLongitude(startLongitude, endLongitude);
+    if (Math.abs(deltaLatitude) > MAX_FAST_DELTA || Math.abs(deltaLongitude) > MAX_FAST_DELTA) {
+      return vincenty(startLatitude, startLongitude, endLatitude, endLongitude, true);
+    }
+    double sinLatitude = Math.sin(
+        (startLatitude + endLatitude) * 0.5 * UnitConversions.DEG_TO_RAD);
+    double w = 1.0 - ECCENTRICITY_SQUARED * sinLatitude * sinLatitude;
+    double x = Math.sqrt(1.0 - sinLatitude * sinLatitude) * deltaLongitude;
+    double y = (1.0 - ECCENTRICITY_SQUARED) / w * deltaLatitude;
+
+    // The meridians converge, the initial bearing is less than the mean one
+    double bearing = Math.atan2(x, y) / UnitConversions.DEG_TO_RAD
+        - 0.5 * deltaLongitude * sinLatitude;
+    if (bearing <= -180.0) {
+      bearing += 360.0;
+    } else if (bearing > 180.0) {
+      bearing -= 360.0;
+    }
+    return bearing;
+  }
+
+  /**
+   * Gets the distances in meters of a window of points to the line segment
+   * from its first point to its last point. Sets distances[i] for each point i
+   * strictly between start and end. Like the Douglas-Peucker decimation, the
+   * point is projected on the segment in the latitude longitude plane.
+   *
+   * @param latitudes the latitudes
+   * @param longitudes the longitudes
+   * @param start the index of the first point of the window
+   * @param end the index of the last point of the window
+   * @param distances the distances, at least as long as end
+   */
+  public static void segmentDistances(
+      double[] latitudes, double[] longitudes, int start, int end, double[] distances) {
+    double startLatitude = latitudes[start];
+    double startLongitude = longitudes[start];
+    double endLatitude = latitudes[end];
+    double endLongitude = longitudes[end];
+    double segmentLatitude = endLatitude - startLatitude;
+    double segmentLongitude = endLongitude - startLongitude;
+    double segmentLengthSquared = segmentLatitude * segmentLatitude
+        + segmentLongitude * segmentLongitude;
+    for (int i = start + 1; i < end; i++) {
+      double latitude = latitudes[i];
+      double longitude = longitudes[i];
+      if (segmentLengthSquared == 0.0) {
+        distances[i] = distance(latitude, longitude, endLatitude, endLongitude);
+        continue;
+      }
+      double u = ((latitude - startLatitude) * segmentLatitude
+          + (longitude - startLongitude) * segmentLongitude) / segmentLengthSquared;
+      if (u <= 0.0) {
+        distances[i] = distance(latitude, longitude, startLatitude, startLongitude);
+      } else if (u >= 1.0) {
+        distances[i] = distance(latitude, longitude, endLatitude, endLongitude);
+      } else {
+        distances[i] = distance(latitude - startLatitude, longitude - startLongitude,
+            u * segmentLatitude, u * segmentLongitude);
+      }
+    }
+  }
+
+  /**
+   * Gets the longitude difference in degrees, in [-180, 180].
+   *
+   * @param startLongitude the start longitude
+   * @param endLongitude the end longitude
+   */
+  private static double getDeltaLongitude(double startLongitude, double endLongitude) {
+    double deltaLongitude = endLongitude - startLongitude;
+    if (deltaLongitude > 180.0) {
+      deltaLongitude -= 360.0;
+    } else if (deltaLongitude < -180.0) {
+      deltaLongitude += 360.0;
+    }
+    return deltaLongitude;
+  }
+
+  /**
+   * Gets the distance or the initial bearing with the Vincenty inverse
+   * formula. Like Location, the result is rounded to a float.
+   *
+   * @param startLatitude the start latitude
+   * @param startLongitude the start longitude
+   * @param endLatitude the end latitude
+   * @param endLongitude the end longitude
+   * @param bearing true to get the bearing, false to get the distance
+   */
+  private static double vincenty(double startLatitude, double startLongitude,
+      double endLatitude, double endLongitude, boolean bearing) {
+    double lat1 = startLatitude * UnitConversions.DEG_TO_RAD;
+    double lat2 = endLatitude * UnitConversions.DEG_TO_RAD;
+    double a = SEMI_MAJOR_AXIS;
+    double b = SEMI_MINOR_AXIS;
+    double f = FLATTENING;
+    double aSqMinusBSqOverBSq = (a * a - b * b) / (b * b);
+
+    double l = endLongitude * UnitConversions.DEG_TO_RAD
+        - startLongitude * UnitConversions.DEG_TO_RAD;
+    double u1 = Math.atan((1.0 - f) * Math.tan(lat1));
+    double u2 = Math.atan((1.0 - f) * Math.tan(lat2));
+    double cosU1 = Math.cos(u1);
+    double cosU2 = Math.cos(u2);
+    double sinU1 = Math.sin(u1);
+    double sinU2 = Math.sin(u2);
+    double cosU1cosU2 = cosU1 * cosU2;
+    double sinU1sinU2 = sinU1 * sinU2;
+
+    double bigA = 0.0;
+    double sigma = 0.0;
+    double deltaSigma = 0.0;
+    double cosLambda = 0.0;
+    double sinLambda = 0.0;
+    double lambda = l;
+    for (int i = 0; i < MAX_ITERATIONS; i++) {
+      double lambdaOrig = lambda;
+      cosLambda = Math.cos(lambda);
+      sinLambda = Math.sin(lambda);
+      double t1 = cosU2 * sinLambda;
+      double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+      double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+      double cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+      sigma = Math.atan2(sinSigma, cosSigma);
+      double sinAlpha = sinSigma == 0.0 ? 0.0 : cosU1cosU2 * sinLambda / sinSigma;
+      double cosSqAlpha = 1.0 - sinAlpha * sinAlpha;
+      double cos2SM = cosSqAlpha == 0.0 ? 0.0 : cosSigma - 2.0 * sinU1sinU2 / cosSqAlpha;
+
+      double uSquared = cosSqAlpha * aSqMinusBSqOverBSq;
+      bigA = 1 + (uSquared / 16384.0)
+          * (4096.0 + uSquared * (-768 + uSquared * (320.0 - 175.0 * uSquared)));
+      double bigB = (uSquared / 1024.0)
+          * (256.0 + uSquared * (-128.0 + uSquared * (74.0 - 47.0 * uSquared)));
+      double c = (f / 16.0) * cosSqAlpha * (4.0 + f * (4.0 - 3.0 * cosSqAlpha));
+      double cos2SMSq = cos2SM * cos2SM;
+      deltaSigma = bigB * sinSigma * (cos2SM + (bigB / 4.0)
+          * (cosSigma * (-1.0 + 2.0 * cos2SMSq) - (bigB / 6.0) * cos2SM
+              * (-3.0 + 4.0 * sinSigma * sinSigma) * (-3.0 + 4.0 * cos2SMSq)));
+      lambda = l + (1.0 - c) * f * sinAlpha * (sigma + c * sinSigma
+          * (cos2SM + c * cosSigma * (-1.0 + 2.0 * cos2SM * cos2SM)));
+
+      double delta = (lambda - lambdaOrig) / lambda;
+      if (Math.abs(delta) < 1.0e-12) {
+        break;
+      }
+    }
+
+    if (bearing) {
+      float initialBearing = (float) Math.atan2(
+          cosU2 * sinLambda, cosU1 * sinU2 - sinU1 * cosU2 * cosLambda);
+      initialBearing *= 180.0 / Math.PI;
+      return initialBearing;
+    }
+    return (float) (b * bigA * (sigma - deltaSigma));
+  }
+}
@@ -15,11 +15,19 @@
  */
 package com.google.android.apps.mytracks.util;
 
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.maps.mytracks.R;
+import com.google.protobuf.InvalidProtocolBufferException;
 
+import android.content.Context;
 import android.location.Location;
 import android.util.Log;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Stack;
 
@@ -31,6 +39,18 @@ import java.util.Stack;
 public class LocationUtils {
 
   private static final String TAG = LocationUtils.class.getSimpleName();
+
+  private static final byte HAS_ALTITUDE = 0x1;
+  private static final byte HAS_ACCURACY = 0x2;
+  private static final byte HAS_SPEED = 0x4;
+  private static final byte HAS_BEARING = 0x8;
+
+  /*
+   * True to compute distances and bearings with DistanceUtils, false to use
+   * Location#distanceTo and Location#bearingTo. Set from the fast distance
+   * preference.
+   */
+  private static volatile boolean useDistanceUtils = PreferencesUtils.FAST_DISTANCE_DEFAULT;
   
   // 1 minute in milliseconds
   private static final long MAX_LOCATION_AGE_MS = (long) (UnitConversions.MIN_TO_S
@@ -38,6 +58,56 @@ public class LocationUtils {
 
   private LocationUtils() {}
 
+  /**
+   * Sets whether to compute distances and bearings with {@link DistanceUtils}
+   * or with {@link Location}.
+   * 
+   * @param value true to use {@link DistanceUtils}
+   */
+  public static void setUseDistanceUtils(boolean value) {
+    useDistanceUtils = value;
+  }
+
+  /**
+   * Reads the fast distance preference. See
+   * {@link #setUseDistanceUtils(boolean)}.
+   * 
+   * @param context the context
+   */
+  public static void updateUseDistanceUtils(Context context) {
+    setUseDistanceUtils(PreferencesUtils.getBoolean(
+        context, R.string.fast_distance_key, PreferencesUtils.FAST_DISTANCE_DEFAULT));
+  }
+
+  /**
+   * Gets the distance in meters between two locations.
+   * 
+   * @param start the start location
+   * @param end the end location
+   */
+  public static double distance(Location start, Location end) {
+    if (!useDistanceUtils) {
+      return start.distanceTo(end);
+    }
+    return DistanceUtils.distance(
+        start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude());
+  }
+
+  /**
+   * Gets the initial bearing in degrees east of true north from the start
+   * location to the end location.
+   * 
+   * @param start the start location
+   * @param end the end location
+   */
+  public static float bearing(Location start, Location end) {
+    if (!useDistanceUtils) {
+      return start.bearingTo(end);
+    }
+    return (float) DistanceUtils.bearing(
+        start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude());
+  }
+
   /**
    * Computes the distance on the two sphere between the point c0 and the line
    * segment c1 to c2.
@@ -102,14 +172,34 @@ public class LocationUtils {
     double dist = 0.0;
     int[] current;
 
+    // With DistanceUtils, the distances are computed a window at a time
+    final boolean useWindows = useDistanceUtils;
+    double[] latitudes = null;
+    double[] longitudes = null;
+    double[] windowDists = null;
+    if (useWindows && n > 2) {
+      latitudes = new double[n];
+      longitudes = new double[n];
+      windowDists = new double[n];
+      for (idx = 0; idx < n; idx++) {
+        Location location = locations.get(idx);
+        latitudes[idx] = location.getLatitude();
+        longitudes[idx] = location.getLongitude();
+      }
+    }
+
     if (n > 2) {
       int[] stackVal = new int[] { 0, (n - 1) };
       stack.push(stackVal);
       while (stack.size() > 0) {
         current = stack.pop();
         maxDist = 0;
+        if (useWindows) {
+          DistanceUtils.segmentDistances(
+              latitudes, longitudes, current[0], current[1], windowDists);
+        }
         for (idx = current[0] + 1; idx < current[1]; ++idx) {
-          dist = LocationUtils.distance(
+          dist = useWindows ? windowDists[idx] : LocationUtils.distance(
               locations.get(idx), locations.get(current[0]), locations.get(current[1]));
           if (dist > maxDist) {
             maxDist = dist;
@@ -174,4 +264,98 @@ public class LocationUtils {
     return !LocationUtils.isValidLocation(location)
         || (System.currentTimeMillis() - location.getTime() > MAX_LOCATION_AGE_MS);
   }
+
+  /**
+   * Writes a location, with its sensor data, to be read by
+   * {@link #readLocation(DataInput)}.
+   *
+   * @param outputStream the output stream
+   * @param location the location
+   */
+  public static void writeLocation(DataOutput outputStream, Location location)
+      throws IOException {
+    byte flags = 0;
+    if (location.hasAltitude()) {
+      flags |= HAS_ALTITUDE;
+    }
+    if (location.hasAccuracy()) {
+      flags |= HAS_ACCURACY;
+    }
+    if (location.hasSpeed()) {
+      flags |= HAS_SPEED;
+    }
+    if (location.hasBearing()) {
+      flags |= HAS_BEARING;
+    }
+    outputStream.writeUTF(location.getProvider() != null ? location.getProvider() : "");
+    outputStream.writeDouble(location.getLatitude());
+    outputStream.writeDouble(location.getLongitude());
+    outputStream.writeLong(location.getTime());
+    outputStream.writeByte(flags);
+    outputStream.writeDouble(location.getAltitude());
+    outputStream.writeFloat(location.getAccuracy());
+    outputStream.writeFloat(location.getSpeed());
+    outputStream.writeFloat(location.getBearing());
+
+    SensorDataSet sensorDataSet = null;
+    if (location instanceof MyTracksLocation) {
+      sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
+    }
+    if (sensorDataSet != null) {
+      byte[] bytes = sensorDataSet.toByteArray();
+      outputStream.writeInt(bytes.length);
+      outputStream.write(bytes);
+    } else {
+      outputStream.writeInt(0);
+    }
+  }
+
+  /**
+   * Reads a location.
+   *
+   * @param inputStream the input stream
+   */
+  public static Location readLocation(DataInput inputStream) throws IOException {
+    String provider = inputStream.readUTF();
+    double latitude = inputStream.readDouble();
+    double longitude = inputStream.readDouble();
+    long time = inputStream.readLong();
+    byte flags = inputStream.readByte();
+    double altitude = inputStream.readDouble();
+    float accuracy = inputStream.readFloat();
+    float speed = inputStream.readFloat();
+    float bearing = inputStream.readFloat();
+    int sensorLength = inputStream.readInt();
+
+    Location location;
+    if (sensorLength > 0) {
+      byte[] bytes = new byte[sensorLength];
+      inputStream.readFully(bytes);
+      MyTracksLocation myTracksLocation = new MyTracksLocation(provider);
+      try {
+        myTracksLocation.setSensorDataSet(SensorDataSet.parseFrom(bytes));
+      } catch (InvalidProtocolBufferException e) {
+        Log.w(TAG, "Failed to parse sensor data.", e);
+      }
+      location = myTracksLocation;
+    } else {
+      location = new Location(provider);
+    }
+    location.setLatitude(latitude);
+    location.setLongitude(longitude);
+    location.setTime(time);
+    if ((flags & HAS_ALTITUDE) != 0) {
+      location.setAltitude(altitude);
+    }
+    if ((flags & HAS_ACCURACY) != 0) {
+      location.setAccuracy(accuracy);
+    }
+    if ((flags & HAS_SPEED) != 0) {
+      location.setSpeed(speed);
+    }
+    if ((flags & HAS_BEARING) != 0) {
+      location.setBearing(bearing);
+    }
+    return location;
+  }
 }
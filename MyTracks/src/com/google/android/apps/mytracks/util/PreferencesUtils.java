@@ -43,6 +43,7 @@ public class PreferencesUtils {
    * files.
    */
   public static final boolean ALLOW_ACCESS_DEFAULT = false;
+  public static final boolean ARCHIVE_TRACK_POINTS_DEFAULT = false;
   public static final int AUTO_RESUME_TRACK_CURRENT_RETRY_DEFAULT = 0;
 
   // Values for auto_resume_track_timeout_key
@@ -70,6 +71,7 @@ public class PreferencesUtils {
   public static final boolean EXPORT_GOOGLE_FUSION_TABLES_PUBLIC_DEFAULT = false;
   public static final boolean EXPORT_GOOGLE_MAPS_PUBLIC_DEFAULT = false;
   public static final String EXPORT_TYPE_DEFAULT = ExportType.GOOGLE_DRIVE.name();
+  public static final boolean FAST_DISTANCE_DEFAULT = true;
   
   // Value for split_frequency_key and voice_frequency_key
   public static final int FREQUENCY_OFF = 0;
@@ -84,6 +86,7 @@ public class PreferencesUtils {
   public static final int MIN_RECORDING_INTERVAL_DEFAULT = 0;
 
   public static final int PHOTO_SIZE_DEFAULT = 1024; // 1024 kB
+  public static final String RECOMPUTE_STATISTICS_LIST_DEFAULT = "";
   public static final int RECORDING_DISTANCE_INTERVAL_DEFAULT = 10;
   
   // Values for recording_gps_accuracy
@@ -335,7 +338,7 @@ public class PreferencesUtils {
     }
     setString(context, keyId, list + ";" + value);
   }
-  
+
   /**
    * Gets the default weight.
    * 
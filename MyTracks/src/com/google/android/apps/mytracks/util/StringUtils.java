@@ -29,8 +29,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Various string manipulation methods.
@@ -41,16 +39,33 @@ import java.util.regex.Pattern;
 public class StringUtils {
 
   private static final String COORDINATE_DEGREE = "\u00B0";
-  private static final SimpleDateFormat ISO_8601_DATE_TIME_FORMAT = new SimpleDateFormat(
-      "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-  private static final SimpleDateFormat ISO_8601_BASE = new SimpleDateFormat(
-      "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
-  private static final Pattern ISO_8601_EXTRAS = Pattern.compile(
-      "^(\\.\\d+)?(?:Z|([+-])(\\d{2}):(\\d{2}))?$");
-  static {
-    ISO_8601_DATE_TIME_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
-    ISO_8601_BASE.setTimeZone(TimeZone.getTimeZone("UTC"));
-  }
+  // Per thread, since SimpleDateFormat is not thread safe
+  private static final ThreadLocal<SimpleDateFormat> ISO_8601_DATE_TIME_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          SimpleDateFormat format = new SimpleDateFormat(
+              "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+          format.setTimeZone(TimeZone.getTimeZone("UTC"));
+          return format;
+        }
+      };
+  // Per thread, for the date time bases not in the yyyy-MM-ddTHH:mm:ss form
+  private static final ThreadLocal<SimpleDateFormat> ISO_8601_BASE =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+          format.setTimeZone(TimeZone.getTimeZone("UTC"));
+          return format;
+        }
+      };
+
+  // The length of a yyyy-MM-ddTHH:mm:ss date time base
+  private static final int ISO_8601_BASE_LENGTH = 19;
+
+  // The first year of the Gregorian calendar used by SimpleDateFormat
+  private static final int GREGORIAN_START_YEAR = 1583;
 
   private StringUtils() {}
 
@@ -73,7 +88,7 @@ public class StringUtils {
    * @param time the time in milliseconds
    */
   public static String formatDateTimeIso8601(long time) {
-    return ISO_8601_DATE_TIME_FORMAT.format(time);
+    return ISO_8601_DATE_TIME_FORMAT.get().format(time);
   }
 
   /**
@@ -298,48 +313,60 @@ public class StringUtils {
   /**
    * Gets the time, in milliseconds, from an XML date time string as defined at
    * http://www.w3.org/TR/xmlschema-2/#dateTime
+   * <p>
+   * Parses the usual yyyy-MM-ddTHH:mm:ss form directly, as it is called for
+   * every point of an imported file, and falls back to a
+   * {@link SimpleDateFormat} for the other forms. Fractional seconds are
+   * truncated to milliseconds.
    * 
    * @param xmlDateTime the XML date time string
    */
   public static long getTime(String xmlDateTime) {
     // Parse the date time base
-    ParsePosition position = new ParsePosition(0);
-    Date date = ISO_8601_BASE.parse(xmlDateTime, position);
-    if (date == null) {
-      throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime
-          + " (at position " + position.getErrorIndex() + ")");
-    }
-
-    // Parse the date time extras
-    Matcher matcher = ISO_8601_EXTRAS.matcher(xmlDateTime.substring(position.getIndex()));
-    if (!matcher.matches()) {
-      // This will match even an empty string as all groups are optional. Thus a
-      // non-match means invalid content.
-      throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime);
+    int index = ISO_8601_BASE_LENGTH;
+    long time = getIso8601BaseTime(xmlDateTime);
+    if (time == Long.MIN_VALUE) {
+      ParsePosition position = new ParsePosition(0);
+      Date date = ISO_8601_BASE.get().parse(xmlDateTime, position);
+      if (date == null) {
+        throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime
+            + " (at position " + position.getErrorIndex() + ")");
+      }
+      time = date.getTime();
+      index = position.getIndex();
     }
 
-    long time = date.getTime();
-
     // Account for fractional seconds
-    String fractional = matcher.group(1);
-    if (fractional != null) {
-      // Regex ensures fractional part is in (0,1)
-      float fractionalSeconds = Float.parseFloat(fractional);
-      long fractionalMillis = Math.round(fractionalSeconds * UnitConversions.S_TO_MS);
-      time += fractionalMillis;
+    int length = xmlDateTime.length();
+    if (index < length && xmlDateTime.charAt(index) == '.') {
+      index++;
+      int start = index;
+      int scale = 100;
+      while (index < length && isDigit(xmlDateTime.charAt(index))) {
+        time += (xmlDateTime.charAt(index) - '0') * scale;
+        scale /= 10;
+        index++;
+      }
+      if (index == start) {
+        throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime);
+      }
     }
 
     // Account for timezones
-    String sign = matcher.group(2);
-    String offsetHoursStr = matcher.group(3);
-    String offsetMinsStr = matcher.group(4);
-    if (sign != null && offsetHoursStr != null && offsetMinsStr != null) {
-      // Regex ensures sign is + or -
-      boolean plusSign = sign.equals("+");
-      int offsetHours = Integer.parseInt(offsetHoursStr);
-      int offsetMins = Integer.parseInt(offsetMinsStr);
-
-      // Regex ensures values are >= 0
+    if (index < length) {
+      char sign = xmlDateTime.charAt(index);
+      if (sign == 'Z' && index + 1 == length) {
+        return time;
+      }
+      if ((sign != '+' && sign != '-') || index + 6 != length
+          || xmlDateTime.charAt(index + 3) != ':') {
+        throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime);
+      }
+      int offsetHours = getDigits(xmlDateTime, index + 1, 2);
+      int offsetMins = getDigits(xmlDateTime, index + 4, 2);
+      if (offsetHours == -1 || offsetMins == -1) {
+        throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime);
+      }
       if (offsetHours > 14 || offsetMins > 59) {
         throw new IllegalArgumentException("Bad timezone: " + xmlDateTime);
       }
@@ -347,7 +374,7 @@ public class StringUtils {
       long totalOffsetMillis = (offsetMins + offsetHours * 60L) * 60000L;
 
       // Convert to UTC
-      if (plusSign) {
+      if (sign == '+') {
         time -= totalOffsetMillis;
       } else {
         time += totalOffsetMillis;
@@ -356,6 +383,70 @@ public class StringUtils {
     return time;
   }
 
+  /**
+   * Gets the time, in milliseconds, of a date time base in the
+   * yyyy-MM-ddTHH:mm:ss form, in UTC. Out of range days, hours, minutes, and
+   * seconds roll over, as with a lenient {@link SimpleDateFormat}. Returns
+   * Long.MIN_VALUE if the date time string doesn't start with this form.
+   * 
+   * @param xmlDateTime the XML date time string
+   */
+  private static long getIso8601BaseTime(String xmlDateTime) {
+    if (xmlDateTime.length() < ISO_8601_BASE_LENGTH || xmlDateTime.charAt(4) != '-'
+        || xmlDateTime.charAt(7) != '-' || xmlDateTime.charAt(10) != 'T'
+        || xmlDateTime.charAt(13) != ':' || xmlDateTime.charAt(16) != ':') {
+      return Long.MIN_VALUE;
+    }
+    int year = getDigits(xmlDateTime, 0, 4);
+    int month = getDigits(xmlDateTime, 5, 2);
+    int day = getDigits(xmlDateTime, 8, 2);
+    int hour = getDigits(xmlDateTime, 11, 2);
+    int minute = getDigits(xmlDateTime, 14, 2);
+    int second = getDigits(xmlDateTime, 17, 2);
+    if (year < GREGORIAN_START_YEAR || month < 1 || month > 12 || day == -1 || hour == -1
+        || minute == -1 || second == -1) {
+      return Long.MIN_VALUE;
+    }
+
+    // Days since 1970-01-01, counting the years from March to put leap days last
+    int marchYear = month <= 2 ? year - 1 : year;
+    int era = marchYear / 400;
+    int yearOfEra = marchYear - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    long days = era * 146097L + dayOfEra - 719468L;
+    return (((days * 24L + hour) * 60L + minute) * 60L + second) * 1000L;
+  }
+
+  /**
+   * Gets the value of a run of decimal digits. Returns -1 if a character is not
+   * a digit.
+   * 
+   * @param text the text
+   * @param start the start index of the digits
+   * @param count the number of digits
+   */
+  private static int getDigits(String text, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = text.charAt(i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + c - '0';
+    }
+    return value;
+  }
+
+  /**
+   * Returns true if a character is an ASCII decimal digit.
+   * 
+   * @param c the character
+   */
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
   /**
    * Gets the time as an array of three integers. Index 0 contains the number of
    * seconds, index 1 contains the number of minutes, and index 2 contains the
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.stats.TripStatistics;
+
+/**
+ * The aggregated statistics of a group of tracks, a row of the
+ * {@link AggregatedStatisticsColumns} table.
+ */
+public class AggregatedStatistics {
+
+  private final int groupBy;
+  private final String category;
+  private final long periodStart;
+  private final long periodEnd;
+  private final int numberOfTracks;
+  private final TripStatistics tripStatistics;
+
+  /**
+   * Constructor.
+   *
+   * @param groupBy the group type, one of the GROUP constants of
+   *          {@link AggregatedStatisticsColumns}
+   * @param category the category, empty if not grouped by category
+   * @param periodStart the period start time, -1L if not grouped by period
+   * @param periodEnd the period end time, -1L if not grouped by period
+   * @param numberOfTracks the number of tracks
+   * @param tripStatistics the merged statistics of the tracks
+   */
+  public AggregatedStatistics(int groupBy, String category, long periodStart, long periodEnd,
+      int numberOfTracks, TripStatistics tripStatistics) {
+    this.groupBy = groupBy;
+    this.category = category;
+    this.periodStart = periodStart;
+    this.periodEnd = periodEnd;
+    this.numberOfTracks = numberOfTracks;
+    this.tripStatistics = tripStatistics;
+  }
+
+  /**
+   * Gets the group type, one of the GROUP constants of
+   * {@link AggregatedStatisticsColumns}.
+   */
+  public int getGroupBy() {
+    return groupBy;
+  }
+
+  /**
+   * Gets the category. Empty if not grouped by category.
+   */
+  public String getCategory() {
+    return category;
+  }
+
+  /**
+   * Gets the period start time, inclusive. -1L if not grouped by period.
+   */
+  public long getPeriodStart() {
+    return periodStart;
+  }
+
+  /**
+   * Gets the period end time, exclusive. -1L if not grouped by period.
+   */
+  public long getPeriodEnd() {
+    return periodEnd;
+  }
+
+  /**
+   * Gets the number of tracks.
+   */
+  public int getNumberOfTracks() {
+    return numberOfTracks;
+  }
+
+  /**
+   * Gets the merged statistics of the tracks, as by
+   * {@link TripStatistics#merge(TripStatistics)}.
+   */
+  public TripStatistics getTripStatistics() {
+    return tripStatistics;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the aggregated statistics table, a rollup of the statistics of
+ * the tracks. Each row aggregates a group of tracks: all the tracks, the
+ * tracks of a category, or the tracks starting in a week, a month, or a year.
+ * The rows are maintained by the content provider when tracks are inserted,
+ * updated, and deleted.
+ * <p>
+ * The statistics columns have the same names as in the tracks table, and are
+ * the sum, the min, or the max of the tracks values.
+ */
+public interface AggregatedStatisticsColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "aggregatedstats";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/aggregatedstats");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.aggregatedstats";
+  public static final String DEFAULT_SORT_ORDER = "groupby, category, periodstart";
+
+  // Values of the GROUPBY column
+  public static final int GROUP_ALL = 0; // all the tracks
+  public static final int GROUP_CATEGORY = 1; // the tracks of a category
+  public static final int GROUP_WEEK = 2; // the tracks starting in a week
+  public static final int GROUP_MONTH = 3; // the tracks starting in a month
+  public static final int GROUP_YEAR = 4; // the tracks starting in a year
+
+  // Columns
+  public static final String GROUPBY = "groupby"; // group type
+  public static final String CATEGORY = "category"; // category, empty if not by category
+  public static final String PERIODSTART = "periodstart"; // period start time, -1 if no period
+  public static final String PERIODEND = "periodend"; // period end time, -1 if no period
+  public static final String NUMTRACKS = "numtracks"; // number of tracks
+  public static final String STARTTIME = "starttime"; // min start time
+  public static final String STOPTIME = "stoptime"; // max stop time
+  public static final String TOTALDISTANCE = "totaldistance"; // sum of total distance
+  public static final String TOTALTIME = "totaltime"; // sum of total time
+  public static final String MOVINGTIME = "movingtime"; // sum of moving time
+  public static final String MINLAT = "minlat"; // min latitude
+  public static final String MAXLAT = "maxlat"; // max latitude
+  public static final String MINLON = "minlon"; // min longitude
+  public static final String MAXLON = "maxlon"; // max longitude
+  public static final String MAXSPEED = "maxspeed"; // max speed
+  public static final String MINELEVATION = "minelevation"; // min elevation
+  public static final String MAXELEVATION = "maxelevation"; // max elevation
+  public static final String ELEVATIONGAIN = "elevationgain"; // sum of elevation gain
+  public static final String MINGRADE = "mingrade"; // min grade
+  public static final String MAXGRADE = "maxgrade"; // max grade
+  public static final String CALORIE = "calorie"; // sum of calorie
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + GROUPBY + " INTEGER, "
+      + CATEGORY + " STRING, "
+      + PERIODSTART + " INTEGER, "
+      + PERIODEND + " INTEGER, "
+      + NUMTRACKS + " INTEGER, "
+      + STARTTIME + " INTEGER, "
+      + STOPTIME + " INTEGER, "
+      + TOTALDISTANCE + " FLOAT, "
+      + TOTALTIME + " INTEGER, "
+      + MOVINGTIME + " INTEGER, "
+      + MINLAT + " INTEGER, "
+      + MAXLAT + " INTEGER, "
+      + MINLON + " INTEGER, "
+      + MAXLON + " INTEGER, "
+      + MAXSPEED + " FLOAT, "
+      + MINELEVATION + " FLOAT, "
+      + MAXELEVATION + " FLOAT, "
+      + ELEVATIONGAIN + " FLOAT, "
+      + MINGRADE + " FLOAT, "
+      + MAXGRADE + " FLOAT, "
+      + CALORIE + " FLOAT"
+      + ");";
+
+  // Unique index for the lookups of a group
+  public static final String GROUPBY_CATEGORY_PERIODSTART_INDEX =
+      "aggregatedstats_groupby_category_periodstart_index";
+  public static final String CREATE_GROUPBY_CATEGORY_PERIODSTART_INDEX =
+      "CREATE UNIQUE INDEX IF NOT EXISTS " + GROUPBY_CATEGORY_PERIODSTART_INDEX + " ON "
+      + TABLE_NAME + " (" + GROUPBY + ", " + CATEGORY + ", " + PERIODSTART + ");";
+}
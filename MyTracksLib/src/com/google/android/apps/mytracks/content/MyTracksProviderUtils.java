@@ -16,6 +16,7 @@
 
 package com.google.android.apps.mytracks.content;
 
+import com.google.android.apps.mytracks.content.TrackTiles.Bounds;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 
 import android.content.Context;
@@ -97,6 +98,43 @@ public interface MyTracksProviderUtils {
    */
   public Cursor getTrackCursor(String selection, String[] selectionArgs, String sortOrder);
 
+  /**
+   * Gets the tracks with a track point within a distance of a location,
+   * nearest first. Only reads the track points in the tiles around the
+   * location, see {@link TrackTilesColumns}.
+   * <p>
+   * Note that the returned tracks do not have any track points attached.
+   * 
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @param radius the distance in meters
+   */
+  public List<Track> getTracksNear(double latitude, double longitude, double radius);
+
+  /**
+   * Gets a cursor of the tracks matching a full-text query, see
+   * {@link TrackSearchColumns}. Each row has the track id and the offsets of
+   * the matches. The caller owns the returned cursor and is responsible for
+   * closing it.
+   * 
+   * @param match the full-text query, in lower case
+   */
+  public Cursor getTrackSearchCursor(String match);
+
+  /**
+   * Gets the aggregated statistics of the tracks, from the rollup maintained
+   * by the content provider, see {@link AggregatedStatisticsColumns}. The time
+   * range only applies to the groups by week, month, and year.
+   * 
+   * @param groupBy the group type, one of the GROUP constants of
+   *          {@link AggregatedStatisticsColumns}
+   * @param startTime the min period start time. -1L for no min
+   * @param endTime the max period end time. -1L for no max
+   * @return the statistics of the groups, by category or by period start
+   */
+  public List<AggregatedStatistics> getAggregatedStatistics(
+      int groupBy, long startTime, long endTime);
+
   /**
    * Inserts a track.
    * <p>
@@ -116,6 +154,26 @@ public interface MyTracksProviderUtils {
    */
   public void updateTrack(Track track);
 
+  /**
+   * Updates the recording columns of a track: the start id, the stop id, the
+   * number of points and the trip statistics. Unlike
+   * {@link #updateTrack(Track)}, doesn't overwrite the name, the description,
+   * the category and the other columns edited while recording.
+   * 
+   * @param track the track
+   */
+  public void updateTrackStatistics(Track track);
+
+  /**
+   * Updates the recording columns of a track, as
+   * {@link #updateTrackStatistics(Track)}, and its statistics waypoints in one
+   * transaction.
+   * 
+   * @param track the track
+   * @param waypoints the statistics waypoints of the track
+   */
+  public void updateTrackStatistics(Track track, List<Waypoint> waypoints);
+
   /**
    * Creates a waypoint from a cursor.
    * 
@@ -196,6 +254,27 @@ public interface MyTracksProviderUtils {
    * @param trackId the track id
    */
   public int getWaypointCount(long trackId);
+
+  /**
+   * Gets the waypoints nearest to a location, of all tracks, nearest first.
+   * Searches growing boxes around the location, so only the waypoints nearby
+   * are read.
+   * 
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @param maxWaypoints the maximum number of waypoints to return
+   */
+  public List<Waypoint> getNearestWaypoints(double latitude, double longitude, int maxWaypoints);
+
+  /**
+   * Gets a cursor of the waypoints matching a full-text query, see
+   * {@link WaypointSearchColumns}. Each row has the waypoint id and the offsets
+   * of the matches. The caller owns the returned cursor and is responsible for
+   * closing it.
+   * 
+   * @param match the full-text query, in lower case
+   */
+  public Cursor getWaypointSearchCursor(String match);
   
   /**
    * Inserts a waypoint.
@@ -223,6 +302,58 @@ public interface MyTracksProviderUtils {
    */
   public int bulkInsertTrackPoint(Location[] locations, int length, long trackId);
 
+  /**
+   * Inserts multiple track points in a single batch, and gets their ids. Saves
+   * querying the first and last track point ids after the insert.
+   * 
+   * @param locations an array of locations
+   * @param length the number of locations (from the beginning of the array) to
+   *          insert, or -1 for all of them
+   * @param trackId the track id
+   * @return the ids of the inserted points, in order. Empty if none inserted.
+   */
+  public long[] insertTrackPoints(Location[] locations, int length, long trackId);
+
+  /**
+   * Inserts multiple track points with their levels of detail, raises the
+   * levels of earlier track points and updates the recording columns of the
+   * track, as {@link #updateTrackStatistics(Track)}, in a single batch.
+   * Observers are notified once, after the batch is committed. The start id of
+   * the track, if not set, and its stop id are set to the inserted ids.
+   * 
+   * @param locations an array of locations
+   * @param levels the levels of the locations
+   * @param length the number of locations (from the beginning of the arrays)
+   *          to insert
+   * @param trackId the track id
+   * @param track the track to update, can be null
+   * @param trackPointIds the ids of the earlier track points
+   * @param trackPointLevels the new levels of the earlier track points
+   * @param count the number of earlier track points to update
+   * @return the ids of the inserted points, in order. Empty if none inserted.
+   */
+  public long[] insertTrackPoints(Location[] locations, int[] levels, int length, long trackId,
+      Track track, long[] trackPointIds, int[] trackPointLevels, int count);
+
+  /**
+   * Archives the track points of a finished track. The track points are packed
+   * into compact chunks and removed from the track points table. The track
+   * point ids are kept, and the track point methods read an archived track as
+   * before.
+   * 
+   * @param trackId the track id
+   * @return the number of points archived
+   */
+  public int archiveTrackPoints(long trackId);
+
+  /**
+   * Returns true if the track points of a track are archived, i.e., only
+   * stored as chunks. The levels of archived track points cannot be updated.
+   * 
+   * @param trackId the track id
+   */
+  public boolean isTrackArchived(long trackId);
+
   /**
    * Creates a location object from a cursor.
    * 
@@ -287,6 +418,33 @@ public interface MyTracksProviderUtils {
   public Cursor getTrackPointCursor(
       long trackId, long startTrackPointId, int maxLocations, boolean descending);
 
+  /**
+   * Fills a batch with the next track points of a track, up to the batch
+   * capacity. To read a whole track, call again with the id after the last
+   * track point of the batch until the batch is not full. Unlike
+   * {@link #getTrackPointLocationIterator(long, long, boolean, LocationFactory)},
+   * it reuses the batch arrays and allocates no objects per track point.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param descending true to sort the result in descending order (latest
+   *          location first)
+   * @param trackPointBatch the batch to fill
+   * @return the number of track points in the batch
+   */
+  public int getTrackPointBatch(
+      long trackId, long startTrackPointId, boolean descending, TrackPointBatch trackPointBatch);
+
+  /**
+   * Gets the track points of a track inside a bounding box, in ascending
+   * order. Only reads the runs of track points in the tiles overlapping the
+   * box, see {@link TrackTilesColumns}.
+   * 
+   * @param trackId the track id
+   * @param bounds the bounding box
+   */
+  public List<Location> getTrackPointsInBounds(long trackId, Bounds bounds);
+
   /**
    * Creates a new read-only iterator over a given track's points. It provides a
    * lightweight way of iterating over long tracks without failing due to the
@@ -316,6 +474,17 @@ public interface MyTracksProviderUtils {
    */
   public Uri insertTrackPoint(Location location, long trackId);
 
+  /**
+   * Raises the levels of detail of track points. A level is only raised, never
+   * lowered. See {@link TrackPointsColumns#LEVEL}.
+   * 
+   * @param trackPointIds the track point ids
+   * @param levels the new levels
+   * @param count the number of track points to update
+   * @return the number of track points updated
+   */
+  public int updateTrackPointLevels(long[] trackPointIds, int[] levels, int count);
+
   /**
    * A lightweight wrapper around the original {@link Cursor} with a method to
    * clean up.
@@ -327,6 +496,12 @@ public interface MyTracksProviderUtils {
      */
     public long getLocationId();
 
+    /**
+     * Gets the level of detail of the most recently retrieved track point by
+     * {@link #next()}. See {@link TrackPointsColumns#LEVEL}.
+     */
+    public int getLocationLevel();
+
     /**
      * Closes the iterator.
      */
@@ -17,21 +17,29 @@
 package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.TrackTiles.Bounds;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.FileUtils;
 import com.google.protobuf.InvalidProtocolBufferException;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.location.Location;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.util.Log;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -46,6 +54,15 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
   private static final int MAX_LATITUDE = 90000000;
 
+  // Number of track points per chunk of an archived track
+  private static final int TRACK_POINT_CHUNK_SIZE = 1024;
+
+  // Radius of the first box searched for the nearest waypoints, in meters
+  private static final double NEAREST_WAYPOINTS_RADIUS = 1000.0;
+
+  // Half the earth circumference, in meters. Any location is within it
+  private static final double MAX_RADIUS = 20015000.0;
+
   private final ContentResolver contentResolver;
   private int defaultCursorBatchSize = 2000;
 
@@ -179,9 +196,11 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
   @Override
   public void deleteAllTracks(Context context) {
+    contentResolver.delete(TrackPointChunksColumns.CONTENT_URI, null, null);
     contentResolver.delete(TrackPointsColumns.CONTENT_URI, null, null);
     contentResolver.delete(WaypointsColumns.CONTENT_URI, null, null);
-    // Delete tracks last since it triggers a database vaccum call
+    contentResolver.delete(TrackTilesColumns.CONTENT_URI, null, null);
+    // Delete tracks last since it triggers reclaiming the database space
     contentResolver.delete(TracksColumns.CONTENT_URI, null, null);
 
     File dir = FileUtils.getPhotoDir();
@@ -192,7 +211,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   public void deleteTrack(Context context, long trackId) {
     deleteTrackPointsAndWaypoints(context, trackId);
 
-    // Delete track last since it triggers a database vaccum call
+    // Delete track last since it triggers reclaiming the database space
     contentResolver.delete(TracksColumns.CONTENT_URI, TracksColumns._ID + "=?",
         new String[] { Long.toString(trackId) });
   }
@@ -205,6 +224,12 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
    * @param trackId the track id
    */
   private void deleteTrackPointsAndWaypoints(Context context, long trackId) {
+    /*
+     * Delete the chunks first, so that deleting the track points does not index
+     * the archived track points again.
+     */
+    contentResolver.delete(TrackPointChunksColumns.CONTENT_URI,
+        TrackPointChunksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) });
     Track track = getTrack(trackId);
     if (track != null) {
       String where = TrackPointsColumns._ID + ">=? AND " + TrackPointsColumns._ID + "<=?";
@@ -212,6 +237,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
           Long.toString(track.getStartId()), Long.toString(track.getStopId()) };
       contentResolver.delete(TrackPointsColumns.CONTENT_URI, where, selectionArgs);
     }
+    contentResolver.delete(TrackTilesColumns.CONTENT_URI, TrackTilesColumns.TRACKID + "=?",
+        new String[] { Long.toString(trackId) });
     contentResolver.delete(WaypointsColumns.CONTENT_URI, WaypointsColumns.TRACKID + "=?",
         new String[] { Long.toString(trackId) });    
     deleteDirectoryRecurse(context, FileUtils.getPhotoDir(trackId));  
@@ -297,6 +324,125 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return getTrackCursor(null, selection, selectionArgs, sortOrder);
   }
 
+  @Override
+  public Cursor getTrackSearchCursor(String match) {
+    return contentResolver.query(TrackSearchColumns.CONTENT_URI, new String[] {
+        TrackSearchColumns.DOCID, TrackSearchColumns.OFFSETS },
+        TrackSearchColumns.TABLE_NAME + " MATCH ?", new String[] { match }, null);
+  }
+
+  @Override
+  public List<AggregatedStatistics> getAggregatedStatistics(
+      int groupBy, long startTime, long endTime) {
+    String selection = AggregatedStatisticsColumns.GROUPBY + "=" + groupBy;
+    if (startTime != -1L) {
+      selection += " AND " + AggregatedStatisticsColumns.PERIODSTART + ">=" + startTime;
+    }
+    if (endTime != -1L) {
+      selection += " AND " + AggregatedStatisticsColumns.PERIODEND + "<=" + endTime;
+    }
+    List<AggregatedStatistics> aggregatedStatistics = new ArrayList<AggregatedStatistics>();
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(
+          AggregatedStatisticsColumns.CONTENT_URI, null, selection, null, null);
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          aggregatedStatistics.add(createAggregatedStatistics(cursor));
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return aggregatedStatistics;
+  }
+
+  /**
+   * Creates the aggregated statistics of a group from a cursor.
+   * 
+   * @param cursor the cursor pointing to the group
+   */
+  private AggregatedStatistics createAggregatedStatistics(Cursor cursor) {
+    TripStatistics tripStatistics = new TripStatistics();
+    tripStatistics.setStartTime(
+        cursor.getLong(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.STARTTIME)));
+    tripStatistics.setStopTime(
+        cursor.getLong(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.STOPTIME)));
+    tripStatistics.setTotalDistance(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.TOTALDISTANCE)));
+    tripStatistics.setTotalTime(
+        cursor.getLong(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.TOTALTIME)));
+    tripStatistics.setMovingTime(
+        cursor.getLong(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MOVINGTIME)));
+    tripStatistics.setBounds(
+        cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MINLON)),
+        cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MAXLAT)),
+        cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MAXLON)),
+        cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MINLAT)));
+    tripStatistics.setMaxSpeed(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MAXSPEED)));
+    tripStatistics.setMinElevation(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MINELEVATION)));
+    tripStatistics.setMaxElevation(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MAXELEVATION)));
+    tripStatistics.setTotalElevationGain(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.ELEVATIONGAIN)));
+    tripStatistics.setMinGrade(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MINGRADE)));
+    tripStatistics.setMaxGrade(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.MAXGRADE)));
+    tripStatistics.setCalorie(
+        cursor.getDouble(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.CALORIE)));
+    return new AggregatedStatistics(
+        cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.GROUPBY)),
+        cursor.getString(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.CATEGORY)),
+        cursor.getLong(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.PERIODSTART)),
+        cursor.getLong(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.PERIODEND)),
+        cursor.getInt(cursor.getColumnIndexOrThrow(AggregatedStatisticsColumns.NUMTRACKS)),
+        tripStatistics);
+  }
+
+  @Override
+  public List<Track> getTracksNear(double latitude, double longitude, double radius) {
+    Bounds bounds = Bounds.around(latitude, longitude, radius);
+    List<Long> trackIds = new ArrayList<Long>();
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackTilesColumns.TRACKIDS_CONTENT_URI, null,
+          bounds.getTileSelection(), null, null);
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          trackIds.add(cursor.getLong(0));
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    // The tiles only select candidates, check the distances of their points
+    List<NearbyResult<Track>> results = new ArrayList<NearbyResult<Track>>();
+    float[] distance = new float[1];
+    for (long trackId : trackIds) {
+      float minDistance = Float.MAX_VALUE;
+      for (Location location : getTrackPointsInBounds(trackId, bounds)) {
+        Location.distanceBetween(
+            latitude, longitude, location.getLatitude(), location.getLongitude(), distance);
+        minDistance = Math.min(minDistance, distance[0]);
+      }
+      if (minDistance <= radius) {
+        Track track = getTrack(trackId);
+        if (track != null) {
+          results.add(new NearbyResult<Track>(track, minDistance));
+        }
+      }
+    }
+    return NearbyResult.sort(results, results.size());
+  }
+
   @Override
   public Uri insertTrack(Track track) {
     return contentResolver.insert(TracksColumns.CONTENT_URI, createContentValues(track));
@@ -308,9 +454,46 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) });
   }
 
+  @Override
+  public void updateTrackStatistics(Track track) {
+    contentResolver.update(TracksColumns.CONTENT_URI, createStatisticsContentValues(track),
+        TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) });
+  }
+
+  @Override
+  public void updateTrackStatistics(Track track, List<Waypoint> waypoints) {
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+        waypoints.size() + 1);
+    operations.add(newTrackStatisticsUpdate(track).build());
+    for (Waypoint waypoint : waypoints) {
+      operations.add(ContentProviderOperation.newUpdate(WaypointsColumns.CONTENT_URI)
+          .withValues(createContentValues(waypoint))
+          .withSelection(
+              WaypointsColumns._ID + "=?", new String[] { Long.toString(waypoint.getId()) })
+          .build());
+    }
+    try {
+      contentResolver.applyBatch(AUTHORITY, operations);
+    } catch (RemoteException e) {
+      throw new IllegalStateException("Unable to update the track statistics", e);
+    } catch (OperationApplicationException e) {
+      throw new IllegalStateException("Unable to update the track statistics", e);
+    }
+  }
+
+  /**
+   * Creates an update of the recording columns of a track.
+   * 
+   * @param track the track
+   */
+  private ContentProviderOperation.Builder newTrackStatisticsUpdate(Track track) {
+    return ContentProviderOperation.newUpdate(TracksColumns.CONTENT_URI)
+        .withValues(createStatisticsContentValues(track))
+        .withSelection(TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) });
+  }
+
   private ContentValues createContentValues(Track track) {
-    ContentValues values = new ContentValues();
-    TripStatistics tripStatistics = track.getTripStatistics();
+    ContentValues values = createStatisticsContentValues(track);
 
     // Value < 0 indicates no id is available
     if (track.getId() >= 0) {
@@ -319,6 +502,23 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     values.put(TracksColumns.NAME, track.getName());
     values.put(TracksColumns.DESCRIPTION, track.getDescription());
     values.put(TracksColumns.CATEGORY, track.getCategory());
+    values.put(TracksColumns.ICON, track.getIcon());
+    values.put(TracksColumns.DRIVEID, track.getDriveId());
+    values.put(TracksColumns.MODIFIEDTIME, track.getModifiedTime());
+    values.put(TracksColumns.SHAREDWITHME, track.isSharedWithMe());
+    values.put(TracksColumns.SHAREDOWNER, track.getSharedOwner());
+    return values;
+  }
+
+  /**
+   * Creates the content values of the recording columns of a track, the
+   * columns updated while recording.
+   * 
+   * @param track the track
+   */
+  private ContentValues createStatisticsContentValues(Track track) {
+    ContentValues values = new ContentValues();
+    TripStatistics tripStatistics = track.getTripStatistics();
     values.put(TracksColumns.STARTID, track.getStartId());
     values.put(TracksColumns.STOPID, track.getStopId());
     values.put(TracksColumns.STARTTIME, tripStatistics.getStartTime());
@@ -339,13 +539,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     values.put(TracksColumns.ELEVATIONGAIN, tripStatistics.getTotalElevationGain());
     values.put(TracksColumns.MINGRADE, tripStatistics.getMinGrade());
     values.put(TracksColumns.MAXGRADE, tripStatistics.getMaxGrade());
-    values.put(TracksColumns.ICON, track.getIcon());
-    values.put(TracksColumns.DRIVEID, track.getDriveId());
-    values.put(TracksColumns.MODIFIEDTIME, track.getModifiedTime());
-    values.put(TracksColumns.SHAREDWITHME, track.isSharedWithMe());
-    values.put(TracksColumns.SHAREDOWNER, track.getSharedOwner());
     values.put(TracksColumns.CALORIE, tripStatistics.getCalorie());
-    
     return values;
   }
 
@@ -679,6 +873,57 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return count > 0 ? count - 1 : 0;
   }
 
+  @Override
+  public Cursor getWaypointSearchCursor(String match) {
+    return contentResolver.query(WaypointSearchColumns.CONTENT_URI, new String[] {
+        WaypointSearchColumns.DOCID, WaypointSearchColumns.OFFSETS },
+        WaypointSearchColumns.TABLE_NAME + " MATCH ?", new String[] { match }, null);
+  }
+
+  @Override
+  public List<Waypoint> getNearestWaypoints(double latitude, double longitude, int maxWaypoints) {
+    if (maxWaypoints <= 0) {
+      return new ArrayList<Waypoint>();
+    }
+    float[] distance = new float[1];
+    double radius = NEAREST_WAYPOINTS_RADIUS;
+    while (true) {
+      boolean all = radius >= MAX_RADIUS;
+      String selection = all ? WaypointsColumns.LATITUDE + "<=" + MAX_LATITUDE
+          : Bounds.around(latitude, longitude, radius).getSelection(
+              WaypointsColumns.LATITUDE, WaypointsColumns.LONGITUDE);
+      List<NearbyResult<Waypoint>> results = new ArrayList<NearbyResult<Waypoint>>();
+      Cursor cursor = null;
+      try {
+        cursor = getWaypointCursor(null, selection, null, null, -1);
+        if (cursor != null) {
+          while (cursor.moveToNext()) {
+            Waypoint waypoint = createWaypoint(cursor);
+            Location location = waypoint.getLocation();
+            Location.distanceBetween(
+                latitude, longitude, location.getLatitude(), location.getLongitude(), distance);
+            if (all || distance[0] <= radius) {
+              results.add(new NearbyResult<Waypoint>(waypoint, distance[0]));
+            }
+          }
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+
+      /*
+       * The waypoints within the radius are the nearest ones. Once there are
+       * enough of them, the waypoints further away do not matter.
+       */
+      if (all || results.size() >= maxWaypoints) {
+        return NearbyResult.sort(results, maxWaypoints);
+      }
+      radius *= 4;
+    }
+  }
+
   @Override
   public Uri insertWaypoint(Waypoint waypoint) {
     waypoint.setId(-1L);
@@ -802,6 +1047,170 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
   }
 
+  @Override
+  public long[] insertTrackPoints(Location[] locations, int length, long trackId) {
+    if (length == -1) {
+      length = locations.length;
+    }
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+        length);
+    for (int i = 0; i < length; i++) {
+      operations.add(ContentProviderOperation.newInsert(TrackPointsColumns.CONTENT_URI)
+          .withValues(createContentValues(locations[i], trackId)).build());
+    }
+    ContentProviderResult[] results;
+    try {
+      results = contentResolver.applyBatch(AUTHORITY, operations);
+    } catch (RemoteException e) {
+      throw new IllegalStateException("Unable to insert track points", e);
+    } catch (OperationApplicationException e) {
+      throw new IllegalStateException("Unable to insert track points", e);
+    }
+    long[] ids = new long[results.length];
+    for (int i = 0; i < results.length; i++) {
+      ids[i] = results[i].uri != null ? ContentUris.parseId(results[i].uri) : -1L;
+    }
+    return ids;
+  }
+
+  @Override
+  public long[] insertTrackPoints(Location[] locations, int[] levels, int length, long trackId,
+      Track track, long[] trackPointIds, int[] trackPointLevels, int count) {
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+        length + 1);
+    for (int i = 0; i < length; i++) {
+      ContentValues values = createContentValues(locations[i], trackId);
+      if (levels[i] > 0) {
+        values.put(TrackPointsColumns.LEVEL, levels[i]);
+      }
+      operations.add(
+          ContentProviderOperation.newInsert(TrackPointsColumns.CONTENT_URI).withValues(values)
+              .build());
+    }
+    addTrackPointLevelUpdates(operations, trackPointIds, trackPointLevels, count);
+    if (track != null) {
+      ContentProviderOperation.Builder builder = newTrackStatisticsUpdate(track);
+      if (length > 0) {
+        // Set from the results of the inserts
+        if (track.getStartId() < 0) {
+          builder.withValueBackReference(TracksColumns.STARTID, 0);
+        }
+        builder.withValueBackReference(TracksColumns.STOPID, length - 1);
+      }
+      operations.add(builder.build());
+    }
+    ContentProviderResult[] results;
+    try {
+      results = contentResolver.applyBatch(AUTHORITY, operations);
+    } catch (RemoteException e) {
+      throw new IllegalStateException("Unable to insert track points", e);
+    } catch (OperationApplicationException e) {
+      throw new IllegalStateException("Unable to insert track points", e);
+    }
+    long[] ids = new long[Math.min(length, results.length)];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = results[i].uri != null ? ContentUris.parseId(results[i].uri) : -1L;
+    }
+    return ids;
+  }
+
+  @Override
+  public int archiveTrackPoints(long trackId) {
+    if (trackId < 0) {
+      return 0;
+    }
+    String[] trackIdArgs = new String[] { Long.toString(trackId) };
+
+    // Remove the chunks left by an interrupted archiving
+    contentResolver.delete(
+        TrackPointChunksColumns.CONTENT_URI, TrackPointChunksColumns.TRACKID + "=?", trackIdArgs);
+
+    List<ContentValues> values = new ArrayList<ContentValues>();
+    TrackPointChunk chunk = new TrackPointChunk(TRACK_POINT_CHUNK_SIZE);
+    int numberOfPoints = 0;
+    long trackPointId = -1L;
+    boolean hasMore = true;
+    while (hasMore) {
+      Cursor cursor = null;
+      try {
+        cursor = getTrackPointRowCursor(trackId, trackPointId, defaultCursorBatchSize, false);
+        if (cursor == null) {
+          break;
+        }
+        while (cursor.moveToNext()) {
+          chunk.add(cursor);
+          numberOfPoints++;
+          if (chunk.isFull()) {
+            values.add(createContentValues(chunk, trackId));
+            chunk.clear();
+          }
+        }
+        if (cursor.moveToLast()) {
+          trackPointId = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID)) + 1;
+        }
+        hasMore = cursor.getCount() == defaultCursorBatchSize;
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+    }
+    if (chunk.size() > 0) {
+      values.add(createContentValues(chunk, trackId));
+    }
+    if (values.isEmpty()) {
+      return 0;
+    }
+
+    /*
+     * Insert the chunks before deleting the rows. Reads use the rows while any
+     * are left, so an interruption in between loses nothing.
+     */
+    contentResolver.bulkInsert(
+        TrackPointChunksColumns.CONTENT_URI, values.toArray(new ContentValues[values.size()]));
+    contentResolver.delete(
+        TrackPointsColumns.CONTENT_URI, TrackPointsColumns.TRACKID + "=?", trackIdArgs);
+    return numberOfPoints;
+  }
+
+  @Override
+  public boolean isTrackArchived(long trackId) {
+    if (trackId < 0) {
+      return false;
+    }
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID },
+          TrackPointsColumns.TRACKID + "=?", new String[] { Long.toString(trackId) },
+          TrackPointsColumns._ID + " LIMIT 1");
+      if (cursor != null && cursor.moveToFirst()) {
+        // Reads use the rows while any are left
+        return false;
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return getArchivedTrackPointId(trackId, false) != -1L;
+  }
+
+  /**
+   * Creates the {@link ContentValues} for a {@link TrackPointChunk}.
+   * 
+   * @param chunk the chunk
+   * @param trackId the track id
+   */
+  private ContentValues createContentValues(TrackPointChunk chunk, long trackId) {
+    ContentValues values = new ContentValues();
+    values.put(TrackPointChunksColumns.TRACKID, trackId);
+    values.put(TrackPointChunksColumns.STARTID, chunk.getId(0));
+    values.put(TrackPointChunksColumns.STOPID, chunk.getId(chunk.size() - 1));
+    values.put(TrackPointChunksColumns.NUMPOINTS, chunk.size());
+    values.put(TrackPointChunksColumns.DATA, chunk.encode());
+    return values;
+  }
+
   @Override
   public Location createTrackPoint(Cursor cursor) {
     Location location = new MyTracksLocation("");
@@ -830,7 +1239,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         cursor.close();
       }
     }
-    return -1L;
+    return getArchivedTrackPointId(trackId, false);
   }
 
   @Override
@@ -854,7 +1263,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         cursor.close();
       }
     }
-    return -1L;
+    return getArchivedTrackPointId(trackId, true);
   }
   
   @Override
@@ -879,7 +1288,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         cursor.close();
       }
     }
-    return -1L;
+    return findArchivedTrackPointId(trackId, location.getTime());
   }
 
   @Override
@@ -891,7 +1300,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
         + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    Location location = findTrackPointBy(selection, selectionArgs);
+    return location != null ? location : findArchivedValidTrackPoint(trackId, false);
   }
 
   @Override
@@ -903,20 +1313,50 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
         + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    Location location = findTrackPointBy(selection, selectionArgs);
+    return location != null ? location : findArchivedValidTrackPoint(trackId, true);
   }
 
   @Override
   public Location getLastValidTrackPoint() {
-    String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
+    /*
+     * Not constrained by a track id, so no index applies. Walk the ids backward
+     * and stop at the first valid point instead of aggregating over all rows.
+     */
+    String selection = TrackPointsColumns._ID + "=(select " + TrackPointsColumns._ID + " from "
         + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.LATITUDE + "<="
-        + MAX_LATITUDE + ")";
+        + MAX_LATITUDE + " ORDER BY " + TrackPointsColumns._ID + " DESC LIMIT 1)";
     return findTrackPointBy(selection, null);
   }
   
   @Override
   public Cursor getTrackPointCursor(
       long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    Cursor cursor = getTrackPointRowCursor(trackId, startTrackPointId, maxLocations, descending);
+    if (cursor != null && cursor.getCount() == 0) {
+      // The track points of an archived track are in chunks
+      Cursor archivedCursor = getArchivedTrackPointCursor(
+          trackId, startTrackPointId, maxLocations, descending);
+      if (archivedCursor != null) {
+        cursor.close();
+        return archivedCursor;
+      }
+    }
+    return cursor;
+  }
+
+  /**
+   * Gets a cursor over the rows of the track points table. See
+   * {@link #getTrackPointCursor(long, long, int, boolean)}.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param maxLocations maximum number of locations to return. -1 for no limit
+   * @param descending true to sort the result in descending order (latest
+   *          location first)
+   */
+  private Cursor getTrackPointRowCursor(
+      long trackId, long startTrackPointId, int maxLocations, boolean descending) {
     if (trackId < 0) {
       return null;
     }
@@ -943,6 +1383,96 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return getTrackPointCursor(null, selection, selectionArgs, sortOrder);
   }
 
+  @Override
+  public int getTrackPointBatch(
+      long trackId, long startTrackPointId, boolean descending, TrackPointBatch trackPointBatch) {
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(
+          trackId, startTrackPointId, trackPointBatch.getCapacity(), descending);
+      trackPointBatch.fill(cursor);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return trackPointBatch.getSize();
+  }
+
+  @Override
+  public List<Location> getTrackPointsInBounds(long trackId, Bounds bounds) {
+    List<Location> locations = new ArrayList<Location>();
+    if (trackId < 0) {
+      return locations;
+    }
+    for (long[] range : getTrackTileRanges(trackId, bounds)) {
+      long startId = range[0];
+      long stopId = range[1];
+      Cursor cursor = null;
+      try {
+        cursor = getTrackPointCursor(trackId, startId, (int) (stopId - startId + 1), false);
+        if (cursor == null) {
+          continue;
+        }
+        CachedTrackPointsIndexes indexes = new CachedTrackPointsIndexes(cursor);
+        while (cursor.moveToNext()) {
+          if (cursor.getLong(indexes.idIndex) > stopId) {
+            break;
+          }
+          if (bounds.contains(
+              cursor.getInt(indexes.latitudeIndex), cursor.getInt(indexes.longitudeIndex))) {
+            Location location = new MyTracksLocation("");
+            fillTrackPoint(cursor, indexes, location);
+            locations.add(location);
+          }
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+    }
+    return locations;
+  }
+
+  /**
+   * Gets the ranges of track point ids of the runs of a track in the tiles
+   * overlapping a bounding box, in ascending order. Adjacent runs are merged.
+   * 
+   * @param trackId the track id
+   * @param bounds the bounding box
+   * @return the ranges, each the first and the last track point id
+   */
+  private List<long[]> getTrackTileRanges(long trackId, Bounds bounds) {
+    List<long[]> ranges = new ArrayList<long[]>();
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackTilesColumns.CONTENT_URI,
+          new String[] { TrackTilesColumns.STARTID, TrackTilesColumns.STOPID },
+          TrackTilesColumns.TRACKID + "=? AND " + bounds.getTileSelection(),
+          new String[] { Long.toString(trackId) }, TrackTilesColumns.STARTID);
+      if (cursor == null) {
+        return ranges;
+      }
+      long[] range = null;
+      while (cursor.moveToNext()) {
+        long startId = cursor.getLong(0);
+        long stopId = cursor.getLong(1);
+        if (range != null && startId <= range[1] + 1) {
+          range[1] = Math.max(range[1], stopId);
+        } else {
+          range = new long[] { startId, stopId };
+          ranges.add(range);
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return ranges;
+  }
+
   @Override
   public LocationIterator getTrackPointLocationIterator(final long trackId,
       final long startTrackPointId, final boolean descending,
@@ -952,30 +1482,55 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
     return new LocationIterator() {
       private long lastTrackPointId = -1L;
-      private Cursor cursor = getCursor(startTrackPointId);
-      private final CachedTrackPointsIndexes
-          indexes = cursor != null ? new CachedTrackPointsIndexes(cursor)
-              : null;
+      private int lastTrackPointLevel;
+      private TrackPointBatch trackPointBatch;
+      private int index;
+      private boolean closed;
 
-      /**
-       * Gets the track point cursor.
-       * 
-       * @param trackPointId the starting track point id
-       */
-      private Cursor getCursor(long trackPointId) {
-        return getTrackPointCursor(trackId, trackPointId, defaultCursorBatchSize, descending);
-      }
+      // Whether the track points are read from the rows or the chunks, once known
+      private boolean sourceKnown;
+      private boolean archived;
 
       /**
-       * Advances the cursor to the next batch. Returns true if successful.
+       * Fills the batch with the track points after the last track point.
+       * Returns true if the batch has track points.
        */
-      private boolean advanceCursorToNextBatch() {
-        long trackPointId = lastTrackPointId == -1L ? -1L
-            : lastTrackPointId + (descending ? -1 : 1);
-        Log.d(TAG, "Advancing track point id: " + trackPointId);
-        cursor.close();
-        cursor = getCursor(trackPointId);
-        return cursor != null;
+      private boolean fillBatch() {
+        if (closed) {
+          return false;
+        }
+        long trackPointId;
+        if (trackPointBatch == null) {
+          trackPointBatch = new TrackPointBatch(defaultCursorBatchSize);
+          trackPointId = startTrackPointId;
+        } else {
+          if (!trackPointBatch.isFull()) {
+            return false;
+          }
+          trackPointId = lastTrackPointId + (descending ? -1 : 1);
+          Log.d(TAG, "Advancing track point id: " + trackPointId);
+        }
+        index = 0;
+        int capacity = trackPointBatch.getCapacity();
+        Cursor cursor = null;
+        try {
+          if (!sourceKnown) {
+            cursor = getTrackPointCursor(trackId, trackPointId, capacity, descending);
+            sourceKnown = cursor != null && cursor.getCount() > 0;
+            archived = cursor instanceof TrackPointChunkCursor;
+          } else if (archived) {
+            cursor = getArchivedTrackPointCursor(trackId, trackPointId, capacity, descending);
+          } else {
+            // A track read from its rows has no chunks, skip looking them up
+            cursor = getTrackPointRowCursor(trackId, trackPointId, capacity, descending);
+          }
+          trackPointBatch.fill(cursor);
+        } finally {
+          if (cursor != null) {
+            cursor.close();
+          }
+        }
+        return trackPointBatch.getSize() > 0;
       }
 
         @Override
@@ -983,45 +1538,36 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         return lastTrackPointId;
       }
 
+        @Override
+      public int getLocationLevel() {
+        return lastTrackPointLevel;
+      }
+
         @Override
       public boolean hasNext() {
-        if (cursor == null) {
-          return false;
-        }
-        if (cursor.isAfterLast()) {
-          return false;
+        if (trackPointBatch != null && index < trackPointBatch.getSize()) {
+          return true;
         }
-        if (cursor.isLast()) {
-          if (cursor.getCount() != defaultCursorBatchSize) {
-            return false;
-          }
-          return advanceCursorToNextBatch() && !cursor.isAfterLast();
-        }
-        return true;
+        return fillBatch();
       }
 
         @Override
       public Location next() {
-        if (cursor == null) {
+        if (!hasNext()) {
           throw new NoSuchElementException();
         }
-        if (!cursor.moveToNext()) {
-          if (!advanceCursorToNextBatch() || !cursor.moveToNext()) {
-            throw new NoSuchElementException();
-          }
-        }
-        lastTrackPointId = cursor.getLong(indexes.idIndex);
+        lastTrackPointId = trackPointBatch.getId(index);
+        lastTrackPointLevel = trackPointBatch.getLevel(index);
         Location location = locationFactory.createLocation();
-        fillTrackPoint(cursor, indexes, location);
+        trackPointBatch.fillLocation(index, location);
+        index++;
         return location;
       }
 
         @Override
       public void close() {
-        if (cursor != null) {
-          cursor.close();
-          cursor = null;
-        }
+        closed = true;
+        trackPointBatch = null;
       }
 
         @Override
@@ -1031,6 +1577,66 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     };
   }
 
+  /**
+   * Adds the updates raising the levels of track points, one per level.
+   * 
+   * @param operations the operations to add to
+   * @param trackPointIds the track point ids
+   * @param levels the new levels
+   * @param count the number of track points to update
+   */
+  private void addTrackPointLevelUpdates(ArrayList<ContentProviderOperation> operations,
+      long[] trackPointIds, int[] levels, int count) {
+    int maxLevel = 0;
+    for (int i = 0; i < count; i++) {
+      maxLevel = Math.max(maxLevel, levels[i]);
+    }
+    for (int level = 1; level <= maxLevel; level++) {
+      StringBuilder ids = null;
+      for (int i = 0; i < count; i++) {
+        if (levels[i] != level) {
+          continue;
+        }
+        if (ids == null) {
+          ids = new StringBuilder();
+        } else {
+          ids.append(',');
+        }
+        ids.append(trackPointIds[i]);
+      }
+      if (ids == null) {
+        continue;
+      }
+      String where = TrackPointsColumns._ID + " IN (" + ids + ") AND ("
+          + TrackPointsColumns.LEVEL + " IS NULL OR " + TrackPointsColumns.LEVEL + "<?)";
+      operations.add(ContentProviderOperation.newUpdate(TrackPointsColumns.CONTENT_URI)
+          .withValue(TrackPointsColumns.LEVEL, level)
+          .withSelection(where, new String[] { Integer.toString(level) }).build());
+    }
+  }
+
+  @Override
+  public int updateTrackPointLevels(long[] trackPointIds, int[] levels, int count) {
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+    addTrackPointLevelUpdates(operations, trackPointIds, levels, count);
+    if (operations.size() == 0) {
+      return 0;
+    }
+    ContentProviderResult[] results;
+    try {
+      results = contentResolver.applyBatch(AUTHORITY, operations);
+    } catch (RemoteException e) {
+      throw new IllegalStateException("Unable to update track point levels", e);
+    } catch (OperationApplicationException e) {
+      throw new IllegalStateException("Unable to update track point levels", e);
+    }
+    int numberOfUpdates = 0;
+    for (ContentProviderResult result : results) {
+      numberOfUpdates += result.count;
+    }
+    return numberOfUpdates;
+  }
+
   @Override
   public Uri insertTrackPoint(Location location, long trackId) {
     return contentResolver.insert(
@@ -1119,6 +1725,202 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
   }
 
+  /**
+   * Gets a cursor over the track points of an archived track, decoded from its
+   * chunks. The cursor has the columns of the track points table. Returns null
+   * if the track has no chunks in the range.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param maxLocations maximum number of locations to return. -1 for no limit
+   * @param descending true to sort the result in descending order
+   */
+  private Cursor getArchivedTrackPointCursor(
+      long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    if (trackId < 0) {
+      return null;
+    }
+    TrackPointChunkCursor result = null;
+    long trackPointId = startTrackPointId;
+
+    // Only read the chunks needed for maxLocations, a few at a time
+    int maxChunks = maxLocations >= 0 ? maxLocations / TRACK_POINT_CHUNK_SIZE + 2 : -1;
+    while (true) {
+      int numberOfChunks = 0;
+      Cursor cursor = null;
+      try {
+        cursor = getTrackPointChunkCursor(trackId, trackPointId, maxChunks, descending);
+        if (cursor == null) {
+          return result;
+        }
+        int dataIndex = cursor.getColumnIndexOrThrow(TrackPointChunksColumns.DATA);
+        while (cursor.moveToNext()) {
+          numberOfChunks++;
+          TrackPointChunk chunk;
+          try {
+            chunk = TrackPointChunk.decode(cursor.getBlob(dataIndex));
+          } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unable to decode a track point chunk of track " + trackId, e);
+            return result;
+          }
+          if (result == null) {
+            result = new TrackPointChunkCursor(trackId, TRACK_POINT_CHUNK_SIZE);
+          }
+          int size = chunk.size();
+          for (int i = 0; i < size; i++) {
+            int index = descending ? size - 1 - i : i;
+            long id = chunk.getId(index);
+            if (trackPointId >= 0 && (descending ? id > trackPointId : id < trackPointId)) {
+              continue;
+            }
+            result.addRow(chunk, index);
+            if (maxLocations >= 0 && result.getCount() >= maxLocations) {
+              return result;
+            }
+          }
+          trackPointId = descending ? chunk.getId(0) - 1 : chunk.getId(size - 1) + 1;
+        }
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+      if (maxChunks < 0 || numberOfChunks < maxChunks) {
+        return result;
+      }
+    }
+  }
+
+  /**
+   * Gets a cursor over the chunks of an archived track.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the first track point id the chunks must cover.
+   *          -1L to ignore
+   * @param maxChunks maximum number of chunks to return. -1 for no limit
+   * @param descending true to sort the chunks in descending order
+   */
+  private Cursor getTrackPointChunkCursor(
+      long trackId, long startTrackPointId, int maxChunks, boolean descending) {
+    String selection;
+    String[] selectionArgs;
+    if (startTrackPointId >= 0) {
+      String comparison = descending ? TrackPointChunksColumns.STARTID + "<=?"
+          : TrackPointChunksColumns.STOPID + ">=?";
+      selection = TrackPointChunksColumns.TRACKID + "=? AND " + comparison;
+      selectionArgs = new String[] { Long.toString(trackId), Long.toString(startTrackPointId) };
+    } else {
+      selection = TrackPointChunksColumns.TRACKID + "=?";
+      selectionArgs = new String[] { Long.toString(trackId) };
+    }
+    String sortOrder = TrackPointChunksColumns.STARTID;
+    if (descending) {
+      sortOrder += " DESC";
+    }
+    if (maxChunks >= 0) {
+      sortOrder += " LIMIT " + maxChunks;
+    }
+    return contentResolver.query(TrackPointChunksColumns.CONTENT_URI, null, selection,
+        selectionArgs, sortOrder);
+  }
+
+  /**
+   * Gets the first or last track point id of an archived track. Returns -1L if
+   * the track has no chunks.
+   * 
+   * @param trackId the track id
+   * @param last true to get the last track point id
+   */
+  private long getArchivedTrackPointId(long trackId, boolean last) {
+    String column = last ? TrackPointChunksColumns.STOPID : TrackPointChunksColumns.STARTID;
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI, new String[] { column },
+          TrackPointChunksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) },
+          TrackPointChunksColumns.STARTID + (last ? " DESC" : "") + " LIMIT 1");
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Finds the last track point id of an archived track with a given time.
+   * Returns -1L if not found.
+   * 
+   * @param trackId the track id
+   * @param time the time
+   */
+  private long findArchivedTrackPointId(long trackId, long time) {
+    long trackPointId = -1L;
+    while (true) {
+      Cursor cursor = null;
+      try {
+        cursor = getArchivedTrackPointCursor(trackId, trackPointId, defaultCursorBatchSize, true);
+        if (cursor == null) {
+          return -1L;
+        }
+        int idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+        int timeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.TIME);
+        while (cursor.moveToNext()) {
+          trackPointId = cursor.getLong(idIndex);
+          if (cursor.getLong(timeIndex) == time) {
+            return trackPointId;
+          }
+        }
+        if (cursor.getCount() < defaultCursorBatchSize) {
+          return -1L;
+        }
+        trackPointId--;
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the first or last valid track point of an archived track. Returns
+   * null if not found.
+   * 
+   * @param trackId the track id
+   * @param last true to find the last valid track point
+   */
+  private Location findArchivedValidTrackPoint(long trackId, boolean last) {
+    long trackPointId = -1L;
+    while (true) {
+      Cursor cursor = null;
+      try {
+        cursor = getArchivedTrackPointCursor(trackId, trackPointId, defaultCursorBatchSize, last);
+        if (cursor == null) {
+          return null;
+        }
+        int idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+        int latitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LATITUDE);
+        while (cursor.moveToNext()) {
+          if (cursor.getInt(latitudeIndex) <= MAX_LATITUDE) {
+            return createTrackPoint(cursor);
+          }
+          trackPointId = cursor.getLong(idIndex);
+        }
+        if (cursor.getCount() < defaultCursorBatchSize) {
+          return null;
+        }
+        trackPointId += last ? -1 : 1;
+      } finally {
+        if (cursor != null) {
+          cursor.close();
+        }
+      }
+    }
+  }
+
   private Location findTrackPointBy(String selection, String[] selectionArgs) {
     Cursor cursor = null;
     try {
@@ -1175,6 +1977,45 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
   }
 
+  /**
+   * An item of a location query with its distance to the location.
+   * 
+   * @param <T> the item type
+   */
+  private static class NearbyResult<T> {
+    private static final Comparator<NearbyResult<?>> COMPARATOR =
+        new Comparator<NearbyResult<?>>() {
+          @Override
+          public int compare(NearbyResult<?> result1, NearbyResult<?> result2) {
+            return Float.compare(result1.distance, result2.distance);
+          }
+        };
+
+    private final T item;
+    private final float distance;
+
+    public NearbyResult(T item, float distance) {
+      this.item = item;
+      this.distance = distance;
+    }
+
+    /**
+     * Sorts results by distance and returns the nearest items.
+     * 
+     * @param results the results
+     * @param maxItems the maximum number of items to return
+     */
+    public static <T> List<T> sort(List<NearbyResult<T>> results, int maxItems) {
+      Collections.sort(results, COMPARATOR);
+      int size = Math.min(maxItems, results.size());
+      List<T> items = new ArrayList<T>(size);
+      for (int i = 0; i < size; i++) {
+        items.add(results.get(i).item);
+      }
+      return items;
+    }
+  }
+
   /**
    * Sets the default cursor batch size. For testing purpose.
    * 
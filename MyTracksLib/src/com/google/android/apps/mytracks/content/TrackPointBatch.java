@@ -0,0 +1,377 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import android.database.Cursor;
+import android.location.Location;
+import android.util.Log;
+
+/**
+ * A batch of track points, stored in primitive arrays which are reused from one
+ * batch to the next. Filled by
+ * {@link MyTracksProviderUtils#getTrackPointBatch(long, long, boolean, TrackPointBatch)}.
+ * <p>
+ * Reading a track with a batch allocates no objects per track point, except
+ * for the bytes of the sensor data. The sensor data sets are only parsed when
+ * requested with {@link #getSensorDataSet(int)}.
+ * <p>
+ * The arrays returned by the array getters are valid up to {@link #getSize()}
+ * and must not be modified.
+ */
+public class TrackPointBatch {
+
+  private static final String TAG = TrackPointBatch.class.getSimpleName();
+
+  private static final byte HAS_ALTITUDE = 1;
+  private static final byte HAS_ACCURACY = 1 << 1;
+  private static final byte HAS_SPEED = 1 << 2;
+  private static final byte HAS_BEARING = 1 << 3;
+
+  private final long[] ids;
+  private final long[] times;
+  private final int[] latitudes;
+  private final int[] longitudes;
+  private final float[] altitudes;
+  private final float[] accuracies;
+  private final float[] speeds;
+  private final float[] bearings;
+  private final byte[] flags;
+  private final byte[] levels;
+  private final byte[][] sensors;
+  private final SensorDataSet[] sensorDataSets;
+  private int size;
+
+  /**
+   * Creates a batch.
+   *
+   * @param capacity the maximum number of track points in the batch
+   */
+  public TrackPointBatch(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    ids = new long[capacity];
+    times = new long[capacity];
+    latitudes = new int[capacity];
+    longitudes = new int[capacity];
+    altitudes = new float[capacity];
+    accuracies = new float[capacity];
+    speeds = new float[capacity];
+    bearings = new float[capacity];
+    flags = new byte[capacity];
+    levels = new byte[capacity];
+    sensors = new byte[capacity][];
+    sensorDataSets = new SensorDataSet[capacity];
+  }
+
+  /**
+   * Gets the maximum number of track points in the batch.
+   */
+  public int getCapacity() {
+    return ids.length;
+  }
+
+  /**
+   * Gets the number of track points in the batch.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns true if the batch is full. A batch which is not full is the last
+   * batch of a track.
+   */
+  public boolean isFull() {
+    return size == ids.length;
+  }
+
+  /**
+   * Gets the track point ids.
+   */
+  public long[] getIds() {
+    return ids;
+  }
+
+  /**
+   * Gets the times.
+   */
+  public long[] getTimes() {
+    return times;
+  }
+
+  /**
+   * Gets the latitudes, in microdegrees.
+   */
+  public int[] getLatitudesE6() {
+    return latitudes;
+  }
+
+  /**
+   * Gets the longitudes, in microdegrees.
+   */
+  public int[] getLongitudesE6() {
+    return longitudes;
+  }
+
+  /**
+   * Gets the altitudes. Only valid where {@link #hasAltitude(int)}.
+   */
+  public float[] getAltitudes() {
+    return altitudes;
+  }
+
+  /**
+   * Gets the accuracies. Only valid where {@link #hasAccuracy(int)}.
+   */
+  public float[] getAccuracies() {
+    return accuracies;
+  }
+
+  /**
+   * Gets the speeds. Only valid where {@link #hasSpeed(int)}.
+   */
+  public float[] getSpeeds() {
+    return speeds;
+  }
+
+  /**
+   * Gets the bearings. Only valid where {@link #hasBearing(int)}.
+   */
+  public float[] getBearings() {
+    return bearings;
+  }
+
+  /**
+   * Gets the levels of detail. See {@link TrackPointsColumns#LEVEL}.
+   */
+  public byte[] getLevels() {
+    return levels;
+  }
+
+  /**
+   * Gets a track point id.
+   *
+   * @param index the index in the batch
+   */
+  public long getId(int index) {
+    checkIndex(index);
+    return ids[index];
+  }
+
+  /**
+   * Gets the latitude of a track point.
+   *
+   * @param index the index in the batch
+   */
+  public double getLatitude(int index) {
+    checkIndex(index);
+    return latitudes[index] / 1E6;
+  }
+
+  /**
+   * Gets the longitude of a track point.
+   *
+   * @param index the index in the batch
+   */
+  public double getLongitude(int index) {
+    checkIndex(index);
+    return longitudes[index] / 1E6;
+  }
+
+  /**
+   * Gets the level of detail of a track point.
+   *
+   * @param index the index in the batch
+   */
+  public int getLevel(int index) {
+    checkIndex(index);
+    return levels[index];
+  }
+
+  /**
+   * Returns true if a track point has an altitude.
+   *
+   * @param index the index in the batch
+   */
+  public boolean hasAltitude(int index) {
+    checkIndex(index);
+    return (flags[index] & HAS_ALTITUDE) != 0;
+  }
+
+  /**
+   * Returns true if a track point has an accuracy.
+   *
+   * @param index the index in the batch
+   */
+  public boolean hasAccuracy(int index) {
+    checkIndex(index);
+    return (flags[index] & HAS_ACCURACY) != 0;
+  }
+
+  /**
+   * Returns true if a track point has a speed.
+   *
+   * @param index the index in the batch
+   */
+  public boolean hasSpeed(int index) {
+    checkIndex(index);
+    return (flags[index] & HAS_SPEED) != 0;
+  }
+
+  /**
+   * Returns true if a track point has a bearing.
+   *
+   * @param index the index in the batch
+   */
+  public boolean hasBearing(int index) {
+    checkIndex(index);
+    return (flags[index] & HAS_BEARING) != 0;
+  }
+
+  /**
+   * Returns true if a track point has sensor data.
+   *
+   * @param index the index in the batch
+   */
+  public boolean hasSensorDataSet(int index) {
+    checkIndex(index);
+    return sensors[index] != null;
+  }
+
+  /**
+   * Gets the sensor data set of a track point, parsing it on the first call.
+   * Returns null if the track point has no valid sensor data.
+   *
+   * @param index the index in the batch
+   */
+  public SensorDataSet getSensorDataSet(int index) {
+    checkIndex(index);
+    if (sensorDataSets[index] == null && sensors[index] != null) {
+      try {
+        sensorDataSets[index] = SensorDataSet.parseFrom(sensors[index]);
+      } catch (InvalidProtocolBufferException e) {
+        Log.w(TAG, "Failed to parse sensor data.", e);
+        sensors[index] = null;
+      }
+    }
+    return sensorDataSets[index];
+  }
+
+  /**
+   * Fills a location with a track point. The sensor data set is only parsed if
+   * the location is a {@link MyTracksLocation}.
+   *
+   * @param index the index in the batch
+   * @param location the location
+   */
+  public void fillLocation(int index, Location location) {
+    checkIndex(index);
+    location.reset();
+    location.setLatitude(latitudes[index] / 1E6);
+    location.setLongitude(longitudes[index] / 1E6);
+    location.setTime(times[index]);
+    byte flag = flags[index];
+    if ((flag & HAS_ALTITUDE) != 0) {
+      location.setAltitude(altitudes[index]);
+    }
+    if ((flag & HAS_ACCURACY) != 0) {
+      location.setAccuracy(accuracies[index]);
+    }
+    if ((flag & HAS_SPEED) != 0) {
+      location.setSpeed(speeds[index]);
+    }
+    if ((flag & HAS_BEARING) != 0) {
+      location.setBearing(bearings[index]);
+    }
+    if (location instanceof MyTracksLocation && sensors[index] != null) {
+      SensorDataSet sensorDataSet = getSensorDataSet(index);
+      if (sensorDataSet != null) {
+        ((MyTracksLocation) location).setSensorDataSet(sensorDataSet);
+      }
+    }
+  }
+
+  /**
+   * Fills the batch with the rows of a track points cursor, up to the capacity
+   * of the batch.
+   *
+   * @param cursor the cursor, or null for an empty batch
+   */
+  void fill(Cursor cursor) {
+    for (int i = 0; i < size; i++) {
+      sensors[i] = null;
+      sensorDataSets[i] = null;
+    }
+    size = 0;
+    if (cursor == null || !cursor.moveToFirst()) {
+      return;
+    }
+    int idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+    int timeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.TIME);
+    int latitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LATITUDE);
+    int longitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LONGITUDE);
+    int altitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ALTITUDE);
+    int accuracyIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ACCURACY);
+    int speedIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SPEED);
+    int bearingIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.BEARING);
+    int sensorIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SENSOR);
+    int levelIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LEVEL);
+    do {
+      int i = size;
+      ids[i] = cursor.getLong(idIndex);
+      times[i] = cursor.getLong(timeIndex);
+      latitudes[i] = cursor.getInt(latitudeIndex);
+      longitudes[i] = cursor.getInt(longitudeIndex);
+      byte flag = 0;
+      if (!cursor.isNull(altitudeIndex)) {
+        flag |= HAS_ALTITUDE;
+        altitudes[i] = cursor.getFloat(altitudeIndex);
+      }
+      if (!cursor.isNull(accuracyIndex)) {
+        flag |= HAS_ACCURACY;
+        accuracies[i] = cursor.getFloat(accuracyIndex);
+      }
+      if (!cursor.isNull(speedIndex)) {
+        flag |= HAS_SPEED;
+        speeds[i] = cursor.getFloat(speedIndex);
+      }
+      if (!cursor.isNull(bearingIndex)) {
+        flag |= HAS_BEARING;
+        bearings[i] = cursor.getFloat(bearingIndex);
+      }
+      flags[i] = flag;
+      levels[i] = (byte) cursor.getInt(levelIndex);
+      sensors[i] = cursor.isNull(sensorIndex) ? null : cursor.getBlob(sensorIndex);
+      size++;
+    } while (size < ids.length && cursor.moveToNext());
+  }
+
+  /**
+   * Checks an index is in the batch.
+   *
+   * @param index the index
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+    }
+  }
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.database.Cursor;
+
+/**
+ * A chunk of consecutive track points of an archived track, stored column by
+ * column. The encoded form is:
+ * <ul>
+ * <li>the format version and the number of points, as varints</li>
+ * <li>the ids, times, latitudes and longitudes, as zigzag varint deltas from
+ * the previous point</li>
+ * <li>one byte of flags per point, telling which optional values are present</li>
+ * <li>the present altitudes, accuracies, speeds and bearings, each column as
+ * varints of the float bits XORed with the previous present value. Slowly
+ * changing values share their sign, exponent and high mantissa bits, so the
+ * XOR is small.</li>
+ * <li>the present sensor data sets, as a varint length and the protobuf bytes</li>
+ * <li>one byte of level of detail per point. Not in version 1, where all the
+ * levels are 0.</li>
+ * </ul>
+ * Decoding gives back exactly the values of the track points table.
+ */
+class TrackPointChunk {
+
+  private static final int VERSION = 2;
+
+  private static final byte HAS_ALTITUDE = 0x1;
+  private static final byte HAS_ACCURACY = 0x2;
+  private static final byte HAS_SPEED = 0x4;
+  private static final byte HAS_BEARING = 0x8;
+  private static final byte HAS_SENSOR = 0x10;
+
+  // Indexes of the columns in TrackPointsColumns.COLUMNS
+  static final int ID_COLUMN = 0;
+  static final int TRACKID_COLUMN = 1;
+  static final int LONGITUDE_COLUMN = 2;
+  static final int LATITUDE_COLUMN = 3;
+  static final int TIME_COLUMN = 4;
+  static final int ALTITUDE_COLUMN = 5;
+  static final int ACCURACY_COLUMN = 6;
+  static final int SPEED_COLUMN = 7;
+  static final int BEARING_COLUMN = 8;
+  static final int SENSOR_COLUMN = 9;
+  static final int LEVEL_COLUMN = 10;
+
+  private final long[] ids;
+  private final long[] times;
+  private final int[] latitudes;
+  private final int[] longitudes;
+  private final byte[] flags;
+  private final float[] altitudes;
+  private final float[] accuracies;
+  private final float[] speeds;
+  private final float[] bearings;
+  private final byte[][] sensors;
+  private final byte[] levels;
+  private int size;
+
+  // Column indexes of the last cursor added from
+  private Cursor indexesCursor;
+  private int idIndex;
+  private int timeIndex;
+  private int latitudeIndex;
+  private int longitudeIndex;
+  private int altitudeIndex;
+  private int accuracyIndex;
+  private int speedIndex;
+  private int bearingIndex;
+  private int sensorIndex;
+  private int levelIndex;
+
+  /**
+   * Creates an empty chunk.
+   *
+   * @param capacity the maximum number of points
+   */
+  public TrackPointChunk(int capacity) {
+    ids = new long[capacity];
+    times = new long[capacity];
+    latitudes = new int[capacity];
+    longitudes = new int[capacity];
+    flags = new byte[capacity];
+    altitudes = new float[capacity];
+    accuracies = new float[capacity];
+    speeds = new float[capacity];
+    bearings = new float[capacity];
+    sensors = new byte[capacity][];
+    levels = new byte[capacity];
+  }
+
+  /**
+   * Returns the number of points.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true if the chunk is full.
+   */
+  public boolean isFull() {
+    return size == ids.length;
+  }
+
+  /**
+   * Gets the id of a point.
+   *
+   * @param index the point index
+   */
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  /**
+   * Clears the chunk.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      sensors[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Adds the track point at the current position of a track points cursor.
+   *
+   * @param cursor the cursor
+   */
+  public void add(Cursor cursor) {
+    if (cursor != indexesCursor) {
+      indexesCursor = cursor;
+      idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+      timeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.TIME);
+      latitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LATITUDE);
+      longitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LONGITUDE);
+      altitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ALTITUDE);
+      accuracyIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ACCURACY);
+      speedIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SPEED);
+      bearingIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.BEARING);
+      sensorIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SENSOR);
+      levelIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LEVEL);
+    }
+    int i = size;
+    ids[i] = cursor.getLong(idIndex);
+    times[i] = cursor.getLong(timeIndex);
+    latitudes[i] = cursor.getInt(latitudeIndex);
+    longitudes[i] = cursor.getInt(longitudeIndex);
+    byte flag = 0;
+    if (!cursor.isNull(altitudeIndex)) {
+      flag |= HAS_ALTITUDE;
+      altitudes[i] = cursor.getFloat(altitudeIndex);
+    }
+    if (!cursor.isNull(accuracyIndex)) {
+      flag |= HAS_ACCURACY;
+      accuracies[i] = cursor.getFloat(accuracyIndex);
+    }
+    if (!cursor.isNull(speedIndex)) {
+      flag |= HAS_SPEED;
+      speeds[i] = cursor.getFloat(speedIndex);
+    }
+    if (!cursor.isNull(bearingIndex)) {
+      flag |= HAS_BEARING;
+      bearings[i] = cursor.getFloat(bearingIndex);
+    }
+    if (!cursor.isNull(sensorIndex)) {
+      flag |= HAS_SENSOR;
+      sensors[i] = cursor.getBlob(sensorIndex);
+    }
+    flags[i] = flag;
+    levels[i] = (byte) cursor.getInt(levelIndex);
+    size++;
+  }
+
+  /**
+   * Returns true if a value of a point is null. The columns are the ones of
+   * {@link TrackPointsColumns#COLUMNS}, except the track id.
+   *
+   * @param column the column index
+   * @param index the point index
+   */
+  public boolean isNull(int column, int index) {
+    switch (column) {
+      case ALTITUDE_COLUMN:
+        return (flags[index] & HAS_ALTITUDE) == 0;
+      case ACCURACY_COLUMN:
+        return (flags[index] & HAS_ACCURACY) == 0;
+      case SPEED_COLUMN:
+        return (flags[index] & HAS_SPEED) == 0;
+      case BEARING_COLUMN:
+        return (flags[index] & HAS_BEARING) == 0;
+      case SENSOR_COLUMN:
+        return (flags[index] & HAS_SENSOR) == 0;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Gets a value of a point as a long.
+   *
+   * @param column the column index
+   * @param index the point index
+   */
+  public long getLong(int column, int index) {
+    switch (column) {
+      case ID_COLUMN:
+        return ids[index];
+      case LONGITUDE_COLUMN:
+        return longitudes[index];
+      case LATITUDE_COLUMN:
+        return latitudes[index];
+      case TIME_COLUMN:
+        return times[index];
+      case LEVEL_COLUMN:
+        return levels[index];
+      default:
+        return (long) getFloat(column, index);
+    }
+  }
+
+  /**
+   * Gets a value of a point as a float. Returns 0 if null.
+   *
+   * @param column the column index
+   * @param index the point index
+   */
+  public float getFloat(int column, int index) {
+    switch (column) {
+      case ID_COLUMN:
+      case LONGITUDE_COLUMN:
+      case LATITUDE_COLUMN:
+      case TIME_COLUMN:
+      case LEVEL_COLUMN:
+        return getLong(column, index);
+      case ALTITUDE_COLUMN:
+        return isNull(column, index) ? 0.0f : altitudes[index];
+      case ACCURACY_COLUMN:
+        return isNull(column, index) ? 0.0f : accuracies[index];
+      case SPEED_COLUMN:
+        return isNull(column, index) ? 0.0f : speeds[index];
+      case BEARING_COLUMN:
+        return isNull(column, index) ? 0.0f : bearings[index];
+      default:
+        throw new IllegalArgumentException("Not a number column " + column);
+    }
+  }
+
+  /**
+   * Gets the sensor data set bytes of a point, or null.
+   *
+   * @param index the point index
+   */
+  public byte[] getSensor(int index) {
+    return sensors[index];
+  }
+
+  /**
+   * Encodes the chunk.
+   */
+  public byte[] encode() {
+    Writer writer = new Writer(size * 12 + 16);
+    writer.writeVarint(VERSION);
+    writer.writeVarint(size);
+    writeDeltas(writer, ids);
+    writeDeltas(writer, times);
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      writer.writeSignedVarint(latitudes[i] - previous);
+      previous = latitudes[i];
+    }
+    previous = 0;
+    for (int i = 0; i < size; i++) {
+      writer.writeSignedVarint(longitudes[i] - previous);
+      previous = longitudes[i];
+    }
+    for (int i = 0; i < size; i++) {
+      writer.writeByte(flags[i]);
+    }
+    writeFloats(writer, altitudes, HAS_ALTITUDE);
+    writeFloats(writer, accuracies, HAS_ACCURACY);
+    writeFloats(writer, speeds, HAS_SPEED);
+    writeFloats(writer, bearings, HAS_BEARING);
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & HAS_SENSOR) != 0) {
+        writer.writeVarint(sensors[i].length);
+        writer.writeBytes(sensors[i]);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      writer.writeByte(levels[i]);
+    }
+    return writer.toByteArray();
+  }
+
+  /**
+   * Decodes a chunk.
+   *
+   * @param data the encoded chunk
+   * @throws IllegalArgumentException if the data is not a valid chunk
+   */
+  public static TrackPointChunk decode(byte[] data) {
+    Reader reader = new Reader(data);
+    int version = (int) reader.readVarint();
+    if (version < 1 || version > VERSION) {
+      throw new IllegalArgumentException("Unknown track point chunk version " + version);
+    }
+    int size = (int) reader.readVarint();
+    TrackPointChunk chunk = new TrackPointChunk(size);
+    chunk.size = size;
+    readDeltas(reader, chunk.ids, size);
+    readDeltas(reader, chunk.times, size);
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      previous += reader.readSignedVarint();
+      chunk.latitudes[i] = (int) previous;
+    }
+    previous = 0;
+    for (int i = 0; i < size; i++) {
+      previous += reader.readSignedVarint();
+      chunk.longitudes[i] = (int) previous;
+    }
+    for (int i = 0; i < size; i++) {
+      chunk.flags[i] = reader.readByte();
+    }
+    readFloats(reader, chunk.flags, chunk.altitudes, size, HAS_ALTITUDE);
+    readFloats(reader, chunk.flags, chunk.accuracies, size, HAS_ACCURACY);
+    readFloats(reader, chunk.flags, chunk.speeds, size, HAS_SPEED);
+    readFloats(reader, chunk.flags, chunk.bearings, size, HAS_BEARING);
+    for (int i = 0; i < size; i++) {
+      if ((chunk.flags[i] & HAS_SENSOR) != 0) {
+        chunk.sensors[i] = reader.readBytes((int) reader.readVarint());
+      }
+    }
+    if (version >= 2) {
+      for (int i = 0; i < size; i++) {
+        chunk.levels[i] = reader.readByte();
+      }
+    }
+    return chunk;
+  }
+
+  /**
+   * Writes a long column as deltas from the previous value.
+   *
+   * @param writer the writer
+   * @param values the values
+   */
+  private void writeDeltas(Writer writer, long[] values) {
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      writer.writeSignedVarint(values[i] - previous);
+      previous = values[i];
+    }
+  }
+
+  /**
+   * Reads a long column written by {@link #writeDeltas(Writer, long[])}.
+   *
+   * @param reader the reader
+   * @param values the values
+   * @param size the number of values
+   */
+  private static void readDeltas(Reader reader, long[] values, int size) {
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      previous += reader.readSignedVarint();
+      values[i] = previous;
+    }
+  }
+
+  /**
+   * Writes the present values of a float column, XORed with the previous
+   * present value.
+   *
+   * @param writer the writer
+   * @param values the values
+   * @param flag the flag telling the value is present
+   */
+  private void writeFloats(Writer writer, float[] values, byte flag) {
+    int previous = 0;
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & flag) != 0) {
+        int bits = Float.floatToRawIntBits(values[i]);
+        writer.writeVarint((bits ^ previous) & 0xffffffffL);
+        previous = bits;
+      }
+    }
+  }
+
+  /**
+   * Reads a float column written by {@link #writeFloats(Writer, float[],
+   * byte)}.
+   *
+   * @param reader the reader
+   * @param flags the point flags
+   * @param values the values
+   * @param size the number of points
+   * @param flag the flag telling the value is present
+   */
+  private static void readFloats(
+      Reader reader, byte[] flags, float[] values, int size, byte flag) {
+    int previous = 0;
+    for (int i = 0; i < size; i++) {
+      if ((flags[i] & flag) != 0) {
+        previous ^= (int) reader.readVarint();
+        values[i] = Float.intBitsToFloat(previous);
+      }
+    }
+  }
+
+  /**
+   * A growable byte buffer writing varints.
+   */
+  private static class Writer {
+    private byte[] buffer;
+    private int position;
+
+    public Writer(int capacity) {
+      buffer = new byte[capacity];
+    }
+
+    public void writeByte(byte value) {
+      ensureCapacity(1);
+      buffer[position++] = value;
+    }
+
+    public void writeBytes(byte[] value) {
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, buffer, position, value.length);
+      position += value.length;
+    }
+
+    /**
+     * Writes an unsigned varint, 7 bits per byte, low bits first.
+     */
+    public void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes a signed varint, zigzag encoded so that small negative values are
+     * short too.
+     */
+    public void writeSignedVarint(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public byte[] toByteArray() {
+      byte[] result = new byte[position];
+      System.arraycopy(buffer, 0, result, 0, position);
+      return result;
+    }
+
+    private void ensureCapacity(int length) {
+      if (position + length > buffer.length) {
+        byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + length)];
+        System.arraycopy(buffer, 0, newBuffer, 0, position);
+        buffer = newBuffer;
+      }
+    }
+  }
+
+  /**
+   * A reader of the bytes written by a {@link Writer}.
+   */
+  private static class Reader {
+    private final byte[] buffer;
+    private int position;
+
+    public Reader(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    public byte readByte() {
+      checkAvailable(1);
+      return buffer[position++];
+    }
+
+    public byte[] readBytes(int length) {
+      checkAvailable(length);
+      byte[] result = new byte[length];
+      System.arraycopy(buffer, position, result, 0, length);
+      position += length;
+      return result;
+    }
+
+    public long readVarint() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = readByte();
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public long readSignedVarint() {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void checkAvailable(int length) {
+      if (length < 0 || position + length > buffer.length) {
+        throw new IllegalArgumentException("Truncated track point chunk");
+      }
+    }
+  }
+}
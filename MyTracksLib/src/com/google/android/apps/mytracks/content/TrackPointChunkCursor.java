@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.database.AbstractCursor;
+
+/**
+ * A cursor over the decoded {@link TrackPointChunk}s of an archived track,
+ * with the columns of the track points table. Each row references a point of a
+ * chunk, so the values are not copied or boxed.
+ */
+class TrackPointChunkCursor extends AbstractCursor {
+
+  private final long trackId;
+  private TrackPointChunk[] chunks;
+  private int[] indexes;
+  private int count;
+
+  /**
+   * Creates an empty cursor.
+   *
+   * @param trackId the track id
+   * @param capacity the initial number of rows
+   */
+  public TrackPointChunkCursor(long trackId, int capacity) {
+    this.trackId = trackId;
+    chunks = new TrackPointChunk[capacity];
+    indexes = new int[capacity];
+  }
+
+  /**
+   * Adds a row.
+   *
+   * @param chunk the chunk
+   * @param index the point index in the chunk
+   */
+  public void addRow(TrackPointChunk chunk, int index) {
+    if (count == chunks.length) {
+      int capacity = Math.max(16, count * 2);
+      TrackPointChunk[] newChunks = new TrackPointChunk[capacity];
+      System.arraycopy(chunks, 0, newChunks, 0, count);
+      chunks = newChunks;
+      int[] newIndexes = new int[capacity];
+      System.arraycopy(indexes, 0, newIndexes, 0, count);
+      indexes = newIndexes;
+    }
+    chunks[count] = chunk;
+    indexes[count] = index;
+    count++;
+  }
+
+  @Override
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+  public String[] getColumnNames() {
+    return TrackPointsColumns.COLUMNS;
+  }
+
+  @Override
+  public String getString(int column) {
+    if (isNull(column)) {
+      return null;
+    }
+    if (column == TrackPointChunk.SENSOR_COLUMN) {
+      return new String(getBlob(column));
+    }
+    if (column >= TrackPointChunk.ALTITUDE_COLUMN && column <= TrackPointChunk.BEARING_COLUMN) {
+      return Float.toString(getFloat(column));
+    }
+    return Long.toString(getLong(column));
+  }
+
+  @Override
+  public short getShort(int column) {
+    return (short) getLong(column);
+  }
+
+  @Override
+  public int getInt(int column) {
+    return (int) getLong(column);
+  }
+
+  @Override
+  public long getLong(int column) {
+    if (column == TrackPointChunk.TRACKID_COLUMN) {
+      return trackId;
+    }
+    checkRow();
+    return chunks[mPos].getLong(column, indexes[mPos]);
+  }
+
+  @Override
+  public float getFloat(int column) {
+    if (column == TrackPointChunk.TRACKID_COLUMN) {
+      return trackId;
+    }
+    checkRow();
+    return chunks[mPos].getFloat(column, indexes[mPos]);
+  }
+
+  @Override
+  public double getDouble(int column) {
+    return getFloat(column);
+  }
+
+  @Override
+  public byte[] getBlob(int column) {
+    if (column != TrackPointChunk.SENSOR_COLUMN) {
+      throw new IllegalArgumentException("Not a blob column " + column);
+    }
+    checkRow();
+    return chunks[mPos].getSensor(indexes[mPos]);
+  }
+
+  @Override
+  public boolean isNull(int column) {
+    if (column == TrackPointChunk.TRACKID_COLUMN) {
+      return false;
+    }
+    checkRow();
+    return chunks[mPos].isNull(column, indexes[mPos]);
+  }
+
+  /**
+   * Checks the cursor is on a row.
+   */
+  private void checkRow() {
+    if (mPos < 0 || mPos >= count) {
+      throw new IllegalStateException("Cursor not on a row: " + mPos);
+    }
+  }
+}
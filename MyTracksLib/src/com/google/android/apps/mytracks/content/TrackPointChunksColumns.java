@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track point chunks table. An archived track keeps its
+ * track points in chunks, each encoded by {@link TrackPointChunk}, instead of
+ * one row per track point.
+ */
+public interface TrackPointChunksColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "trackpointchunks";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/trackpointchunks");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackpointchunk";
+  public static final String CONTENT_ITEMTYPE =
+      "vnd.android.cursor.item/vnd.google.trackpointchunk";
+  public static final String DEFAULT_SORT_ORDER = "_id";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String STARTID = "startid"; // first track point id
+  public static final String STOPID = "stopid"; // last track point id
+  public static final String NUMPOINTS = "numpoints"; // number of track points
+  public static final String DATA = "data"; // encoded track points
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + STARTID + " INTEGER, "
+      + STOPID + " INTEGER, "
+      + NUMPOINTS + " INTEGER, "
+      + DATA + " BLOB"
+      + ");";
+
+  // Index for range lookups of a track's chunks by track point id
+  public static final String TRACKID_STARTID_INDEX = "trackpointchunks_trackid_startid_index";
+  public static final String CREATE_TRACKID_STARTID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_STARTID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + STARTID + ");";
+}
@@ -48,6 +48,12 @@ public interface TrackPointsColumns extends BaseColumns {
   public static final String SPEED = "speed"; // speed
   public static final String BEARING = "bearing"; // bearing
   public static final String SENSOR = "sensor"; // sensor
+  /*
+   * Level of detail. A track point of level n is kept in the coarser versions of
+   * the track up to level n, each level about 4 times coarser than the previous
+   * one. Null or 0 for the points only in the full track.
+   */
+  public static final String LEVEL = "level";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
       + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -59,9 +65,20 @@ public interface TrackPointsColumns extends BaseColumns {
       + ACCURACY + " FLOAT, "
       + SPEED + " FLOAT, "
       + BEARING + " FLOAT, "
-      + SENSOR + " BLOB" 
+      + SENSOR + " BLOB, "
+      + LEVEL + " INTEGER"
       + ");";
 
+  // Index for min/max and range lookups of a track's points by id
+  public static final String TRACKID_ID_INDEX = "trackpoints_trackid_id_index";
+  public static final String CREATE_TRACKID_ID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_ID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + _ID + ");";
+
+  // Index for lookups of a track's points by time
+  public static final String TRACKID_TIME_INDEX = "trackpoints_trackid_time_index";
+  public static final String CREATE_TRACKID_TIME_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_TIME_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + TIME + ");";
+
   public static final String[] COLUMNS = {
       _ID,
       TRACKID,
@@ -72,7 +89,8 @@ public interface TrackPointsColumns extends BaseColumns {
       ACCURACY,
       SPEED,
       BEARING,
-      SENSOR
+      SENSOR,
+      LEVEL
    };
 
    public static final byte[] COLUMN_TYPES = {
@@ -85,6 +103,7 @@ public interface TrackPointsColumns extends BaseColumns {
        FLOAT_TYPE_ID, // accuracy
        FLOAT_TYPE_ID, // speed
        FLOAT_TYPE_ID, // bearing
-       BLOB_TYPE_ID // sensor
+       BLOB_TYPE_ID, // sensor
+       INT_TYPE_ID // level
    };
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+/**
+ * Utilities for the grid of tiles of the {@link TrackTilesColumns} spatial
+ * index. The grid divides the longitudes and the latitudes in 2^{@link #ZOOM}
+ * equal ranges. Latitudes and longitudes are in microdegrees, as in the track
+ * points table.
+ */
+public class TrackTiles {
+
+  private TrackTiles() {}
+
+  /**
+   * The zoom level of the grid. A tile is about 2.4 km high, and 2.4 km wide at
+   * the equator.
+   */
+  public static final int ZOOM = 14;
+
+  /**
+   * The max valid latitude. Track points with a greater latitude mark a pause
+   * and are not in the index.
+   */
+  public static final int MAX_LATITUDE = 90000000;
+
+  private static final int MAX_LONGITUDE = 180000000;
+  private static final int NUMBER_OF_TILES = 1 << ZOOM;
+
+  // The length of a degree of latitude, from the mean earth radius
+  private static final double METERS_PER_DEGREE = 111195.0;
+
+  /**
+   * Gets the tile column of a longitude.
+   *
+   * @param longitude the longitude in microdegrees
+   */
+  public static int getTileX(int longitude) {
+    return getTile((long) longitude + MAX_LONGITUDE, 2L * MAX_LONGITUDE);
+  }
+
+  /**
+   * Gets the tile row of a latitude.
+   *
+   * @param latitude the latitude in microdegrees
+   */
+  public static int getTileY(int latitude) {
+    return getTile((long) latitude + MAX_LATITUDE, 2L * MAX_LATITUDE);
+  }
+
+  /**
+   * Returns true if a track point has a valid location.
+   *
+   * @param latitude the latitude in microdegrees
+   * @param longitude the longitude in microdegrees
+   */
+  public static boolean isValid(int latitude, int longitude) {
+    return Math.abs(latitude) <= MAX_LATITUDE && Math.abs(longitude) <= MAX_LONGITUDE;
+  }
+
+  /**
+   * Gets the tile of a value in a range.
+   *
+   * @param value the value, from 0 to range
+   * @param range the range
+   */
+  private static int getTile(long value, long range) {
+    int tile = (int) (value * NUMBER_OF_TILES / range);
+    return Math.max(0, Math.min(NUMBER_OF_TILES - 1, tile));
+  }
+
+  /**
+   * A bounding box. If the min longitude is greater than the max longitude,
+   * the box crosses the 180th meridian.
+   */
+  public static class Bounds {
+    public final int minLatitude;
+    public final int minLongitude;
+    public final int maxLatitude;
+    public final int maxLongitude;
+
+    /**
+     * Constructor.
+     *
+     * @param minLatitude the min latitude in microdegrees
+     * @param minLongitude the min longitude in microdegrees
+     * @param maxLatitude the max latitude in microdegrees
+     * @param maxLongitude the max longitude in microdegrees
+     */
+    public Bounds(int minLatitude, int minLongitude, int maxLatitude, int maxLongitude) {
+      this.minLatitude = minLatitude;
+      this.minLongitude = minLongitude;
+      this.maxLatitude = maxLatitude;
+      this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Creates the bounding box of a circle.
+     *
+     * @param latitude the latitude of the center in degrees
+     * @param longitude the longitude of the center in degrees
+     * @param radius the radius in meters
+     */
+    public static Bounds around(double latitude, double longitude, double radius) {
+      double latitudeDelta = radius / METERS_PER_DEGREE;
+      double minLatitude = Math.max(-90.0, latitude - latitudeDelta);
+      double maxLatitude = Math.min(90.0, latitude + latitudeDelta);
+
+      // A degree of longitude shrinks with the cosine of the latitude
+      double maxAbsLatitude = Math.max(Math.abs(minLatitude), Math.abs(maxLatitude));
+      double cos = Math.cos(Math.toRadians(maxAbsLatitude));
+      double longitudeDelta = cos > 0.0 ? latitudeDelta / cos : Double.POSITIVE_INFINITY;
+      double minLongitude;
+      double maxLongitude;
+      if (longitudeDelta >= 180.0) {
+        minLongitude = -180.0;
+        maxLongitude = 180.0;
+      } else {
+        minLongitude = longitude - longitudeDelta;
+        maxLongitude = longitude + longitudeDelta;
+        if (minLongitude < -180.0) {
+          minLongitude += 360.0;
+        }
+        if (maxLongitude > 180.0) {
+          maxLongitude -= 360.0;
+        }
+      }
+      return new Bounds((int) (minLatitude * 1E6), (int) (minLongitude * 1E6),
+          (int) (maxLatitude * 1E6), (int) (maxLongitude * 1E6));
+    }
+
+    /**
+     * Returns true if the box contains a location.
+     *
+     * @param latitude the latitude in microdegrees
+     * @param longitude the longitude in microdegrees
+     */
+    public boolean contains(int latitude, int longitude) {
+      if (latitude < minLatitude || latitude > maxLatitude) {
+        return false;
+      }
+      if (minLongitude <= maxLongitude) {
+        return longitude >= minLongitude && longitude <= maxLongitude;
+      }
+      return longitude >= minLongitude || longitude <= maxLongitude;
+    }
+
+    /**
+     * Gets the selection of the track tiles table rows overlapping the box.
+     */
+    public String getTileSelection() {
+      return getSelection(TrackTilesColumns.TILEY, TrackTilesColumns.TILEX,
+          getTileY(minLatitude), getTileX(minLongitude), getTileY(maxLatitude),
+          getTileX(maxLongitude), minLongitude > maxLongitude);
+    }
+
+    /**
+     * Gets the selection of the rows inside the box.
+     *
+     * @param latitudeColumn the latitude column, in microdegrees
+     * @param longitudeColumn the longitude column, in microdegrees
+     */
+    public String getSelection(String latitudeColumn, String longitudeColumn) {
+      return getSelection(latitudeColumn, longitudeColumn, minLatitude, minLongitude,
+          maxLatitude, maxLongitude, minLongitude > maxLongitude);
+    }
+
+    /**
+     * Gets the selection of the rows inside a range of two columns.
+     *
+     * @param yColumn the y column
+     * @param xColumn the x column
+     * @param minY the min y
+     * @param minX the min x
+     * @param maxY the max y
+     * @param maxX the max x
+     * @param wraps true if the x range wraps around, from min x to max x
+     */
+    private static String getSelection(String yColumn, String xColumn, int minY, int minX,
+        int maxY, int maxX, boolean wraps) {
+      String selection = yColumn + " BETWEEN " + minY + " AND " + maxY + " AND ";
+      if (wraps) {
+        return selection + "(" + xColumn + ">=" + minX + " OR " + xColumn + "<=" + maxX + ")";
+      }
+      return selection + xColumn + " BETWEEN " + minX + " AND " + maxX;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track tiles table, a spatial index of the track points.
+ * The world is divided in a grid of tiles, see {@link TrackTiles}. Each row is
+ * a run of consecutive track points of a track inside one tile. The rows are
+ * maintained by the content provider when track points are inserted, and
+ * remain valid when the track points are archived in chunks.
+ */
+public interface TrackTilesColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "tracktiles";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/tracktiles");
+
+  // The distinct track ids of the selected rows, in track id order
+  public static final String TRACKIDS_PATH = "trackids";
+  public static final Uri TRACKIDS_CONTENT_URI = Uri.withAppendedPath(CONTENT_URI, TRACKIDS_PATH);
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.tracktile";
+  public static final String DEFAULT_SORT_ORDER = "_id";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String TILEX = "tilex"; // tile column, by longitude
+  public static final String TILEY = "tiley"; // tile row, by latitude
+  public static final String STARTID = "startid"; // first track point id
+  public static final String STOPID = "stopid"; // last track point id
+  public static final String NUMPOINTS = "numpoints"; // number of track points
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + TILEX + " INTEGER, "
+      + TILEY + " INTEGER, "
+      + STARTID + " INTEGER, "
+      + STOPID + " INTEGER, "
+      + NUMPOINTS + " INTEGER"
+      + ");";
+
+  // Index for the runs of a track, in track point order
+  public static final String TRACKID_STARTID_INDEX = "tracktiles_trackid_startid_index";
+  public static final String CREATE_TRACKID_STARTID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_STARTID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + STARTID + ");";
+
+  // Index for the tracks of an area, covering the track id
+  public static final String TILEY_TILEX_TRACKID_INDEX = "tracktiles_tiley_tilex_trackid_index";
+  public static final String CREATE_TILEY_TILEX_TRACKID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TILEY_TILEX_TRACKID_INDEX + " ON " + TABLE_NAME + " (" + TILEY + ", " + TILEX + ", "
+      + TRACKID + ");";
+}
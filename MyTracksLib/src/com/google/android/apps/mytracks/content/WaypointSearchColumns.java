@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+
+/**
+ * Constants for the waypoint search table, a full-text index of the name,
+ * description, and category of the waypoints. The document id of a row is the
+ * waypoint id. The text is stored in lower case.
+ * <p>
+ * The rows are kept in sync with the waypoints table by triggers, so every
+ * insert, update, and delete of a waypoint updates the index.
+ */
+public interface WaypointSearchColumns {
+
+  public static final String TABLE_NAME = "waypointsearch";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/waypointsearch");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.waypointsearch";
+  public static final String DEFAULT_SORT_ORDER = "docid DESC";
+
+  // Columns, the same names as in the waypoints table
+  public static final String DOCID = "docid"; // waypoint id
+  public static final String NAME = "name"; // waypoint name
+  public static final String DESCRIPTION = "description"; // waypoint description
+  public static final String CATEGORY = "category"; // waypoint category
+
+  // Column numbers, as in the offsets of the matches
+  public static final int NAME_COLUMN = 0;
+  public static final int DESCRIPTION_COLUMN = 1;
+  public static final int CATEGORY_COLUMN = 2;
+
+  // The offsets of the matches of a row. Four numbers per match: the column
+  // number, the term number, the byte offset, and the byte size
+  public static final String OFFSETS = "offsets(" + TABLE_NAME + ")";
+
+  public static final String CREATE_TABLE = "CREATE VIRTUAL TABLE " + TABLE_NAME
+      + " USING fts3(" + NAME + ", " + DESCRIPTION + ", " + CATEGORY + ");";
+
+  public static final String POPULATE_TABLE = "INSERT INTO " + TABLE_NAME + " (" + DOCID + ", "
+      + NAME + ", " + DESCRIPTION + ", " + CATEGORY + ") SELECT _id, lower(" + NAME
+      + "), lower(" + DESCRIPTION + "), lower(" + CATEGORY + ") FROM " + WaypointsColumns.TABLE_NAME
+      + ";";
+
+  // Statements of the triggers, on the new or old row of the waypoints table
+  public static final String INSERT_NEW_ROW = "INSERT INTO " + TABLE_NAME + " (" + DOCID + ", "
+      + NAME + ", " + DESCRIPTION + ", " + CATEGORY + ") VALUES (new._id, lower(new." + NAME
+      + "), lower(new." + DESCRIPTION + "), lower(new." + CATEGORY + "));";
+  public static final String DELETE_OLD_ROW = "DELETE FROM " + TABLE_NAME + " WHERE " + DOCID
+      + "=old._id;";
+
+  public static final String CREATE_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS "
+      + TABLE_NAME + "_insert AFTER INSERT ON " + WaypointsColumns.TABLE_NAME + " BEGIN "
+      + INSERT_NEW_ROW + " END;";
+
+  // Only runs when the text changes, not at every update of the statistics
+  public static final String CREATE_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS "
+      + TABLE_NAME + "_update AFTER UPDATE ON " + WaypointsColumns.TABLE_NAME
+      + " WHEN new._id IS NOT old._id OR new." + NAME + " IS NOT old." + NAME + " OR new."
+      + DESCRIPTION + " IS NOT old." + DESCRIPTION + " OR new." + CATEGORY + " IS NOT old."
+      + CATEGORY + " BEGIN " + DELETE_OLD_ROW + " " + INSERT_NEW_ROW + " END;";
+
+  public static final String CREATE_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS "
+      + TABLE_NAME + "_delete AFTER DELETE ON " + WaypointsColumns.TABLE_NAME + " BEGIN "
+      + DELETE_OLD_ROW + " END;";
+}
@@ -108,7 +108,19 @@ public interface WaypointsColumns extends BaseColumns {
       + CALORIE + " FLOAT, "  
       + PHOTOURL + " STRING"
       + ");";
-  
+
+  // Index for lookups of a track's waypoints, optionally by type, ordered by id
+  public static final String TRACKID_TYPE_ID_INDEX = "waypoints_trackid_type_id_index";
+  public static final String CREATE_TRACKID_TYPE_ID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_TYPE_ID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + TYPE + ", " + _ID
+      + ");";
+
+  // Index for lookups of the waypoints inside a bounding box
+  public static final String LATITUDE_LONGITUDE_INDEX = "waypoints_latitude_longitude_index";
+  public static final String CREATE_LATITUDE_LONGITUDE_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + LATITUDE_LONGITUDE_INDEX + " ON " + TABLE_NAME + " (" + LATITUDE + ", " + LONGITUDE
+      + ");";
+
   public static final String[] COLUMNS = {
       _ID,
       NAME,
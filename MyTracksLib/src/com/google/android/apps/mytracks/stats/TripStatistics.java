@@ -19,6 +19,10 @@ package com.google.android.apps.mytracks.stats;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Statistical data about a trip. The data in this class should be filled out by
  * TripStatisticsBuilder.
@@ -571,6 +575,57 @@ public class TripStatistics implements Parcelable {
     dest.writeDouble(calorie);
   }
 
+  /**
+   * Writes the statistics, in the parcel order. Unlike a parcel, the output can
+   * be persisted.
+   * 
+   * @param output the data output
+   */
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeLong(startTime);
+    output.writeLong(stopTime);
+    output.writeDouble(totalDistance);
+    output.writeLong(totalTime);
+    output.writeLong(movingTime);
+    output.writeDouble(latitudeExtremities.getMin());
+    output.writeDouble(latitudeExtremities.getMax());
+    output.writeDouble(longitudeExtremities.getMin());
+    output.writeDouble(longitudeExtremities.getMax());
+    output.writeDouble(maxSpeed);
+    output.writeDouble(elevationExtremities.getMin());
+    output.writeDouble(elevationExtremities.getMax());
+    output.writeDouble(totalElevationGain);
+    output.writeDouble(gradeExtremities.getMin());
+    output.writeDouble(gradeExtremities.getMax());
+    output.writeDouble(calorie);
+  }
+
+  /**
+   * Reads statistics written by {@link #writeTo(DataOutput)}.
+   * 
+   * @param input the data input
+   */
+  public static TripStatistics readFrom(DataInput input) throws IOException {
+    TripStatistics data = new TripStatistics();
+    data.startTime = input.readLong();
+    data.stopTime = input.readLong();
+    data.totalDistance = input.readDouble();
+    data.totalTime = input.readLong();
+    data.movingTime = input.readLong();
+    double minLat = input.readDouble();
+    data.latitudeExtremities.set(minLat, input.readDouble());
+    double minLong = input.readDouble();
+    data.longitudeExtremities.set(minLong, input.readDouble());
+    data.maxSpeed = input.readDouble();
+    double minElev = input.readDouble();
+    data.elevationExtremities.set(minElev, input.readDouble());
+    data.totalElevationGain = input.readDouble();
+    double minGrade = input.readDouble();
+    data.gradeExtremities.set(minGrade, input.readDouble());
+    data.calorie = input.readDouble();
+    return data;
+  }
+
   /**
    * Adds calorie value.
    * 
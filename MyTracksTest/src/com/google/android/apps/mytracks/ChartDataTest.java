@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ChartData}.
+ */
+public class ChartDataTest extends TestCase {
+
+  private static final int NUMBER_OF_POINTS = 1000;
+
+  private ChartData chartData;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    chartData = new ChartData(2);
+  }
+
+  /**
+   * Tests adding data points, past the initial capacity.
+   */
+  public void testAdd() {
+    assertTrue(chartData.isEmpty());
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      chartData.add(new double[] { i, i * 2.0, i % 3 == 0 ? i * 3.0 : Double.NaN });
+    }
+    assertEquals(NUMBER_OF_POINTS, chartData.size());
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      assertEquals((double) i, chartData.getX(i));
+      assertTrue(chartData.isValid(0, i));
+      assertEquals(i * 2.0, chartData.getValue(0, i));
+      assertEquals(i % 3 == 0, chartData.isValid(1, i));
+      if (i % 3 == 0) {
+        assertEquals(i * 3.0, chartData.getValue(1, i));
+      } else {
+        assertTrue(Double.isNaN(chartData.getValue(1, i)));
+      }
+    }
+    assertEquals(0, chartData.getFirstValidIndex(1));
+    assertEquals(999, chartData.getLastValidIndex(1));
+  }
+
+  /**
+   * Tests a series without values.
+   */
+  public void testAdd_noValues() {
+    chartData.add(new double[] { 0.0, Double.NaN, Double.NaN });
+    chartData.add(new double[] { 1.0, 5.0, Double.NaN });
+    assertFalse(chartData.isValid(0, 0));
+    assertTrue(chartData.isValid(0, 1));
+    assertEquals(1, chartData.getFirstValidIndex(0));
+    assertEquals(1, chartData.getLastValidIndex(0));
+    assertFalse(chartData.isValid(1, 1));
+    assertEquals(-1, chartData.getFirstValidIndex(1));
+    assertEquals(-1, chartData.getLastValidIndex(1));
+  }
+
+  /**
+   * Tests adding another chart data.
+   */
+  public void testAddAll() {
+    chartData.add(new double[] { 0.0, 1.0, Double.NaN });
+    ChartData other = new ChartData(2);
+    for (int i = 1; i < NUMBER_OF_POINTS; i++) {
+      other.add(new double[] { i, Double.NaN, i % 2 == 0 ? i : Double.NaN });
+    }
+    chartData.addAll(other);
+
+    assertEquals(NUMBER_OF_POINTS, chartData.size());
+    assertEquals(0, chartData.getLastValidIndex(0));
+    assertEquals(2, chartData.getFirstValidIndex(1));
+    assertEquals(998, chartData.getLastValidIndex(1));
+    for (int i = 1; i < NUMBER_OF_POINTS; i++) {
+      assertEquals((double) i, chartData.getX(i));
+      assertFalse(chartData.isValid(0, i));
+      assertEquals(i % 2 == 0, chartData.isValid(1, i));
+    }
+  }
+
+  /**
+   * Tests clearing removes the values.
+   */
+  public void testClear() {
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      chartData.add(new double[] { i, i, i });
+    }
+    chartData.clear();
+    assertTrue(chartData.isEmpty());
+    assertEquals(-1, chartData.getFirstValidIndex(0));
+
+    chartData.add(new double[] { 0.0, Double.NaN, 1.0 });
+    assertEquals(1, chartData.size());
+    assertFalse(chartData.isValid(0, 0));
+    assertTrue(chartData.isValid(1, 0));
+    assertFalse(chartData.isValid(1, 1));
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Tests updating a {@link ChartView} while a track is recorded. Benchmarks the
+ * frame time of a 20k point chart receiving new points, logging the average
+ * and max times of adding the points and drawing the chart, and the time of
+ * drawing a 100k point chart.
+ */
+public class ChartViewUpdateTest extends AndroidTestCase {
+
+  private static final String TAG = ChartViewUpdateTest.class.getSimpleName();
+
+  private static final int WIDTH = 480;
+  private static final int HEIGHT = 320;
+  private static final int NUMBER_OF_POINTS = 20000;
+  private static final int NUMBER_OF_FRAMES = 200;
+  private static final int POINTS_PER_FRAME = 5;
+  private static final int NUMBER_OF_LONG_TRACK_POINTS = 100000;
+  private static final int NUMBER_OF_DRAWS = 20;
+
+  /**
+   * Tests adding points in many batches draws the same chart as adding them at
+   * once.
+   */
+  public void testAddDataPoints_incremental() {
+    ChartView incremental = createChartView();
+    for (int i = 0; i < 2000; i += 10) {
+      incremental.addDataPoints(createDataPoints(i, 10));
+      draw(incremental);
+    }
+    ChartView once = createChartView();
+    once.addDataPoints(createDataPoints(0, 2000));
+
+    assertTrue(Arrays.equals(getPixels(once), getPixels(incremental)));
+  }
+
+  /**
+   * Measures the frame time of a 20k point chart receiving new points.
+   */
+  public void testAddDataPoints_frameTime() {
+    ChartView chartView = createChartView();
+    chartView.addDataPoints(createDataPoints(0, NUMBER_OF_POINTS));
+    Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    chartView.draw(canvas);
+
+    long totalTime = 0L;
+    long maxTime = 0L;
+    for (int i = 0; i < NUMBER_OF_FRAMES; i++) {
+      ChartData dataPoints = createDataPoints(
+          NUMBER_OF_POINTS + i * POINTS_PER_FRAME, POINTS_PER_FRAME);
+      long start = System.nanoTime();
+      chartView.addDataPoints(dataPoints);
+      chartView.draw(canvas);
+      long time = System.nanoTime() - start;
+      totalTime += time;
+      maxTime = Math.max(maxTime, time);
+    }
+    Log.i(TAG, "Frame time with " + NUMBER_OF_POINTS + " points: average "
+        + totalTime / NUMBER_OF_FRAMES / 1000 + "us, max " + maxTime / 1000 + "us");
+  }
+
+  /**
+   * Measures the time of drawing a 100k point chart.
+   */
+  public void testDraw_longTrack() {
+    ChartView chartView = createChartView();
+    long start = System.nanoTime();
+    chartView.addDataPoints(createDataPoints(0, NUMBER_OF_LONG_TRACK_POINTS));
+    long addTime = System.nanoTime() - start;
+
+    Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    chartView.draw(canvas);
+    start = System.nanoTime();
+    for (int i = 0; i < NUMBER_OF_DRAWS; i++) {
+      chartView.draw(canvas);
+    }
+    long drawTime = (System.nanoTime() - start) / NUMBER_OF_DRAWS;
+    Log.i(TAG, "Chart with " + NUMBER_OF_LONG_TRACK_POINTS + " points: add " + addTime / 1000
+        + "us, draw " + drawTime / 1000 + "us");
+  }
+
+  /**
+   * Creates a chart view laid out at {@link #WIDTH} x {@link #HEIGHT}.
+   */
+  private ChartView createChartView() {
+    ChartView chartView = new ChartView(getContext());
+    chartView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+    chartView.layout(0, 0, WIDTH, HEIGHT);
+    return chartView;
+  }
+
+  /**
+   * Draws a chart view to a new bitmap.
+   *
+   * @param chartView the chart view
+   */
+  private Bitmap draw(ChartView chartView) {
+    Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    chartView.draw(new Canvas(bitmap));
+    return bitmap;
+  }
+
+  /**
+   * Draws a chart view and gets the pixels.
+   *
+   * @param chartView the chart view
+   */
+  private int[] getPixels(ChartView chartView) {
+    int[] pixels = new int[WIDTH * HEIGHT];
+    draw(chartView).getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+    return pixels;
+  }
+
+  /**
+   * Creates data points with an elevation, a speed and a heart rate. The
+   * heart rate is missing from the first points.
+   *
+   * @param start the index of the first data point
+   * @param count the number of data points
+   */
+  private ChartData createDataPoints(int start, int count) {
+    ChartData dataPoints = new ChartData(ChartView.NUM_SERIES);
+    double[] dataPoint = new double[ChartView.NUM_SERIES + 1];
+    for (int i = start; i < start + count; i++) {
+      for (int j = 0; j < dataPoint.length; j++) {
+        dataPoint[j] = Double.NaN;
+      }
+      dataPoint[0] = i * 0.01;
+      dataPoint[ChartView.ELEVATION_SERIES + 1] = 100.0 + 50.0 * Math.sin(i / 500.0);
+      dataPoint[ChartView.SPEED_SERIES + 1] = 10.0 + i % 7;
+      if (i >= 50) {
+        dataPoint[ChartView.HEART_RATE_SERIES + 1] = 120.0 + i % 30;
+      }
+      dataPoints.add(dataPoint);
+    }
+    return dataPoints;
+  }
+}
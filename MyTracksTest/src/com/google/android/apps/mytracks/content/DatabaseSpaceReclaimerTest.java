@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the {@link DatabaseSpaceReclaimer}.
+ */
+public class DatabaseSpaceReclaimerTest extends AndroidTestCase {
+
+  private static final String DATABASE_NAME = "test.reclaimer.db";
+  private static final int NUMBER_OF_ROWS = 2000;
+
+  private SQLiteDatabase db;
+  private DatabaseSpaceReclaimer databaseSpaceReclaimer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    getContext().deleteDatabase(DATABASE_NAME);
+    db = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+    db.execSQL("CREATE TABLE test (_id INTEGER PRIMARY KEY, data BLOB)");
+    databaseSpaceReclaimer = new DatabaseSpaceReclaimer(getContext(), db);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    db.close();
+    getContext().deleteDatabase(DATABASE_NAME);
+    super.tearDown();
+  }
+
+  /**
+   * Tests the first {@link DatabaseSpaceReclaimer#reclaimBatch()} switches the
+   * database to incremental auto vacuum and reclaims all the free pages.
+   */
+  public void testReclaimBatch_migrate() {
+    insertAndDeleteRows();
+    assertTrue(databaseSpaceReclaimer.getPragma("freelist_count") > 0);
+    assertTrue(databaseSpaceReclaimer.getPragma("auto_vacuum")
+        != DatabaseSpaceReclaimer.AUTO_VACUUM_INCREMENTAL);
+
+    assertFalse(databaseSpaceReclaimer.reclaimBatch());
+    assertEquals(DatabaseSpaceReclaimer.AUTO_VACUUM_INCREMENTAL,
+        databaseSpaceReclaimer.getPragma("auto_vacuum"));
+    assertEquals(0L, databaseSpaceReclaimer.getPragma("freelist_count"));
+  }
+
+  /**
+   * Tests {@link DatabaseSpaceReclaimer#reclaimBatch()} reclaims at most
+   * {@link DatabaseSpaceReclaimer#PAGES_PER_BATCH} pages per call until no
+   * free pages remain.
+   */
+  public void testReclaimBatch_incremental() {
+    databaseSpaceReclaimer.reclaimBatch();
+    insertAndDeleteRows();
+    long freePages = databaseSpaceReclaimer.getPragma("freelist_count");
+    long pageCount = databaseSpaceReclaimer.getPragma("page_count");
+    assertTrue(freePages > DatabaseSpaceReclaimer.PAGES_PER_BATCH);
+
+    int batches = 0;
+    boolean hasMore;
+    do {
+      hasMore = databaseSpaceReclaimer.reclaimBatch();
+      batches++;
+      long newFreePages = databaseSpaceReclaimer.getPragma("freelist_count");
+      assertTrue(freePages - newFreePages <= DatabaseSpaceReclaimer.PAGES_PER_BATCH);
+      freePages = newFreePages;
+    } while (hasMore);
+
+    assertEquals(0L, freePages);
+    assertTrue(batches > 1);
+    assertTrue(databaseSpaceReclaimer.getPragma("page_count") < pageCount);
+  }
+
+  /**
+   * Tests {@link DatabaseSpaceReclaimer#reclaimBatch()} without free pages.
+   */
+  public void testReclaimBatch_noFreePages() {
+    databaseSpaceReclaimer.reclaimBatch();
+    assertFalse(databaseSpaceReclaimer.reclaimBatch());
+  }
+
+  /**
+   * Inserts and then deletes rows, leaving free pages in the database.
+   */
+  private void insertAndDeleteRows() {
+    byte[] data = new byte[512];
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < NUMBER_OF_ROWS; i++) {
+        db.execSQL("INSERT INTO test (data) VALUES (?)", new Object[] { data });
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    db.execSQL("DELETE FROM test");
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+/**
+ * Benchmarks the size and the read throughput of archived tracks against
+ * tracks stored one row per track point, on synthetic 100k point tracks. The
+ * results are logged.
+ */
+public class MyTracksProviderArchiveTest extends AndroidTestCase {
+
+  private static final String TAG = MyTracksProviderArchiveTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_POINTS = 100000;
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  private Context context;
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private SQLiteDatabase db;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+    db = new DatabaseHelper(context).getReadableDatabase();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    db.close();
+    super.tearDown();
+  }
+
+  /**
+   * Compares a track with only location values.
+   */
+  public void testArchive_locations() {
+    compare("Locations", false);
+  }
+
+  /**
+   * Compares a track with sensor data at every track point.
+   */
+  public void testArchive_sensors() {
+    compare("Sensors", true);
+  }
+
+  /**
+   * Inserts a track, reads it, archives it and reads it again. Logs the used
+   * database size and the read throughput before and after archiving.
+   *
+   * @param name the measurement name
+   * @param hasSensorData true to add sensor data to the track points
+   */
+  private void compare(String name, boolean hasSensorData) {
+    long emptySize = getUsedSize();
+    long trackId = insertTrack(hasSensorData);
+    long rowsSize = getUsedSize() - emptySize;
+    long rowsTime = readTrack(trackId);
+
+    assertEquals(NUMBER_OF_POINTS, myTracksProviderUtils.archiveTrackPoints(trackId));
+    long archivedSize = getUsedSize() - emptySize;
+    long archivedTime = readTrack(trackId);
+
+    Log.i(TAG, name + ": rows " + rowsSize / 1024 + "KB " + getPointsPerSecond(rowsTime)
+        + " points/s, archived " + archivedSize / 1024 + "KB " + getPointsPerSecond(archivedTime)
+        + " points/s");
+    assertTrue(archivedSize < rowsSize);
+  }
+
+  /**
+   * Inserts a track with {@link #NUMBER_OF_POINTS} track points and returns
+   * its id.
+   *
+   * @param hasSensorData true to add sensor data to the track points
+   */
+  private long insertTrack(boolean hasSensorData) {
+    long trackId = Long.parseLong(
+        myTracksProviderUtils.insertTrack(new Track()).getLastPathSegment());
+    Location[] locations = new Location[INSERT_BATCH_SIZE];
+    for (int i = 0; i < NUMBER_OF_POINTS; i += INSERT_BATCH_SIZE) {
+      for (int j = 0; j < INSERT_BATCH_SIZE; j++) {
+        locations[j] = createLocation(i + j, hasSensorData);
+      }
+      myTracksProviderUtils.bulkInsertTrackPoint(locations, INSERT_BATCH_SIZE, trackId);
+    }
+    return trackId;
+  }
+
+  /**
+   * Reads all the track points of a track and returns the elapsed time in
+   * nanoseconds.
+   *
+   * @param trackId the track id
+   */
+  private long readTrack(long trackId) {
+    int count = 0;
+    long start = System.nanoTime();
+    LocationIterator iterator = myTracksProviderUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      while (iterator.hasNext()) {
+        iterator.next();
+        count++;
+      }
+    } finally {
+      iterator.close();
+    }
+    long time = System.nanoTime() - start;
+    assertEquals(NUMBER_OF_POINTS, count);
+    return time;
+  }
+
+  /**
+   * Gets the size in bytes of the used database pages.
+   */
+  private long getUsedSize() {
+    return (getPragma("page_count") - getPragma("freelist_count")) * getPragma("page_size");
+  }
+
+  /**
+   * Gets the value of an integer pragma.
+   *
+   * @param pragma the pragma
+   */
+  private long getPragma(String pragma) {
+    Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+    try {
+      assertTrue(cursor.moveToFirst());
+      return cursor.getLong(0);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Gets the number of track points read per second.
+   *
+   * @param nanos the time to read a track in nanoseconds
+   */
+  private long getPointsPerSecond(long nanos) {
+    return NUMBER_OF_POINTS * 1000000000L / Math.max(1L, nanos);
+  }
+
+  /**
+   * Creates a location, recorded once per second along a slowly turning path.
+   *
+   * @param i the location index
+   * @param hasSensorData true to add sensor data
+   */
+  private Location createLocation(int i, boolean hasSensorData) {
+    MyTracksLocation location = new MyTracksLocation("gps");
+    location.setLatitude(37.0 + i / 100000.0);
+    location.setLongitude(-57.0 - Math.sin(i / 1000.0) / 100.0);
+    location.setAltitude(100.0 + (i % 500) / 10.0);
+    location.setAccuracy(5.0f);
+    location.setSpeed(3.0f + (i % 7) / 10.0f);
+    location.setBearing(i % 360);
+    location.setTime(1000L * (i + 1));
+    if (hasSensorData) {
+      Sensor.SensorData.Builder heartRate = Sensor.SensorData.newBuilder()
+          .setValue(120 + i % 40).setState(Sensor.SensorState.SENDING);
+      Sensor.SensorData.Builder cadence = Sensor.SensorData.newBuilder()
+          .setValue(80 + i % 10).setState(Sensor.SensorState.SENDING);
+      location.setSensorDataSet(Sensor.SensorDataSet.newBuilder()
+          .setCreationTime(location.getTime()).setHeartRate(heartRate).setCadence(cadence)
+          .build());
+    }
+    return location;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmarks the latency of track point inserts while a full track is read, as
+ * by an export, at the same time. The latency percentiles are logged.
+ */
+public class MyTracksProviderConcurrencyTest extends AndroidTestCase {
+
+  private static final String TAG = MyTracksProviderConcurrencyTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_EXPORT_POINTS = 20000;
+  private static final int EXPORT_BATCH_SIZE = 1000;
+  private static final int NUMBER_OF_INSERTS = 500;
+
+  private Context context;
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private long exportTrackId;
+  private long recordingTrackId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    exportTrackId = insertTrack();
+    Location[] locations = new Location[EXPORT_BATCH_SIZE];
+    for (int i = 0; i < NUMBER_OF_EXPORT_POINTS; i += EXPORT_BATCH_SIZE) {
+      for (int j = 0; j < EXPORT_BATCH_SIZE; j++) {
+        locations[j] = createLocation(i + j);
+      }
+      myTracksProviderUtils.bulkInsertTrackPoint(locations, EXPORT_BATCH_SIZE, exportTrackId);
+    }
+    recordingTrackId = insertTrack();
+  }
+
+  /**
+   * Tests the database is in write-ahead logging mode where supported.
+   */
+  public void testJournalMode() {
+    if (Build.VERSION.SDK_INT < 11) {
+      return;
+    }
+    SQLiteDatabase db = new DatabaseHelper(context).getReadableDatabase();
+    Cursor cursor = null;
+    try {
+      cursor = db.rawQuery("PRAGMA journal_mode", null);
+      assertTrue(cursor.moveToFirst());
+      assertEquals("wal", cursor.getString(0).toLowerCase());
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+      db.close();
+    }
+  }
+
+  /**
+   * Measures the insert latency without a concurrent reader, as a baseline.
+   */
+  public void testInsertLatency() {
+    long[] latencies = insertTrackPoints();
+    logLatencies("No reader", latencies);
+    assertEquals(NUMBER_OF_INSERTS, getNumberOfTrackPoints(recordingTrackId));
+  }
+
+  /**
+   * Measures the insert latency while a full track is read repeatedly on
+   * another thread.
+   */
+  public void testInsertLatency_duringExport() throws Exception {
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger numberOfExports = new AtomicInteger();
+    final AtomicReference<Throwable> exportError = new AtomicReference<Throwable>();
+    final CountDownLatch exportStarted = new CountDownLatch(1);
+
+    Thread exportThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            int count = 0;
+            LocationIterator iterator = myTracksProviderUtils.getTrackPointLocationIterator(
+                exportTrackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+            try {
+              while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+                exportStarted.countDown();
+              }
+            } finally {
+              iterator.close();
+            }
+            if (count != NUMBER_OF_EXPORT_POINTS) {
+              throw new IllegalStateException("Exported " + count + " points");
+            }
+            numberOfExports.incrementAndGet();
+          }
+        } catch (Throwable t) {
+          exportError.set(t);
+        } finally {
+          exportStarted.countDown();
+        }
+      }
+    };
+    exportThread.start();
+    assertTrue(exportStarted.await(30, TimeUnit.SECONDS));
+
+    long[] latencies;
+    try {
+      latencies = insertTrackPoints();
+    } finally {
+      done.set(true);
+      exportThread.join();
+    }
+    logLatencies("During export (" + numberOfExports.get() + " full reads)", latencies);
+
+    assertNull(exportError.get());
+    assertEquals(NUMBER_OF_INSERTS, getNumberOfTrackPoints(recordingTrackId));
+  }
+
+  /**
+   * Inserts {@link #NUMBER_OF_INSERTS} track points to the recording track, one
+   * at a time, and returns the latency of each insert in nanoseconds.
+   */
+  private long[] insertTrackPoints() {
+    long[] latencies = new long[NUMBER_OF_INSERTS];
+    for (int i = 0; i < NUMBER_OF_INSERTS; i++) {
+      Location location = createLocation(i);
+      long start = System.nanoTime();
+      myTracksProviderUtils.insertTrackPoint(location, recordingTrackId);
+      latencies[i] = System.nanoTime() - start;
+    }
+    return latencies;
+  }
+
+  /**
+   * Logs the latency percentiles.
+   *
+   * @param name the measurement name
+   * @param latencies the latencies in nanoseconds
+   */
+  private void logLatencies(String name, long[] latencies) {
+    long[] sorted = latencies.clone();
+    Arrays.sort(sorted);
+    Log.i(TAG, name + ": p50=" + toMillis(getPercentile(sorted, 50)) + "ms p90="
+        + toMillis(getPercentile(sorted, 90)) + "ms p99=" + toMillis(getPercentile(sorted, 99))
+        + "ms max=" + toMillis(sorted[sorted.length - 1]) + "ms");
+  }
+
+  /**
+   * Gets a percentile of sorted values.
+   *
+   * @param sorted the sorted values
+   * @param percentile the percentile
+   */
+  private long getPercentile(long[] sorted, int percentile) {
+    int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+
+  /**
+   * Converts nanoseconds to milliseconds.
+   *
+   * @param nanos the nanoseconds
+   */
+  private double toMillis(long nanos) {
+    return nanos / 1000000.0;
+  }
+
+  /**
+   * Gets the number of track points of a track.
+   *
+   * @param trackId the track id
+   */
+  private int getNumberOfTrackPoints(long trackId) {
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getTrackPointCursor(trackId, -1L, -1, false);
+      return cursor.getCount();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Inserts a track and returns its id.
+   */
+  private long insertTrack() {
+    return Long.parseLong(myTracksProviderUtils.insertTrack(new Track()).getLastPathSegment());
+  }
+
+  /**
+   * Creates a valid location.
+   *
+   * @param i the location index
+   */
+  private Location createLocation(int i) {
+    Location location = new Location("gps");
+    location.setLatitude(37.0 + i / 100000.0);
+    location.setLongitude(-57.0 - i / 100000.0);
+    location.setTime(1000L * (i + 1));
+    return location;
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.TrackTiles.Bounds;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.location.Location;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs EXPLAIN QUERY PLAN over the track points, waypoints, and track tiles
+ * queries built by {@link MyTracksProviderUtilsImpl} and fails if any of them
+ * scans a whole table.
+ */
+public class MyTracksProviderQueryPlanTest extends AndroidTestCase {
+
+  private static final int NUMBER_OF_POINTS = 10;
+
+  private final List<String> queries = new ArrayList<String>();
+  private final List<String[]> queriesSelectionArgs = new ArrayList<String[]>();
+
+  private Context context;
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private SQLiteDatabase db;
+  private long trackId;
+  private Location location;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider() {
+      @Override
+      public Cursor query(
+          Uri url, String[] projection, String selection, String[] selectionArgs, String sort) {
+        recordQuery(url, projection, selection, selectionArgs, sort);
+        return super.query(url, projection, selection, selectionArgs, sort);
+      }
+    };
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+    db = new DatabaseHelper(context).getReadableDatabase();
+
+    Track track = new Track();
+    trackId = Long.parseLong(myTracksProviderUtils.insertTrack(track).getLastPathSegment());
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      location = new Location("test");
+      location.setLatitude(37.0 + i * 0.001);
+      location.setLongitude(-57.0);
+      location.setTime(1000L * (i + 1));
+      myTracksProviderUtils.insertTrackPoint(location, trackId);
+    }
+    insertStatisticsWaypoint();
+    insertStatisticsWaypoint();
+    queries.clear();
+    queriesSelectionArgs.clear();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    db.close();
+    super.tearDown();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getFirstTrackPointId(long)}.
+   */
+  public void testGetFirstTrackPointId() {
+    myTracksProviderUtils.getFirstTrackPointId(trackId);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getLastTrackPointId(long)}.
+   */
+  public void testGetLastTrackPointId() {
+    myTracksProviderUtils.getLastTrackPointId(trackId);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackPointId(long, Location)}.
+   */
+  public void testGetTrackPointId() {
+    myTracksProviderUtils.getTrackPointId(trackId, location);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getFirstValidTrackPoint(long)}.
+   */
+  public void testGetFirstValidTrackPoint() {
+    myTracksProviderUtils.getFirstValidTrackPoint(trackId);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getLastValidTrackPoint(long)}.
+   */
+  public void testGetLastValidTrackPoint() {
+    myTracksProviderUtils.getLastValidTrackPoint(trackId);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackPointCursor(long, long, int,
+   * boolean)}.
+   */
+  public void testGetTrackPointCursor() {
+    long firstId = myTracksProviderUtils.getFirstTrackPointId(trackId);
+    closeCursor(myTracksProviderUtils.getTrackPointCursor(trackId, -1L, 5, false));
+    closeCursor(myTracksProviderUtils.getTrackPointCursor(trackId, -1L, 5, true));
+    closeCursor(myTracksProviderUtils.getTrackPointCursor(trackId, firstId, 5, false));
+    closeCursor(myTracksProviderUtils.getTrackPointCursor(trackId, firstId, -1, true));
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackPointLocationIterator(long,
+   * long, boolean, MyTracksProviderUtils.LocationFactory)}.
+   */
+  public void testGetTrackPointLocationIterator() {
+    LocationIterator iterator = myTracksProviderUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      while (iterator.hasNext()) {
+        iterator.next();
+      }
+    } finally {
+      iterator.close();
+    }
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackPointsInBounds(long, Bounds)}.
+   */
+  public void testGetTrackPointsInBounds() {
+    myTracksProviderUtils.getTrackPointsInBounds(
+        trackId, new Bounds(37000000, -57001000, 37005000, -56999000));
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTracksNear(double, double,
+   * double)}.
+   */
+  public void testGetTracksNear() {
+    myTracksProviderUtils.getTracksNear(37.0, -57.0, 100.0);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getNearestWaypoints(double, double,
+   * int)}.
+   */
+  public void testGetNearestWaypoints() {
+    myTracksProviderUtils.getNearestWaypoints(37.0, -57.0, 1);
+    myTracksProviderUtils.getNearestWaypoints(37.0, -57.0, 5);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getFirstWaypointId(long)}.
+   */
+  public void testGetFirstWaypointId() {
+    myTracksProviderUtils.getFirstWaypointId(trackId);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getLastWaypoint(long, WaypointType)}.
+   */
+  public void testGetLastWaypoint() {
+    myTracksProviderUtils.getLastWaypoint(trackId, WaypointType.STATISTICS);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getNextWaypointNumber(long,
+   * WaypointType)}.
+   */
+  public void testGetNextWaypointNumber() {
+    myTracksProviderUtils.getNextWaypointNumber(trackId, WaypointType.WAYPOINT);
+    myTracksProviderUtils.getNextWaypointNumber(trackId, WaypointType.STATISTICS);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getWaypointCursor(long, long, int)}.
+   */
+  public void testGetWaypointCursor() {
+    long firstId = myTracksProviderUtils.getFirstWaypointId(trackId);
+    closeCursor(myTracksProviderUtils.getWaypointCursor(trackId, -1L, 5));
+    closeCursor(myTracksProviderUtils.getWaypointCursor(trackId, firstId, -1));
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getWaypointCount(long)}.
+   */
+  public void testGetWaypointCount() {
+    myTracksProviderUtils.getWaypointCount(trackId);
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#deleteWaypoint(Context, long,
+   * DescriptionGenerator)}.
+   */
+  public void testDeleteWaypoint() {
+    long firstId = myTracksProviderUtils.getFirstWaypointId(trackId);
+    myTracksProviderUtils.deleteWaypoint(context, firstId, new DescriptionGeneratorImpl(context));
+    assertNoFullTableScan();
+  }
+
+  /**
+   * Records a track points, waypoints, or track tiles query as the SQL
+   * statement the provider runs.
+   */
+  private void recordQuery(
+      Uri url, String[] projection, String selection, String[] selectionArgs, String sort) {
+    String table = url.getPathSegments().get(0);
+    String sortOrder;
+    if (TrackPointsColumns.TABLE_NAME.equals(table)) {
+      sortOrder = sort != null ? sort : TrackPointsColumns.DEFAULT_SORT_ORDER;
+    } else if (WaypointsColumns.TABLE_NAME.equals(table)) {
+      sortOrder = sort != null ? sort : WaypointsColumns.DEFAULT_SORT_ORDER;
+    } else if (TrackTilesColumns.TABLE_NAME.equals(table)) {
+      sortOrder = sort != null ? sort : TrackTilesColumns.DEFAULT_SORT_ORDER;
+    } else {
+      return;
+    }
+    queries.add(SQLiteQueryBuilder.buildQueryString(
+        false, table, projection, selection, null, null, sortOrder, null));
+    queriesSelectionArgs.add(selectionArgs);
+  }
+
+  /**
+   * Asserts that none of the recorded queries does a full table scan.
+   */
+  private void assertNoFullTableScan() {
+    assertFalse(queries.isEmpty());
+    for (int i = 0; i < queries.size(); i++) {
+      String query = queries.get(i);
+      Cursor cursor = null;
+      try {
+        cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, queriesSelectionArgs.get(i));
+        int detailIndex = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+          String detail = cursor.getString(detailIndex);
+          assertFalse(query + " -> " + detail, isFullTableScan(detail));
+        }
+      } finally {
+        closeCursor(cursor);
+      }
+    }
+  }
+
+  /**
+   * Returns true if a query plan detail is a full scan of the track points,
+   * waypoints, or track tiles table. Depending on the SQLite version, the detail reads "SCAN
+   * TABLE trackpoints ..." or "SCAN trackpoints ...".
+   *
+   * @param detail the query plan detail
+   */
+  private boolean isFullTableScan(String detail) {
+    if (!detail.startsWith("SCAN ")) {
+      return false;
+    }
+    return detail.contains(TrackPointsColumns.TABLE_NAME)
+        || detail.contains(WaypointsColumns.TABLE_NAME)
+        || detail.contains(TrackTilesColumns.TABLE_NAME);
+  }
+
+  /**
+   * Inserts a statistics waypoint.
+   */
+  private void insertStatisticsWaypoint() {
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(trackId);
+    waypoint.setType(WaypointType.STATISTICS);
+    waypoint.setLocation(location);
+    waypoint.setTripStatistics(new TripStatistics());
+    myTracksProviderUtils.insertWaypoint(waypoint);
+  }
+
+  /**
+   * Closes a cursor.
+   *
+   * @param cursor the cursor
+   */
+  private void closeCursor(Cursor cursor) {
+    if (cursor != null) {
+      cursor.close();
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.location.Location;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+/**
+ * Benchmarks reading a whole track, as by stats recomputation or an export.
+ * Compares reading a {@link Location} per row from the track points cursor,
+ * the {@link LocationIterator} and the {@link TrackPointBatch} API. The points
+ * per second and the allocations per point are logged.
+ */
+public class MyTracksProviderReadTest extends AndroidTestCase {
+
+  private static final String TAG = MyTracksProviderReadTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_POINTS = 20000;
+  private static final int BATCH_SIZE = 2000;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private long trackId;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+
+    trackId = Long.parseLong(myTracksProviderUtils.insertTrack(new Track()).getLastPathSegment());
+    Location[] locations = new Location[BATCH_SIZE];
+    for (int i = 0; i < NUMBER_OF_POINTS; i += BATCH_SIZE) {
+      for (int j = 0; j < BATCH_SIZE; j++) {
+        locations[j] = createLocation(i + j);
+      }
+      myTracksProviderUtils.bulkInsertTrackPoint(locations, BATCH_SIZE, trackId);
+    }
+  }
+
+  /**
+   * Measures reading a new location per row from the track points cursor, the
+   * way the location iterator used to.
+   */
+  public void testRead_cursor() {
+    measure("Cursor", new Reader() {
+      @Override
+      public int read() {
+        int count = 0;
+        long startTrackPointId = -1L;
+        while (true) {
+          Cursor cursor = myTracksProviderUtils.getTrackPointCursor(
+              trackId, startTrackPointId, BATCH_SIZE, false);
+          try {
+            int idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+            int latitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LATITUDE);
+            int longitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LONGITUDE);
+            int timeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.TIME);
+            int speedIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SPEED);
+            int sensorIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SENSOR);
+            while (cursor.moveToNext()) {
+              MyTracksLocation location = new MyTracksLocation("gps");
+              location.setLatitude(cursor.getInt(latitudeIndex) / 1E6);
+              location.setLongitude(cursor.getInt(longitudeIndex) / 1E6);
+              location.setTime(cursor.getLong(timeIndex));
+              location.setSpeed(cursor.getFloat(speedIndex));
+              if (!cursor.isNull(sensorIndex)) {
+                try {
+                  location.setSensorDataSet(SensorDataSet.parseFrom(cursor.getBlob(sensorIndex)));
+                } catch (InvalidProtocolBufferException e) {
+                  fail();
+                }
+              }
+              startTrackPointId = cursor.getLong(idIndex) + 1;
+              count++;
+            }
+            if (cursor.getCount() < BATCH_SIZE) {
+              return count;
+            }
+          } finally {
+            cursor.close();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Measures the location iterator, reusing a location.
+   */
+  public void testRead_locationIterator() {
+    final Location location = new MyTracksLocation("gps");
+    final LocationFactory locationFactory = new LocationFactory() {
+      @Override
+      public Location createLocation() {
+        return location;
+      }
+    };
+    measure("LocationIterator", new Reader() {
+      @Override
+      public int read() {
+        int count = 0;
+        LocationIterator iterator = myTracksProviderUtils.getTrackPointLocationIterator(
+            trackId, -1L, false, locationFactory);
+        try {
+          while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+          }
+        } finally {
+          iterator.close();
+        }
+        return count;
+      }
+    });
+  }
+
+  /**
+   * Measures the track point batch API, without parsing the sensor data.
+   */
+  public void testRead_trackPointBatch() {
+    final TrackPointBatch trackPointBatch = new TrackPointBatch(BATCH_SIZE);
+    measure("TrackPointBatch", new Reader() {
+      @Override
+      public int read() {
+        int count = 0;
+        long startTrackPointId = -1L;
+        do {
+          int size = myTracksProviderUtils.getTrackPointBatch(
+              trackId, startTrackPointId, false, trackPointBatch);
+          if (size == 0) {
+            break;
+          }
+          count += size;
+          startTrackPointId = trackPointBatch.getId(size - 1) + 1;
+        } while (trackPointBatch.isFull());
+        return count;
+      }
+    });
+  }
+
+  /**
+   * A reader of the whole track.
+   */
+  private interface Reader {
+
+    /**
+     * Reads the track and returns the number of track points read.
+     */
+    int read();
+  }
+
+  /**
+   * Reads the track once to warm up, then measures a second read. Logs the
+   * points per second and the allocations per point.
+   *
+   * @param name the measurement name
+   * @param reader the reader
+   */
+  @SuppressWarnings("deprecation")
+  private void measure(String name, Reader reader) {
+    assertEquals(NUMBER_OF_POINTS, reader.read());
+
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    long start = System.nanoTime();
+    int count;
+    try {
+      count = reader.read();
+    } finally {
+      Debug.stopAllocCounting();
+    }
+    long time = System.nanoTime() - start;
+    int allocations = Debug.getThreadAllocCount();
+    assertEquals(NUMBER_OF_POINTS, count);
+
+    Log.i(TAG, name + ": " + NUMBER_OF_POINTS * 1000000000L / Math.max(1L, time)
+        + " points/s, " + (double) allocations / NUMBER_OF_POINTS + " allocations/point");
+  }
+
+  /**
+   * Creates a location with sensor data at every tenth location.
+   *
+   * @param i the location index
+   */
+  private Location createLocation(int i) {
+    MyTracksLocation location = new MyTracksLocation("gps");
+    location.setLatitude(37.0 + i / 100000.0);
+    location.setLongitude(-57.0 - i / 100000.0);
+    location.setAltitude(100.0);
+    location.setAccuracy(5.0f);
+    location.setSpeed(3.0f);
+    location.setBearing(90.0f);
+    location.setTime(1000L * (i + 1));
+    if (i % 10 == 0) {
+      location.setSensorDataSet(SensorDataSet.newBuilder().setCreationTime(location.getTime())
+          .setHeartRate(Sensor.SensorData.newBuilder().setValue(120)
+              .setState(Sensor.SensorState.SENDING))
+          .build());
+    }
+    return location;
+  }
+}
@@ -18,6 +18,7 @@ package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.test.AndroidTestCase;
@@ -49,6 +50,20 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+    assertTrue(hasTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasColumn(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.LEVEL));
+    assertTrue(hasTable(TrackTilesColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackTilesColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasIndex(TrackTilesColumns.TILEY_TILEX_TRACKID_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.LATITUDE_LONGITUDE_INDEX));
+    assertTrue(hasTable(TrackSearchColumns.TABLE_NAME));
+    assertTrue(hasTable(WaypointSearchColumns.TABLE_NAME));
+    assertTrue(hasTable(AggregatedStatisticsColumns.TABLE_NAME));
+    assertTrue(hasIndex(AggregatedStatisticsColumns.GROUPBY_CATEGORY_PERIODSTART_INDEX));
   }
 
   /**
@@ -59,6 +74,7 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
+    dropTable(TrackPointChunksColumns.TABLE_NAME);
 
     int oldVersion = 16;
     DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
@@ -67,6 +83,11 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackTilesColumns.TABLE_NAME));
+    assertTrue(hasTable(TrackSearchColumns.TABLE_NAME));
+    assertTrue(hasTable(WaypointSearchColumns.TABLE_NAME));
+    assertTrue(hasTable(AggregatedStatisticsColumns.TABLE_NAME));
   }
 
   /**
@@ -174,7 +195,158 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDWITHME));
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertFalse(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
-    assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertFalse(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 23.
+   */
+  public void testDatabaseHelper_onUpgrade_Version23() {
+    setupUpgrade(23);
+
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertFalse(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+    assertTrue(hasTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointChunksColumns.TRACKID_STARTID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 24.
+   */
+  public void testDatabaseHelper_onUpgrade_Version24() {
+    setupUpgrade(24);
+
+    assertFalse(hasIndex(TrackPointChunksColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasColumn(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.LEVEL));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 25.
+   */
+  public void testDatabaseHelper_onUpgrade_Version25() {
+    setupUpgrade(25);
+
+    assertFalse(hasColumn(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.LEVEL));
+    assertTrue(hasTable(TrackTilesColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackTilesColumns.TRACKID_STARTID_INDEX));
+    assertTrue(hasIndex(TrackTilesColumns.TILEY_TILEX_TRACKID_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.LATITUDE_LONGITUDE_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 25 indexes the existing track points in tiles.
+   */
+  public void testDatabaseHelper_onUpgrade_Version25_trackTiles() {
+    createUpgradeTables(25);
+    insertTrackPoint(1, 1, 37000000, -57000000);
+    insertTrackPoint(2, 1, 37000100, -57000100);
+    insertTrackPoint(3, 1, 38000000, -57000000);
+    insertTrackPoint(4, 2, 37000000, -57000000);
+    insertTrackPoint(5, 2, 100000000, 0);
+    upgrade(25);
+
+    Cursor cursor = db.query(TrackTilesColumns.TABLE_NAME, new String[] {
+        TrackTilesColumns.TRACKID, TrackTilesColumns.STARTID, TrackTilesColumns.STOPID,
+        TrackTilesColumns.NUMPOINTS }, null, null, null, null, TrackTilesColumns._ID);
+    try {
+      assertEquals(3, cursor.getCount());
+      assertTrackTile(cursor, 1, 1, 2, 2);
+      assertTrackTile(cursor, 1, 3, 3, 1);
+      assertTrackTile(cursor, 2, 4, 4, 1);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 26.
+   */
+  public void testDatabaseHelper_onUpgrade_Version26() {
+    setupUpgrade(26);
+
+    assertTrue(hasTable(TrackSearchColumns.TABLE_NAME));
+    assertTrue(hasTable(WaypointSearchColumns.TABLE_NAME));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 26 indexes the existing tracks and waypoints, and
+   * keeps the index in sync afterwards.
+   */
+  public void testDatabaseHelper_onUpgrade_Version26_search() {
+    createUpgradeTables(26);
+    db.execSQL("INSERT INTO " + TracksColumns.TABLE_NAME
+        + " (_id, name, description, category) VALUES (1, 'Morning Run', 'river', 'running')");
+    db.execSQL("INSERT INTO " + WaypointsColumns.TABLE_NAME
+        + " (_id, name, description, category) VALUES (2, 'Bridge', NULL, '')");
+    upgrade(26);
+
+    assertEquals(1, getSearchCount(TrackSearchColumns.TABLE_NAME, "morn*"));
+    assertEquals(0, getSearchCount(TrackSearchColumns.TABLE_NAME, "name:river"));
+    assertEquals(1, getSearchCount(WaypointSearchColumns.TABLE_NAME, "bridge"));
+
+    db.execSQL("UPDATE " + TracksColumns.TABLE_NAME + " SET name='Evening Run' WHERE _id=1");
+    assertEquals(0, getSearchCount(TrackSearchColumns.TABLE_NAME, "morn*"));
+    assertEquals(1, getSearchCount(TrackSearchColumns.TABLE_NAME, "evening run"));
+
+    db.execSQL("INSERT INTO " + WaypointsColumns.TABLE_NAME
+        + " (_id, name, description, category) VALUES (3, 'Bridge', 'lunch', '')");
+    db.execSQL("DELETE FROM " + WaypointsColumns.TABLE_NAME + " WHERE _id=2");
+    assertEquals(1, getSearchCount(WaypointSearchColumns.TABLE_NAME, "bridge lunch"));
+    assertEquals(1, getSearchCount(WaypointSearchColumns.TABLE_NAME, "bridge"));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 27.
+   */
+  public void testDatabaseHelper_onUpgrade_Version27() {
+    setupUpgrade(27);
+
+    assertTrue(hasTable(AggregatedStatisticsColumns.TABLE_NAME));
+    assertTrue(hasIndex(AggregatedStatisticsColumns.GROUPBY_CATEGORY_PERIODSTART_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 27 aggregates the statistics of the existing tracks.
+   */
+  public void testDatabaseHelper_onUpgrade_Version27_aggregatedStatistics() {
+    createUpgradeTables(27);
+    db.execSQL("INSERT INTO " + TracksColumns.TABLE_NAME
+        + " (_id, category, starttime, stoptime, totaldistance, maxspeed)"
+        + " VALUES (1, 'running', 1000, 2000, 100.0, 3.0)");
+    db.execSQL("INSERT INTO " + TracksColumns.TABLE_NAME
+        + " (_id, category, starttime, stoptime, totaldistance, maxspeed)"
+        + " VALUES (2, 'running', 3000, 4000, 200.0, 2.0)");
+    db.execSQL("INSERT INTO " + TracksColumns.TABLE_NAME
+        + " (_id, category, starttime, stoptime, totaldistance, maxspeed)"
+        + " VALUES (3, NULL, 5000, 6000, 400.0, 5.0)");
+    upgrade(27);
+
+    Cursor cursor = db.query(AggregatedStatisticsColumns.TABLE_NAME, new String[] {
+        AggregatedStatisticsColumns.CATEGORY, AggregatedStatisticsColumns.NUMTRACKS,
+        AggregatedStatisticsColumns.STARTTIME, AggregatedStatisticsColumns.TOTALDISTANCE,
+        AggregatedStatisticsColumns.MAXSPEED }, AggregatedStatisticsColumns.GROUPBY + "<=?",
+        new String[] { Integer.toString(AggregatedStatisticsColumns.GROUP_CATEGORY) }, null, null,
+        AggregatedStatisticsColumns.DEFAULT_SORT_ORDER);
+    try {
+      assertEquals(3, cursor.getCount());
+      assertAggregatedStatistics(cursor, "", 3, 1000, 700.0, 5.0);
+      assertAggregatedStatistics(cursor, "", 1, 5000, 400.0, 5.0);
+      assertAggregatedStatistics(cursor, "running", 2, 1000, 300.0, 3.0);
+    } finally {
+      cursor.close();
+    }
   }
 
   /**
@@ -193,15 +365,102 @@ public class MyTracksProviderTest extends AndroidTestCase {
         TrackPointsColumns.CONTENT_TYPE, myTracksProvider.getType(TrackPointsColumns.CONTENT_URI));
     assertEquals(
         WaypointsColumns.CONTENT_TYPE, myTracksProvider.getType(WaypointsColumns.CONTENT_URI));
+    assertEquals(TrackPointChunksColumns.CONTENT_TYPE,
+        myTracksProvider.getType(TrackPointChunksColumns.CONTENT_URI));
+    assertEquals(TrackTilesColumns.CONTENT_TYPE,
+        myTracksProvider.getType(TrackTilesColumns.CONTENT_URI));
+    assertEquals(TrackSearchColumns.CONTENT_TYPE,
+        myTracksProvider.getType(TrackSearchColumns.CONTENT_URI));
+    assertEquals(WaypointSearchColumns.CONTENT_TYPE,
+        myTracksProvider.getType(WaypointSearchColumns.CONTENT_URI));
+    assertEquals(AggregatedStatisticsColumns.CONTENT_TYPE,
+        myTracksProvider.getType(AggregatedStatisticsColumns.CONTENT_URI));
   }
 
   /**
-   * Creates a table, containing one column.
+   * Creates a table, containing one test column, the indexed columns, the
+   * searched columns, and the aggregated statistics columns.
    * 
    * @param table the table name
    */
   private void createTable(String table) {
-    db.execSQL("CREATE TABLE " + table + " (test INTEGER)");
+    db.execSQL("CREATE TABLE " + table + " (test INTEGER, _id INTEGER PRIMARY KEY, "
+        + "trackid INTEGER, time INTEGER, type INTEGER, latitude INTEGER, longitude INTEGER, "
+        + "startid INTEGER, data BLOB, name STRING, description STRING, category STRING, "
+        + "starttime INTEGER, stoptime INTEGER, totaldistance FLOAT, totaltime INTEGER, "
+        + "movingtime INTEGER, minlat INTEGER, maxlat INTEGER, minlon INTEGER, maxlon INTEGER, "
+        + "maxspeed FLOAT, minelevation FLOAT, maxelevation FLOAT, elevationgain FLOAT, "
+        + "mingrade FLOAT, maxgrade FLOAT)");
+  }
+
+  /**
+   * Gets the number of rows of a search table matching a full-text query.
+   * 
+   * @param table the search table name
+   * @param match the full-text query
+   */
+  private int getSearchCount(String table, String match) {
+    Cursor cursor = db.rawQuery(
+        "SELECT count(*) FROM " + table + " WHERE " + table + " MATCH ?", new String[] { match });
+    try {
+      assertTrue(cursor.moveToFirst());
+      return cursor.getInt(0);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Inserts a row in the track points table.
+   * 
+   * @param id the track point id
+   * @param trackId the track id
+   * @param latitude the latitude
+   * @param longitude the longitude
+   */
+  private void insertTrackPoint(long id, long trackId, int latitude, int longitude) {
+    db.execSQL("INSERT INTO " + TrackPointsColumns.TABLE_NAME
+        + " (_id, trackid, latitude, longitude) VALUES (?, ?, ?, ?)",
+        new Object[] { id, trackId, latitude, longitude });
+  }
+
+  /**
+   * Moves a cursor over track tiles to the next row and checks its values.
+   * 
+   * @param cursor the cursor
+   * @param trackId the expected track id
+   * @param startId the expected start id
+   * @param stopId the expected stop id
+   * @param numberOfPoints the expected number of points
+   */
+  private void assertTrackTile(
+      Cursor cursor, long trackId, long startId, long stopId, int numberOfPoints) {
+    assertTrue(cursor.moveToNext());
+    assertEquals(trackId, cursor.getLong(0));
+    assertEquals(startId, cursor.getLong(1));
+    assertEquals(stopId, cursor.getLong(2));
+    assertEquals(numberOfPoints, cursor.getInt(3));
+  }
+
+  /**
+   * Moves a cursor over aggregated statistics to the next row and checks its
+   * values.
+   * 
+   * @param cursor the cursor
+   * @param category the expected category
+   * @param numberOfTracks the expected number of tracks
+   * @param startTime the expected start time
+   * @param totalDistance the expected total distance
+   * @param maxSpeed the expected max speed
+   */
+  private void assertAggregatedStatistics(Cursor cursor, String category, int numberOfTracks,
+      long startTime, double totalDistance, double maxSpeed) {
+    assertTrue(cursor.moveToNext());
+    assertEquals(category, cursor.getString(0));
+    assertEquals(numberOfTracks, cursor.getInt(1));
+    assertEquals(startTime, cursor.getLong(2));
+    assertEquals(totalDistance, cursor.getDouble(3));
+    assertEquals(maxSpeed, cursor.getDouble(4));
   }
 
   /**
@@ -227,6 +486,21 @@ public class MyTracksProviderTest extends AndroidTestCase {
     }
   }
 
+  /**
+   * Returns true if the index exists.
+   * 
+   * @param index the index name
+   */
+  private boolean hasIndex(String index) {
+    Cursor cursor = db.rawQuery(
+        "SELECT name FROM sqlite_master WHERE type='index' AND name=?", new String[] { index });
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
   /**
    * Returns true if the column in the table exists.
    * 
@@ -250,13 +524,41 @@ public class MyTracksProviderTest extends AndroidTestCase {
    * @param oldVersion thd old database version
    */
   private void setupUpgrade(int oldVersion) {
+    createUpgradeTables(oldVersion);
+    upgrade(oldVersion);
+  }
+
+  /**
+   * Replaces the tables with the ones of an old database version.
+   * 
+   * @param oldVersion the old database version
+   */
+  private void createUpgradeTables(int oldVersion) {
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
+    dropTable(TrackPointChunksColumns.TABLE_NAME);
+    dropTable(TrackTilesColumns.TABLE_NAME);
+    dropTable(TrackSearchColumns.TABLE_NAME);
+    dropTable(WaypointSearchColumns.TABLE_NAME);
+    dropTable(AggregatedStatisticsColumns.TABLE_NAME);
     createTable(TracksColumns.TABLE_NAME);
     createTable(TrackPointsColumns.TABLE_NAME);
     createTable(WaypointsColumns.TABLE_NAME);
+    if (oldVersion >= 22) {
+      db.execSQL("ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD calorie FLOAT");
+    }
+    if (oldVersion >= 24) {
+      createTable(TrackPointChunksColumns.TABLE_NAME);
+    }
+  }
 
+  /**
+   * Upgrades the database.
+   * 
+   * @param oldVersion the old database version
+   */
+  private void upgrade(int oldVersion) {
     DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
     databaseHelper.onUpgrade(db, oldVersion, MyTracksProvider.DATABASE_VERSION);
   }
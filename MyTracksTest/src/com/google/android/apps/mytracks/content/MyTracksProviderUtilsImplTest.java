@@ -17,6 +17,7 @@ package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.TrackTiles.Bounds;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
 import com.google.android.apps.mytracks.stats.TripStatistics;
@@ -26,14 +27,19 @@ import com.google.android.testing.mocking.UsesMocks;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.location.Location;
+import android.net.Uri;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -338,6 +344,41 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     providerUtils.updateTrack(track);
     assertEquals(nameNew, providerUtils.getTrack(trackId).getName()); 
   }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#updateTrackStatistics(Track)}.
+   */
+  public void testUpdateTrackStatistics() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 0);
+    track.setName("name1");
+    providerUtils.insertTrack(track);
+
+    // Edited while recording
+    Track editedTrack = providerUtils.getTrack(trackId);
+    editedTrack.setName("name2");
+    providerUtils.updateTrack(editedTrack);
+
+    TripStatistics statistics = new TripStatistics();
+    statistics.setStartTime(1000L);
+    statistics.setStopTime(2500L);
+    statistics.setTotalTime(1500L);
+    statistics.setTotalDistance(750.0);
+    track.setTripStatistics(statistics);
+    track.setStartId(3L);
+    track.setStopId(7L);
+    track.setNumberOfPoints(5);
+    providerUtils.updateTrackStatistics(track);
+
+    Track result = providerUtils.getTrack(trackId);
+    assertEquals("name2", result.getName());
+    assertEquals(3L, result.getStartId());
+    assertEquals(7L, result.getStopId());
+    assertEquals(5, result.getNumberOfPoints());
+    assertEquals(2500L, result.getTripStatistics().getStopTime());
+    assertEquals(1500L, result.getTripStatistics().getTotalTime());
+    assertEquals(750.0, result.getTripStatistics().getTotalDistance());
+  }
   
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#createContentValues(Waypoint)}.
@@ -651,6 +692,128 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(28, providerUtils.getTrackPointCursor(trackId, -1L, 1000, false).getCount());
   }
 
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#insertTrackPoints(Location[],
+   * int, long)}.
+   */
+  public void testInsertTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    providerUtils.insertTrack(track);
+    Location[] locations = track.getLocations().toArray(new Location[0]);
+
+    long[] ids = providerUtils.insertTrackPoints(locations, 8, trackId);
+    assertEquals(8, ids.length);
+    for (int i = 1; i < ids.length; i++) {
+      assertTrue(ids[i] > ids[i - 1]);
+    }
+    assertEquals(providerUtils.getFirstTrackPointId(trackId), ids[0]);
+    assertEquals(providerUtils.getLastTrackPointId(trackId), ids[7]);
+    assertEquals(8, providerUtils.getTrackPointCursor(trackId, -1L, 1000, false).getCount());
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#insertTrackPoints(Location[],
+   * int, long)} indexes the track points of consecutive batches in one track
+   * tile.
+   */
+  public void testInsertTrackPoints_trackTiles() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    providerUtils.insertTrack(track);
+    Location[] locations = track.getLocations().toArray(new Location[0]);
+
+    long[] firstIds = providerUtils.insertTrackPoints(locations, 8, trackId);
+    Location[] remaining = new Location[] { locations[8], locations[9] };
+    long[] secondIds = providerUtils.insertTrackPoints(remaining, 2, trackId);
+
+    Cursor cursor = context.getContentResolver().query(TrackTilesColumns.CONTENT_URI,
+        new String[] { TrackTilesColumns.STARTID, TrackTilesColumns.STOPID,
+            TrackTilesColumns.NUMPOINTS }, TrackTilesColumns.TRACKID + "=?",
+        new String[] { Long.toString(trackId) }, null);
+    try {
+      assertEquals(1, cursor.getCount());
+      assertTrue(cursor.moveToFirst());
+      assertEquals(firstIds[0], cursor.getLong(0));
+      assertEquals(secondIds[1], cursor.getLong(1));
+      assertEquals(10, cursor.getInt(2));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#insertTrackPoints(Location[],
+   * int[], int, long, Track, long[], int[], int)} writes the track points, their
+   * levels and the track in one batch, notifying the observers once per batch.
+   */
+  public void testInsertTrackPoints_notifyOnce() {
+    final Map<Uri, ContentObserver> contentObservers = new HashMap<Uri, ContentObserver>();
+    MockContentResolver mockContentResolver = new MockContentResolver() {
+      @Override
+      public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+        ContentObserver contentObserver = contentObservers.get(uri);
+        if (contentObserver != null) {
+          contentObserver.dispatchChange(false);
+        }
+      }
+    };
+    Context notifyingContext = new MockContext(mockContentResolver, new RenamingDelegatingContext(
+        getContext(), getContext(), "test."));
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(notifyingContext, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    MyTracksProviderUtils notifyingProviderUtils = MyTracksProviderUtils.Factory.get(
+        notifyingContext);
+
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    notifyingProviderUtils.insertTrack(track);
+    Location[] locations = track.getLocations().toArray(new Location[0]);
+    AtomicInteger trackPointsChanges = new AtomicInteger();
+    AtomicInteger tracksChanges = new AtomicInteger();
+    contentObservers.put(TrackPointsColumns.CONTENT_URI, newContentObserver(trackPointsChanges));
+    contentObservers.put(TracksColumns.CONTENT_URI, newContentObserver(tracksChanges));
+
+    int[] levels = new int[] { 7, 0, 1, 0, 0, 0 };
+    track.setNumberOfPoints(6);
+    long[] firstIds = notifyingProviderUtils.insertTrackPoints(
+        locations, levels, 6, trackId, track, new long[0], new int[0], 0);
+    assertEquals(6, firstIds.length);
+    assertEquals(1, trackPointsChanges.get());
+    assertEquals(1, tracksChanges.get());
+
+    Track result = notifyingProviderUtils.getTrack(trackId);
+    assertEquals(firstIds[0], result.getStartId());
+    assertEquals(firstIds[5], result.getStopId());
+    assertEquals(6, result.getNumberOfPoints());
+
+    // The second batch raises the level of a point of the first one
+    Location[] remaining = new Location[] { locations[6], locations[7], locations[8],
+        locations[9] };
+    track.setStartId(result.getStartId());
+    track.setNumberOfPoints(10);
+    long[] secondIds = notifyingProviderUtils.insertTrackPoints(remaining, new int[4], 4,
+        trackId, track, new long[] { firstIds[3] }, new int[] { 2 }, 1);
+    assertEquals(4, secondIds.length);
+    assertEquals(2, trackPointsChanges.get());
+    assertEquals(2, tracksChanges.get());
+
+    result = notifyingProviderUtils.getTrack(trackId);
+    assertEquals(firstIds[0], result.getStartId());
+    assertEquals(secondIds[3], result.getStopId());
+    assertEquals(10, result.getNumberOfPoints());
+
+    TrackPointBatch trackPointBatch = new TrackPointBatch(10);
+    assertEquals(10, notifyingProviderUtils.getTrackPointBatch(
+        trackId, -1L, false, trackPointBatch));
+    assertEquals(7, trackPointBatch.getLevel(0));
+    assertEquals(0, trackPointBatch.getLevel(1));
+    assertEquals(1, trackPointBatch.getLevel(2));
+    assertEquals(2, trackPointBatch.getLevel(3));
+    assertEquals(0, trackPointBatch.getLevel(6));
+  }
+
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#createTrackPoint(Cursor)}.
    */
@@ -848,6 +1011,595 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertFalse(locationIterator.hasNext());
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getTrackPointBatch(long, long, boolean, TrackPointBatch)}.
+   */
+  public void testGetTrackPointBatch() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    track.getLocations().set(3, new MyTracksLocation(createLocation(3),
+        Sensor.SensorDataSet.newBuilder().setCreationTime(1000L).build()));
+    insertTrackWithLocations(track);
+    long firstTrackPointId = providerUtils.getFirstTrackPointId(trackId);
+
+    TrackPointBatch trackPointBatch = new TrackPointBatch(4);
+    assertEquals(4, providerUtils.getTrackPointBatch(trackId, -1L, false, trackPointBatch));
+    assertTrue(trackPointBatch.isFull());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(firstTrackPointId + i, trackPointBatch.getId(i));
+      assertEquals(firstTrackPointId + i, trackPointBatch.getIds()[i]);
+      assertEquals(INITIAL_LATITUDE + (double) i / 10000.0, trackPointBatch.getLatitude(i));
+      assertTrue(trackPointBatch.hasAltitude(i));
+      assertFalse(trackPointBatch.hasSpeed(i));
+      Location location = new MyTracksLocation("test");
+      trackPointBatch.fillLocation(i, location);
+      checkLocation(i, location);
+    }
+    assertFalse(trackPointBatch.hasSensorDataSet(2));
+    assertNull(trackPointBatch.getSensorDataSet(2));
+    assertEquals(1000L, trackPointBatch.getSensorDataSet(3).getCreationTime());
+
+    // Next batches, reusing the batch
+    assertEquals(4, providerUtils.getTrackPointBatch(
+        trackId, trackPointBatch.getId(3) + 1, false, trackPointBatch));
+    assertEquals(firstTrackPointId + 4, trackPointBatch.getId(0));
+    assertFalse(trackPointBatch.hasSensorDataSet(3));
+    assertEquals(2, providerUtils.getTrackPointBatch(
+        trackId, trackPointBatch.getId(3) + 1, false, trackPointBatch));
+    assertFalse(trackPointBatch.isFull());
+    try {
+      trackPointBatch.getId(2);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+
+    // Descending
+    assertEquals(4, providerUtils.getTrackPointBatch(trackId, -1L, true, trackPointBatch));
+    assertEquals(firstTrackPointId + 9, trackPointBatch.getId(0));
+    assertEquals(firstTrackPointId + 6, trackPointBatch.getId(3));
+
+    // No track
+    assertEquals(0, providerUtils.getTrackPointBatch(-1L, -1L, false, trackPointBatch));
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#updateTrackPointLevels(long[], int[], int)}.
+   */
+  public void testUpdateTrackPointLevels() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    long firstTrackPointId = providerUtils.getFirstTrackPointId(trackId);
+
+    long[] ids = { firstTrackPointId, firstTrackPointId + 4, firstTrackPointId + 8, -1L };
+    int[] levels = { 7, 1, 2, 3 };
+    assertEquals(3, providerUtils.updateTrackPointLevels(ids, levels, 3));
+
+    // Levels are never lowered
+    levels[0] = 1;
+    levels[1] = 2;
+    assertEquals(1, providerUtils.updateTrackPointLevels(ids, levels, 2));
+
+    TrackPointBatch trackPointBatch = new TrackPointBatch(10);
+    assertEquals(10, providerUtils.getTrackPointBatch(trackId, -1L, false, trackPointBatch));
+    assertEquals(7, trackPointBatch.getLevel(0));
+    assertEquals(0, trackPointBatch.getLevel(1));
+    assertEquals(2, trackPointBatch.getLevel(4));
+    assertEquals(2, trackPointBatch.getLevel(8));
+
+    // Archived track points keep their levels
+    assertEquals(10, providerUtils.archiveTrackPoints(trackId));
+    assertEquals(10, providerUtils.getTrackPointBatch(trackId, -1L, false, trackPointBatch));
+    assertEquals(7, trackPointBatch.getLevel(0));
+    assertEquals(0, trackPointBatch.getLevel(1));
+    assertEquals(2, trackPointBatch.getLevel(4));
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#archiveTrackPoints(long)}
+   * and reading the archived track points.
+   */
+  public void testArchiveTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    long firstTrackPointId = providerUtils.getFirstTrackPointId(trackId);
+    long lastTrackPointId = providerUtils.getLastTrackPointId(trackId);
+    Location lastLocation = providerUtils.getLastValidTrackPoint(trackId);
+    assertFalse(providerUtils.isTrackArchived(trackId));
+
+    assertEquals(10, providerUtils.archiveTrackPoints(trackId));
+    assertTrue(providerUtils.isTrackArchived(trackId));
+
+    // No rows are left in the track points table
+    Cursor cursor = context.getContentResolver().query(TrackPointsColumns.CONTENT_URI, null,
+        TrackPointsColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+
+    assertEquals(firstTrackPointId, providerUtils.getFirstTrackPointId(trackId));
+    assertEquals(lastTrackPointId, providerUtils.getLastTrackPointId(trackId));
+    checkLocation(0, providerUtils.getFirstValidTrackPoint(trackId));
+    checkLocation(9, providerUtils.getLastValidTrackPoint(trackId));
+    assertEquals(lastTrackPointId, providerUtils.getTrackPointId(trackId, lastLocation));
+
+    cursor = providerUtils.getTrackPointCursor(trackId, firstTrackPointId + 2, 5, false);
+    assertEquals(5, cursor.getCount());
+    cursor.close();
+    cursor = providerUtils.getTrackPointCursor(trackId, firstTrackPointId + 2, 5, true);
+    assertEquals(3, cursor.getCount());
+    cursor.close();
+
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      for (int i = 0; i < 10; i++) {
+        assertTrue(locationIterator.hasNext());
+        Location location = locationIterator.next();
+        assertEquals(firstTrackPointId + i, locationIterator.getLocationId());
+        checkLocation(i, location);
+      }
+      assertFalse(locationIterator.hasNext());
+    } finally {
+      locationIterator.close();
+    }
+  }
+
+  /**
+   * Tests iterating over a large archived track in batches.
+   */
+  public void testArchiveTrackPoints_largeTrack() {
+    long lastPointId = initializeTrack(1, 20000);
+    assertEquals(20000, providerUtils.archiveTrackPoints(1));
+    ((MyTracksProviderUtilsImpl) providerUtils).setDefaultCursorBatchSize(1500);
+
+    for (boolean descending : new boolean[] { false, true }) {
+      int count = 0;
+      LocationIterator it = providerUtils.getTrackPointLocationIterator(
+          1, -1L, descending, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      try {
+        while (it.hasNext()) {
+          Location location = it.next();
+          count++;
+          long id = descending ? lastPointId - count + 1 : lastPointId - 20000 + count;
+          assertEquals(id, it.getLocationId());
+          int i = descending ? 20000 - count : count - 1;
+          assertEquals(i * 2.5, location.getAltitude());
+        }
+      } finally {
+        it.close();
+      }
+      assertEquals(20000, count);
+    }
+  }
+
+  /**
+   * Tests iterating over a track with rows does not look up its chunks, even
+   * when the last batch is empty.
+   */
+  public void testLocationIterator_noChunkLookup() {
+    initializeTrack(1, 50);
+    final AtomicInteger chunkQueries = new AtomicInteger();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    Context countingContext = new MockContext(mockContentResolver, new RenamingDelegatingContext(
+        getContext(), getContext(), "test."));
+    MyTracksProvider provider = new MyTracksProvider() {
+      @Override
+      public Cursor query(
+          Uri url, String[] projection, String selection, String[] selectionArgs, String sort) {
+        if (TrackPointChunksColumns.CONTENT_URI.equals(url)) {
+          chunkQueries.incrementAndGet();
+        }
+        return super.query(url, projection, selection, selectionArgs, sort);
+      }
+    };
+    provider.attachInfo(countingContext, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    MyTracksProviderUtilsImpl countingProviderUtils = (MyTracksProviderUtilsImpl)
+        MyTracksProviderUtils.Factory.get(countingContext);
+    countingProviderUtils.setDefaultCursorBatchSize(25);
+
+    int count = 0;
+    LocationIterator it = countingProviderUtils.getTrackPointLocationIterator(
+        1, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      while (it.hasNext()) {
+        it.next();
+        count++;
+      }
+    } finally {
+      it.close();
+    }
+    assertEquals(50, count);
+    assertEquals(0, chunkQueries.get());
+  }
+
+  /**
+   * Tests deleting an archived track deletes its track point chunks.
+   */
+  public void testArchiveTrackPoints_deleteTrack() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    providerUtils.archiveTrackPoints(trackId);
+
+    providerUtils.deleteTrack(context, trackId);
+    Cursor cursor = context.getContentResolver().query(TrackPointChunksColumns.CONTENT_URI, null,
+        TrackPointChunksColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTrackPointsInBounds(long, Bounds)}
+   * before and after archiving the track.
+   */
+  public void testGetTrackPointsInBounds() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 100));
+
+    // The track points 20 to 29
+    Bounds bounds = new Bounds(37001950, -57002950, 37002950, -57001950);
+    List<Location> locations = providerUtils.getTrackPointsInBounds(trackId, bounds);
+    assertEquals(10, locations.size());
+    for (int i = 0; i < 10; i++) {
+      checkLocation(20 + i, locations.get(i));
+    }
+
+    providerUtils.archiveTrackPoints(trackId);
+    locations = providerUtils.getTrackPointsInBounds(trackId, bounds);
+    assertEquals(10, locations.size());
+    for (int i = 0; i < 10; i++) {
+      checkLocation(20 + i, locations.get(i));
+    }
+
+    assertEquals(0, providerUtils.getTrackPointsInBounds(
+        trackId, new Bounds(38000000, -57000000, 38001000, -56999000)).size());
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getTracksNear(double, double,
+   * double)}.
+   */
+  public void testGetTracksNear() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 100));
+    Track otherTrack = getTrack(trackId + 1, 0);
+    for (int i = 0; i < 100; i++) {
+      Location location = createLocation(i);
+      location.setLatitude(location.getLatitude() + 1.0);
+      otherTrack.addLocation(location);
+    }
+    insertTrackWithLocations(otherTrack);
+
+    List<Track> tracks = providerUtils.getTracksNear(37.005, -57.005, 100.0);
+    assertEquals(1, tracks.size());
+    assertEquals(trackId, tracks.get(0).getId());
+    tracks = providerUtils.getTracksNear(38.005, -57.005, 100.0);
+    assertEquals(1, tracks.size());
+    assertEquals(trackId + 1, tracks.get(0).getId());
+
+    // About 890 meters east of the first track point
+    assertEquals(0, providerUtils.getTracksNear(37.0, -56.99, 500.0).size());
+    assertEquals(1, providerUtils.getTracksNear(37.0, -56.99, 1000.0).size());
+
+    // Both tracks, nearest first
+    tracks = providerUtils.getTracksNear(37.9, -57.005, 200000.0);
+    assertEquals(2, tracks.size());
+    assertEquals(trackId + 1, tracks.get(0).getId());
+    assertEquals(trackId, tracks.get(1).getId());
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getNearestWaypoints(double, double,
+   * int)}.
+   */
+  public void testGetNearestWaypoints() {
+    long trackId = System.currentTimeMillis();
+    providerUtils.insertTrack(getTrack(trackId, 0));
+    double[] latitudes = new double[] { 38.0, 37.0, 37.01 };
+    for (double latitude : latitudes) {
+      Location location = new Location("test");
+      location.setLatitude(latitude);
+      location.setLongitude(INITIAL_LONGITUDE);
+      Waypoint waypoint = new Waypoint();
+      waypoint.setTrackId(trackId);
+      waypoint.setLocation(location);
+      providerUtils.insertWaypoint(waypoint);
+    }
+
+    List<Waypoint> waypoints = providerUtils.getNearestWaypoints(
+        INITIAL_LATITUDE, INITIAL_LONGITUDE, 2);
+    assertEquals(2, waypoints.size());
+    assertEquals(37.0, waypoints.get(0).getLocation().getLatitude());
+    assertEquals(37.01, waypoints.get(1).getLocation().getLatitude());
+
+    // Searches the whole world for more waypoints than there are
+    waypoints = providerUtils.getNearestWaypoints(INITIAL_LATITUDE, INITIAL_LONGITUDE, 5);
+    assertEquals(3, waypoints.size());
+    assertEquals(38.0, waypoints.get(2).getLocation().getLatitude());
+  }
+
+  /**
+   * Tests deleting a track deletes its track tiles.
+   */
+  public void testDeleteTrack_trackTiles() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    Cursor cursor = context.getContentResolver().query(TrackTilesColumns.CONTENT_URI, null,
+        TrackTilesColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(1, cursor.getCount());
+    cursor.close();
+
+    providerUtils.deleteTrack(context, trackId);
+    cursor = context.getContentResolver().query(TrackTilesColumns.CONTENT_URI, null,
+        TrackTilesColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+  }
+
+  /**
+   * Tests deleting track points builds the track tiles of their track again.
+   */
+  public void testDeleteTrackPoints_trackTiles() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+
+    context.getContentResolver().delete(TrackPointsColumns.CONTENT_URI,
+        TrackPointsColumns._ID + ">=?", new String[] { Long.toString(firstId + 5) });
+    assertTrackTile(trackId, firstId, firstId + 4, 5);
+  }
+
+  /**
+   * Tests archiving the track points of a track keeps its track tiles.
+   */
+  public void testArchiveTrackPoints_trackTiles() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    long lastId = providerUtils.getLastTrackPointId(trackId);
+
+    assertEquals(10, providerUtils.archiveTrackPoints(trackId));
+    assertTrackTile(trackId, firstId, lastId, 10);
+  }
+
+  /**
+   * Tests querying the track ids of the track tiles returns each track once.
+   */
+  public void testQueryTrackTilesTrackIds() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    insertTrackWithLocations(getTrack(trackId + 1, 10));
+
+    Cursor cursor = context.getContentResolver().query(TrackTilesColumns.TRACKIDS_CONTENT_URI,
+        null, TrackTilesColumns.TRACKID + ">=?", new String[] { Long.toString(trackId) }, null);
+    try {
+      assertEquals(2, cursor.getCount());
+      assertTrue(cursor.moveToFirst());
+      assertEquals(trackId, cursor.getLong(0));
+      assertTrue(cursor.moveToNext());
+      assertEquals(trackId + 1, cursor.getLong(0));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Asserts a track has one track tile.
+   *
+   * @param trackId the track id
+   * @param startId the expected start id
+   * @param stopId the expected stop id
+   * @param numPoints the expected number of points
+   */
+  private void assertTrackTile(long trackId, long startId, long stopId, int numPoints) {
+    Cursor cursor = context.getContentResolver().query(TrackTilesColumns.CONTENT_URI,
+        new String[] { TrackTilesColumns.STARTID, TrackTilesColumns.STOPID,
+            TrackTilesColumns.NUMPOINTS }, TrackTilesColumns.TRACKID + "=?",
+        new String[] { Long.toString(trackId) }, null);
+    try {
+      assertEquals(1, cursor.getCount());
+      assertTrue(cursor.moveToFirst());
+      assertEquals(startId, cursor.getLong(0));
+      assertEquals(stopId, cursor.getLong(1));
+      assertEquals(numPoints, cursor.getInt(2));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getAggregatedStatistics(int, long,
+   * long)} groups the tracks.
+   */
+  public void testGetAggregatedStatistics() {
+    assertTrue(providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L).isEmpty());
+    providerUtils.insertTrack(createStatisticsTrack("walking", getTime(2014, 2, 10), 1000.0, 2.0));
+    providerUtils.insertTrack(createStatisticsTrack("walking", getTime(2014, 2, 20), 2000.0, 3.0));
+    providerUtils.insertTrack(createStatisticsTrack("biking", getTime(2014, 3, 2), 4000.0, 8.0));
+
+    List<AggregatedStatistics> all = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L);
+    assertEquals(1, all.size());
+    assertEquals(3, all.get(0).getNumberOfTracks());
+    assertEquals(7000.0, all.get(0).getTripStatistics().getTotalDistance());
+    assertEquals(8.0, all.get(0).getTripStatistics().getMaxSpeed());
+    assertEquals(getTime(2014, 2, 10), all.get(0).getTripStatistics().getStartTime());
+    assertMergedStatistics(all.get(0));
+
+    List<AggregatedStatistics> categories = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_CATEGORY, -1L, -1L);
+    assertEquals(2, categories.size());
+    assertEquals("biking", categories.get(0).getCategory());
+    assertEquals(1, categories.get(0).getNumberOfTracks());
+    assertEquals("walking", categories.get(1).getCategory());
+    assertEquals(2, categories.get(1).getNumberOfTracks());
+    assertEquals(3000.0, categories.get(1).getTripStatistics().getTotalDistance());
+
+    List<AggregatedStatistics> months = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_MONTH, -1L, -1L);
+    assertEquals(2, months.size());
+    assertEquals(getTime(2014, 2, 1) - 12 * 3600000L, months.get(0).getPeriodStart());
+    assertEquals(getTime(2014, 3, 1) - 12 * 3600000L, months.get(0).getPeriodEnd());
+    assertEquals(2, months.get(0).getNumberOfTracks());
+    assertEquals(1, months.get(1).getNumberOfTracks());
+
+    months = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_MONTH, getTime(2014, 3, 1) - 12 * 3600000L, -1L);
+    assertEquals(1, months.size());
+    assertEquals(4000.0, months.get(0).getTripStatistics().getTotalDistance());
+
+    assertEquals(1, providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_YEAR, -1L, -1L).size());
+    assertEquals(3, providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_WEEK, -1L, -1L).size());
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getAggregatedStatistics(int, long,
+   * long)} follows the updates of the tracks, growing as while recording, or
+   * shrinking.
+   */
+  public void testGetAggregatedStatistics_updateTrack() {
+    providerUtils.insertTrack(createStatisticsTrack("walking", getTime(2014, 2, 10), 1000.0, 2.0));
+    Track track = createStatisticsTrack("walking", getTime(2014, 2, 20), 2000.0, 3.0);
+    track.setId(Long.parseLong(providerUtils.insertTrack(track).getLastPathSegment()));
+
+    // Grows
+    track.getTripStatistics().setTotalDistance(2500.0);
+    track.getTripStatistics().setMaxSpeed(4.0);
+    providerUtils.updateTrack(track);
+    AggregatedStatistics all = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L).get(0);
+    assertEquals(3500.0, all.getTripStatistics().getTotalDistance());
+    assertEquals(4.0, all.getTripStatistics().getMaxSpeed());
+    assertMergedStatistics(all);
+
+    // Shrinks and changes category
+    track.getTripStatistics().setMaxSpeed(1.5);
+    track.setCategory("biking");
+    providerUtils.updateTrack(track);
+    all = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L).get(0);
+    assertEquals(2.0, all.getTripStatistics().getMaxSpeed());
+    assertMergedStatistics(all);
+    List<AggregatedStatistics> categories = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_CATEGORY, -1L, -1L);
+    assertEquals(2, categories.size());
+    assertEquals(2500.0, categories.get(0).getTripStatistics().getTotalDistance());
+    assertEquals(1000.0, categories.get(1).getTripStatistics().getTotalDistance());
+
+    // Not a statistics change
+    track.setName("new name");
+    providerUtils.updateTrack(track);
+    assertMergedStatistics(providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L).get(0));
+  }
+
+  /**
+   * Tests {@link MyTracksProviderUtilsImpl#getAggregatedStatistics(int, long,
+   * long)} follows the deletes of the tracks.
+   */
+  public void testGetAggregatedStatistics_deleteTrack() {
+    providerUtils.insertTrack(createStatisticsTrack("walking", getTime(2014, 2, 10), 1000.0, 2.0));
+    long trackId = Long.parseLong(providerUtils.insertTrack(
+        createStatisticsTrack("biking", getTime(2014, 3, 2), 4000.0, 8.0)).getLastPathSegment());
+
+    providerUtils.deleteTrack(context, trackId);
+    AggregatedStatistics all = providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_ALL, -1L, -1L).get(0);
+    assertEquals(1, all.getNumberOfTracks());
+    assertEquals(2.0, all.getTripStatistics().getMaxSpeed());
+    assertMergedStatistics(all);
+    assertEquals(1, providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_CATEGORY, -1L, -1L).size());
+    assertEquals(1, providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_MONTH, -1L, -1L).size());
+
+    providerUtils.deleteAllTracks(context);
+    assertTrue(providerUtils.getAggregatedStatistics(
+        AggregatedStatisticsColumns.GROUP_CATEGORY, -1L, -1L).isEmpty());
+  }
+
+  /**
+   * Creates a track with statistics.
+   * 
+   * @param category the category
+   * @param startTime the start time
+   * @param distance the total distance
+   * @param maxSpeed the max speed
+   */
+  private Track createStatisticsTrack(
+      String category, long startTime, double distance, double maxSpeed) {
+    Track track = new Track();
+    track.setCategory(category);
+    track.setStartId(-1L);
+    TripStatistics tripStatistics = track.getTripStatistics();
+    tripStatistics.setStartTime(startTime);
+    tripStatistics.setStopTime(startTime + 3600000L);
+    tripStatistics.setTotalTime(3600000L);
+    tripStatistics.setMovingTime(3000000L);
+    tripStatistics.setTotalDistance(distance);
+    tripStatistics.setMaxSpeed(maxSpeed);
+    tripStatistics.setBounds(-57000000, 37001000, -56999000, 37000000);
+    tripStatistics.setMinElevation(distance / 100.0);
+    tripStatistics.setMaxElevation(distance / 10.0);
+    tripStatistics.setTotalElevationGain(distance / 20.0);
+    tripStatistics.setMinGrade(-0.1);
+    tripStatistics.setMaxGrade(0.1);
+    tripStatistics.setCalorie(distance / 10.0);
+    return track;
+  }
+
+  /**
+   * Gets the time of noon on a day, in the default time zone.
+   * 
+   * @param year the year
+   * @param month the month, from 0
+   * @param day the day of the month
+   */
+  private long getTime(int year, int month, int day) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(year, month, day, 12, 0, 0);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Asserts the aggregated statistics of all the tracks are the ones merged
+   * from the tracks, as the aggregated stats activity used to.
+   * 
+   * @param aggregatedStatistics the aggregated statistics of all the tracks
+   */
+  private void assertMergedStatistics(AggregatedStatistics aggregatedStatistics) {
+    List<Track> tracks = providerUtils.getAllTracks();
+    assertEquals(tracks.size(), aggregatedStatistics.getNumberOfTracks());
+    TripStatistics expected = new TripStatistics(tracks.get(0).getTripStatistics());
+    for (int i = 1; i < tracks.size(); i++) {
+      expected.merge(tracks.get(i).getTripStatistics());
+    }
+    TripStatistics actual = aggregatedStatistics.getTripStatistics();
+    assertEquals(expected.getStartTime(), actual.getStartTime());
+    assertEquals(expected.getStopTime(), actual.getStopTime());
+    assertEquals(expected.getTotalDistance(), actual.getTotalDistance(), 0.01);
+    assertEquals(expected.getTotalTime(), actual.getTotalTime());
+    assertEquals(expected.getMovingTime(), actual.getMovingTime());
+    assertEquals(expected.getTop(), actual.getTop());
+    assertEquals(expected.getBottom(), actual.getBottom());
+    assertEquals(expected.getLeft(), actual.getLeft());
+    assertEquals(expected.getRight(), actual.getRight());
+    assertEquals(expected.getMaxSpeed(), actual.getMaxSpeed(), 0.01);
+    assertEquals(expected.getMinElevation(), actual.getMinElevation(), 0.01);
+    assertEquals(expected.getMaxElevation(), actual.getMaxElevation(), 0.01);
+    assertEquals(expected.getTotalElevationGain(), actual.getTotalElevationGain(), 0.01);
+    assertEquals(expected.getMinGrade(), actual.getMinGrade(), 0.01);
+    assertEquals(expected.getMaxGrade(), actual.getMaxGrade(), 0.01);
+    assertEquals(expected.getCalorie(), actual.getCalorie(), 0.01);
+  }
+
   /**
    * Simulates a track which is used for testing.
    * 
@@ -866,6 +1618,20 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     return track;
   }
   
+  /**
+   * Creates a content observer counting its changes.
+   * 
+   * @param numberOfChanges the number of changes
+   */
+  private ContentObserver newContentObserver(final AtomicInteger numberOfChanges) {
+    return new ContentObserver(null) {
+      @Override
+      public void onChange(boolean selfChange) {
+        numberOfChanges.incrementAndGet();
+      }
+    };
+  }
+
   /**
    * Creates a location.
    * @param i the index to set the value of location.
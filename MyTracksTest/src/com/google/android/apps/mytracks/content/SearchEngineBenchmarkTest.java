@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.SearchEngine.SearchQuery;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+/**
+ * Benchmarks the text search over a large synthetic database. Compares the
+ * former LIKE '%text%' scans of the tracks and waypoints tables with the
+ * {@link SearchEngine} queries of the full-text search tables. The time of
+ * each query is logged.
+ */
+public class SearchEngineBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = SearchEngineBenchmarkTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_TRACKS = 20000;
+  private static final int NUMBER_OF_WAYPOINTS = 200000;
+  private static final int BATCH_SIZE = 1000;
+  private static final long NOW = 1400000000000L;
+
+  private static final String[] WORDS = { "river", "lake", "forest", "bridge", "summit",
+      "trail", "harbor", "valley", "meadow", "canyon", "ridge", "village", "station" };
+
+  // The former selection of the search engine
+  private static final String LIKE_SELECTION = "name LIKE ? OR description LIKE ? OR "
+      + "category LIKE ?";
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private SearchEngine searchEngine;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+    searchEngine = new SearchEngine(myTracksProviderUtils);
+
+    ContentValues[] values = new ContentValues[BATCH_SIZE];
+    for (int i = 0; i < NUMBER_OF_TRACKS; i += BATCH_SIZE) {
+      for (int j = 0; j < BATCH_SIZE; j++) {
+        values[j] = createTrackValues(i + j);
+      }
+      context.getContentResolver().bulkInsert(TracksColumns.CONTENT_URI, values);
+    }
+    for (int i = 0; i < NUMBER_OF_WAYPOINTS; i += BATCH_SIZE) {
+      for (int j = 0; j < BATCH_SIZE; j++) {
+        values[j] = createWaypointValues(i + j);
+      }
+      context.getContentResolver().bulkInsert(WaypointsColumns.CONTENT_URI, values);
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myTracksProviderUtils.deleteAllTracks(getContext());
+    super.tearDown();
+  }
+
+  /**
+   * Measures the queries of a frequent word, a rare word, and two words. The
+   * database is only filled once, as it takes a while.
+   */
+  public void testSearch() {
+    measure("riv");
+    measure("summit");
+    measure("track 1999");
+  }
+
+  /**
+   * Measures the former LIKE scans, the search engine, and the suggestions
+   * for a text.
+   *
+   * @param text the text
+   */
+  private void measure(final String text) {
+    measure("LIKE '" + text + "'", new Search() {
+      @Override
+      public int search() {
+        return searchLike(text);
+      }
+    });
+    measure("Full-text '" + text + "'", new Search() {
+      @Override
+      public int search() {
+        return searchEngine.search(new SearchQuery(text, null, -1L, NOW)).size();
+      }
+    });
+    measure("Suggestions '" + text + "'", new Search() {
+      @Override
+      public int search() {
+        return searchEngine.getSuggestions(text, 5).size();
+      }
+    });
+  }
+
+  /**
+   * A search.
+   */
+  private interface Search {
+
+    /**
+     * Runs the search and returns the number of results.
+     */
+    int search();
+  }
+
+  /**
+   * Runs a search once to warm up, then measures a second run and logs its
+   * time.
+   *
+   * @param name the measurement name
+   * @param search the search
+   */
+  private void measure(String name, Search search) {
+    int expected = search.search();
+    long start = System.nanoTime();
+    int count = search.search();
+    long time = System.nanoTime() - start;
+    assertEquals(expected, count);
+    assertTrue(name, count > 0);
+
+    Log.i(TAG, name + ": " + time / 1000000L + " ms, " + count + " results");
+  }
+
+  /**
+   * Runs the former LIKE queries of the search engine, and returns the number
+   * of rows read.
+   *
+   * @param text the text
+   */
+  private int searchLike(String text) {
+    String like = "%" + text + "%";
+    String[] selectionArgs = new String[] { like, like, like };
+    int count = 0;
+    Cursor cursor = myTracksProviderUtils.getTrackCursor(
+        LIKE_SELECTION, selectionArgs, TracksColumns._ID + " DESC LIMIT 1000");
+    try {
+      while (cursor.moveToNext()) {
+        myTracksProviderUtils.createTrack(cursor);
+        count++;
+      }
+    } finally {
+      cursor.close();
+    }
+    cursor = myTracksProviderUtils.getWaypointCursor(
+        LIKE_SELECTION, selectionArgs, WaypointsColumns._ID + " DESC", 100);
+    try {
+      while (cursor.moveToNext()) {
+        myTracksProviderUtils.createWaypoint(cursor);
+        count++;
+      }
+    } finally {
+      cursor.close();
+    }
+    return count;
+  }
+
+  /**
+   * Creates the values of a track.
+   *
+   * @param i the track index
+   */
+  private ContentValues createTrackValues(int i) {
+    ContentValues values = new ContentValues();
+    values.put(TracksColumns.NAME, "Track " + i + " " + WORDS[i % WORDS.length]);
+    values.put(TracksColumns.DESCRIPTION,
+        WORDS[(i * 7) % WORDS.length] + " to " + WORDS[(i * 11) % WORDS.length]);
+    values.put(TracksColumns.CATEGORY, i % 2 == 0 ? "Hiking" : "Running");
+    values.put(TracksColumns.STARTTIME, NOW - 3600000L * (NUMBER_OF_TRACKS - i));
+    values.put(TracksColumns.STOPTIME, NOW - 3600000L * (NUMBER_OF_TRACKS - i) + 1800000L);
+    values.put(TracksColumns.STARTID, -1L);
+    return values;
+  }
+
+  /**
+   * Creates the values of a waypoint.
+   *
+   * @param i the waypoint index
+   */
+  private ContentValues createWaypointValues(int i) {
+    ContentValues values = new ContentValues();
+    values.put(WaypointsColumns.NAME, "Marker " + i + " " + WORDS[(i * 3) % WORDS.length]);
+    values.put(WaypointsColumns.DESCRIPTION, "Near the " + WORDS[(i * 5) % WORDS.length]);
+    values.put(WaypointsColumns.CATEGORY, "");
+    values.put(WaypointsColumns.TRACKID, 1 + i % NUMBER_OF_TRACKS);
+    values.put(WaypointsColumns.TYPE, WaypointType.WAYPOINT.ordinal());
+    values.put(WaypointsColumns.LATITUDE, 37000000 + i);
+    values.put(WaypointsColumns.LONGITUDE, -122000000 - i);
+    values.put(WaypointsColumns.TIME, NOW - 60000L * (NUMBER_OF_WAYPOINTS - i));
+    return values;
+  }
+}
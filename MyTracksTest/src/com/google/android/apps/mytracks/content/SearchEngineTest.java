@@ -152,9 +152,9 @@ public class SearchEngineTest extends AndroidTestCase {
     long descriptionMatchId = insertTrack("bb", "aa", "cc");
     long categoryMatchId = insertTrack("bb", "cc", "aa");
     long titleMatchId = insertTrack("aa", "bb", "cc");
-    long titleCategoryMatchId = insertTrack("aa", "bb", "ca");
-    long titleDescriptionMatchId = insertTrack("aa", "ba", "cc");
-    long allMatchId = insertTrack("aa", "ba", "ca");
+    long titleCategoryMatchId = insertTrack("aa", "bb", "ac");
+    long titleDescriptionMatchId = insertTrack("aa", "ab", "cc");
+    long allMatchId = insertTrack("aa", "ab", "ac");
 
     SearchQuery query = new SearchQuery("a", null, -1, NOW);
     ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
@@ -178,9 +178,9 @@ public class SearchEngineTest extends AndroidTestCase {
     long descriptionMatchId = insertWaypoint("bb", "aa", "cc");
     long categoryMatchId = insertWaypoint("bb", "cc", "aa");
     long titleMatchId = insertWaypoint("aa", "bb", "cc");
-    long titleCategoryMatchId = insertWaypoint("aa", "bb", "ca");
-    long titleDescriptionMatchId = insertWaypoint("aa", "ba", "cc");
-    long allMatchId = insertWaypoint("aa", "ba", "ca");
+    long titleCategoryMatchId = insertWaypoint("aa", "bb", "ac");
+    long titleDescriptionMatchId = insertWaypoint("aa", "ab", "cc");
+    long allMatchId = insertWaypoint("aa", "ab", "ac");
 
     SearchQuery query = new SearchQuery("a", null, -1, NOW);
     ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
@@ -290,6 +290,89 @@ public class SearchEngineTest extends AndroidTestCase {
     assertWaypointResults(results, currentId, otherId);
   }
 
+  public void testSearchPrefix() {
+    // Words match by prefix, not in the middle.
+    long prefixId = insertTrack("morning run", "", "");
+    insertTrack("warm up", "", "");
+    long wordId = insertTrack("evening jog", "along the river", "");
+
+    SearchQuery query = new SearchQuery("Ru", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    assertTrackResults(results, prefixId);
+
+    query = new SearchQuery("rive", null, -1, NOW);
+    results = new ArrayList<ScoredResult>(engine.search(query));
+
+    assertTrackResults(results, wordId);
+  }
+
+  public void testSearchMultipleWords() {
+    // All the words must match, in any field and in any order.
+    long bothId = insertTrack("morning run", "along the river", "running");
+    insertTrack("morning walk", "in the park", "walking");
+    long otherFieldId = insertWaypoint("river", "start of the run", "");
+    insertWaypoint("river", "lunch break", "");
+
+    SearchQuery query = new SearchQuery("river, run", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    assertEquals(results.toString(), 2, results.size());
+    assertTrackResult(bothId, results.get(0));
+    assertWaypointResult(otherFieldId, results.get(1));
+  }
+
+  public void testSearchNoWords() {
+    insertTrack("aa", "bb", "cc");
+
+    SearchQuery query = new SearchQuery(" - ", null, -1, NOW);
+    assertTrue(engine.search(query).isEmpty());
+  }
+
+  public void testSearchUpdatedTrack() {
+    // The search index follows the updates of the tracks.
+    long trackId = insertTrack("aa", "bb", "cc");
+    Track track = providerUtils.getTrack(trackId);
+    track.setName("dd");
+    providerUtils.updateTrack(track);
+
+    SearchQuery query = new SearchQuery("a", null, -1, NOW);
+    assertTrue(engine.search(query).isEmpty());
+
+    query = new SearchQuery("d", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+    assertTrackResults(results, trackId);
+
+    providerUtils.deleteTrack(getContext(), trackId);
+    assertTrue(engine.search(query).isEmpty());
+  }
+
+  public void testGetSuggestions() {
+    insertTrack("Morning run", "", "");
+    insertTrack("morning RUN", "", "");
+    insertTrack("Evening run", "morning", "");
+    insertWaypoint("Morning break", "", "");
+
+    List<String> suggestions = engine.getSuggestions("mor", 5);
+
+    // Names only, tracks first, without duplicates.
+    assertEquals(Arrays.asList("morning RUN", "Morning break"), suggestions);
+    assertTrue(engine.getSuggestions("", 5).isEmpty());
+  }
+
+  public void testGetMatchQuery() {
+    assertEquals("morning* run*", SearchEngine.getMatchQuery("morning run", null));
+    assertEquals("name:a* name:b2*", SearchEngine.getMatchQuery(" a,b2-", "name"));
+    assertEquals("\u00e9t\u00e9*", SearchEngine.getMatchQuery("\u00e9t\u00e9", null));
+    assertNull(SearchEngine.getMatchQuery(" \"*' ", null));
+  }
+
+  public void testGetMatchedColumns() {
+    assertEquals(0, SearchEngine.getMatchedColumns(""));
+    assertEquals(1, SearchEngine.getMatchedColumns("0 0 0 3"));
+    assertEquals(6, SearchEngine.getMatchedColumns("2 0 4 5 1 1 0 3"));
+  }
+
   private void assertTrackResult(long trackId, ScoredResult result) {
     assertNotNull("Not a track", result.track);
     assertNull("Ambiguous result", result.waypoint);
@@ -42,8 +42,11 @@ import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.easymock.Capture;
@@ -67,6 +70,7 @@ public class TrackDataHubTest extends AndroidTestCase {
   private TrackDataHub trackDataHub;
   private TrackDataListener trackDataListener1;
   private TrackDataListener trackDataListener2;
+  private List<Long> levelsTrackIds;
   private Capture<OnSharedPreferenceChangeListener> preferenceChangeListenerCapture = new Capture<
       SharedPreferences.OnSharedPreferenceChangeListener>();
 
@@ -80,6 +84,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
     dataSource = AndroidMock.createMock(DataSource.class, context);
     trackDataManager = new TrackDataManager();
+    levelsTrackIds = new ArrayList<Long>();
     trackDataHub = new TrackDataHub(
         context, trackDataManager, myTracksProviderUtils, TARGET_POINTS) {
         @Override
@@ -92,6 +97,11 @@ public class TrackDataHubTest extends AndroidTestCase {
         // Run everything in the same thread
         runnable.run();
       }
+
+        @Override
+      protected void buildLevels(long trackId) {
+        levelsTrackIds.add(trackId);
+      }
     };
 
     trackDataListener1 = AndroidMock.createStrictMock(
@@ -327,6 +337,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     trackDataHub.unregisterTrackDataListener(trackDataListener1);
     trackDataHub.loadTrack(TRACK_ID + 1);
     verifyAndReset();
+    assertEquals(Collections.singletonList(TRACK_ID + 1), levelsTrackIds);
   }
 
   /**
@@ -430,6 +441,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     trackDataHub.registerTrackDataListener(
         trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
     verifyAndReset();
+    assertEquals(Collections.singletonList(TRACK_ID + 1), levelsTrackIds);
   }
 
   /**
@@ -469,9 +481,10 @@ public class TrackDataHubTest extends AndroidTestCase {
   }
 
   /**
-   * Tests track points table update with resampling.
+   * Tests track points table update of a growing track. The new points are
+   * sampled at a lower frequency without reloading the track.
    */
-  public void testTrackPointsTableUpdate_resampling() {
+  public void testTrackPointsTableUpdate_growingTrack() {
     Capture<ContentObserver> observerCapture = new Capture<ContentObserver>();
     dataSource.registerContentObserver(
         eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
@@ -506,12 +519,11 @@ public class TrackDataHubTest extends AndroidTestCase {
     observer.onChange(false);
     verifyAndReset();
 
-    // Now another 30 (triggers resampling)
-    locationIterator = new FixedSizeLocationIterator(1, 90);
+    // Now another 30 (incrementally sampled, no reload)
+    locationIterator = new FixedSizeLocationIterator(61, 30);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(61L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(90L);
-    trackDataListener1.clearTrackPoints();
     locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
     trackDataListener1.onNewTrackPointsDone();
     replay();
@@ -520,6 +532,102 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
   }
 
+  /**
+   * Tests track points table update of a finished track with levels. The
+   * points of the level matching the target number of points and the last
+   * point are sampled in.
+   */
+  public void testTrackPointsTableUpdate_levels() {
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), isA(ContentObserver.class));
+
+    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 200);
+    setLevels(locationIterator);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID + 1), eq(0L), eq(false), isA(LocationFactory.class)))
+        .andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(200L);
+    trackDataListener1.clearTrackPoints();
+    locationIterator.expectLeveledLocationsDelivered(trackDataListener1, 1, 200L, 4, true);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID + 1);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    verifyAndReset();
+  }
+
+  /**
+   * Tests track points table update of a recording track with levels. The
+   * last points, whose levels can still change, are sampled by frequency.
+   */
+  public void testTrackPointsTableUpdate_levelsRecording() {
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), isA(ContentObserver.class));
+
+    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 200);
+    setLevels(locationIterator);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(200L);
+    trackDataListener1.clearTrackPoints();
+    locationIterator.expectLeveledLocationsDelivered(
+        trackDataListener1, 1, 200L - TrackPointLevelUpdater.getMaxNumberOfPendingPoints(1), 4,
+        false);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    verifyAndReset();
+
+    // The track has levels
+    assertTrue(levelsTrackIds.isEmpty());
+  }
+
+  /**
+   * Tests track points table update of a track without levels. The levels are
+   * built in the background, not while loading the track.
+   */
+  public void testTrackPointsTableUpdate_buildLevels() {
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), isA(ContentObserver.class));
+
+    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID + 1), eq(0L), eq(false), isA(LocationFactory.class)))
+        .andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(10L);
+    trackDataListener1.clearTrackPoints();
+    locationIterator.expectLocationsDelivered(trackDataListener1);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID + 1);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    verifyAndReset();
+    assertEquals(Collections.singletonList(TRACK_ID + 1), levelsTrackIds);
+  }
+
+  /**
+   * Sets the levels of a location iterator. The first point has the max level,
+   * then every 4th point has level 1 and every 16th point level 2.
+   * 
+   * @param locationIterator the location iterator
+   */
+  private void setLevels(FixedSizeLocationIterator locationIterator) {
+    locationIterator.setLevel(0, TrackPointLevelUpdater.MAX_LEVEL);
+    for (int i = 4; i < 200; i += 4) {
+      locationIterator.setLevel(i, i % 16 == 0 ? 2 : 1);
+    }
+  }
+
   /**
    * Tests preferences change.
    */
@@ -631,6 +739,7 @@ public class TrackDataHubTest extends AndroidTestCase {
   private static class FixedSizeLocationIterator implements LocationIterator {
     private final long startId;
     private final Location[] locations;
+    private final int[] levels;
     private final Set<Integer> splitIndexSet = new HashSet<Integer>();
     private int currentIndex = -1;
 
@@ -641,6 +750,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     public FixedSizeLocationIterator(long startId, int size, int... splitIndexes) {
       this.startId = startId;
       this.locations = new Location[size];
+      this.levels = new int[size];
 
       for (int i = 0; i < size; i++) {
         Location location = new Location("gps");
@@ -687,6 +797,21 @@ public class TrackDataHubTest extends AndroidTestCase {
       }
     }
 
+    public void setLevel(int index, int level) {
+      levels[index] = level;
+    }
+
+    public void expectLeveledLocationsDelivered(TrackDataListener listener, int level,
+        long lastLevelsId, int sampleFrequency, boolean includeLast) {
+      for (int i = 0; i < locations.length; i++) {
+        long id = startId + i;
+        boolean sampledIn = id <= lastLevelsId ? levels[i] >= level : i % sampleFrequency == 0;
+        if (sampledIn || (includeLast && i == locations.length - 1)) {
+          listener.onSampledInTrackPoint(locations[i]);
+        }
+      }
+    }
+
     @Override
     public boolean hasNext() {
       return currentIndex < locations.length - 1;
@@ -708,6 +833,11 @@ public class TrackDataHubTest extends AndroidTestCase {
       return startId + currentIndex;
     }
 
+    @Override
+    public int getLocationLevel() {
+      return levels[currentIndex];
+    }
+
     @Override
     public void close() {
       // Do nothing
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackPointChunk}.
+ */
+public class TrackPointChunkTest extends TestCase {
+
+  private static final int NUMBER_OF_POINTS = 50;
+
+  /**
+   * Tests encoding and decoding a chunk.
+   */
+  public void testEncodeDecode() {
+    TrackPointChunk chunk = createChunk();
+    assertTrue(chunk.isFull());
+
+    TrackPointChunk decoded = TrackPointChunk.decode(chunk.encode());
+    assertEquals(NUMBER_OF_POINTS, decoded.size());
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      assertEquals(chunk.getId(i), decoded.getId(i));
+      assertEquals(chunk.getLong(TrackPointChunk.TIME_COLUMN, i),
+          decoded.getLong(TrackPointChunk.TIME_COLUMN, i));
+      assertEquals(chunk.getLong(TrackPointChunk.LATITUDE_COLUMN, i),
+          decoded.getLong(TrackPointChunk.LATITUDE_COLUMN, i));
+      assertEquals(chunk.getLong(TrackPointChunk.LONGITUDE_COLUMN, i),
+          decoded.getLong(TrackPointChunk.LONGITUDE_COLUMN, i));
+      for (int column = TrackPointChunk.ALTITUDE_COLUMN; column <= TrackPointChunk.BEARING_COLUMN;
+          column++) {
+        assertEquals(chunk.isNull(column, i), decoded.isNull(column, i));
+        assertEquals(chunk.getFloat(column, i), decoded.getFloat(column, i));
+      }
+      assertEquals(chunk.isNull(TrackPointChunk.SENSOR_COLUMN, i),
+          decoded.isNull(TrackPointChunk.SENSOR_COLUMN, i));
+      assertTrue(Arrays.equals(chunk.getSensor(i), decoded.getSensor(i)));
+      assertEquals(chunk.getLong(TrackPointChunk.LEVEL_COLUMN, i),
+          decoded.getLong(TrackPointChunk.LEVEL_COLUMN, i));
+    }
+  }
+
+  /**
+   * Tests the values and null flags of a chunk.
+   */
+  public void testValues() {
+    TrackPointChunk chunk = createChunk();
+    assertEquals(100L, chunk.getId(0));
+    assertEquals(-370001L, chunk.getLong(TrackPointChunk.LATITUDE_COLUMN, 1));
+    assertEquals(2.5f, chunk.getFloat(TrackPointChunk.ALTITUDE_COLUMN, 1));
+    assertTrue(chunk.isNull(TrackPointChunk.SPEED_COLUMN, 0));
+    assertEquals(0.0f, chunk.getFloat(TrackPointChunk.SPEED_COLUMN, 0));
+    assertFalse(chunk.isNull(TrackPointChunk.SPEED_COLUMN, 1));
+    assertTrue(chunk.isNull(TrackPointChunk.SENSOR_COLUMN, 1));
+    assertNotNull(chunk.getSensor(2));
+    assertEquals(1L, chunk.getLong(TrackPointChunk.LEVEL_COLUMN, 4));
+    assertEquals(0L, chunk.getLong(TrackPointChunk.LEVEL_COLUMN, 5));
+
+    chunk.clear();
+    assertEquals(0, chunk.size());
+    assertFalse(chunk.isFull());
+  }
+
+  /**
+   * Tests the encoding is smaller than the uncompressed values.
+   */
+  public void testEncode_size() {
+    // Each point has at least 2 longs, 2 ints and 2 floats
+    assertTrue(createChunk().encode().length < NUMBER_OF_POINTS * 32);
+  }
+
+  /**
+   * Tests decoding data with an unknown version.
+   */
+  public void testDecode_unknownVersion() {
+    byte[] data = createChunk().encode();
+    data[0] = 99;
+    try {
+      TrackPointChunk.decode(data);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests decoding truncated data.
+   */
+  public void testDecode_truncated() {
+    byte[] data = createChunk().encode();
+    byte[] truncated = new byte[data.length / 2];
+    System.arraycopy(data, 0, truncated, 0, truncated.length);
+    try {
+      TrackPointChunk.decode(truncated);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Creates a chunk. Latitudes go down and longitudes go up to have negative
+   * and positive deltas. Every other point has a speed, every third point has
+   * sensor data, and every fourth point has a level.
+   */
+  private TrackPointChunk createChunk() {
+    MatrixCursor cursor = new MatrixCursor(TrackPointsColumns.COLUMNS);
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      cursor.addRow(new Object[] { 100L + i, 1L, 570000 + i, -370000 - i,
+          1000000L + i * 1000L, i * 2.5f, i / 100.0f, i % 2 == 0 ? null : i * 0.5f, -i * 1.5f,
+          i % 3 == 2 ? new byte[] { (byte) i, 1, 2, 3 } : null, i % 4 == 0 ? i / 4 % 8 : null });
+    }
+    TrackPointChunk chunk = new TrackPointChunk(NUMBER_OF_POINTS);
+    while (cursor.moveToNext()) {
+      chunk.add(cursor);
+    }
+    cursor.close();
+    return chunk;
+  }
+}
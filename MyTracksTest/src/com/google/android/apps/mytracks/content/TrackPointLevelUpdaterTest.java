@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+
+import android.content.Context;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link TrackPointLevelUpdater}.
+ */
+public class TrackPointLevelUpdaterTest extends AndroidTestCase {
+
+  private static final int NUMBER_OF_POINTS = 2000;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+  }
+
+  /**
+   * Tests the method {@link TrackPointLevelUpdater#getLevel(long, int)}.
+   */
+  public void testGetLevel() {
+    assertEquals(0, TrackPointLevelUpdater.getLevel(0, 50));
+    assertEquals(0, TrackPointLevelUpdater.getLevel(50, 50));
+    assertEquals(1, TrackPointLevelUpdater.getLevel(51, 50));
+    assertEquals(1, TrackPointLevelUpdater.getLevel(200, 50));
+    assertEquals(2, TrackPointLevelUpdater.getLevel(201, 50));
+    assertEquals(TrackPointLevelUpdater.MAX_LEVEL,
+        TrackPointLevelUpdater.getLevel(Long.MAX_VALUE, 50));
+  }
+
+  /**
+   * Tests each level has about a quarter of the points of the previous level,
+   * and the first and last points have the max level.
+   */
+  public void testFinish_levelSizes() {
+    long trackId = insertTrack(NUMBER_OF_POINTS, -1);
+    new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId);
+
+    byte[] levels = getLevels(trackId);
+    assertEquals(TrackPointLevelUpdater.MAX_LEVEL, levels[0]);
+    assertEquals(TrackPointLevelUpdater.MAX_LEVEL, levels[NUMBER_OF_POINTS - 1]);
+
+    int previousCount = NUMBER_OF_POINTS;
+    for (int level = 1; level <= 4; level++) {
+      int count = 0;
+      for (byte value : levels) {
+        if (value >= level) {
+          count++;
+        }
+      }
+      int expected = previousCount / TrackPointLevelUpdater.LEVEL_FACTOR;
+      assertTrue("level " + level + ": " + count, count >= expected - 1 && count <= expected + 2);
+      previousCount = count;
+    }
+  }
+
+  /**
+   * Tests the points around a segment split have the max level.
+   */
+  public void testFinish_segments() {
+    long trackId = insertTrack(NUMBER_OF_POINTS, 100);
+    new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId);
+
+    byte[] levels = getLevels(trackId);
+    assertEquals(TrackPointLevelUpdater.MAX_LEVEL, levels[99]);
+    assertEquals(TrackPointLevelUpdater.MAX_LEVEL, levels[100]);
+    assertEquals(TrackPointLevelUpdater.MAX_LEVEL, levels[101]);
+  }
+
+  /**
+   * Tests turns are kept rather than every Nth point.
+   */
+  public void testFinish_keepsTurns() {
+    long trackId = insertTrack(NUMBER_OF_POINTS, -1);
+    new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId);
+
+    // The path turns every 50 points, the turns are kept at level 2
+    byte[] levels = getLevels(trackId);
+    for (int i = 50; i < NUMBER_OF_POINTS; i += 50) {
+      assertTrue("point " + i + ": " + levels[i], levels[i] >= 2);
+    }
+  }
+
+  /**
+   * Tests updating the levels as the points are recorded gives the same levels
+   * as updating them once, and that going through the track again changes
+   * nothing.
+   */
+  public void testUpdate_incremental() {
+    long trackId1 = insertTrack(NUMBER_OF_POINTS, 500);
+    new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId1);
+
+    long trackId2 = insertTrack(0, -1);
+    TrackPointLevelUpdater trackPointLevelUpdater = new TrackPointLevelUpdater(
+        myTracksProviderUtils);
+    Location[] locations = new Location[NUMBER_OF_POINTS];
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      locations[i] = createLocation(i, 500);
+    }
+    for (int i = 0; i < NUMBER_OF_POINTS; i += 30) {
+      Location[] batch = new Location[Math.min(30, NUMBER_OF_POINTS - i)];
+      System.arraycopy(locations, i, batch, 0, batch.length);
+      myTracksProviderUtils.bulkInsertTrackPoint(batch, batch.length, trackId2);
+      trackPointLevelUpdater.update(trackId2);
+    }
+    trackPointLevelUpdater.finish(trackId2);
+
+    byte[] levels = getLevels(trackId1);
+    assertTrue(Arrays.equals(levels, getLevels(trackId2)));
+
+    new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId1);
+    assertTrue(Arrays.equals(levels, getLevels(trackId1)));
+  }
+
+  /**
+   * Tests inserting the track points with their levels, as the recording does,
+   * gives the same levels as updating them once, also when the updater starts
+   * in the middle of the track.
+   */
+  public void testInsert() {
+    long trackId1 = insertTrack(NUMBER_OF_POINTS, 500);
+    new TrackPointLevelUpdater(myTracksProviderUtils).finish(trackId1);
+
+    long trackId2 = insertTrack(0, -1);
+    TrackPointLevelUpdater trackPointLevelUpdater = new TrackPointLevelUpdater(
+        myTracksProviderUtils);
+    for (int i = 0; i < NUMBER_OF_POINTS; i += 30) {
+      if (i == 900) {
+        // As after a restart
+        trackPointLevelUpdater = new TrackPointLevelUpdater(myTracksProviderUtils);
+      }
+      Location[] batch = new Location[Math.min(30, NUMBER_OF_POINTS - i)];
+      for (int j = 0; j < batch.length; j++) {
+        batch[j] = createLocation(i + j, 500);
+      }
+      long[] ids = trackPointLevelUpdater.insert(trackId2, batch, batch.length, null);
+      assertEquals(batch.length, ids.length);
+    }
+    trackPointLevelUpdater.finish(trackId2);
+
+    assertTrue(Arrays.equals(getLevels(trackId1), getLevels(trackId2)));
+  }
+
+  /**
+   * Inserts a track and returns its id.
+   *
+   * @param numberOfPoints the number of points
+   * @param splitIndex the index of a segment split, or -1
+   */
+  private long insertTrack(int numberOfPoints, int splitIndex) {
+    long trackId = Long.parseLong(
+        myTracksProviderUtils.insertTrack(new Track()).getLastPathSegment());
+    if (numberOfPoints > 0) {
+      Location[] locations = new Location[numberOfPoints];
+      for (int i = 0; i < numberOfPoints; i++) {
+        locations[i] = createLocation(i, splitIndex);
+      }
+      myTracksProviderUtils.bulkInsertTrackPoint(locations, numberOfPoints, trackId);
+    }
+    return trackId;
+  }
+
+  /**
+   * Creates a location on a zigzag path turning every 50 points.
+   *
+   * @param i the location index
+   * @param splitIndex the index of a segment split, or -1
+   */
+  private Location createLocation(int i, int splitIndex) {
+    Location location = new Location("gps");
+    if (i == splitIndex) {
+      location.setLatitude(100.0);
+      location.setLongitude(200.0);
+    } else {
+      int offset = i % 100 < 50 ? i % 100 : 100 - i % 100;
+      location.setLatitude(37.0 + i / 10000.0);
+      location.setLongitude(-57.0 + offset / 10000.0);
+    }
+    location.setTime(1000L * (i + 1));
+    return location;
+  }
+
+  /**
+   * Gets the levels of the track points of a track.
+   *
+   * @param trackId the track id
+   */
+  private byte[] getLevels(long trackId) {
+    byte[] levels = new byte[NUMBER_OF_POINTS];
+    TrackPointBatch trackPointBatch = new TrackPointBatch(256);
+    int count = 0;
+    long startTrackPointId = -1L;
+    do {
+      int size = myTracksProviderUtils.getTrackPointBatch(
+          trackId, startTrackPointId, false, trackPointBatch);
+      if (size == 0) {
+        break;
+      }
+      System.arraycopy(trackPointBatch.getLevels(), 0, levels, count, size);
+      count += size;
+      startTrackPointId = trackPointBatch.getId(size - 1) + 1;
+    } while (trackPointBatch.isFull());
+    assertEquals(NUMBER_OF_POINTS, count);
+    return levels;
+  }
+}
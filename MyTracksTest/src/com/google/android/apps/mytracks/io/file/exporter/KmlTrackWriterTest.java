@@ -16,16 +16,21 @@
 package com.google.android.apps.mytracks.io.file.exporter;
 
 import com.google.android.apps.mytracks.content.DescriptionGenerator;
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 
 import android.location.Location;
 
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 /**
  * Tests for {@link KmlTrackWriter}.
@@ -36,6 +41,9 @@ public class KmlTrackWriterTest extends TrackWriterTest {
 
   private static final String FULL_TRACK_DESCRIPTION = "full track description";
 
+  // No sensor value
+  private static final int NONE = -1;
+
   /**
    * A fake version of {@link DescriptionGenerator} which returns a fixed track
    * description, thus not depending on the context.
@@ -86,6 +94,173 @@ public class KmlTrackWriterTest extends TrackWriterTest {
     assertTagHasPoints(trackTags.get(1), location3, location4);
   }
 
+  /**
+   * Tests the sensor data of a location without a value in the middle of a
+   * segment.
+   */
+  public void testSensorData_missingValue() throws Exception {
+    List<Element> trackTags = writeSegments(new MyTracksLocation[] {
+        createLocation(0, 100, 200, 300),
+        createLocation(1, 101, NONE, 301),
+        createLocation(2, NONE, NONE, NONE),
+        createLocation(3, 103, 203, 303) });
+    assertSensorData(trackTags.get(0), "power", 100, 101, -1, 103);
+    assertSensorData(trackTags.get(0), "cadence", 200, -1, -1, 203);
+    assertSensorData(trackTags.get(0), "heart_rate", 300, 301, -1, 303);
+  }
+
+  /**
+   * Tests the sensor data of a segment whose last locations have no value.
+   */
+  public void testSensorData_trailingMissingValues() throws Exception {
+    List<Element> trackTags = writeSegments(new MyTracksLocation[] {
+        createLocation(0, 100, 200, NONE),
+        createLocation(1, 101, NONE, NONE),
+        createLocation(2, NONE, NONE, NONE),
+        createLocation(3, NONE, NONE, NONE) });
+    assertSensorData(trackTags.get(0), "power", 100, 101, -1, -1);
+    assertSensorData(trackTags.get(0), "cadence", 200, -1, -1, -1);
+    assertSensorData(trackTags.get(0), "heart_rate");
+  }
+
+  /**
+   * Tests the sensor data of a sensor connected partway through a segment.
+   */
+  public void testSensorData_sensorAppearsPartway() throws Exception {
+    List<Element> trackTags = writeSegments(new MyTracksLocation[] {
+        createLocation(0, NONE, NONE, 300),
+        createLocation(1, NONE, NONE, 301),
+        createLocation(2, 102, NONE, 302),
+        createLocation(3, 103, NONE, 303) });
+    assertSensorData(trackTags.get(0), "power", -1, -1, 102, 103);
+    assertSensorData(trackTags.get(0), "cadence");
+    assertSensorData(trackTags.get(0), "heart_rate", 300, 301, 302, 303);
+  }
+
+  /**
+   * Tests the sensor data of two segments. The values of the first segment are
+   * not carried over to the second one.
+   */
+  public void testSensorData_twoSegments() throws Exception {
+    List<Element> trackTags = writeSegments(new MyTracksLocation[] {
+        createLocation(0, 100, NONE, 300),
+        createLocation(1, 101, NONE, 301),
+        createLocation(2, 102, NONE, 302) }, new MyTracksLocation[] {
+        createLocation(3, NONE, 203, NONE),
+        createLocation(4, NONE, NONE, 304) });
+    assertSensorData(trackTags.get(0), "power", 100, 101, 102);
+    assertSensorData(trackTags.get(0), "cadence");
+    assertSensorData(trackTags.get(0), "heart_rate", 300, 301, 302);
+    assertSensorData(trackTags.get(1), "power");
+    assertSensorData(trackTags.get(1), "cadence", 203, -1);
+    assertSensorData(trackTags.get(1), "heart_rate", -1, 304);
+  }
+
+  /**
+   * Writes a track with some segments and returns its gx:Track tags.
+   *
+   * @param segments the locations of each segment
+   */
+  private List<Element> writeSegments(MyTracksLocation[]... segments) throws Exception {
+    KmlTrackWriter kmlTrackWriter = new KmlTrackWriter(
+        getContext(), false, false, new FakeDescriptionGenerator());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    MyTracksLocation startLocation = segments[0][0];
+    MyTracksLocation[] lastSegment = segments[segments.length - 1];
+    MyTracksLocation endLocation = lastSegment[lastSegment.length - 1];
+    kmlTrackWriter.prepare(output);
+    kmlTrackWriter.writeHeader(new Track[] { track });
+    kmlTrackWriter.writeBeginTracks();
+    kmlTrackWriter.writeBeginTrack(track, startLocation);
+    for (MyTracksLocation[] segment : segments) {
+      kmlTrackWriter.writeOpenSegment();
+      for (MyTracksLocation location : segment) {
+        kmlTrackWriter.writeLocation(location);
+      }
+      kmlTrackWriter.writeCloseSegment();
+    }
+    kmlTrackWriter.writeEndTrack(track, endLocation);
+    kmlTrackWriter.writeEndTracks();
+    kmlTrackWriter.writeFooter();
+    kmlTrackWriter.close();
+
+    Document doc = parseXmlDocument(output.toString());
+    Element docTag = getChildElement(getChildElement(doc, "kml"), "Document");
+    Element trackPlacemarkTag = getChildElements(docTag, "Placemark", 3).get(1);
+    Element multiTrackTag = getChildElement(trackPlacemarkTag, "gx:MultiTrack");
+    return getChildElements(multiTrackTag, "gx:Track", segments.length);
+  }
+
+  /**
+   * Creates a location with sensor data.
+   *
+   * @param i the location index
+   * @param power the power, {@link #NONE} if no value
+   * @param cadence the cadence, {@link #NONE} if no value
+   * @param heartRate the heart rate, {@link #NONE} if no value
+   */
+  private MyTracksLocation createLocation(int i, int power, int cadence, int heartRate) {
+    MyTracksLocation location = new MyTracksLocation("mock");
+    location.setLatitude(i);
+    location.setLongitude(-i);
+    location.setAltitude(i * 10);
+    location.setTime(i * 100000);
+    Sensor.SensorDataSet.Builder builder = Sensor.SensorDataSet.newBuilder();
+    if (power != NONE) {
+      builder.setPower(createSensorData(power));
+    }
+    if (cadence != NONE) {
+      builder.setCadence(createSensorData(cadence));
+    } else {
+      // A sensor which is not sending has no value
+      builder.setCadence(Sensor.SensorData.newBuilder().setValue(1)
+          .setState(Sensor.SensorState.CONNECTING));
+    }
+    if (heartRate != NONE) {
+      builder.setHeartRate(createSensorData(heartRate));
+    }
+    location.setSensorDataSet(builder.build());
+    return location;
+  }
+
+  private Sensor.SensorData.Builder createSensorData(int value) {
+    return Sensor.SensorData.newBuilder().setValue(value).setState(Sensor.SensorState.SENDING);
+  }
+
+  /**
+   * Asserts the values of a sensor in a gx:Track tag, -1 for a location
+   * without a value.
+   *
+   * @param trackTag the gx:Track tag
+   * @param name the sensor name
+   * @param values the expected values, none if the sensor is not written
+   */
+  private void assertSensorData(Element trackTag, String name, int... values) {
+    Element schemaDataTag = getChildElement(
+        getChildElement(trackTag, "ExtendedData"), "SchemaData");
+    Element arrayDataTag = null;
+    NodeList arrayDataTags = schemaDataTag.getElementsByTagName("gx:SimpleArrayData");
+    for (int i = 0; i < arrayDataTags.getLength(); i++) {
+      Element element = (Element) arrayDataTags.item(i);
+      if (name.equals(element.getAttribute("name"))) {
+        arrayDataTag = element;
+      }
+    }
+    if (values.length == 0) {
+      assertNull(arrayDataTag);
+      return;
+    }
+    assertNotNull(arrayDataTag);
+    List<Element> valueTags = getChildElements(arrayDataTag, "gx:value", values.length);
+    List<Integer> actual = new ArrayList<Integer>();
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < values.length; i++) {
+      actual.add(Integer.valueOf(valueTags.get(i).getTextContent()));
+      expected.add(values[i]);
+    }
+    assertEquals(expected, actual);
+  }
+
   /**
    * Asserts that the given tag is a placemark with the given properties.
    *
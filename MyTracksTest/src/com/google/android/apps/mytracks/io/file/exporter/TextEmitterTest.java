@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.util.StringUtils;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tests for {@link TextEmitter}.
+ */
+public class TextEmitterTest extends AndroidTestCase {
+
+  private ByteArrayOutputStream outputStream;
+  private TextEmitter textEmitter;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    outputStream = new ByteArrayOutputStream();
+    textEmitter = new TextEmitter(outputStream);
+  }
+
+  /**
+   * Tests the print methods of a {@link java.io.PrintWriter}.
+   */
+  public void testPrint() throws Exception {
+    textEmitter.print("a");
+    textEmitter.print((String) null);
+    textEmitter.print('b');
+    textEmitter.print(-12);
+    textEmitter.print(Long.MIN_VALUE);
+    textEmitter.print(0L);
+    textEmitter.print(1.5);
+    textEmitter.print(-1e-7);
+    textEmitter.println("c");
+    textEmitter.println();
+    String lineSeparator = System.getProperty("line.separator");
+    assertEquals("anullb-12" + Long.MIN_VALUE + "01.5-1.0E-7c" + lineSeparator + lineSeparator,
+        getOutput());
+  }
+
+  /**
+   * Tests a text larger than the buffer.
+   */
+  public void testPrint_large() throws Exception {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      builder.append("é").append(i);
+    }
+    textEmitter.print(builder.toString());
+    assertEquals(builder.toString(), getOutput());
+  }
+
+  /**
+   * Tests that {@link TextEmitter#printFixed(double, int, boolean)} matches a
+   * {@link NumberFormat}.
+   */
+  public void testPrintFixed() throws Exception {
+    NumberFormat coordinateFormat = NumberFormat.getInstance(Locale.US);
+    coordinateFormat.setMaximumFractionDigits(6);
+    coordinateFormat.setGroupingUsed(false);
+    NumberFormat shortFormat = NumberFormat.getInstance(Locale.US);
+    shortFormat.setMaximumFractionDigits(4);
+
+    double[] values = { 0.0, -0.0, 0.25, 0.35, 1e-7, -1e-7, 324.0, 179.9999999, -122.0841,
+        1000.0, 12345.67891, 999999.99999 };
+    StringBuilder expected = new StringBuilder();
+    for (double value : values) {
+      textEmitter.printFixed(value, 6, false);
+      textEmitter.print(' ');
+      textEmitter.printFixed(value, 4, true);
+      textEmitter.print(' ');
+      expected.append(coordinateFormat.format(value)).append(' ')
+          .append(shortFormat.format(value)).append(' ');
+    }
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      double value = (random.nextDouble() - 0.5) * 400.0;
+      textEmitter.printFixed(value, 6, false);
+      textEmitter.print(' ');
+      expected.append(coordinateFormat.format(value)).append(' ');
+    }
+    assertEquals(expected.toString(), getOutput());
+  }
+
+  /**
+   * Tests that {@link TextEmitter#printTime(long)} matches
+   * {@link StringUtils#formatDateTimeIso8601(long)}, within a day, across
+   * days, and before the Gregorian calendar.
+   */
+  public void testPrintTime() throws Exception {
+    long[] times = { 0L, 1L, 86399999L, 86400000L, -1L, 951782400000L, 951868800000L,
+        1400000000123L, 1400000000124L, 253402300799999L, 253402300800000L,
+        -12219292800001L, -12219292800000L };
+    StringBuilder expected = new StringBuilder();
+    for (long time : times) {
+      textEmitter.printTime(time);
+      expected.append(StringUtils.formatDateTimeIso8601(time));
+    }
+    Random random = new Random(0);
+    long time = 1400000000000L;
+    for (int i = 0; i < 1000; i++) {
+      time += random.nextInt(3600000);
+      textEmitter.printTime(time);
+      expected.append(StringUtils.formatDateTimeIso8601(time));
+    }
+    assertEquals(expected.toString(), getOutput());
+  }
+
+  /**
+   * Tests {@link TextEmitter#printCsv(String)}.
+   */
+  public void testPrintCsv() throws Exception {
+    textEmitter.printCsv("a \"b\" c");
+    textEmitter.printCsv(null);
+    textEmitter.printCsv("");
+    assertEquals("\"a \"\"b\"\" c\"\"\"\"\"", getOutput());
+  }
+
+  /**
+   * Flushes the text emitter and gets the output.
+   */
+  private String getOutput() throws Exception {
+    textEmitter.flush();
+    return outputStream.toString("UTF-8");
+  }
+}
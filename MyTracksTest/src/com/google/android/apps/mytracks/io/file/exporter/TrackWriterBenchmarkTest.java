@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.exporter;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor;
+
+import android.location.Location;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.OutputStream;
+
+/**
+ * Benchmarks the track points output of the track writers, for a 100k points
+ * track. The throughput and the allocations per point of each format are
+ * logged.
+ */
+public class TrackWriterBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackWriterBenchmarkTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_POINTS = 100000;
+
+  private Location[] locations;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    locations = new Location[NUMBER_OF_POINTS];
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      locations[i] = createLocation(i);
+    }
+  }
+
+  public void testGpx() {
+    measure("GPX", new GpxTrackWriter(getContext()));
+  }
+
+  public void testKml() {
+    measure("KML", new KmlTrackWriter(getContext(), false, false));
+  }
+
+  public void testTcx() {
+    measure("TCX", new TcxTrackWriter(getContext()));
+  }
+
+  public void testCsv() {
+    measure("CSV", new CsvTrackWriter(getContext()));
+  }
+
+  /**
+   * Writes the track points once to warm up, then measures a second write.
+   * Logs the MB per second and the allocations per point.
+   *
+   * @param name the measurement name
+   * @param trackWriter the track writer
+   */
+  @SuppressWarnings("deprecation")
+  private void measure(String name, TrackWriter trackWriter) {
+    long expected = write(trackWriter);
+
+    Debug.resetThreadAllocCount();
+    Debug.startAllocCounting();
+    long start = System.nanoTime();
+    long bytes;
+    try {
+      bytes = write(trackWriter);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+    long time = System.nanoTime() - start;
+    int allocations = Debug.getThreadAllocCount();
+    assertEquals(expected, bytes);
+    assertTrue(bytes > 0);
+
+    Log.i(TAG, name + ": " + bytes * 1000000000L / Math.max(1L, time) / (1024.0 * 1024.0)
+        + " MB/s, " + (double) allocations / NUMBER_OF_POINTS + " allocations/point");
+  }
+
+  /**
+   * Writes a segment of all the track points and returns the number of bytes
+   * written.
+   *
+   * @param trackWriter the track writer
+   */
+  private long write(TrackWriter trackWriter) {
+    CountingOutputStream outputStream = new CountingOutputStream();
+    trackWriter.prepare(outputStream);
+    trackWriter.writeOpenSegment();
+    for (Location location : locations) {
+      trackWriter.writeLocation(location);
+    }
+    trackWriter.writeCloseSegment();
+    trackWriter.close();
+    return outputStream.count;
+  }
+
+  /**
+   * Creates a location with sensor data at every tenth location.
+   *
+   * @param i the location index
+   */
+  private Location createLocation(int i) {
+    MyTracksLocation location = new MyTracksLocation("gps");
+    location.setLatitude(37.0 + i / 100000.0);
+    location.setLongitude(-57.0 - i / 100000.0);
+    location.setAltitude(100.0 + i % 50);
+    location.setAccuracy(5.0f);
+    location.setSpeed(2.5f);
+    location.setBearing(90.0f);
+    location.setTime(1400000000000L + i * 1000L);
+    if (i % 10 == 0) {
+      Sensor.SensorData.Builder heartRate = Sensor.SensorData.newBuilder().setValue(120)
+          .setState(Sensor.SensorState.SENDING);
+      location.setSensorDataSet(Sensor.SensorDataSet.newBuilder().setHeartRate(heartRate)
+          .build());
+    }
+    return location;
+  }
+
+  /**
+   * An output stream counting and discarding the bytes.
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    long count = 0;
+
+    @Override
+    public void write(int oneByte) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+      count += length;
+    }
+  }
+}
@@ -58,6 +58,8 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
   protected static final double TRACK_LONGITUDE = 9.177886;
   protected static final double TRACK_ELEVATION = 324.0;
 
+  protected static final String WAYPOINT_NAME_0 = "waypoint";
+
   protected static final String TRACK_TIME_0 = "2010-04-22T18:21:00Z";
   protected static final String TRACK_TIME_1 = "2010-04-22T18:21:50.123";
   protected static final String TRACK_TIME_2 = "2010-04-22T18:23:00.123";
@@ -121,35 +123,34 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
   }
 
   /**
-   * Expects the first track point to be added.
+   * Expects a batch of track points to be inserted.
    * 
-   * @param location the location
+   * @param locations the first locations of the batch, null to not check them
+   * @param length the number of track points
    * @param trackId the track id
-   * @param trackPointId the track point id
+   * @param firstTrackPointId the id of the first track point
    */
-  protected void expectFirstTrackPoint(Location location, long trackId, long trackPointId) {
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        location != null ? LocationsMatcher.eqLoc(location) : (Location[]) AndroidMock.anyObject(),
-        eq(1), eq(trackId))).andReturn(1);
-    expect(myTracksProviderUtils.getFirstTrackPointId(trackId)).andReturn(trackPointId);
-    expect(myTracksProviderUtils.getLastTrackPointId(trackId)).andReturn(trackPointId);
+  protected void expectTrackPoints(
+      Location[] locations, int length, long trackId, long firstTrackPointId) {
+    long[] ids = new long[length];
+    for (int i = 0; i < length; i++) {
+      ids[i] = firstTrackPointId + i;
+    }
+    Location[] locationsMatcher = locations != null ? LocationsMatcher.eqLoc(locations)
+        : (Location[]) AndroidMock.anyObject();
+    expect(myTracksProviderUtils.insertTrackPoints(locationsMatcher, eq(length), eq(trackId)))
+        .andReturn(ids);
   }
 
   /**
-   * Expects the track to be updated.
+   * Expects the track to be updated, and its first waypoint to be inserted.
    * 
    * @param track the track
-   * @param lastTrack true if it is the last track in the gpx
-   * @param trackId the track id
    */
-  protected void expectUpdateTrack(Capture<Track> track, boolean lastTrack, long trackId) {
+  protected void expectUpdateTrack(Capture<Track> track) {
     myTracksProviderUtils.updateTrack(AndroidMock.capture(track));
     expect(myTracksProviderUtils.insertWaypoint((Waypoint) AndroidMock.anyObject()))
         .andReturn(WAYPOINT_ID_O_URI);
-    if (lastTrack) {
-      // Return null to not add waypoints
-      expect(myTracksProviderUtils.getTrack(trackId)).andReturn(null);
-    }
   }
 
   protected void verifyTrack(Track track, String name, String description, long time) {
@@ -160,5 +161,18 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
     }
     assertNotSame(-1, track.getStartId());
     assertNotSame(-1, track.getStopId());
+  }
+
+  /**
+   * Verifies the track start id and stop id are the ones of the inserted track
+   * points.
+   * 
+   * @param track the track
+   * @param startId the expected start id
+   * @param stopId the expected stop id
+   */
+  protected void verifyTrackPointIds(Track track, long startId, long stopId) {
+    assertEquals(startId, track.getStartId());
+    assertEquals(stopId, track.getStopId());
   }  
 }
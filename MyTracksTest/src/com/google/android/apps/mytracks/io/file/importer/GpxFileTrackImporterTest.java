@@ -16,10 +16,10 @@
 
 package com.google.android.apps.mytracks.io.file.importer;
 
-import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.android.testing.mocking.AndroidMock;
@@ -56,6 +56,13 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     return buffer.toString();
   }
 
+  private static String getWaypoint(int index, String time, String name) {
+    String latitude = Double.toString(TRACK_LATITUDE + index);
+    String longitude = Double.toString(TRACK_LONGITUDE + index);
+    return "<wpt lat=\"" + latitude + "\" lon=\"" + longitude + "\"><time>" + time
+        + "</time><name>" + name + "</name></wpt>";
+  }
+
   private static final String VALID_ONE_TRACK_ONE_SEGMENT_GPX = "<gpx><trk>"
       + getNameAndDescription(TRACK_NAME_0, TRACK_DESCRIPTION_0) + "<trkseg>"
       + getTrackPoint(0, TRACK_TIME_0) + getTrackPoint(1, TRACK_TIME_1) + "</trkseg></trk></gpx>";
@@ -63,6 +70,10 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
       + getNameAndDescription(TRACK_NAME_0, TRACK_DESCRIPTION_0) + "<trkseg>"
       + getTrackPoint(0, TRACK_TIME_0) + getTrackPoint(1, TRACK_TIME_1) + "</trkseg><trkseg>"
       + getTrackPoint(2, TRACK_TIME_2) + getTrackPoint(3, TRACK_TIME_3) + "</trkseg></trk></gpx>";
+  private static final String VALID_ONE_TRACK_WAYPOINTS_GPX = "<gpx>"
+      + getWaypoint(1, TRACK_TIME_1, WAYPOINT_NAME_0) + getWaypoint(2, TRACK_TIME_0, "off track")
+      + "<trk>" + getNameAndDescription(TRACK_NAME_0, TRACK_DESCRIPTION_0) + "<trkseg>"
+      + getTrackPoint(0, TRACK_TIME_0) + getTrackPoint(1, TRACK_TIME_1) + "</trkseg></trk></gpx>";
   private static final String VALID_ONE_TRACK_TWO_SEGMENTS_NO_TIME_GPX = "<gpx><trk>"
       + getNameAndDescription(TRACK_NAME_0, TRACK_DESCRIPTION_0) + "<trkseg>"
       + getTrackPoint(0, null) + getTrackPoint(1, null) + "</trkseg><trkseg>"
@@ -92,16 +103,13 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
-    expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
+    expectTrackPoints(new Location[] { location0, location1 }, 2, TRACK_ID_0, TRACK_POINT_ID_0);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
-    expectUpdateTrack(track, true, TRACK_ID_0);
+    expectUpdateTrack(track);
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
@@ -115,6 +123,7 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     assertEquals(time1 - time0, track.getValue().getTripStatistics().getTotalTime());
     AndroidMock.verify(myTracksProviderUtils);
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0, time0);
+    verifyTrackPointIds(track.getValue(), TRACK_POINT_ID_0, TRACK_POINT_ID_1);
   }
 
   /**
@@ -127,15 +136,13 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
-    expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
-    // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+
+    // A flush happens at the end, with a pause and a resume between the segments
+    expectTrackPoints(new Location[] { location0 }, 6, TRACK_ID_0, TRACK_POINT_ID_0);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
-    expectUpdateTrack(track, true, TRACK_ID_0);
+    expectUpdateTrack(track);
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_TWO_SEGMENTS_GPX.getBytes());
@@ -154,6 +161,44 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.verify(myTracksProviderUtils);
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
         DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    verifyTrackPointIds(track.getValue(), TRACK_POINT_ID_0, TRACK_POINT_ID_0 + 5);
+  }
+
+  /**
+   * Tests one track with waypoints. The waypoint on a track point is placed
+   * while parsing, without reading the track points back, and the waypoint off
+   * the track is dropped.
+   */
+  public void testOneTrackWaypoints() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    Capture<Waypoint> waypoint = new Capture<Waypoint>();
+
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expectTrackPoints(null, 2, TRACK_ID_0, TRACK_POINT_ID_0);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track);
+    expect(myTracksProviderUtils.insertWaypoint(AndroidMock.capture(waypoint)))
+        .andReturn(WAYPOINT_ID_O_URI);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_WAYPOINTS_GPX.getBytes());
+    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    long trackId = gpxFileTrackImporter.importFile(inputStream);
+    assertEquals(TRACK_ID_0, trackId);
+    AndroidMock.verify(myTracksProviderUtils);
+
+    long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    long time1 = DATE_FORMAT_1.parse(TRACK_TIME_1).getTime();
+    assertEquals(WAYPOINT_NAME_0, waypoint.getValue().getName());
+    assertEquals(TRACK_ID_0, waypoint.getValue().getTrackId());
+    assertEquals(time1, waypoint.getValue().getLocation().getTime());
+    assertEquals(TRACK_LATITUDE + 1, waypoint.getValue().getLocation().getLatitude());
+    assertEquals(time1 - time0, waypoint.getValue().getDuration());
+    assertTrue(waypoint.getValue().getLength() > 0.0);
   }
 
   /**
@@ -164,16 +209,13 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
-    expectFirstTrackPoint(null, TRACK_ID_0, TRACK_POINT_ID_0);
 
-    // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+    // A flush happens at the end, with a pause and a resume between the segments
+    expectTrackPoints(null, 6, TRACK_ID_0, TRACK_POINT_ID_0);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
-    expectUpdateTrack(track, true, TRACK_ID_0);
+    expectUpdateTrack(track);
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(
@@ -236,11 +278,9 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
     // For the following, use StubReturn since we don't care whether they are
     // invoked or not.
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+    expect(myTracksProviderUtils.insertTrackPoints(
         (Location[]) AndroidMock.anyObject(), AndroidMock.anyInt(), AndroidMock.anyLong()))
-        .andStubReturn(1);
-    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
+        .andStubReturn(new long[] { TRACK_POINT_ID_0 });
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
@@ -16,7 +16,6 @@
 
 package com.google.android.apps.mytracks.io.file.importer;
 
-import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
 import com.google.android.apps.mytracks.content.Track;
@@ -53,7 +52,7 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     return buffer.toString();
   }
 
-  private static final String VALID_ONE_TRACK_ONE_SEGMENT_GPX =
+  static final String VALID_ONE_TRACK_ONE_SEGMENT_GPX =
       "<kml xmlns:gx=\"http://www.google.com/kml/ext/2.2\"><Placemark>"
       + getNameAndDescription(TRACK_NAME_0, TRACK_DESCRIPTION_0) + "<gx:MultiTrack><gx:Track>"
       + getTrackPoint(0, TRACK_TIME_0) + getTrackPoint(1, TRACK_TIME_1)
@@ -75,16 +74,13 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
 
     myTracksProviderUtils.clearTrack(getContext(), TRACK_ID_0);
-    expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
+    expectTrackPoints(new Location[] { location0, location1 }, 2, TRACK_ID_0, TRACK_POINT_ID_0);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
-    expectUpdateTrack(track, true, TRACK_ID_0);
+    expectUpdateTrack(track);
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
@@ -98,6 +94,7 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     assertEquals(time1 - time0, track.getValue().getTripStatistics().getTotalTime());
     AndroidMock.verify(myTracksProviderUtils);
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0, time0);
+    verifyTrackPointIds(track.getValue(), TRACK_POINT_ID_0, TRACK_POINT_ID_1);
   }
 
   /**
@@ -109,16 +106,13 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
 
     myTracksProviderUtils.clearTrack(getContext(), TRACK_ID_0);
-    expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
 
-    // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+    // A flush happens at the end, with a pause and a resume between the segments
+    expectTrackPoints(new Location[] { location0 }, 6, TRACK_ID_0, TRACK_POINT_ID_0);
     expect(
         myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
             R.string.recording_track_id_key))).andStubReturn(null);
-    expectUpdateTrack(track, true, TRACK_ID_0);
+    expectUpdateTrack(track);
     AndroidMock.replay(myTracksProviderUtils);
 
     InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_TWO_SEGMENTS_GPX.getBytes());
@@ -137,5 +131,6 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     AndroidMock.verify(myTracksProviderUtils);
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
         DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    verifyTrackPointIds(track.getValue(), TRACK_POINT_ID_0, TRACK_POINT_ID_0 + 5);
   }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.io.file.exporter.FileTrackExporter;
+import com.google.android.apps.mytracks.io.file.exporter.KmzTrackExporter;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
+import com.google.android.testing.mocking.AndroidMock;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.location.Location;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.easymock.Capture;
+
+/**
+ * Tests for {@link KmzTrackImporter}.
+ */
+public class KmzTrackImporterTest extends AbstractTestFileTrackImporter {
+
+  // A track id whose photo directory is not used by a real track
+  private static final long IMPORT_TRACK_ID = Long.MAX_VALUE - 1;
+
+  private static final String IMAGE_NAME_0 = "image0.jpg";
+  private static final String IMAGE_NAME_1 = "image1.jpg";
+
+  // More than a file channel transfer
+  private static final int IMAGE_SIZE = 100000;
+
+  private File kmzFile;
+  private File photoFile;
+  private File photoDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    kmzFile = new File(getContext().getCacheDir(), "test.kmz");
+    photoFile = new File(getContext().getCacheDir(), IMAGE_NAME_0);
+    photoDir = FileUtils.getPhotoDir(IMPORT_TRACK_ID);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    kmzFile.delete();
+    photoFile.delete();
+    if (photoDir.isDirectory()) {
+      for (File file : photoDir.listFiles()) {
+        file.delete();
+      }
+      photoDir.delete();
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Tests importing a kmz file with images. The kml is parsed first, even
+   * though the images come before it in the file.
+   */
+  public void testImportFile_images() throws Exception {
+    byte[] image0 = createImage(0);
+    byte[] image1 = createImage(1);
+    ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(kmzFile));
+    try {
+      addEntry(zipOutputStream, KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
+          + IMAGE_NAME_0, image0);
+      addEntry(zipOutputStream, KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar
+          + IMAGE_NAME_1, image1);
+      addEntry(zipOutputStream, "other.txt", new byte[] { 1, 2, 3 });
+      addEntry(zipOutputStream, KmzTrackExporter.KMZ_KML_FILE,
+          KmlFileTrackImporterTest.VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+    } finally {
+      zipOutputStream.close();
+    }
+
+    Capture<Track> track = new Capture<Track>();
+    expectImport(track);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    assertEquals(IMPORT_TRACK_ID, newKmzTrackImporter().importFile(kmzFile));
+    AndroidMock.verify(myTracksProviderUtils);
+    verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
+        DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+
+    assertEquals(2, photoDir.listFiles().length);
+    assertTrue(Arrays.equals(image0, readFile(new File(photoDir, IMAGE_NAME_0))));
+    assertTrue(Arrays.equals(image1, readFile(new File(photoDir, IMAGE_NAME_1))));
+  }
+
+  /**
+   * Tests a photo exported by {@link KmzTrackExporter} is imported unchanged.
+   */
+  public void testImportFile_exportedImage() throws Exception {
+    byte[] image = createImage(0);
+    writeFile(photoFile, image);
+
+    // The first waypoint holds the track statistics and is skipped
+    Track exportTrack = new Track();
+    exportTrack.setId(TRACK_ID_0);
+    MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID });
+    cursor.addRow(new Object[] { WAYPOINT_ID_0 });
+    cursor.addRow(new Object[] { WAYPOINT_ID_0 + 1 });
+    Waypoint waypoint = new Waypoint();
+    waypoint.setPhotoUrl(Uri.fromFile(photoFile).toString());
+    expect(myTracksProviderUtils.getWaypointCursor(TRACK_ID_0, -1L, -1)).andReturn(cursor);
+    expect(myTracksProviderUtils.createWaypoint((Cursor) AndroidMock.anyObject()))
+        .andReturn(waypoint);
+    Capture<Track> track = new Capture<Track>();
+    expectImport(track);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    FileTrackExporter fileTrackExporter = new FileTrackExporter(
+        myTracksProviderUtils, new Track[] { exportTrack }, null, null) {
+      @Override
+      public boolean writeTrack(OutputStream outputStream) {
+        try {
+          outputStream.write(KmlFileTrackImporterTest.VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    };
+    KmzTrackExporter kmzTrackExporter = new KmzTrackExporter(
+        myTracksProviderUtils, fileTrackExporter, new Track[] { exportTrack }, getContext());
+    FileOutputStream fileOutputStream = new FileOutputStream(kmzFile);
+    try {
+      assertTrue(kmzTrackExporter.writeTrack(fileOutputStream));
+    } finally {
+      fileOutputStream.close();
+    }
+
+    ZipFile zipFile = new ZipFile(kmzFile);
+    try {
+      ZipEntry zipEntry = zipFile.getEntry(
+          KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar + IMAGE_NAME_0);
+      assertNotNull(zipEntry);
+      assertTrue(Arrays.equals(image, readFully(zipFile.getInputStream(zipEntry))));
+    } finally {
+      zipFile.close();
+    }
+
+    assertEquals(IMPORT_TRACK_ID, newKmzTrackImporter().importFile(kmzFile));
+    AndroidMock.verify(myTracksProviderUtils);
+    assertTrue(Arrays.equals(image, readFile(new File(photoDir, IMAGE_NAME_0))));
+  }
+
+  /**
+   * Expects the track of
+   * {@link KmlFileTrackImporterTest#VALID_ONE_TRACK_ONE_SEGMENT_GPX} to be
+   * imported.
+   *
+   * @param track the track
+   */
+  private void expectImport(Capture<Track> track) throws Exception {
+    Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
+    myTracksProviderUtils.clearTrack(getContext(), IMPORT_TRACK_ID);
+    expectTrackPoints(
+        new Location[] { location0, location1 }, 2, IMPORT_TRACK_ID, TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.getTrack(
+        PreferencesUtils.getLong(getContext(), R.string.recording_track_id_key)))
+        .andStubReturn(null);
+    expectUpdateTrack(track);
+  }
+
+  private KmzTrackImporter newKmzTrackImporter() {
+    return new KmzTrackImporter(
+        getContext(), IMPORT_TRACK_ID, new TrackPointWriter(myTracksProviderUtils, false));
+  }
+
+  /**
+   * Creates the content of an image.
+   *
+   * @param seed the seed of the content
+   */
+  private byte[] createImage(int seed) {
+    byte[] image = new byte[IMAGE_SIZE];
+    for (int i = 0; i < image.length; i++) {
+      image[i] = (byte) (i * 31 + seed);
+    }
+    return image;
+  }
+
+  private void addEntry(ZipOutputStream zipOutputStream, String name, byte[] content)
+      throws IOException {
+    zipOutputStream.putNextEntry(new ZipEntry(name));
+    zipOutputStream.write(content);
+    zipOutputStream.closeEntry();
+  }
+
+  private void writeFile(File file, byte[] content) throws IOException {
+    FileOutputStream fileOutputStream = new FileOutputStream(file);
+    try {
+      fileOutputStream.write(content);
+    } finally {
+      fileOutputStream.close();
+    }
+  }
+
+  private byte[] readFile(File file) throws IOException {
+    return readFully(new FileInputStream(file));
+  }
+
+  /**
+   * Reads an input stream to the end and closes it.
+   *
+   * @param inputStream the input stream
+   */
+  private byte[] readFully(InputStream inputStream) throws IOException {
+    try {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = inputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, count);
+      }
+      return outputStream.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link ChunkedPolylines}.
+ */
+public class ChunkedPolylinesTest extends TestCase {
+
+  private static final int COLOR = 1;
+  private static final int OTHER_COLOR = 2;
+
+  private ChunkedPolylines chunkedPolylines;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    chunkedPolylines = new ChunkedPolylines();
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#getMinDistance(int)}.
+   */
+  public void testGetMinDistance() {
+    assertEquals(0.0, ChunkedPolylines.getMinDistance(-1));
+    assertEquals(360.0 / 256.0, ChunkedPolylines.getMinDistance(0));
+    assertEquals(ChunkedPolylines.getMinDistance(10) / 2, ChunkedPolylines.getMinDistance(11));
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#isNear(LatLng, LatLng, double)}.
+   */
+  public void testIsNear() {
+    LatLng latLng = new LatLng(0.0, 0.0);
+    assertTrue(ChunkedPolylines.isNear(latLng, new LatLng(0.0, 0.0005), 0.001));
+    assertFalse(ChunkedPolylines.isNear(latLng, new LatLng(0.0, 0.002), 0.001));
+    assertFalse(ChunkedPolylines.isNear(latLng, new LatLng(0.0, 0.0005), 0.0));
+
+    // At 60 degrees, a degree of latitude is twice as long as one of longitude
+    LatLng north = new LatLng(60.0, 0.0);
+    assertTrue(ChunkedPolylines.isNear(north, new LatLng(60.0, 0.0009), 0.001));
+    assertFalse(ChunkedPolylines.isNear(north, new LatLng(60.0009, 0.0), 0.001));
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#addPoints(List, int, boolean)} fills a
+   * polyline up to the max chunk size before starting a new one.
+   */
+  public void testAddPoints_chunkBoundary() {
+    chunkedPolylines.addPoints(createPoints(0, ChunkedPolylines.MAX_CHUNK_SIZE), COLOR, false);
+    List<List<LatLng>> points = chunkedPolylines.getPoints();
+    assertEquals(1, points.size());
+    assertEquals(ChunkedPolylines.MAX_CHUNK_SIZE, points.get(0).size());
+
+    // The next point starts a new polyline at the last point of the full one
+    chunkedPolylines.addPoints(
+        createPoints(ChunkedPolylines.MAX_CHUNK_SIZE, 1), OTHER_COLOR, true);
+    points = chunkedPolylines.getPoints();
+    assertEquals(2, points.size());
+    assertEquals(ChunkedPolylines.MAX_CHUNK_SIZE, points.get(0).size());
+    assertEquals(2, points.get(1).size());
+    assertEquals(createPoint(ChunkedPolylines.MAX_CHUNK_SIZE - 1), points.get(1).get(0));
+    assertEquals(createPoint(ChunkedPolylines.MAX_CHUNK_SIZE), points.get(1).get(1));
+    assertEquals(COLOR, chunkedPolylines.getLastColor());
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#addPoints(List, int, boolean)} splits the
+   * points added at once in several polylines.
+   */
+  public void testAddPoints_severalChunks() {
+    int numberOfPoints = 2 * ChunkedPolylines.MAX_CHUNK_SIZE + 10;
+    chunkedPolylines.addPoints(createPoints(0, numberOfPoints), COLOR, false);
+    List<List<LatLng>> points = chunkedPolylines.getPoints();
+    assertEquals(3, points.size());
+    assertChunks(points, numberOfPoints);
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#addPoints(List, int, boolean)} appends to
+   * the last polyline, or starts a new one with the new color.
+   */
+  public void testAddPoints_append() {
+    chunkedPolylines.addPoints(createPoints(0, 3), COLOR, false);
+    chunkedPolylines.addPoints(createPoints(3, 2), OTHER_COLOR, true);
+    List<List<LatLng>> points = chunkedPolylines.getPoints();
+    assertEquals(1, points.size());
+    assertEquals(createPoints(0, 5), points.get(0));
+    assertEquals(COLOR, chunkedPolylines.getLastColor());
+
+    chunkedPolylines.addPoints(createPoints(5, 2), OTHER_COLOR, false);
+    points = chunkedPolylines.getPoints();
+    assertEquals(2, points.size());
+    assertEquals(createPoints(5, 2), points.get(1));
+    assertEquals(OTHER_COLOR, chunkedPolylines.getLastColor());
+
+    // Nothing to add
+    chunkedPolylines.addPoints(new ArrayList<LatLng>(), COLOR, false);
+    assertEquals(2, chunkedPolylines.size());
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#addPoints(List, int, boolean)} skips the
+   * points near the previous point at the zoom level.
+   */
+  public void testAddPoints_zoomLevel() {
+    assertTrue(chunkedPolylines.setZoomLevel(0));
+    assertFalse(chunkedPolylines.setZoomLevel(0));
+    chunkedPolylines.addPoints(createPoints(0, 10), COLOR, false);
+    assertEquals(1, chunkedPolylines.getPoints().get(0).size());
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#replace(ChunkedPolylines)} with an empty
+   * path clears the polylines.
+   */
+  public void testReplace_clear() {
+    chunkedPolylines.addPoints(
+        createPoints(0, ChunkedPolylines.MAX_CHUNK_SIZE + 1), COLOR, false);
+    assertEquals(2, chunkedPolylines.size());
+
+    chunkedPolylines.replace(new ChunkedPolylines());
+    assertEquals(0, chunkedPolylines.size());
+    assertTrue(chunkedPolylines.getPoints().isEmpty());
+
+    // New points start a new polyline, even when appending
+    chunkedPolylines.addPoints(createPoints(0, 2), OTHER_COLOR, true);
+    assertEquals(1, chunkedPolylines.size());
+    assertEquals(OTHER_COLOR, chunkedPolylines.getLastColor());
+  }
+
+  /**
+   * Tests the {@link ChunkedPolylines#replace(ChunkedPolylines)} takes the
+   * polylines of the newly built path.
+   */
+  public void testReplace() {
+    chunkedPolylines.addPoints(createPoints(0, 10), COLOR, false);
+    ChunkedPolylines newChunkedPolylines = new ChunkedPolylines();
+    newChunkedPolylines.addPoints(createPoints(0, 5), COLOR, false);
+    newChunkedPolylines.addPoints(createPoints(5, 5), OTHER_COLOR, false);
+
+    chunkedPolylines.replace(newChunkedPolylines);
+    List<List<LatLng>> points = chunkedPolylines.getPoints();
+    assertEquals(2, points.size());
+    assertEquals(createPoints(0, 5), points.get(0));
+    assertEquals(createPoints(5, 5), points.get(1));
+    assertEquals(OTHER_COLOR, chunkedPolylines.getLastColor());
+    assertEquals(0, newChunkedPolylines.size());
+  }
+
+  /**
+   * Tests reading the polylines while the path is built again and appended to
+   * on another thread. Each read sees a whole path.
+   */
+  public void testGetPoints_duringRebuild() throws Exception {
+    final int numberOfRebuilds = 200;
+    final int numberOfPoints = 3 * ChunkedPolylines.MAX_CHUNK_SIZE;
+    chunkedPolylines.addPoints(createPoints(0, numberOfPoints), COLOR, false);
+
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < numberOfRebuilds; i++) {
+          ChunkedPolylines newChunkedPolylines = new ChunkedPolylines();
+          newChunkedPolylines.addPoints(createPoints(0, numberOfPoints), COLOR, false);
+          chunkedPolylines.replace(newChunkedPolylines);
+          chunkedPolylines.addPoints(createPoints(numberOfPoints, i % 10), COLOR, true);
+        }
+      }
+    };
+    thread.start();
+    while (thread.isAlive()) {
+      List<List<LatLng>> points = chunkedPolylines.getPoints();
+      int size = 0;
+      for (List<LatLng> chunk : points) {
+        size += chunk.size();
+      }
+
+      // The points shared by consecutive polylines are counted twice
+      int uniquePoints = size - (points.size() - 1);
+      assertTrue(uniquePoints >= numberOfPoints);
+      assertTrue(uniquePoints < numberOfPoints + 10);
+      assertChunks(points, uniquePoints);
+    }
+    thread.join();
+  }
+
+  /**
+   * Asserts the polylines hold consecutive points from the first one, each
+   * polyline starting at the last point of the previous one.
+   *
+   * @param points the points of the polylines
+   * @param numberOfPoints the expected number of points
+   */
+  private void assertChunks(List<List<LatLng>> points, int numberOfPoints) {
+    int index = 0;
+    for (int i = 0; i < points.size(); i++) {
+      List<LatLng> chunk = points.get(i);
+      assertTrue(chunk.size() <= ChunkedPolylines.MAX_CHUNK_SIZE);
+      int start = 0;
+      if (i > 0) {
+        assertEquals(createPoint(index - 1), chunk.get(0));
+        start = 1;
+      }
+      for (int j = start; j < chunk.size(); j++) {
+        assertEquals(createPoint(index), chunk.get(j));
+        index++;
+      }
+    }
+    assertEquals(numberOfPoints, index);
+  }
+
+  /**
+   * Creates consecutive points.
+   *
+   * @param start the index of the first point
+   * @param count the number of points
+   */
+  private static List<LatLng> createPoints(int start, int count) {
+    List<LatLng> points = new ArrayList<LatLng>(count);
+    for (int i = start; i < start + count; i++) {
+      points.add(createPoint(i));
+    }
+    return points;
+  }
+
+  private static LatLng createPoint(int index) {
+    return new LatLng(index * 0.001, 0.0);
+  }
+}
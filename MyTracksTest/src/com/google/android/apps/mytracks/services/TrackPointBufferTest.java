@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+/**
+ * Tests the {@link TrackPointBuffer}.
+ */
+public class TrackPointBufferTest extends AndroidTestCase {
+
+  private static final long TRACK_ID = 7L;
+  private static final int MAX_SIZE = 4;
+  private static final long MAX_AGE = 60000L;
+
+  private File journalFile;
+  private TrackPointBuffer trackPointBuffer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    journalFile = new File(getContext().getFilesDir(), "test.trackpoints.journal");
+    journalFile.delete();
+    trackPointBuffer = new TrackPointBuffer(journalFile, MAX_SIZE, MAX_AGE);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    trackPointBuffer.close();
+    journalFile.delete();
+    super.tearDown();
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#add(long, Location)} counts the valid
+   * locations and keeps the last valid location.
+   */
+  public void testAdd() {
+    Location first = createLocation(1);
+    Location second = createLocation(2);
+    Location pause = new Location("gps");
+    pause.setLatitude(TrackRecordingService.PAUSE_LATITUDE);
+    pause.setLongitude(0);
+    pause.setTime(3);
+
+    trackPointBuffer.add(TRACK_ID, first);
+    trackPointBuffer.add(TRACK_ID, second);
+    trackPointBuffer.add(TRACK_ID, pause);
+
+    assertEquals(3, trackPointBuffer.size());
+    assertEquals(TRACK_ID, trackPointBuffer.getTrackId());
+    assertEquals(2, trackPointBuffer.getNumberOfValidLocations());
+    assertSame(pause, trackPointBuffer.getLocations()[2]);
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#add(long, Location)} drops the locations of
+   * another track.
+   */
+  public void testAdd_anotherTrack() {
+    trackPointBuffer.add(TRACK_ID, createLocation(1));
+    trackPointBuffer.add(TRACK_ID + 1, createLocation(2));
+
+    assertEquals(1, trackPointBuffer.size());
+    assertEquals(TRACK_ID + 1, trackPointBuffer.getTrackId());
+    assertTrue(trackPointBuffer.readJournal(TRACK_ID).isEmpty());
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#add(long, Location)} grows the buffer past
+   * the max size.
+   */
+  public void testAdd_pastMaxSize() {
+    for (int i = 0; i < MAX_SIZE * 2 + 1; i++) {
+      trackPointBuffer.add(TRACK_ID, createLocation(i));
+    }
+    assertEquals(MAX_SIZE * 2 + 1, trackPointBuffer.size());
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#shouldFlush()}.
+   */
+  public void testShouldFlush() {
+    assertFalse(trackPointBuffer.shouldFlush());
+    for (int i = 0; i < MAX_SIZE - 1; i++) {
+      trackPointBuffer.add(TRACK_ID, createLocation(i));
+      assertFalse(trackPointBuffer.shouldFlush());
+    }
+    trackPointBuffer.add(TRACK_ID, createLocation(MAX_SIZE));
+    assertTrue(trackPointBuffer.shouldFlush());
+
+    trackPointBuffer.clear();
+    assertFalse(trackPointBuffer.shouldFlush());
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#shouldFlush()} when the oldest location is
+   * too old.
+   */
+  public void testShouldFlush_maxAge() {
+    trackPointBuffer.close();
+    trackPointBuffer = new TrackPointBuffer(journalFile, MAX_SIZE, 0L);
+    trackPointBuffer.add(TRACK_ID, createLocation(1));
+    assertTrue(trackPointBuffer.shouldFlush());
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#clear()}.
+   */
+  public void testClear() {
+    trackPointBuffer.add(TRACK_ID, createLocation(1));
+    trackPointBuffer.clear();
+
+    assertEquals(0, trackPointBuffer.size());
+    assertEquals(-1L, trackPointBuffer.getTrackId());
+    assertEquals(0, trackPointBuffer.getNumberOfValidLocations());
+    assertTrue(trackPointBuffer.readJournal(TRACK_ID).isEmpty());
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#readJournal(long)} from a new buffer, as
+   * after a process restart.
+   */
+  public void testReadJournal() {
+    Location location = createLocation(1);
+    location.setAltitude(12.5);
+    location.setAccuracy(3.0f);
+    location.setSpeed(4.5f);
+    location.setBearing(90.0f);
+    trackPointBuffer.add(TRACK_ID, location);
+    Sensor.SensorDataSet sensorDataSet = Sensor.SensorDataSet.newBuilder()
+        .setCreationTime(1000L).build();
+    trackPointBuffer.add(TRACK_ID, new MyTracksLocation(createLocation(2), sensorDataSet));
+    trackPointBuffer.close();
+
+    TrackPointBuffer newTrackPointBuffer = new TrackPointBuffer(journalFile, MAX_SIZE, MAX_AGE);
+    try {
+      assertTrue(newTrackPointBuffer.readJournal(TRACK_ID + 1).isEmpty());
+
+      List<Location> locations = newTrackPointBuffer.readJournal(TRACK_ID);
+      assertEquals(2, locations.size());
+
+      Location first = locations.get(0);
+      assertEquals(location.getLatitude(), first.getLatitude());
+      assertEquals(location.getLongitude(), first.getLongitude());
+      assertEquals(location.getTime(), first.getTime());
+      assertEquals(location.getAltitude(), first.getAltitude());
+      assertEquals(location.getAccuracy(), first.getAccuracy());
+      assertEquals(location.getSpeed(), first.getSpeed());
+      assertEquals(location.getBearing(), first.getBearing());
+
+      Location second = locations.get(1);
+      assertFalse(second.hasAltitude());
+      assertFalse(second.hasBearing());
+      assertTrue(second instanceof MyTracksLocation);
+      assertEquals(sensorDataSet, ((MyTracksLocation) second).getSensorDataSet());
+    } finally {
+      newTrackPointBuffer.close();
+    }
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#readJournal(long)} reads the entries written
+   * since the last sync, as after the process dies without syncing.
+   */
+  public void testReadJournal_unsynced() {
+    for (int i = 0; i < TrackPointBuffer.SYNC_INTERVAL_POINTS - 1; i++) {
+      trackPointBuffer.add(TRACK_ID, createLocation(i));
+    }
+
+    TrackPointBuffer newTrackPointBuffer = new TrackPointBuffer(journalFile, MAX_SIZE, MAX_AGE);
+    try {
+      assertEquals(TrackPointBuffer.SYNC_INTERVAL_POINTS - 1,
+          newTrackPointBuffer.readJournal(TRACK_ID).size());
+    } finally {
+      newTrackPointBuffer.close();
+    }
+  }
+
+  /**
+   * Tests {@link TrackPointBuffer#readJournal(long)} ignores a partially
+   * written last entry.
+   */
+  public void testReadJournal_partialEntry() throws Exception {
+    trackPointBuffer.add(TRACK_ID, createLocation(1));
+    trackPointBuffer.close();
+
+    FileOutputStream outputStream = new FileOutputStream(journalFile, true);
+    try {
+      outputStream.write(new byte[] { 0, 0, 0, 100, 0, 0 });
+    } finally {
+      outputStream.close();
+    }
+    assertEquals(1, trackPointBuffer.readJournal(TRACK_ID).size());
+  }
+
+  /**
+   * Creates a valid location.
+   *
+   * @param i the location index
+   */
+  private Location createLocation(int i) {
+    Location location = new Location("gps");
+    location.setLatitude(45.0 + i / 1000.0);
+    location.setLongitude(35.0 - i / 1000.0);
+    location.setTime(1000L * (i + 1));
+    return location;
+  }
+}
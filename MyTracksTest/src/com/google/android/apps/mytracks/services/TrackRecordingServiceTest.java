@@ -24,6 +24,8 @@ import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.content.WaypointCreationRequest;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.ApiAdapterFactory;
+import com.google.android.apps.mytracks.util.CalorieUtils;
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.GoogleLocationUtils;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
@@ -51,6 +53,11 @@ import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.util.Log;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -515,6 +522,77 @@ public class TrackRecordingServiceTest extends ServiceTestCase<TestRecordingServ
     fullRecordingSession();
   }
 
+  /**
+   * Tests that the recording session and the track in the database don't
+   * diverge across pause, resume and restart. The session is written through
+   * when its buffered track points are written, thus they are compared after
+   * each pause and after the end.
+   */
+  @MediumTest
+  public void testRecordingSession_pauseResumeRestart() throws Exception {
+    ITrackRecordingService service = bindAndGetService(createStartIntent());
+    long id = service.startNewTrack();
+    assertTrue(id >= 0);
+    assertRecordingSessionMatchesDatabase(id);
+
+    insertLocations(service, 0, 10);
+    service.pauseCurrentTrack();
+    assertRecordingSessionMatchesDatabase(id);
+
+    service.resumeCurrentTrack();
+    insertLocations(service, 10, 10);
+    service.pauseCurrentTrack();
+    assertRecordingSessionMatchesDatabase(id);
+    assertEquals(getService().getRecordingSession().getTripStatistics().getTotalTime(),
+        service.getTotalTime());
+
+    /*
+     * Restore the session from the database, as a restarted service does. The
+     * track points are stored with a lower precision, thus the distance can
+     * differ slightly.
+     */
+    Track track = providerUtils.getTrack(id);
+    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
+    double weight = PreferencesUtils.getDefaultWeight(context);
+    File filesDir = getService().getFilesDir();
+    RecordingSession restoredSession = RecordingSession.restore(providerUtils, track,
+        activityType, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, weight,
+        new File(filesDir, "missing.checkpoint"));
+    assertTrackEquals(track, restoredSession.getTrack(), 1.0);
+    assertTrackEquals(getService().getRecordingSession().getTrack(), restoredSession.getTrack(),
+        1.0);
+
+    // Restore the session from the checkpoint written when pausing
+    File checkpointFile = new File(
+        filesDir, TrackRecordingService.RECORDING_CHECKPOINT_FILE_NAME);
+    assertTrue(checkpointFile.exists());
+    RecordingSession checkpointSession = RecordingSession.restore(providerUtils, track,
+        activityType, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, weight,
+        checkpointFile);
+    assertTrackEquals(getService().getRecordingSession().getTrack(),
+        checkpointSession.getTrack(), 0.0);
+
+    // A truncated or corrupt checkpoint is ignored, all the points are replayed
+    byte[] checkpoint = readFile(checkpointFile);
+    File damagedFile = new File(filesDir, "damaged.checkpoint");
+    writeFile(damagedFile, checkpoint, checkpoint.length / 2);
+    assertTrackEquals(restoredSession.getTrack(), RecordingSession.restore(providerUtils, track,
+        activityType, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, weight,
+        damagedFile).getTrack(), 0.0);
+    checkpoint[checkpoint.length - 1] ^= 1;
+    writeFile(damagedFile, checkpoint, checkpoint.length);
+    assertTrackEquals(restoredSession.getTrack(), RecordingSession.restore(providerUtils, track,
+        activityType, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, weight,
+        damagedFile).getTrack(), 0.0);
+    assertTrue(damagedFile.delete());
+
+    service.resumeCurrentTrack();
+    insertLocations(service, 20, 10);
+    service.endCurrentTrack();
+    assertRecordingSessionMatchesDatabase(id);
+    assertFalse(checkpointFile.exists());
+  }
+
   @MediumTest
   public void testInsertStatisticsMarker_noRecordingTrack() throws Exception {
     ITrackRecordingService service = bindAndGetService(createStartIntent());
@@ -778,6 +856,83 @@ public class TrackRecordingServiceTest extends ServiceTestCase<TestRecordingServ
     assertTrue(tripStatistics.getStopTime() >= tripStatistics.getStartTime());
   }
 
+  /**
+   * Asserts that the recording session track matches the track in the
+   * database.
+   * 
+   * @param trackId the track id
+   */
+  private void assertRecordingSessionMatchesDatabase(long trackId) {
+    Track track = providerUtils.getTrack(trackId);
+    assertNotNull(track);
+    assertTrackEquals(getService().getRecordingSession().getTrack(), track, 0.0);
+  }
+
+  /**
+   * Asserts that the recording columns of two tracks are equal.
+   * 
+   * @param expected the expected track
+   * @param actual the actual track
+   * @param distanceDelta the max distance difference
+   */
+  private void assertTrackEquals(Track expected, Track actual, double distanceDelta) {
+    assertEquals(expected.getId(), actual.getId());
+    assertEquals(expected.getStartId(), actual.getStartId());
+    assertEquals(expected.getStopId(), actual.getStopId());
+    assertEquals(expected.getNumberOfPoints(), actual.getNumberOfPoints());
+    TripStatistics expectedStatistics = expected.getTripStatistics();
+    TripStatistics actualStatistics = actual.getTripStatistics();
+    assertEquals(expectedStatistics.getStartTime(), actualStatistics.getStartTime());
+    assertEquals(expectedStatistics.getStopTime(), actualStatistics.getStopTime());
+    assertEquals(expectedStatistics.getTotalTime(), actualStatistics.getTotalTime());
+    assertEquals(expectedStatistics.getMovingTime(), actualStatistics.getMovingTime());
+    assertEquals(expectedStatistics.getTotalDistance(), actualStatistics.getTotalDistance(),
+        distanceDelta);
+  }
+
+  private byte[] readFile(File file) throws IOException {
+    byte[] data = new byte[(int) file.length()];
+    DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+    try {
+      inputStream.readFully(data);
+    } finally {
+      inputStream.close();
+    }
+    return data;
+  }
+
+  private void writeFile(File file, byte[] data, int length) throws IOException {
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(data, 0, length);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Inserts moving locations and waits for them to be handled.
+   * 
+   * @param trackRecordingService the track recording service
+   * @param start the index of the first location
+   * @param count the number of locations
+   */
+  private void insertLocations(ITrackRecordingService trackRecordingService, int start,
+      int count) throws RemoteException, InterruptedException {
+    long time = System.currentTimeMillis();
+    for (int i = start; i < start + count; i++) {
+      Location location = new Location("gps");
+      location.setLongitude(35.0);
+      location.setLatitude(45.0 + i * 0.001);
+      location.setAccuracy(5);
+      location.setSpeed(10);
+      location.setTime(time + (i - start) * 100L);
+      location.setBearing(3.0f);
+      trackRecordingService.insertTrackPoint(location);
+    }
+    Thread.sleep(count * 100L + 500L);
+  }
+
   /**
    * Inserts a location and waits for 100ms.
    * 
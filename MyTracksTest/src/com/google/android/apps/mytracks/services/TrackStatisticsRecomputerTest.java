@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.stats.TripStatistics;
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+
+import android.content.Context;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Tests {@link TrackStatisticsRecomputer}.
+ */
+public class TrackStatisticsRecomputerTest extends AndroidTestCase {
+
+  private static final long TRACK_ID = 1L;
+  private static final long START_TIME = 1400000000000L;
+  private static final int NUMBER_OF_POINTS = 20;
+  private static final int MARKER_POINT = 9;
+  private static final int RECORDING_DISTANCE_INTERVAL = 50;
+  private static final double WEIGHT = 65.0;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    myTracksProviderUtils.deleteAllTracks(context);
+  }
+
+  /**
+   * Tests that the track and its statistics marker are recomputed with the new
+   * recording distance interval, keeping the recorded times.
+   */
+  public void testRecompute() {
+    Track track = new Track();
+    track.setId(TRACK_ID);
+    track.setTripStatistics(createTripStatistics(START_TIME, getTime(NUMBER_OF_POINTS - 1)));
+    myTracksProviderUtils.insertTrack(track);
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      myTracksProviderUtils.insertTrackPoint(createLocation(i), TRACK_ID);
+    }
+    insertStatisticsMarker(createTripStatistics(START_TIME, START_TIME));
+    insertStatisticsMarker(createTripStatistics(START_TIME, getTime(MARKER_POINT)));
+
+    new TrackStatisticsRecomputer(myTracksProviderUtils, RECORDING_DISTANCE_INTERVAL, WEIGHT)
+        .recompute(myTracksProviderUtils.getTrack(TRACK_ID), ActivityType.WALKING);
+
+    TripStatistics expectedTrack = getExpected(0, NUMBER_OF_POINTS, START_TIME);
+    TripStatistics expectedMarker = getExpected(0, MARKER_POINT + 1, START_TIME);
+
+    TripStatistics trackStatistics = myTracksProviderUtils.getTrack(TRACK_ID)
+        .getTripStatistics();
+    assertEquals(expectedTrack.getTotalDistance(), trackStatistics.getTotalDistance());
+    assertEquals(expectedTrack.getMovingTime(), trackStatistics.getMovingTime());
+    assertEquals(expectedTrack.getCalorie(), trackStatistics.getCalorie());
+    assertTrue(trackStatistics.getCalorie() > 0.0);
+    assertEquals(START_TIME, trackStatistics.getStartTime());
+    assertEquals(getTime(NUMBER_OF_POINTS - 1), trackStatistics.getStopTime());
+    assertEquals(getTime(NUMBER_OF_POINTS - 1) - START_TIME, trackStatistics.getTotalTime());
+
+    Waypoint marker = myTracksProviderUtils.getLastWaypoint(TRACK_ID, WaypointType.STATISTICS);
+    TripStatistics markerStatistics = marker.getTripStatistics();
+    assertEquals(expectedMarker.getTotalDistance(), markerStatistics.getTotalDistance());
+    assertEquals(expectedMarker.getCalorie(), markerStatistics.getCalorie());
+    assertEquals(markerStatistics.getTotalDistance(), marker.getLength());
+    assertEquals(getTime(MARKER_POINT), markerStatistics.getStopTime());
+    assertTrue(markerStatistics.getTotalDistance() < trackStatistics.getTotalDistance());
+  }
+
+  /**
+   * Gets the expected statistics of some track points.
+   *
+   * @param start the first point
+   * @param end the point after the last point
+   * @param startTime the start time
+   */
+  private TripStatistics getExpected(int start, int end, long startTime) {
+    TripStatisticsUpdater tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    for (int i = start; i < end; i++) {
+      tripStatisticsUpdater.addLocation(
+          createLocation(i), RECORDING_DISTANCE_INTERVAL, true, ActivityType.WALKING, WEIGHT);
+    }
+    return tripStatisticsUpdater.getTripStatistics();
+  }
+
+  private void insertStatisticsMarker(TripStatistics tripStatistics) {
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(TRACK_ID);
+    waypoint.setType(WaypointType.STATISTICS);
+    waypoint.setLocation(createLocation(0));
+    waypoint.setTripStatistics(tripStatistics);
+    myTracksProviderUtils.insertWaypoint(waypoint);
+  }
+
+  /**
+   * Creates the recorded statistics, without distance or calorie.
+   *
+   * @param startTime the start time
+   * @param stopTime the stop time
+   */
+  private TripStatistics createTripStatistics(long startTime, long stopTime) {
+    TripStatistics tripStatistics = new TripStatistics();
+    tripStatistics.setStartTime(startTime);
+    tripStatistics.setStopTime(stopTime);
+    tripStatistics.setTotalTime(stopTime - startTime);
+    return tripStatistics;
+  }
+
+  /**
+   * Creates a location, moving by about 22 meters a second.
+   *
+   * @param i the index of the location
+   */
+  private Location createLocation(int i) {
+    Location location = new Location("gps");
+    location.setLatitude(37.0 + i * 0.0002);
+    location.setLongitude(-122.0);
+    location.setAltitude(100.0 + i);
+    location.setAccuracy(5.0f);
+    location.setSpeed(22.0f);
+    location.setTime(getTime(i));
+    return location;
+  }
+
+  private long getTime(int i) {
+    return START_TIME + i * 1000L;
+  }
+}
@@ -4,6 +4,12 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import junit.framework.TestCase;
 
 /**
@@ -114,4 +120,99 @@ public class DoubleBufferTest extends TestCase {
     }
   }
 
+  /**
+   * Tests that the running average doesn't drift from the average of the
+   * values after many passes over the buffer.
+   */
+  public void testAverageDrift() {
+    DoubleBuffer buffer = new DoubleBuffer(25);
+    for (int i = 0; i < 100012; i++) {
+      buffer.setNext(1000.0 + (i % 7) * 0.1 - (i % 3) * 1e6);
+    }
+    double sum = 0;
+    for (int i = 100012 - 25; i < 100012; i++) {
+      sum += 1000.0 + (i % 7) * 0.1 - (i % 3) * 1e6;
+    }
+    assertEquals(sum / 25, buffer.getAverage(), 1e-9);
+  }
+
+  /**
+   * Tests the median and the trimmed mean of a buffer keeping its values
+   * sorted, before and after it is full.
+   */
+  public void testMedianAndTrimmedMean() {
+    DoubleBuffer buffer = new DoubleBuffer(5, true);
+    assertEquals(0.0, buffer.getMedian());
+    assertEquals(0.0, buffer.getTrimmedMean(0.2));
+
+    buffer.setNext(3);
+    buffer.setNext(100);
+    assertEquals(51.5, buffer.getMedian());
+    buffer.setNext(1);
+    buffer.setNext(2);
+    buffer.setNext(-50);
+    // -50, 1, 2, 3, 100
+    assertEquals(2.0, buffer.getMedian());
+    assertEquals(2.0, buffer.getTrimmedMean(0.2));
+    assertEquals(11.2, buffer.getTrimmedMean(0.0), 1e-9);
+
+    // Replaces 3 and 100: -50, 1, 2, 4, 4
+    buffer.setNext(4);
+    buffer.setNext(4);
+    assertEquals(2.0, buffer.getMedian());
+    assertEquals(7.0 / 3, buffer.getTrimmedMean(0.2), 1e-9);
+
+    buffer.reset();
+    buffer.setNext(7);
+    assertEquals(7.0, buffer.getMedian());
+  }
+
+  /**
+   * Tests that the median requires a buffer keeping its values sorted.
+   */
+  public void testMedian_notSorted() {
+    try {
+      new DoubleBuffer(5).getMedian();
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that a buffer read from the state written by another buffer has the
+   * same average after adding the same values, and that the sizes must match.
+   */
+  public void testWriteToReadFrom() throws Exception {
+    DoubleBuffer buffer = new DoubleBuffer(10);
+
+    // Values with rounding errors, so the running sums drift from the window
+    for (int i = 0; i < 15; i++) {
+      buffer.setNext(i * 1.1 + 0.3);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(bytes);
+    buffer.writeTo(outputStream);
+    outputStream.close();
+
+    DoubleBuffer restored = new DoubleBuffer(10);
+    restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertTrue(restored.isFull());
+    assertEquals(buffer.getAverage(), restored.getAverage());
+    assertEquals(buffer.getAverageAndVariance()[1], restored.getAverageAndVariance()[1]);
+    for (int i = 15; i < 22; i++) {
+      buffer.setNext(i * 1.1 + 0.3);
+      restored.setNext(i * 1.1 + 0.3);
+      assertEquals(buffer.getAverage(), restored.getAverage());
+      assertEquals(buffer.getAverageAndVariance()[1], restored.getAverageAndVariance()[1]);
+    }
+
+    try {
+      new DoubleBuffer(5).readFrom(
+          new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
 }
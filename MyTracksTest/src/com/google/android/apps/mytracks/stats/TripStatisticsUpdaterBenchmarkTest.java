@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.stats;
+
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Benchmarks {@link TripStatisticsUpdater#addLocation(Location, int, boolean,
+ * ActivityType, double)} for a 1M points track. Like a JMH benchmark, runs
+ * warmup iterations first, then logs the throughput of the measured
+ * iterations.
+ */
+public class TripStatisticsUpdaterBenchmarkTest extends AndroidTestCase {
+
+  private static final String TAG = TripStatisticsUpdaterBenchmarkTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_POINTS = 1000000;
+  private static final int WARMUP_ITERATIONS = 2;
+  private static final int MEASUREMENT_ITERATIONS = 5;
+  private static final double WEIGHT = 65.0;
+
+  /*
+   * The locations are created in a pool and reused, 1M locations don't fit in
+   * the heap of a device. The pool is large enough that the updater never
+   * holds a location being reused.
+   */
+  private static final int POOL_SIZE = 1000;
+
+  private Location[] pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    pool = new Location[POOL_SIZE];
+    for (int i = 0; i < POOL_SIZE; i++) {
+      pool[i] = new Location("gps");
+      pool[i].setAccuracy(5.0f);
+      pool[i].setBearing(90.0f);
+    }
+  }
+
+  public void testAddLocation() {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      run();
+    }
+    long min = Long.MAX_VALUE;
+    long total = 0;
+    for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+      long time = run();
+      min = Math.min(min, time);
+      total += time;
+    }
+    double average = (double) total / MEASUREMENT_ITERATIONS;
+    Log.i(TAG, "addLocation: " + NUMBER_OF_POINTS * 1e9 / average + " points/s average, "
+        + NUMBER_OF_POINTS * 1e9 / min + " points/s best, " + average / NUMBER_OF_POINTS
+        + " ns/point");
+  }
+
+  /**
+   * Adds the points to a new updater. Returns the time in nanoseconds.
+   */
+  private long run() {
+    long startTime = 1400000000000L;
+    TripStatisticsUpdater tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    long start = System.nanoTime();
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      Location location = pool[i % POOL_SIZE];
+
+      // Moves by about 11 meters a second, with a stop every 500 points
+      boolean moving = i % 500 < 450;
+      location.setLatitude(37.0 + (moving ? i : i - i % 500 + 450) * 0.0001);
+      location.setLongitude(-122.0);
+      location.setAltitude(100.0 + (i % 200 < 100 ? i % 200 : 200 - i % 200));
+      location.setSpeed(moving ? 11.0f : 0.0f);
+      location.setTime(startTime + i * 1000L);
+      tripStatisticsUpdater.addLocation(location,
+          PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, ActivityType.WALKING,
+          WEIGHT);
+    }
+    long time = System.nanoTime() - start;
+    TripStatistics tripStatistics = tripStatisticsUpdater.getTripStatistics();
+    assertTrue(tripStatistics.getTotalDistance() > 0);
+    assertTrue(tripStatistics.getMovingTime() > 0);
+    return time;
+  }
+}
@@ -2,11 +2,17 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import com.google.android.apps.mytracks.services.TrackRecordingService;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 
 import android.location.Location;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
 import junit.framework.TestCase;
 
 /**
@@ -197,6 +203,57 @@ public class TripStatisticsUpdaterTest extends TestCase {
     }
   }
 
+  /**
+   * Tests that an updater read from the state written by
+   * {@link TripStatisticsUpdater#writeTo(java.io.DataOutput)} gives the same
+   * trip statistics as the original when adding the same locations. The state
+   * is written while waiting, with a last location different from the last
+   * moving location, and a pause follows.
+   */
+  public void testWriteTo() throws Exception {
+    long startTime = 1000;
+    tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+    for (int i = 0; i < 50; i++) {
+      addLocation(tripStatisticsUpdater, getLocation(i, i * .001, MOVING_SPEED,
+          startTime + i * TEN_SECONDS));
+    }
+    for (int i = 50; i < 55; i++) {
+      addLocation(tripStatisticsUpdater, getLocation(50, 49 * .001, 0,
+          startTime + i * TEN_SECONDS));
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(bytes);
+    tripStatisticsUpdater.writeTo(outputStream);
+    outputStream.close();
+    TripStatisticsUpdater restored = new TripStatisticsUpdater(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(tripStatisticsUpdater.getTripStatistics().toString(),
+        restored.getTripStatistics().toString());
+
+    Location pause = new Location("test");
+    pause.setLatitude(TrackRecordingService.PAUSE_LATITUDE);
+    pause.setLongitude(0);
+    pause.setTime(startTime + 55 * TEN_SECONDS);
+    Location resume = new Location("test");
+    resume.setLatitude(TrackRecordingService.RESUME_LATITUDE);
+    resume.setLongitude(0);
+    resume.setTime(startTime + 60 * TEN_SECONDS);
+    for (TripStatisticsUpdater updater : new TripStatisticsUpdater[] {
+        tripStatisticsUpdater, restored }) {
+      addLocation(updater, pause);
+      addLocation(updater, resume);
+      for (int i = 61; i < 100; i++) {
+        addLocation(updater, getLocation(i, i * .001, MOVING_SPEED,
+            startTime + i * TEN_SECONDS));
+      }
+    }
+    assertEquals(tripStatisticsUpdater.getTripStatistics().toString(),
+        restored.getTripStatistics().toString());
+    assertEquals(tripStatisticsUpdater.getSmoothedElevation(), restored.getSmoothedElevation());
+    assertEquals(tripStatisticsUpdater.getSmoothedSpeed(), restored.getSmoothedSpeed());
+  }
+
   /**
    * Sends some locations which keeping moving and checks the statistics.
    * 
@@ -310,6 +367,17 @@ public class TripStatisticsUpdaterTest extends TestCase {
     }
   }
 
+  /**
+   * Adds a location to a trip statistics updater.
+   * 
+   * @param updater the trip statistics updater
+   * @param location the location
+   */
+  private void addLocation(TripStatisticsUpdater updater, Location location) {
+    updater.addLocation(location, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true,
+        ActivityType.WALKING, DEFAULT_WEIGHT);
+  }
+
   /**
    * Creates a location and returns it.
    * 
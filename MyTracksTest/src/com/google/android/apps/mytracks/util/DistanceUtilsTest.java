@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Tests the accuracy and the speed of {@link DistanceUtils} against
+ * {@link Location#distanceTo(Location)} and {@link Location#bearingTo(Location)}.
+ */
+public class DistanceUtilsTest extends AndroidTestCase {
+
+  private static final String TAG = DistanceUtilsTest.class.getSimpleName();
+
+  private static final int NUMBER_OF_PAIRS = 10000;
+
+  // The max error of the flat earth approximation, in meters and degrees
+  private static final double MAX_DISTANCE_ERROR = 0.001;
+  private static final double MAX_BEARING_ERROR = 1e-5;
+
+  private final Random random = new Random(0);
+  private final Location start = new Location("test");
+  private final Location end = new Location("test");
+
+  /**
+   * Tests close points, like consecutive track points, at all latitudes.
+   */
+  public void testDistanceAndBearing_close() {
+    for (int i = 0; i < NUMBER_OF_PAIRS; i++) {
+      setRandomLocations(89.9, 0.0, 0.05);
+
+      // Location rounds to floats, allow for it
+      double expected = start.distanceTo(end);
+      assertEquals(
+          expected, distance(start, end), MAX_DISTANCE_ERROR + Math.ulp((float) expected));
+      if (expected > 1.0) {
+        assertEquals(0.0, getBearingDifference(start.bearingTo(end), bearing(start, end)),
+            MAX_BEARING_ERROR + 2.0 * Math.ulp(180.0f));
+      }
+    }
+  }
+
+  /**
+   * Tests far points. They use the same Vincenty formula as Location.
+   */
+  public void testDistanceAndBearing_far() {
+    for (int i = 0; i < NUMBER_OF_PAIRS; i++) {
+      setRandomLocations(70.0, 1.0, 10.0);
+      assertEquals((double) start.distanceTo(end), distance(start, end));
+      assertEquals((double) start.bearingTo(end), bearing(start, end));
+    }
+  }
+
+  /**
+   * Tests points across the antimeridian.
+   */
+  public void testDistance_antimeridian() {
+    start.setLatitude(10.0);
+    start.setLongitude(179.999);
+    end.setLatitude(10.0);
+    end.setLongitude(-179.999);
+    assertEquals(start.distanceTo(end), distance(start, end), MAX_DISTANCE_ERROR);
+    assertEquals(
+        start.bearingTo(end), bearing(start, end), MAX_BEARING_ERROR + 2.0 * Math.ulp(180.0f));
+  }
+
+  /**
+   * Tests the same point.
+   */
+  public void testDistance_samePoint() {
+    assertEquals(0.0, DistanceUtils.distance(37.0, -122.0, 37.0, -122.0));
+  }
+
+  /**
+   * Tests {@link DistanceUtils#segmentDistances(double[], double[], int, int,
+   * double[])}.
+   */
+  public void testSegmentDistances() {
+    double[] latitudes = { 37.0, 37.001, 37.003, 36.999, 37.002 };
+    double[] longitudes = { -122.0, -121.999, -122.0, -122.001, -122.0 };
+    double[] distances = new double[latitudes.length];
+    DistanceUtils.segmentDistances(latitudes, longitudes, 0, 4, distances);
+
+    // The first point projects inside the segment
+    assertEquals(DistanceUtils.distance(0.001, 0.001, 0.001, 0.0), distances[1], 1e-6);
+
+    // Past the end of the segment
+    assertEquals(DistanceUtils.distance(37.003, -122.0, 37.002, -122.0), distances[2]);
+
+    // Before the start of the segment
+    assertEquals(DistanceUtils.distance(36.999, -122.001, 37.0, -122.0), distances[3]);
+
+    // Only the points strictly inside the window are set
+    assertEquals(0.0, distances[0]);
+    assertEquals(0.0, distances[4]);
+  }
+
+  /**
+   * Logs the speed of {@link DistanceUtils#distance(double, double, double,
+   * double)} and {@link Location#distanceTo(Location)} for consecutive track
+   * points.
+   */
+  public void testDistance_speed() {
+    int numberOfPoints = 100000;
+    double[] latitudes = new double[numberOfPoints];
+    double[] longitudes = new double[numberOfPoints];
+    Location[] locations = new Location[numberOfPoints];
+    for (int i = 0; i < numberOfPoints; i++) {
+      latitudes[i] = 37.0 + i * 0.0001;
+      longitudes[i] = -122.0 + i * 0.0001;
+      locations[i] = new Location("test");
+      locations[i].setLatitude(latitudes[i]);
+      locations[i].setLongitude(longitudes[i]);
+    }
+
+    long startTime = System.nanoTime();
+    double distanceUtilsTotal = 0.0;
+    for (int i = 1; i < numberOfPoints; i++) {
+      distanceUtilsTotal += DistanceUtils.distance(
+          latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+    }
+    long distanceUtilsTime = System.nanoTime() - startTime;
+
+    startTime = System.nanoTime();
+    double distanceToTotal = 0.0;
+    for (int i = 1; i < numberOfPoints; i++) {
+      distanceToTotal += locations[i - 1].distanceTo(locations[i]);
+    }
+    long distanceToTime = System.nanoTime() - startTime;
+
+    Log.i(TAG, "DistanceUtils: " + distanceUtilsTime / numberOfPoints + " ns/point, distanceTo: "
+        + distanceToTime / numberOfPoints + " ns/point");
+    assertEquals(distanceToTotal, distanceUtilsTotal, numberOfPoints * MAX_DISTANCE_ERROR);
+  }
+
+  /**
+   * Sets random start and end locations.
+   *
+   * @param maxLatitude the max absolute latitude
+   * @param minDelta the min latitude difference
+   * @param maxDelta the max latitude and longitude differences
+   */
+  private void setRandomLocations(double maxLatitude, double minDelta, double maxDelta) {
+    double latitude = (random.nextDouble() * 2.0 - 1.0) * maxLatitude;
+    double longitude = (random.nextDouble() * 2.0 - 1.0) * 180.0;
+    start.setLatitude(latitude);
+    start.setLongitude(longitude);
+    double deltaLatitude = minDelta + random.nextDouble() * (maxDelta - minDelta);
+    end.setLatitude(Math.max(-90.0, Math.min(90.0,
+        latitude + (random.nextBoolean() ? deltaLatitude : -deltaLatitude))));
+    double endLongitude = longitude + (random.nextDouble() * 2.0 - 1.0) * maxDelta;
+    end.setLongitude(endLongitude > 180.0 ? endLongitude - 360.0
+        : endLongitude < -180.0 ? endLongitude + 360.0 : endLongitude);
+  }
+
+  private double distance(Location location1, Location location2) {
+    return DistanceUtils.distance(location1.getLatitude(), location1.getLongitude(),
+        location2.getLatitude(), location2.getLongitude());
+  }
+
+  private double bearing(Location location1, Location location2) {
+    return DistanceUtils.bearing(location1.getLatitude(), location1.getLongitude(),
+        location2.getLatitude(), location2.getLongitude());
+  }
+
+  /**
+   * Gets the difference of two bearings, in [0, 180].
+   */
+  private double getBearingDifference(double bearing1, double bearing2) {
+    double difference = Math.abs(bearing1 - bearing2) % 360.0;
+    return difference > 180.0 ? 360.0 - difference : difference;
+  }
+}
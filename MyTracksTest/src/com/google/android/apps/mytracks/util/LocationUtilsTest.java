@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
+import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the {@link DistanceUtils} and the {@link Location} paths of
+ * {@link LocationUtils} agree on the same track.
+ */
+public class LocationUtilsTest extends AndroidTestCase {
+
+  private static final int NUMBER_OF_POINTS = 200;
+  private static final long START_TIME = 1000L;
+
+  // The max error per point, in meters and degrees
+  private static final double MAX_DISTANCE_ERROR = 0.01;
+  private static final double MAX_BEARING_ERROR = 1e-3;
+
+  @Override
+  protected void tearDown() throws Exception {
+    LocationUtils.setUseDistanceUtils(PreferencesUtils.FAST_DISTANCE_DEFAULT);
+    super.tearDown();
+  }
+
+  /**
+   * Tests {@link LocationUtils#distance(Location, Location)} and
+   * {@link LocationUtils#bearing(Location, Location)}.
+   */
+  public void testDistanceAndBearing() {
+    List<Location> locations = createTrack();
+    for (int i = 1; i < locations.size(); i++) {
+      Location start = locations.get(i - 1);
+      Location end = locations.get(i);
+      LocationUtils.setUseDistanceUtils(false);
+      double distance = LocationUtils.distance(start, end);
+      float bearing = LocationUtils.bearing(start, end);
+      LocationUtils.setUseDistanceUtils(true);
+      assertEquals(distance, LocationUtils.distance(start, end), MAX_DISTANCE_ERROR);
+      assertEquals(bearing, LocationUtils.bearing(start, end), MAX_BEARING_ERROR);
+    }
+  }
+
+  /**
+   * Tests the total distance of the track computed by the
+   * {@link TripStatisticsUpdater}.
+   */
+  public void testTotalDistance() {
+    LocationUtils.setUseDistanceUtils(false);
+    double totalDistance = getTotalDistance(createTrack());
+    LocationUtils.setUseDistanceUtils(true);
+    assertTrue(totalDistance > 0.0);
+    assertEquals(totalDistance, getTotalDistance(createTrack()),
+        MAX_DISTANCE_ERROR * NUMBER_OF_POINTS);
+  }
+
+  /**
+   * Tests {@link LocationUtils#decimate(Track, double)} keeps the same points.
+   */
+  public void testDecimate() {
+    LocationUtils.setUseDistanceUtils(false);
+    List<Location> expected = decimate(createTrack());
+    LocationUtils.setUseDistanceUtils(true);
+    List<Location> actual = decimate(createTrack());
+
+    assertTrue(expected.size() < NUMBER_OF_POINTS);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getTime(), actual.get(i).getTime());
+    }
+  }
+
+  /**
+   * Gets the total distance of a track.
+   *
+   * @param locations the locations of the track
+   */
+  private double getTotalDistance(List<Location> locations) {
+    TripStatisticsUpdater tripStatisticsUpdater = new TripStatisticsUpdater(START_TIME);
+    for (Location location : locations) {
+      tripStatisticsUpdater.addLocation(
+          location, PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, false,
+          ActivityType.INVALID, 0.0);
+    }
+    return tripStatisticsUpdater.getTripStatistics().getTotalDistance();
+  }
+
+  /**
+   * Decimates a track to 2 meters.
+   *
+   * @param locations the locations of the track
+   */
+  private List<Location> decimate(ArrayList<Location> locations) {
+    Track track = new Track();
+    track.setLocations(locations);
+    LocationUtils.decimate(track, 2.0);
+    return track.getLocations();
+  }
+
+  /**
+   * Creates a track heading north east, with straight stretches and a turn
+   * every 20 points.
+   */
+  private ArrayList<Location> createTrack() {
+    ArrayList<Location> locations = new ArrayList<Location>(NUMBER_OF_POINTS);
+    double latitude = 45.0;
+    double longitude = 7.0;
+    for (int i = 0; i < NUMBER_OF_POINTS; i++) {
+      if ((i / 20) % 2 == 0) {
+        latitude += 0.0001;
+      } else {
+        longitude += 0.0001;
+      }
+      Location location = new Location("gps");
+      location.setLatitude(latitude);
+      location.setLongitude(longitude);
+      location.setAccuracy(5.0f);
+      location.setSpeed(5.0f);
+      location.setTime(START_TIME + i * 2000L);
+      locations.add(location);
+    }
+    return locations;
+  }
+}
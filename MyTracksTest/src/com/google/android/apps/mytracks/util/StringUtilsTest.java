@@ -35,6 +35,34 @@ public class StringUtilsTest extends AndroidTestCase {
     assertEquals("1970-01-01T00:00:12.345Z", StringUtils.formatDateTimeIso8601(12345));
   }
 
+  /**
+   * Tests {@link StringUtils#formatDateTimeIso8601(long)} from several threads,
+   * as when tracks are saved in parallel.
+   */
+  public void testFormatDateTimeIso8601_threads() throws InterruptedException {
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final long time = i * 1000L;
+      final String expected = "1970-01-01T00:00:0" + i + ".000Z";
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            if (!expected.equals(StringUtils.formatDateTimeIso8601(time))) {
+              failed[0] = true;
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed[0]);
+  }
+
   /**
    * Tests {@link StringUtils#formatElapsedTime(long)}.
    */
@@ -140,6 +168,73 @@ public class StringUtilsTest extends AndroidTestCase {
     assertGetTime("2010-05-04T03:02:01.8-05:30", 2010, 5, 4, 8, 32, 1, 800);
   }
 
+  /**
+   * Tests {@link StringUtils#getTime(String)} with leap days, days rolling
+   * over, and dates not in the yyyy-MM-ddTHH:mm:ss form.
+   */
+  public void testGetTime_dates() {
+    assertGetTime("2012-02-29T23:59:59Z", 2012, 2, 29, 23, 59, 59, 0);
+    assertGetTime("2000-02-29T00:00:00Z", 2000, 2, 29, 0, 0, 0, 0);
+    assertGetTime("2010-02-31T00:00:00Z", 2010, 3, 3, 0, 0, 0, 0);
+    assertGetTime("1969-12-31T23:59:59.999Z", 1969, 12, 31, 23, 59, 59, 999);
+    assertGetTime("2010-5-4T3:2:1Z", 2010, 5, 4, 3, 2, 1, 0);
+    assertGetTime("2010-5-4T3:2:1.5+01:00", 2010, 5, 4, 2, 2, 1, 500);
+  }
+
+  /**
+   * Tests {@link StringUtils#getTime(String)} with invalid values.
+   */
+  public void testGetTime_invalid() {
+    assertInvalidTime("invalid");
+    assertInvalidTime("2010-05-04T03:02:01.");
+    assertInvalidTime("2010-05-04T03:02:01Zx");
+    assertInvalidTime("2010-05-04T03:02:01+1:00");
+    assertInvalidTime("2010-05-04T03:02:01+15:00");
+  }
+
+  /**
+   * Tests {@link StringUtils#getTime(String)} from several threads, as when
+   * files are imported in parallel.
+   */
+  public void testGetTime_threads() throws InterruptedException {
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final String xmlDateTime = "1970-1-1T0:0:0" + i;
+      final long expected = i * 1000L;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            if (StringUtils.getTime(xmlDateTime) != expected) {
+              failed[0] = true;
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed[0]);
+  }
+
+  /**
+   * Asserts the {@link StringUtils#getTime(String)} throws an
+   * {@link IllegalArgumentException}.
+   * 
+   * @param xmlDateTime the xml date time string
+   */
+  private void assertInvalidTime(String xmlDateTime) {
+    try {
+      StringUtils.getTime(xmlDateTime);
+      fail(xmlDateTime);
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
   /**
    * Asserts the {@link StringUtils#getTime(String)} returns the expected
    * values.